@@ -54,6 +54,8 @@ public class BackgroundStatus implements Serializable {
     public static final String USER_DESC     =  "USER_DESC_#";
     public static final String RESPONSE_CNT =   "RESPONSE_CNT";
     public static final String ACTIVE_REQUEST_CNT ="ACTIVE_REQUEST_CNT";
+    public static final String QUEUE_WAIT_MS =  "QUEUE_WAIT_MS";
+    public static final String RUN_MS =         "RUN_MS";
     // ---->
 
     protected static final String URL_SUB = "URL_PARAM_SEP";
@@ -430,6 +432,18 @@ public class BackgroundStatus implements Serializable {
     public String getDataTag() { return getParam(DATA_TAG); }
     public void setDataTag(String dataTag) { setParam(DATA_TAG, dataTag); }
 
+    /**
+     * @return the time the job waited in the queue before it started
+     */
+    public long getQueueWaitMills() { return getLongParam(QUEUE_WAIT_MS, 0L); }
+    public void setQueueWaitMills(long mills) { setParam(QUEUE_WAIT_MS, mills+""); }
+
+    /**
+     * @return the time the job ran
+     */
+    public long getRunMills() { return getLongParam(RUN_MS, 0L); }
+    public void setRunMills(long mills) { setParam(RUN_MS, mills+""); }
+
     /**
      * @return processed bytes if all bundles were processed successfully, otherwise previously estimated size in bytes
      */
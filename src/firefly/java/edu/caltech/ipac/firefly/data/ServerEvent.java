@@ -25,6 +25,7 @@ public class ServerEvent implements Serializable {
     private DataType dataType = DataType.STRING;
     private Serializable data;
     private String from;
+    private long firedTime;     // when it was fired on the server, used to measure delivery latency
 //======================================================================
 //----------------------- Constructors ---------------------------------
 //======================================================================
@@ -73,6 +74,14 @@ public class ServerEvent implements Serializable {
         this.from = from;
     }
 
+    public long getFiredTime() {
+        return firedTime;
+    }
+
+    public void setFiredTime(long firedTime) {
+        this.firedTime = firedTime;
+    }
+
     public String toJsonString() {
         StringBuffer sb = new StringBuffer("{");
         sb.append("\"name\":\"").append(name.getName()).append("\", ");
@@ -163,6 +163,7 @@ public class ServerParams {
     public static final String GET_IMAGE_MASTER_DATA= "getImageMasterData";
     public static final String GET_FLOAT_DATA= "getFloatData";
     public static final String GET_BYTE_DATA= "getStretchedByteData";
+    public static final String GET_BYTE_DATA_PROGRESSIVE= "getProgressiveStretchedByteData";
 
     public static final String USER_TARGET_WORLD_PT = "UserTargetWorldPt";
 
@@ -177,6 +178,7 @@ public class ServerParams {
     public static final String INIT_APP = "CmdInitApp";
     public static final String LOGOUT = "CmdLogout";
     public static final String TILE_SIZE = "tileSize";
+    public static final String VIEWPORT = "viewport";
 
     //Workspaces
     public static final String WS_LIST = "wsList"; // Gets the list of content/files
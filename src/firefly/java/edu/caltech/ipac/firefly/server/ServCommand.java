@@ -3,6 +3,10 @@ package edu.caltech.ipac.firefly.server;
 import org.json.simple.JSONArray;
 import org.json.simple.JSONObject;
 import edu.caltech.ipac.firefly.server.util.Logger;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
 import javax.servlet.ServletOutputStream;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
@@ -20,7 +24,22 @@ public abstract class ServCommand extends ServerCommandAccess.HttpCommand {
     public void processRequest(HttpServletRequest req, HttpServletResponse res, SrvParam sp) throws Exception {
         JSONObject json=new JSONObject();
         String jsonData;
+        ResultWriter resultWriter = null;
         try {
+            resultWriter = getCanCreateJson() ? doStreamCommand(new SrvParam(sp.getParamMap())) : null;
+            if (resultWriter != null) {
+                // the result is written after the command succeeded; an error while writing can only be logged
+                res.setContentType(resultWriter.getContentType());
+                try (OutputStream out = res.getOutputStream()) {
+                    resultWriter.write(out);
+                } catch (IOException e) {
+                    _log.info("Unable to send the result of " + getClass().getSimpleName() + ": " + e.getMessage());
+                } catch (Exception e) {
+                    _log.error(e, "Failed while sending the result of " + getClass().getSimpleName() + ": " + e.getMessage());
+                }
+                return;
+            }
+
             String result = doCommand(new SrvParam(sp.getParamMap()));
 
             if (getCanCreateJson()) {
@@ -55,6 +74,29 @@ public abstract class ServCommand extends ServerCommandAccess.HttpCommand {
     public boolean getCanCreateJson() { return true; }
     public abstract String doCommand(SrvParam params) throws Exception;
 
+    /**
+     * Override this to write a large JSON result straight to the response, instead of returning it as a
+     * String from doCommand.  The work that may fail should be done here; the returned writer only
+     * sends the result.
+     * @return the writer of the result, or null to use doCommand
+     */
+    public ResultWriter doStreamCommand(SrvParam params) throws Exception { return null; }
+
+    /**
+     * For a doCommand that only delegates to doStreamCommand.
+     * @return the result of doStreamCommand as a String
+     */
+    protected String streamToString(SrvParam params) throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        doStreamCommand(params).write(out);
+        return out.toString("UTF-8");
+    }
+
+    public interface ResultWriter {
+        void write(OutputStream out) throws IOException;
+        default String getContentType() { return "application/json"; }
+    }
+
     private static String makeOneEntryArray(JSONObject entry) {
         JSONArray jArray = new JSONArray();
         jArray.add(entry);
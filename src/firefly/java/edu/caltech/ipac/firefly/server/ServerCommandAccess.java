@@ -54,6 +54,7 @@ public class ServerCommandAccess {
         _cmdMap.put(ServerParams.FITS_HEADER,  new VisServerCommands.FitsHeader());   //LZ 3/21/16  DM-4494
         _cmdMap.put(ServerParams.GET_FLOAT_DATA,  new VisServerCommands.FloatAryCmd());
         _cmdMap.put(ServerParams.GET_BYTE_DATA,  new VisServerCommands.ByteAryCmd());
+        _cmdMap.put(ServerParams.GET_BYTE_DATA_PROGRESSIVE,  new VisServerCommands.ProgressiveByteAryCmd());
 
         _cmdMap.put(ServerParams.IMAGE_PNG,    new VisServerCommands.GetImagePng());
         _cmdMap.put(ServerParams.IMAGE_PNG_REG,    new VisServerCommands.GetImagePngWithRegion());
@@ -8,6 +8,7 @@ import edu.caltech.ipac.firefly.server.ServerContext;
 import edu.caltech.ipac.firefly.server.util.Logger;
 import edu.caltech.ipac.util.AppProperties;
 import edu.caltech.ipac.util.StringUtils;
+import edu.caltech.ipac.table.io.SpillTableIO;
 import edu.caltech.ipac.util.cache.Cache;
 import edu.caltech.ipac.util.cache.CacheKey;
 import edu.caltech.ipac.util.download.URLDownload;
@@ -307,6 +308,10 @@ public class EhcacheProvider implements Cache.Provider {
                 if (success) logger.debug("EHCACHE: delete file=" + f);
                 else logger.warn("EHCACHE: FAILED to delete file: " + f);
             }
+            if (f != null) {
+                File spill= SpillTableIO.getSpillFile(f);   // the table read from this file, if it was spilled
+                if (spill.exists() && !spill.delete()) logger.warn("EHCACHE: FAILED to delete file: " + spill);
+            }
         }
 
 
@@ -269,6 +269,7 @@ abstract public class BaseDbAdapter implements DbAdapter {
             }
             dbInstances.remove(db.dbFile.getPath());
         }
+        ResultSetCache.removeAll(dbFile);
         if (deleteFile) removeDbFiles(dbFile);
     }
 
@@ -379,6 +380,7 @@ abstract public class BaseDbAdapter implements DbAdapter {
                         (sql) -> JdbcFactory.getSimpleTemplate(db).update(sql));
             }
         }
+        ResultSetCache.removeAll(db.getDbFile());
         db.setCompact(true);
         db.setTblCount(1);
     }
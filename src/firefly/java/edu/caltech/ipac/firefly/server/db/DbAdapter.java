@@ -214,6 +214,12 @@ public interface DbAdapter {
         public long peakMemRows;
         public long peakMaxMemRows;
         public long lastCleanup;
+        public long resultSetCount;         // result set tables currently cached
+        public long resultSetRows;          // rows in cached result set tables
+        public long resultSetHits;
+        public long resultSetMisses;
+        public long resultSetRefined;       // result sets created from a cached result set instead of DATA
+        public long resultSetEvictions;
     }
 
     }
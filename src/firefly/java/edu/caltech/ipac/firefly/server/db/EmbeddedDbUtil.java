@@ -14,6 +14,7 @@ import edu.caltech.ipac.firefly.server.query.SearchManager;
 import edu.caltech.ipac.firefly.server.query.SearchProcessor;
 import edu.caltech.ipac.firefly.server.util.Logger;
 import edu.caltech.ipac.table.*;
+import edu.caltech.ipac.table.io.TableRowSink;
 import edu.caltech.ipac.util.StringUtils;
 import org.springframework.jdbc.core.BatchPreparedStatementSetter;
 import org.springframework.jdbc.core.JdbcTemplate;
@@ -28,6 +29,15 @@ import java.io.IOException;
 import java.sql.*;
 import java.util.*;
 import java.util.Date;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
 import java.util.stream.Collectors;
 
 import static edu.caltech.ipac.firefly.data.TableServerRequest.TBL_FILE_PATH;
@@ -76,7 +86,7 @@ public class EmbeddedDbUtil {
         createDataTbl(dbFile, dg, dbAdapter, forTable);
         ddToDb(dbFile, dg, dbAdapter, forTable);
         metaToDb(dbFile, dg, dbAdapter, forTable);
-        auxDataToDb(dbFile, dg, dbAdapter, forTable);
+        auxDataToDb(dbFile, dg, dg.size(), dbAdapter, forTable);
         FileInfo finfo = new FileInfo(dbFile);
         return finfo;
     }
@@ -343,7 +353,7 @@ public class EmbeddedDbUtil {
         return 0;
     }
 
-    private static void auxDataToDb(File dbFile, DataGroup dg, DbAdapter dbAdapter, String tblName) {
+    private static void auxDataToDb(File dbFile, DataGroup dg, int rowCount, DbAdapter dbAdapter, String tblName) {
 
         String createAuxDataSql = dbAdapter.createAuxDataSql(tblName);
         JdbcFactory.getSimpleTemplate(dbAdapter.getDbInstance(dbFile)).update(createAuxDataSql);
@@ -352,7 +362,7 @@ public class EmbeddedDbUtil {
         data.add( new Object[]
                 {
                         dg.getTitle(),
-                        dg.size(),
+                        rowCount,
                         dg.getGroupInfos(),
                         dg.getLinkInfos(),
                         dg.getParamInfos(),
@@ -522,16 +532,23 @@ public class EmbeddedDbUtil {
 
 
     private static void doTableLoad(JdbcTemplate jdbc, String insertDataSql, DataGroup data) {
+        doTableLoad(jdbc, insertDataSql, data, data.getDataDefinitions(), 0);
+    }
+
+    /**
+     * insert the given data, followed by ROW_IDX and ROW_NUM
+     * @param cols      the columns to insert, in the order of the insert statement
+     * @param startIdx  ROW_IDX of the first row in data
+     */
+    private static void doTableLoad(JdbcTemplate jdbc, String insertDataSql, DataGroup data, DataType[] cols, int startIdx) {
 
         jdbc.batchUpdate(insertDataSql, new BatchPreparedStatementSetter() {
             public void setValues(PreparedStatement ps, int i) throws SQLException {
-                Object[] row = data.get(i).getData();
-                Object[] rowWithIdx = new Object[ row.length + 2];
-                System.arraycopy(row, 0, rowWithIdx, 0, row.length);
-                rowWithIdx[row.length] = i;
-                rowWithIdx[row.length+1] = i;
-
-                for (int cidx = 0; cidx < rowWithIdx.length; cidx++) ps.setObject(cidx+1, rowWithIdx[cidx]);
+                for (int cidx = 0; cidx < cols.length; cidx++) {
+                    ps.setObject(cidx+1, data.getData(cols[cidx].getKeyName(), i));
+                }
+                ps.setObject(cols.length+1, startIdx + i);
+                ps.setObject(cols.length+2, startIdx + i);
             }
             public int getBatchSize() {
                 return data.size();
@@ -561,6 +578,163 @@ public class EmbeddedDbUtil {
     }
 
 
+//====================================================================
+//  streaming ingest
+//====================================================================
+
+    /**
+     * A TableRowSink that loads the rows it receives into a table of the given database.
+     * Rows are inserted by a separate thread, so reading a table overlaps with inserting it.  Batches waiting
+     * to be inserted are held in a bounded queue; when the reader is faster than the database, it waits
+     * instead of accumulating rows in memory.
+     * DD, META, and AUX data are saved at the end, after the reader has finalized the column info.
+     */
+    public static class DbTableSink implements TableRowSink {
+        private static final int MAX_PENDING_BATCHES = 4;
+        private static final DataGroup END_OF_DATA = new DataGroup();
+        private static final AtomicInteger loaderCnt = new AtomicInteger();
+        private static final ExecutorService loaderPool = Executors.newCachedThreadPool(r -> {
+            Thread t = new Thread(r, "db-loader-" + loaderCnt.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        });
+
+        private final File dbFile;
+        private final DbAdapter dbAdapter;
+        private final String tblName;
+        private final Consumer<DataGroup> onHeader;
+        private final BlockingQueue<DataGroup> queue = new ArrayBlockingQueue<>(MAX_PENDING_BATCHES);
+        private DataType[] dataCols;
+        private Future<?> loader;
+        private volatile Exception loadError;
+        private volatile boolean aborted;
+
+        /**
+         * @param dbFile    the database file to load into.  It should already be created.
+         * @param dbAdapter DbAdapter to use.. ie sqlite, h2, etc.
+         * @param tblName   the name of the table to ingest to
+         * @param onHeader  if not null, called with the table's header before it is saved.
+         */
+        public DbTableSink(File dbFile, DbAdapter dbAdapter, String tblName, Consumer<DataGroup> onHeader) {
+            this.dbFile = dbFile;
+            this.dbAdapter = dbAdapter;
+            this.tblName = tblName;
+            this.onHeader = onHeader;
+        }
+
+        public void start(DataGroup header) throws IOException {
+            if (onHeader != null) onHeader.accept(header);
+
+            // remove ROW_IDX or ROW_NUM if exists
+            // these are transient values and should not be persisted.
+            header.removeDataDefinition(DataGroup.ROW_IDX);
+            header.removeDataDefinition(DataGroup.ROW_NUM);
+            IpacTableUtil.consumeColumnInfo(header);
+
+            dataCols = header.getDataDefinitions();
+            DataType[] colsAry = makeDbCols(header);
+            String createDataSql = dbAdapter.createDataSql(colsAry, tblName);
+            JdbcFactory.getSimpleTemplate(dbAdapter.getDbInstance(dbFile)).update(createDataSql);
+
+            String insertDataSql = dbAdapter.insertDataSql(colsAry, tblName);
+            loader = loaderPool.submit(() -> load(insertDataSql));
+        }
+
+        public void rows(DataGroup batch) throws IOException {
+            enqueue(batch);
+        }
+
+        public void end(DataGroup header, int rowCount) throws IOException {
+            enqueue(END_OF_DATA);
+            try {
+                loader.get();
+            } catch (InterruptedException e) {
+                abort();
+                throw new IOException("Interrupted while loading data into the database", e);
+            } catch (ExecutionException e) {
+                if (loadError == null) loadError = e;
+            }
+            checkError();
+
+            ddToDb(dbFile, header, dbAdapter, tblName);
+            metaToDb(dbFile, header, dbAdapter, tblName);
+            auxDataToDb(dbFile, header, rowCount, dbAdapter, tblName);
+        }
+
+        /**
+         * Stops the loading if it is still running.  Use this to clean up when reading
+         * fails before end is called.  It has no effect once end has returned.
+         * The loader is not interrupted; an interrupt during database IO closes the database's file channel.
+         */
+        public void abort() {
+            aborted = true;
+            queue.clear();
+            if (loader != null && !loader.isDone()) {
+                queue.offer(END_OF_DATA);       // wake up the loader if it is waiting for the next batch
+                try {
+                    loader.get();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                } catch (ExecutionException ignored) {}
+            }
+            queue.clear();
+        }
+
+        private void enqueue(DataGroup batch) throws IOException {
+            try {
+                // wait for room in the queue, but stop waiting if loading has failed.
+                while (!queue.offer(batch, 1, TimeUnit.SECONDS)) {
+                    checkError();
+                }
+                checkError();
+            } catch (InterruptedException e) {
+                abort();
+                throw new IOException("Interrupted while loading data into the database", e);
+            }
+        }
+
+        private void checkError() throws IOException {
+            if (loadError != null) {
+                throw new IOException("Unable to load data into the database: " + loadError.getMessage(), loadError);
+            }
+        }
+
+        private void load(String insertDataSql) {
+            try {
+                JdbcTemplate jdbc = JdbcFactory.getTemplate(dbAdapter.getDbInstance(dbFile));
+                if (dbAdapter.useTxnDuringLoad()) {
+                    TransactionTemplate txnJdbc = JdbcFactory.getTransactionTemplate(jdbc.getDataSource());
+                    txnJdbc.execute(new TransactionCallbackWithoutResult() {
+                        public void doInTransactionWithoutResult(TransactionStatus status) {
+                            loadBatches(jdbc, insertDataSql);
+                        }
+                    });
+                } else {
+                    loadBatches(jdbc, insertDataSql);
+                }
+            } catch (Exception e) {
+                if (!aborted) logger.error(e);
+                loadError = e;
+                queue.clear();          // release the pending batches
+            }
+        }
+
+        private void loadBatches(JdbcTemplate jdbc, String insertDataSql) {
+            try {
+                int rowIdx = 0;
+                for (DataGroup batch = queue.take(); batch != END_OF_DATA; batch = queue.take()) {
+                    if (aborted) break;
+                    doTableLoad(jdbc, insertDataSql, batch, dataCols, rowIdx);
+                    rowIdx += batch.size();
+                    batch.clearData();
+                }
+                if (aborted) throw new IllegalStateException("Loading of " + tblName + " was aborted");
+            } catch (InterruptedException e) {
+                throw new IllegalStateException("Loading of " + tblName + " was aborted");
+            }
+        }
+    }
+
     /**
      * This function is to test if a table exists in the given database.
      * It's using a get count and catches exception to determine if the given table exists.
@@ -0,0 +1,241 @@
+/*
+ * License information at https://github.com/Caltech-IPAC/firefly/blob/master/License.txt
+ */
+package edu.caltech.ipac.firefly.server.db;
+
+import edu.caltech.ipac.firefly.server.db.spring.JdbcFactory;
+import edu.caltech.ipac.firefly.server.util.Logger;
+import edu.caltech.ipac.util.AppProperties;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Keeps track of the result set tables derived from the main DATA table, i.e. sorted or filtered tables.
+ * Tables are kept in least-recently-used order.  When the total number of rows in these tables exceeds
+ * DbAdapter.resultset.max.rows, the least recently used tables are dropped.
+ *
+ * A result set created by filters only can also be used as the starting point of a request that adds
+ * more filters to it, instead of filtering the full DATA table again.
+ *
+ * A table is pinned while a request reads from it, and pinned tables are never dropped.  Tables are dropped
+ * outside of the cache's lock; until its drop is done, a table of the same name is not re-created.
+ *
+ * Hits, misses, and evictions are recorded in {@link DbAdapter.EmbeddedDbStats}.
+ */
+public class ResultSetCache {
+    private static final Logger.LoggerImpl LOGGER = Logger.getLogger();
+    private static final String MAX_ROWS_PROP = "DbAdapter.resultset.max.rows";
+
+    private static final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(16, .75f, true);
+    private static final Set<String> dropping = new HashSet<>();      // keys of the tables being dropped; guarded by entries
+
+    /**
+     * Mark the given table as recently used, and pin it.  The returned entry must be released when done with the table.
+     * @param dbAdapter the adapter of the database
+     * @param dbFile    the database file
+     * @param tblName   the result set table
+     * @return the pinned entry, or null if the table is not in the cache
+     */
+    public static Entry acquire(DbAdapter dbAdapter, File dbFile, String tblName) {
+        synchronized (entries) {
+            Entry e = pin(dbFile, tblName);
+            if (e != null) dbAdapter.getRuntimeStats().resultSetHits++;
+            return e;
+        }
+    }
+
+    /**
+     * Same as {@link #acquire(DbAdapter, File, String)}, but not counted as a hit.  Used right after the table is added.
+     */
+    public static Entry pin(File dbFile, String tblName) {
+        synchronized (entries) {
+            Entry e = entries.get(key(dbFile, tblName));
+            if (e != null) e.refs++;
+            return e;
+        }
+    }
+
+    /**
+     * Unpin the given entry, so its table may be dropped.
+     * @param e the entry returned by acquire, pin or findBase.  Ignored when null.
+     */
+    public static void release(Entry e) {
+        if (e == null) return;
+        synchronized (entries) {
+            e.refs--;
+        }
+    }
+
+    /**
+     * @return true if the given table is in the cache
+     */
+    public static boolean contains(File dbFile, String tblName) {
+        synchronized (entries) {
+            return entries.containsKey(key(dbFile, tblName));
+        }
+    }
+
+    /**
+     * Wait until the given table is no longer being dropped.  Call before checking whether the table exists
+     * in order to create it.
+     */
+    public static void awaitDrop(File dbFile, String tblName) throws InterruptedException {
+        String key = key(dbFile, tblName);
+        synchronized (entries) {
+            try {
+                while (dropping.contains(key)) entries.wait();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw e;
+            }
+        }
+    }
+
+    /**
+     * Add a newly created table to the cache, then drop least recently used tables that are not pinned
+     * if the cache is over its limit.
+     * @param dbAdapter the adapter of the database
+     * @param dbFile    the database file
+     * @param tblName   the result set table
+     * @param filters   the filters applied to DATA to create this table, if it has all of the columns and no
+     *                  sqlFilter.  null if this table cannot be used as the starting point of other filters.
+     */
+    public static void add(DbAdapter dbAdapter, File dbFile, String tblName, List<String> filters) {
+        DbInstance dbInstance = dbAdapter.getDbInstance(dbFile);
+        int rows = JdbcFactory.getSimpleTemplate(dbInstance).queryForInt("select count(*) from " + tblName);
+        List<Entry> evicted = new ArrayList<>();
+        synchronized (entries) {
+            DbAdapter.EmbeddedDbStats stats = dbAdapter.getRuntimeStats();
+            Entry e = new Entry(dbAdapter, dbFile, tblName, filters, rows);
+            Entry prev = entries.put(key(dbFile, tblName), e);
+            if (prev != null) stats.resultSetRows -= prev.rows;
+            stats.resultSetMisses++;
+            stats.resultSetRows += rows;
+            stats.resultSetCount = entries.size();
+
+            long maxRows = maxRows();
+            for (Iterator<Entry> itr = entries.values().iterator(); itr.hasNext() && stats.resultSetRows > maxRows; ) {
+                Entry lru = itr.next();
+                if (lru != e && lru.refs <= 0) {
+                    itr.remove();
+                    dropping.add(key(lru.dbFile, lru.tblName));
+                    evicted.add(lru);
+                    stats.resultSetRows -= lru.rows;
+                    stats.resultSetEvictions++;
+                }
+            }
+            stats.resultSetCount = entries.size();
+        }
+        for (Entry lru : evicted) {
+            try {
+                drop(lru);
+            } finally {
+                synchronized (entries) {
+                    dropping.remove(key(lru.dbFile, lru.tblName));
+                    entries.notifyAll();
+                }
+            }
+        }
+    }
+
+    /**
+     * Find the smallest cached result set of the given database that can be used as the starting point
+     * of the given filters.  Its filters are a subset of the given ones.  The entry is pinned, and must be released when done.
+     * @param dbAdapter the adapter of the database
+     * @param dbFile    the database file
+     * @param filters   the filters of the new request
+     * @return the pinned entry, or null if none applies
+     */
+    public static Entry findBase(DbAdapter dbAdapter, File dbFile, List<String> filters) {
+        if (filters == null || filters.size() < 2) return null;
+        synchronized (entries) {
+            Entry base = null;
+            for (Entry e : entries.values()) {
+                if (e.dbFile.equals(dbFile) && e.filters != null && e.filters.size() > 0
+                        && e.filters.size() < filters.size() && filters.containsAll(e.filters)
+                        && (base == null || e.rows < base.rows)) {
+                    base = e;
+                }
+            }
+            if (base != null) {
+                entries.get(key(dbFile, base.tblName));     // mark as recently used
+                base.refs++;
+                dbAdapter.getRuntimeStats().resultSetRefined++;
+            }
+            return base;
+        }
+    }
+
+    /**
+     * Forget all of the result sets of the given database.  Called when its temporary tables are removed.
+     * @param dbFile    the database file
+     */
+    public static void removeAll(File dbFile) {
+        synchronized (entries) {
+            for (Iterator<Entry> itr = entries.values().iterator(); itr.hasNext(); ) {
+                Entry e = itr.next();
+                if (e.dbFile.equals(dbFile)) {
+                    itr.remove();
+                    DbAdapter.EmbeddedDbStats stats = e.dbAdapter.getRuntimeStats();
+                    stats.resultSetRows -= e.rows;
+                    stats.resultSetCount = entries.size();
+                }
+            }
+        }
+    }
+
+    /**
+     * @return the maximum number of rows kept in result set tables, across all databases.
+     */
+    public static long maxRows() {
+        return AppProperties.getLongProperty(MAX_ROWS_PROP, DbAdapter.maxMemRows() / 2);
+    }
+
+    private static String key(File dbFile, String tblName) {
+        return dbFile.getPath() + "|" + tblName.toUpperCase();
+    }
+
+    private static void drop(Entry e) {
+        try {
+            DbInstance dbInstance = e.dbAdapter.getDbInstance(e.dbFile);
+            for (String tbl : new String[] {e.tblName, e.tblName + "_dd", e.tblName + "_meta", e.tblName + "_aux"}) {
+                JdbcFactory.getSimpleTemplate(dbInstance).update(String.format("drop table %s if exists", tbl));
+            }
+        } catch (Exception ex) {
+            LOGGER.error(ex, "Unable to drop result set: " + e.tblName + " from " + e.dbFile.getPath());
+        }
+    }
+
+    public static class Entry implements AutoCloseable {
+        private final DbAdapter dbAdapter;
+        private final File dbFile;
+        private final String tblName;
+        private final List<String> filters;
+        private final int rows;
+        private int refs;          // number of requests using this table; guarded by entries
+
+        Entry(DbAdapter dbAdapter, File dbFile, String tblName, List<String> filters, int rows) {
+            this.dbAdapter = dbAdapter;
+            this.dbFile = dbFile;
+            this.tblName = tblName;
+            this.filters = filters == null ? null : Collections.unmodifiableList(new ArrayList<>(filters));
+            this.rows = rows;
+        }
+
+        public String getTblName() { return tblName; }
+        public List<String> getFilters() { return filters; }
+        public int getRows() { return rows; }
+
+        /**
+         * Release this entry.  Same as {@link ResultSetCache#release(Entry)}
+         */
+        public void close() { release(this); }
+    }
+}
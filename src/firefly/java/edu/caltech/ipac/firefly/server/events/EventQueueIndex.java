@@ -0,0 +1,98 @@
+/*
+ * License information at https://github.com/Caltech-IPAC/firefly/blob/master/License.txt
+ */
+package edu.caltech.ipac.firefly.server.events;
+
+import edu.caltech.ipac.firefly.data.ServerEvent;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The event queues of this node, indexed by channel, user key, and connection ID.  An event is only matched
+ * against the queues of its target, instead of against every open connection.
+ *
+ * Updates are synchronized; lookups are not, so delivery never waits on a connect or close.
+ */
+class EventQueueIndex {
+
+    private final Set<ServerEventQueue> all = ConcurrentHashMap.newKeySet();
+    private final Set<ServerEventQueue> serverQueues = ConcurrentHashMap.newKeySet();     // these get every event
+    private final Map<String, Set<ServerEventQueue>> byChannel = new ConcurrentHashMap<>();
+    private final Map<String, Set<ServerEventQueue>> byUserKey = new ConcurrentHashMap<>();
+    private final Map<String, Set<ServerEventQueue>> byConnID = new ConcurrentHashMap<>();
+
+    synchronized void add(ServerEventQueue queue) {
+        all.add(queue);
+        if (ServerEvent.SERVER_CONN_ID.equals(queue.getConnID())) serverQueues.add(queue);
+        add(byChannel, queue.getChannel(), queue);
+        add(byUserKey, queue.getUserKey(), queue);
+        add(byConnID, queue.getConnID(), queue);
+    }
+
+    synchronized boolean remove(ServerEventQueue queue) {
+        if (queue == null || !all.remove(queue)) return false;
+        serverQueues.remove(queue);
+        remove(byChannel, queue.getChannel(), queue);
+        remove(byUserKey, queue.getUserKey(), queue);
+        remove(byConnID, queue.getConnID(), queue);
+        return true;
+    }
+
+    /**
+     * @param ev the event
+     * @return the queues that may match the event; {@link ServerEventQueue#matches(ServerEvent)} still
+     * has to be checked, i.e. to not send an event back to where it came from.
+     */
+    Collection<ServerEventQueue> getCandidates(ServerEvent ev) {
+        ServerEvent.EventTarget target = ev.getTarget();
+        ServerEvent.Scope scope = target == null ? null : target.getScope();
+        Collection<ServerEventQueue> queues;
+        if (scope == ServerEvent.Scope.WORLD) {
+            return all;
+        } else if (scope == ServerEvent.Scope.CHANNEL) {
+            queues = get(byChannel, target.getChannel());
+        } else if (scope == ServerEvent.Scope.USER) {
+            queues = get(byUserKey, target.getUserKey());
+        } else if (scope == ServerEvent.Scope.SELF) {
+            queues = get(byConnID, target.getConnID());
+        } else {
+            queues = Collections.emptySet();
+        }
+        if (serverQueues.isEmpty()) return queues;
+
+        Set<ServerEventQueue> withServer = new LinkedHashSet<>(queues);
+        withServer.addAll(serverQueues);
+        return withServer;
+    }
+
+    Collection<ServerEventQueue> getAll() { return all; }
+
+    Collection<ServerEventQueue> getByChannel(String channel) { return get(byChannel, channel); }
+
+    Collection<ServerEventQueue> getByUserKey(String userKey) { return get(byUserKey, userKey); }
+
+    int size() { return all.size(); }
+
+    private static Collection<ServerEventQueue> get(Map<String, Set<ServerEventQueue>> index, String key) {
+        Set<ServerEventQueue> queues = key == null ? null : index.get(key);
+        return queues == null ? Collections.emptySet() : queues;
+    }
+
+    private static void add(Map<String, Set<ServerEventQueue>> index, String key, ServerEventQueue queue) {
+        if (key != null) index.computeIfAbsent(key, k -> ConcurrentHashMap.newKeySet()).add(queue);
+    }
+
+    private static void remove(Map<String, Set<ServerEventQueue>> index, String key, ServerEventQueue queue) {
+        if (key == null) return;
+        Set<ServerEventQueue> queues = index.get(key);
+        if (queues != null) {
+            queues.remove(queue);
+            if (queues.isEmpty()) index.remove(key);
+        }
+    }
+}
@@ -4,48 +4,171 @@
 
 
 package edu.caltech.ipac.firefly.server.events;
+import edu.caltech.ipac.firefly.server.ServerContext;
+import edu.caltech.ipac.firefly.server.cache.EhcacheImpl;
+import edu.caltech.ipac.firefly.server.util.Logger;
+import edu.caltech.ipac.util.AppProperties;
 import edu.caltech.ipac.util.FileUtil;
 import edu.caltech.ipac.util.cache.Cache;
 import edu.caltech.ipac.util.cache.CacheManager;
 import edu.caltech.ipac.util.cache.StringKey;
+import net.sf.ehcache.CacheException;
+import net.sf.ehcache.Ehcache;
+import net.sf.ehcache.Element;
+import net.sf.ehcache.event.CacheEventListener;
+import net.sf.ehcache.event.NotificationScope;
 
 import java.util.ArrayList;
-import java.util.Collections;
-import java.util.HashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
 
 /**
+ * The event queues of every node.  Each queue is replicated as its own cache entry, so a connect or a close
+ * only sends that one queue to the other nodes.  A local copy of all of the entries is kept up to date
+ * by listening to the cache, the same way CacheEventWorker receives events, and is indexed by channel and user key.
+ *
+ * The cache is persistent, so entries outlive the node that put them.  A node removes its own entries
+ * when it starts, and puts its queues again every refresh interval with a time to live of TTL_SECS.
+ * The entries of a node that has gone away are dropped once they have not been refreshed for that long.
+ *
  * @author Trey Roby
  */
 class ReplicatedQueueList {
 
+   private static final Logger.LoggerImpl LOG = Logger.getLogger();
    private static final String HOST_NAME= FileUtil.getHostname();
-   private static final StringKey REP_QUEUE_MAP = new StringKey("ReplicatedEventQueueMap");
+   private static final String REP_QUEUE_PREFIX = "ReplicatedEventQueue|";
+   private static final String HOST_PREFIX = REP_QUEUE_PREFIX + HOST_NAME + "|";
+   private static final int TTL_SECS = Math.max(3, AppProperties.getIntProperty("event.queue.replicate.ttl.secs", 300));
    private static Cache getCache() { return CacheManager.getCache(Cache.TYPE_PERM_SMALL); }
 
-   synchronized void setQueueListForNode(List<ServerEventQueue> list)  {
-      Cache cache= getCache();
-      List<ServerEventQueue>  replicatedList= new ArrayList<>();
+   private final Map<String, Entry> combined= new ConcurrentHashMap<>();
+   private final EventQueueIndex index= new EventQueueIndex();
 
-      for(ServerEventQueue q : list) {
-          replicatedList.add(new ServerEventQueue(q.getConnID(),q.getChannel(),q.getUserKey(),null));
-      }
-      Map allListMap= (Map)cache.get(REP_QUEUE_MAP);
-       if (allListMap==null) allListMap= new HashMap();
-       allListMap.put(HOST_NAME,replicatedList);
-       cache.put(REP_QUEUE_MAP, allListMap);
+   ReplicatedQueueList() {
+       Cache cache= getCache();
+       if (cache instanceof EhcacheImpl) {
+           Ehcache ehC= ((EhcacheImpl)cache).getEHcache();
+           ehC.getCacheEventNotificationService().registerListener(new QueueListener(), NotificationScope.ALL);
+           for(String key : cache.getKeys()) {
+               if (key.startsWith(HOST_PREFIX)) {
+                   cache.put(new StringKey(key), null);        // left from before this node restarted
+               }
+               else if (key.startsWith(REP_QUEUE_PREFIX)) {
+                   // entries replicated before this node started listening
+                   Object q= cache.get(new StringKey(key));
+                   if (q instanceof ServerEventQueue) putEntry(key, (ServerEventQueue)q);
+               }
+           }
+       }
+       int interval= TTL_SECS / 3;
+       ServerContext.SCHEDULE_TASK_EXEC.scheduleAtFixedRate(this::refresh, interval, interval, TimeUnit.SECONDS);
    }
 
-   synchronized List<ServerEventQueue> getCombinedNodeList()  {
-       Cache cache= getCache();
-       List<ServerEventQueue> retList= new ArrayList<>();
-       Map allListMap= (Map)cache.get(REP_QUEUE_MAP);
-       if (allListMap==null) return Collections.emptyList();
+   void addQueue(ServerEventQueue q) {
+       String key= makeKey(q);
+       ServerEventQueue repQ= new ServerEventQueue(q.getConnID(),q.getChannel(),q.getUserKey(),null);
+       putEntry(key, repQ);
+       getCache().put(new StringKey(key), repQ, TTL_SECS);
+   }
+
+   void removeQueue(ServerEventQueue q) {
+       String key= makeKey(q);
+       removeEntry(key);
+       getCache().put(new StringKey(key), null);
+   }
+
+   List<ServerEventQueue> getCombinedNodeList()  {
+       return new ArrayList<>(index.getAll());
+   }
+
+   /**
+    * @return the queues of every node that are on the given channel or belong to the given user
+    */
+   List<ServerEventQueue> getQueues(String channel, String userKey)  {
+       Set<ServerEventQueue> queues= new LinkedHashSet<>(index.getByChannel(channel));
+       queues.addAll(index.getByUserKey(userKey));
+       return new ArrayList<>(queues);
+   }
+
+   private static String makeKey(ServerEventQueue q) {
+       return HOST_PREFIX + q.toString();
+   }
+
+   private synchronized void putEntry(String key, ServerEventQueue q) {
+       Entry old= combined.put(key, new Entry(q));
+       if (old!=null) index.remove(old.queue);
+       index.add(q);
+   }
 
-       for(Object v : allListMap.values()) retList.addAll((List)v);
-       
-       return retList;
+   private synchronized void removeEntry(String key) {
+       Entry old= combined.remove(key);
+       if (old!=null) index.remove(old.queue);
    }
 
+   /**
+    * Put this node's queues again, so they do not expire, and drop the ones of other nodes that were not
+    * refreshed within their time to live.
+    */
+   private void refresh() {
+       try {
+           long expired= System.currentTimeMillis() - TimeUnit.SECONDS.toMillis(TTL_SECS);
+           Cache cache= getCache();
+           for(Map.Entry<String, Entry> e : combined.entrySet()) {
+               if (e.getKey().startsWith(HOST_PREFIX)) {
+                   cache.put(new StringKey(e.getKey()), e.getValue().queue, TTL_SECS);
+               }
+               else if (e.getValue().updated < expired) {
+                   removeEntry(e.getKey());
+               }
+           }
+       } catch (Exception e) {
+           LOG.error(e, "Unable to refresh the replicated event queues");
+       }
+   }
+
+   private static class Entry {
+       private final ServerEventQueue queue;
+       private final long updated= System.currentTimeMillis();
+
+       Entry(ServerEventQueue queue) { this.queue= queue; }
+   }
+
+   private class QueueListener implements CacheEventListener {
+       public void notifyElementPut(Ehcache ehcache, Element element) throws CacheException {
+           update(element);
+       }
+
+       public void notifyElementUpdated(Ehcache ehcache, Element element) throws CacheException {
+           update(element);
+       }
+
+       public void notifyElementRemoved(Ehcache ehcache, Element element) throws CacheException {
+           if (isQueueKey(element)) removeEntry((String)element.getObjectKey());
+       }
+
+       public void notifyElementExpired(Ehcache ehcache, Element element) {
+           if (isQueueKey(element)) removeEntry((String)element.getObjectKey());
+       }
+
+       public void notifyElementEvicted(Ehcache ehcache, Element element) { }
+       public void notifyRemoveAll(Ehcache ehcache) { }
+       public void dispose() { }
+       public Object clone() throws CloneNotSupportedException { return super.clone(); }
+
+       private void update(Element element) {
+           if (isQueueKey(element) && element.getObjectValue() instanceof ServerEventQueue) {
+               putEntry((String)element.getObjectKey(), (ServerEventQueue)element.getObjectValue());
+           }
+       }
+
+       private boolean isQueueKey(Element element) {
+           return element != null && element.getObjectKey() instanceof String &&
+                   ((String)element.getObjectKey()).startsWith(REP_QUEUE_PREFIX);
+       }
+   }
 }
@@ -15,8 +15,11 @@ import edu.caltech.ipac.firefly.server.util.Logger;
 import edu.caltech.ipac.firefly.util.event.Name;
 import edu.caltech.ipac.util.StringUtils;
 
+import java.util.ArrayList;
+import java.util.EnumMap;
 import java.util.List;
-import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * @author Trey Roby
@@ -26,12 +29,17 @@ public class ServerEventManager {
     private static final boolean USE_CACHE_EVENT_WORKER = true;
     private static final EventWorker eventWorker = USE_CACHE_EVENT_WORKER ?
                                                     new CacheEventWorker() : new SimpleEventWorker();
-    private static final List<ServerEventQueue> evQueueList= new CopyOnWriteArrayList<ServerEventQueue>();
+    private static final EventQueueIndex evQueues= new EventQueueIndex();
     private static final Logger.LoggerImpl LOG = Logger.getLogger();
-    private static long totalEventCnt;
-    private static long deliveredEventCnt;
+    private static final AtomicLong totalEventCnt= new AtomicLong();
+    private static final AtomicLong deliveredEventCnt= new AtomicLong();
+    private static final Map<ServerEvent.Scope, DeliveryStats> deliveryStats= new EnumMap<>(ServerEvent.Scope.class);
     private static ReplicatedQueueList repQueueList= new ReplicatedQueueList();
 
+    static {
+        for (ServerEvent.Scope scope : ServerEvent.Scope.values()) deliveryStats.put(scope, new DeliveryStats());
+    }
+
 
     /**
      * Send this action to the calling client, i.e Scope.SELF.
@@ -93,28 +101,36 @@ public class ServerEventManager {
             } else if (scope == ServerEvent.Scope.SELF && sev.getTarget().getConnID() == null) {
                 sev.getTarget().setConnID(ServerContext.getRequestOwner().getEventConnID());
             }
+            sev.setFiredTime(System.currentTimeMillis());
             eventWorker.deliver(sev);
         }
     }
 
     public static void addEventQueue(ServerEventQueue queue) {
         Logger.briefInfo("Channel: create new Queue for: "+ queue.getQueueID() );
-        evQueueList.add(queue);
-        repQueueList.setQueueListForNode(evQueueList);
+        evQueues.add(queue);
+        repQueueList.addQueue(queue);
     }
 
     static List<ServerEventQueue> getEvQueueList() {
-        return evQueueList;
+        return new ArrayList<>(evQueues.getAll());
     }
 
     static List<ServerEventQueue> getAllServerEvQueueList() {
         return repQueueList.getCombinedNodeList();
     }
 
+    /**
+     * @return the queues of all nodes that are on the given channel or belong to the given user
+     */
+    static List<ServerEventQueue> getAllServerEvQueueList(String channel, String userKey) {
+        return repQueueList.getQueues(channel, userKey);
+    }
+
     static void processEvent(ServerEvent ev) {
-        totalEventCnt++;
+        totalEventCnt.incrementAndGet();
         boolean delivered = false;
-        for(ServerEventQueue queue : evQueueList) {
+        for(ServerEventQueue queue : evQueues.getCandidates(ev)) {
             try {
                 if (queue.matches(ev)) {
                     try {
@@ -133,12 +149,18 @@ public class ServerEventManager {
                 LOG.warn(e, "Unexpected exception while processing event: " + ev + " for queue:" + queue == null ? "null" : queue.getQueueID());
             }
         }
-        if (delivered) deliveredEventCnt++;
+        if (delivered) {
+            deliveredEventCnt.incrementAndGet();
+            if (ev.getFiredTime() > 0) {
+                deliveryStats.get(ev.getTarget().getScope()).add(System.currentTimeMillis() - ev.getFiredTime());
+            }
+        }
     }
 
     public static void removeEventQueue(ServerEventQueue queue) {
-        evQueueList.remove(queue);
-        repQueueList.setQueueListForNode(evQueueList);
+        if (evQueues.remove(queue)) {
+            repQueueList.removeQueue(queue);
+        }
     }
 
 //====================================================================
@@ -147,7 +169,7 @@ public class ServerEventManager {
 
     public static int getActiveQueueCnt() {
         int cnt = 0;
-        for(ServerEventQueue queue : evQueueList) {
+        for(ServerEventQueue queue : evQueues.getAll()) {
             if (queue.getEventConnector().isOpen()) {
                 cnt++;
             }
@@ -165,7 +187,7 @@ public class ServerEventManager {
     public static int getActiveQueueChannelCnt(String channel) {
         int cnt = 0;
         if (StringUtils.isEmpty(channel)) return 0;
-        for(ServerEventQueue queue : evQueueList) {
+        for(ServerEventQueue queue : evQueues.getByChannel(channel)) {
             if (channel.equals(queue.getChannel()) && queue.getEventConnector().isOpen()) {
                 cnt++;
             } else {
@@ -177,11 +199,25 @@ public class ServerEventManager {
 
 
     public static long getTotalEventCnt() {
-        return totalEventCnt;
+        return totalEventCnt.get();
     }
 
     public static long getDeliveredEventCnt() {
-        return deliveredEventCnt;
+        return deliveredEventCnt.get();
+    }
+
+    /**
+     * @return the time from when an event is fired until it is delivered, for each scope
+     */
+    public static Map<ServerEvent.Scope, DeliveryStats> getDeliveryStats() {
+        return deliveryStats;
+    }
+
+    /**
+     * @return the depth of the outbound websocket queues, and the messages sent and dropped
+     */
+    public static String getSenderStats() {
+        return WebsocketSender.getStats();
     }
 
 
@@ -199,6 +235,29 @@ public class ServerEventManager {
         }
     }
 
+    public static class DeliveryStats {
+        private long count;
+        private long totalMs;
+        private long maxMs;
+
+        synchronized void add(long ms) {
+            count++;
+            totalMs += ms;
+            if (ms > maxMs) maxMs = ms;
+        }
+
+        public synchronized long getCount() { return count; }
+
+        public synchronized long getMaxMs() { return maxMs; }
+
+        public synchronized double getAvgMs() { return count == 0 ? 0 : (double) totalMs / count; }
+
+        @Override
+        public synchronized String toString() {
+            return String.format("delivered:%d  avg:%.1fms  max:%dms", count, getAvgMs(), maxMs);
+        }
+    }
+
 
 }
 
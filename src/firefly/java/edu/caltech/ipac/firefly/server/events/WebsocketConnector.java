@@ -22,19 +22,18 @@ import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.concurrent.Future;
-import java.util.concurrent.locks.ReentrantLock;
 
 @ServerEndpoint(value = "/sticky/firefly/events")
 public class WebsocketConnector implements ServerEventQueue.EventConnector {
     public static final String CHANNEL_ID = "channelID";
+    public static final String BATCH = "batch";        // client accepts a JSON array of events in one message
     public static final Logger.LoggerImpl LOG = Logger.getLogger();
     private static final String CONN_UPDATED = "app_data.wsConnUpdated";
     private Session session;
     private String channelID;
     private String userKey;
     private ServerEventQueue eventQueue;
-    private final ReentrantLock lock = new ReentrantLock();
+    private WebsocketSender sender;
 
     private static final long WS_TIMEOUT = 30*1000;  // give up after 30 sec when sending msg
     private static final long WS_MAX_IDLE = 10*60*1000; // drop session when idled for over 10 mins.  keep-alive ping happens every 5 mins.
@@ -50,14 +49,19 @@ public class WebsocketConnector implements ServerEventQueue.EventConnector {
             userKey = ServerContext.getRequestOwner().getUserKey();
             channelID = params.containsKey(CHANNEL_ID) ? String.valueOf(params.get(CHANNEL_ID).get(0)) : null;
             channelID = StringUtils.isEmpty(channelID) ? userKey : channelID;
+            boolean batch = params.containsKey(BATCH) && Boolean.parseBoolean(params.get(BATCH).get(0));
+            sender = new WebsocketSender(text -> session.getAsyncRemote().sendText(text).get(),     // use async so it will timed out after WS_TIMEOUT is reached.
+                                         batch, e -> close());
             eventQueue = new ServerEventQueue(session.getId(), channelID, userKey, this);
             ServerEvent connected = new ServerEvent(Name.EVT_CONN_EST, ServerEvent.Scope.SELF, "{\"connID\": \"" + session.getId() + "\", \"channel\": \"" + channelID + "\"}");
             send(ServerEventQueue.convertToJson(connected));
             ServerEventManager.addEventQueue(eventQueue);
             onClientConnect(session.getId(), channelID, userKey);
+            sender.register();
             LOG.info(PREFIX+" open "+makeChannelStr(session));
         } catch (Exception e) {
             LOG.error(e, PREFIX+" Unable to open websocket connection:" + makeChannelStr(session));
+            if (sender != null) sender.close();
         }
     }
 
@@ -92,6 +96,7 @@ public class WebsocketConnector implements ServerEventQueue.EventConnector {
 
     @OnClose
     public void onClose(Session session, CloseReason closeReason) {
+        if (sender != null) sender.close();
         ServerEventManager.removeEventQueue(eventQueue);
         updateClientConnections(CONN_UPDATED, channelID, userKey);
         if (closeReason!=null && session!=null) {
@@ -110,16 +115,10 @@ public class WebsocketConnector implements ServerEventQueue.EventConnector {
 //====================================================================
 
     public void send(String message) throws Exception {
-        if (session == null) {
+        if (session == null || sender == null) {
             throw new IOException("No longer available");
         }
-        lock.lock();
-        try {
-            Future<Void> f= session.getAsyncRemote().sendText(message);     // use async so it will timed out after WS_TIMEOUT is reached.
-            f.get();                                                        // wait until websocket send completes, ignore the return
-        } finally {
-            lock.unlock();
-        }
+        sender.send(message);       // queued; written by the sender pool so a slow client does not hold up the caller
     }
 
     public boolean isOpen() {
@@ -147,27 +146,21 @@ public class WebsocketConnector implements ServerEventQueue.EventConnector {
      * @param channelID
      */
     private void updateClientConnections(String type, String channelID, String userKey) {
-//        List<ServerEventQueue> conns = ServerEventManager.getEvQueueList();
-        List<ServerEventQueue> conns = ServerEventManager.getAllServerEvQueueList();
+        // the connections affected by the update; they are also all of the connections visible to this user.
+        // This user has knowledge of all connections started by this user, as well as connections associated with this user's channel.
+        List<ServerEventQueue> conns = ServerEventManager.getAllServerEvQueueList(channelID, userKey);
+        if (conns.isEmpty()) return;
+
+        // Creates a map of all the channels and its connections that is visible to this user.
+        Map<String, List<String>> connInfo = new HashMap<>();
+        for (ServerEventQueue q : conns) {
+            List<String> l = connInfo.computeIfAbsent(q.getChannel(), k -> new ArrayList<>());
+            if (!l.contains(q.getConnID())) l.add(q.getConnID());
+        }
+        String action = new FluxAction(type, connInfo).toString();
         for (ServerEventQueue seq : conns) {
             // need to notify clients that are affected by update
-            if (seq.getChannel().equals(channelID) || seq.getUserKey().equals(userKey)) {
-                // Creates a map of all the channels and its connections that is visible to this user.
-                // This user has knowledge of all connections started by this user, as well as connections associated with this user's channel.
-                Map<String, List<String>> connInfo = new HashMap<>();
-                conns.stream()
-                        .filter(q -> q.getChannel().equals(channelID) || q.getUserKey().equals(userKey))
-                        .forEach(q -> {
-                            List<String> l = connInfo.get(q.getChannel());
-                            if (l == null) {
-                                l = new ArrayList<>();
-                                connInfo.put(q.getChannel(), l);
-                            }
-                            if (!l.contains(q.getConnID())) l.add(q.getConnID());
-                        });
-                FluxAction action = new FluxAction(type, connInfo);
-                ServerEventManager.fireAction(action, new ServerEvent.EventTarget(ServerEvent.Scope.SELF, seq.getConnID(), null, null));
-            }
+            ServerEventManager.fireJsonAction(action, new ServerEvent.EventTarget(ServerEvent.Scope.SELF, seq.getConnID(), null, null));
         }
     }
 
@@ -0,0 +1,169 @@
+/*
+ * License information at https://github.com/Caltech-IPAC/firefly/blob/master/License.txt
+ */
+package edu.caltech.ipac.firefly.server.events;
+
+import edu.caltech.ipac.firefly.server.util.Logger;
+import edu.caltech.ipac.util.AppProperties;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+/**
+ * The outbound messages of one websocket connection.  {@link #send(String)} only queues the message; a task from
+ * a shared sender pool writes it to the socket.  The thread that fans out an event to every queue never waits
+ * on a slow client.  The pool has websocket.send.threads threads, and a task writes one message, or batch,
+ * before the next connection gets its turn.
+ *
+ * The queue holds at most websocket.send.queue.max messages.  When it is full, the oldest message is dropped.
+ * If the client accepts batches, the messages that were queued while the previous one was being written are
+ * sent together as one JSON array, up to websocket.send.batch.max of them.
+ */
+class WebsocketSender {
+
+    private static final Logger.LoggerImpl LOG = Logger.getLogger();
+    private static final String MAX_QUEUE_PROP = "websocket.send.queue.max";
+    private static final String MAX_BATCH_PROP = "websocket.send.batch.max";
+    private static final int SENDER_THREADS = AppProperties.getIntProperty("websocket.send.threads", 16);
+    private static final int MAX_PENDING = AppProperties.getIntProperty("websocket.send.pending.max", 10000);
+
+    private static final AtomicInteger threadCnt = new AtomicInteger();
+    private static final ExecutorService senderPool = new ThreadPoolExecutor(SENDER_THREADS, SENDER_THREADS,
+            0L, TimeUnit.MILLISECONDS, new ArrayBlockingQueue<>(MAX_PENDING), r -> {
+        Thread t = new Thread(r, "ws-sender-" + threadCnt.incrementAndGet());
+        t.setDaemon(true);
+        return t;
+    });
+    private static final Set<WebsocketSender> senders = ConcurrentHashMap.newKeySet();
+    private static final AtomicLong totalSent = new AtomicLong();
+    private static final AtomicLong totalBatches = new AtomicLong();
+    private static final AtomicLong totalDropped = new AtomicLong();
+
+    private final Transport transport;
+    private final Consumer<Exception> onFailure;
+    private final boolean batch;
+    private final int maxQueue = AppProperties.getIntProperty(MAX_QUEUE_PROP, 1000);
+    private final int maxBatch = AppProperties.getIntProperty(MAX_BATCH_PROP, 100);
+    private final ArrayDeque<String> queue = new ArrayDeque<>();
+    private boolean draining;
+    private boolean closed;
+
+    /**
+     * @param transport writes one message to the socket, blocking until it is sent
+     * @param batch true if the client accepts a JSON array of messages
+     * @param onFailure called once when a message cannot be written; the sender is closed by then
+     */
+    WebsocketSender(Transport transport, boolean batch, Consumer<Exception> onFailure) {
+        this.transport = transport;
+        this.batch = batch;
+        this.onFailure = onFailure;
+    }
+
+    /**
+     * Include this sender in the stats.  Called once its connection is open.
+     */
+    synchronized void register() {
+        if (!closed) senders.add(this);
+    }
+
+    /**
+     * Queue a message to be sent.
+     * @param message the message
+     * @throws IOException if this sender is closed
+     */
+    void send(String message) throws IOException {
+        synchronized (this) {
+            if (closed) throw new IOException("No longer available");
+            if (queue.size() >= maxQueue) {
+                queue.poll();
+                totalDropped.incrementAndGet();
+            }
+            queue.add(message);
+            if (draining) return;
+            draining = true;
+        }
+        schedule();
+    }
+
+    synchronized void close() {
+        closed = true;
+        queue.clear();
+        senders.remove(this);
+    }
+
+    synchronized int getQueueDepth() { return queue.size(); }
+
+    private void schedule() {
+        try {
+            senderPool.execute(this::drain);
+        } catch (RejectedExecutionException e) {
+            // the pool is backed up; the messages stay queued until the next send
+            synchronized (this) { draining = false; }
+            LOG.warn("Websocket sender pool is full; message delayed");
+        }
+    }
+
+    /**
+     * Write the next message, or batch, then give the thread to the next connection.
+     */
+    private void drain() {
+        List<String> messages;
+        synchronized (this) {
+            if (closed || queue.isEmpty()) {
+                draining = false;
+                return;
+            }
+            int cnt = batch ? Math.min(queue.size(), maxBatch) : 1;
+            messages = new ArrayList<>(cnt);
+            for (int i = 0; i < cnt; i++) messages.add(queue.poll());
+        }
+        try {
+            transport.sendText(messages.size() == 1 ? messages.get(0) : "[" + String.join(",", messages) + "]");
+            totalSent.addAndGet(messages.size());
+            totalBatches.incrementAndGet();
+        } catch (Exception e) {
+            LOG.warn("Fail to send websocket message: " + e.getMessage());
+            close();
+            synchronized (this) { draining = false; }
+            onFailure.accept(e);
+            return;
+        }
+        synchronized (this) {
+            if (closed || queue.isEmpty()) {
+                draining = false;
+                return;
+            }
+        }
+        schedule();
+    }
+
+    /**
+     * @return a summary of the outbound queues of every connection
+     */
+    static String getStats() {
+        int total = 0, max = 0;
+        for (WebsocketSender s : senders) {
+            int depth = s.getQueueDepth();
+            total += depth;
+            max = Math.max(max, depth);
+        }
+        return String.format("connections:%d  queued:%d  max-queued:%d  sent:%d  writes:%d  dropped:%d",
+                             senders.size(), total, max, totalSent.get(), totalBatches.get(), totalDropped.get());
+    }
+
+    interface Transport {
+        void sendText(String text) throws Exception;
+    }
+}
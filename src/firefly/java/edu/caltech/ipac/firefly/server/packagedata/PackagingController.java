@@ -7,6 +7,7 @@ import edu.caltech.ipac.firefly.core.background.BackgroundState;
 import edu.caltech.ipac.firefly.core.background.BackgroundStatus;
 import edu.caltech.ipac.firefly.core.background.JobAttributes;
 import edu.caltech.ipac.firefly.server.RequestOwner;
+import edu.caltech.ipac.firefly.server.util.JobScheduler;
 import edu.caltech.ipac.firefly.server.util.Logger;
 import edu.caltech.ipac.util.AppProperties;
 import edu.caltech.ipac.util.FileUtil;
@@ -32,20 +33,16 @@ public class PackagingController {
     public static final long LARGE_PACKAGE = 750 * FileUtil.MEG;
     public static final int ALL = -1;
 
-    private static final int MAX_THREADS = 5;
-    private static final int MAX_LARGE_THREADS = 3;
+    private static final int MAX_THREADS = AppProperties.getIntProperty("download.max.threads", 5);
+    private static final int MAX_LARGE_THREADS = AppProperties.getIntProperty("download.max.large.threads", 3);
     private static final int WARNING_QUEUE_SIZE = AppProperties.getIntProperty("download.warning.queue.size", 30);
-    private static final String STARTED_LARGE = "------- Started (large): ";
-    private static final String STARTED_SMALL = "------- Started (small): ";
 
 
     private static final Logger.LoggerImpl _log = Logger.getLogger();
     private static final Logger.LoggerImpl _statsLog = Logger.getLogger(Logger.DOWNLOAD_LOGGER);
     private static final PackagingController _instance = new PackagingController();
     private final List<PackagerItem> _packagerList = new LinkedList<PackagerItem>();
-    private volatile int _activeThreads = 0;
-    private volatile int _activeLargeThreads = 0;
-    private volatile int _queueHighWater = 0;
+    private final JobScheduler _scheduler = new JobScheduler("Packager", MAX_THREADS, MAX_LARGE_THREADS);
     private volatile long _totalPackage = 0;
     private volatile long _totalImmediatePackage = 0;
 
@@ -71,13 +68,28 @@ public class PackagingController {
         return retval;
     }
 
-    public synchronized void queue(Packager packager,
-                                   RequestOwner requestOwner) {
+    public void queue(Packager packager,
+                      RequestOwner requestOwner) {
 
-        _packagerList.add(new PackagerItem(packager, requestOwner));
-        int len = _packagerList.size();
-        _queueHighWater = Math.max(_queueHighWater, len);
-        startNewThreads();
+        PackagerItem pi = new PackagerItem(packager, requestOwner);
+        synchronized (this) {
+            _packagerList.add(pi);
+        }
+        _scheduler.submit(pi.getID(), requestOwner == null ? null : requestOwner.getUserKey(),
+                          pi.isLarge(), new PackagingThread(pi));
+        logQueueStatus("Queued " + (pi.isLarge() ? "(large): " : "(small): ") + pi.getID());
+    }
+
+    /**
+     * Cancel a queued package.  One that is still waiting never starts; a running one stops at its next cancel check.
+     * @param id the package ID
+     */
+    public void cancel(String id) {
+        if (_scheduler.cancel(id)) {
+            synchronized (this) {
+                _packagerList.removeIf(pi -> pi.getID().equals(id) && !pi.isRunning());
+            }
+        }
     }
 
     public BackgroundStatus doImmediatePackaging(Packager packager,
@@ -102,47 +114,24 @@ public class PackagingController {
         return (getQueueSize() > WARNING_QUEUE_SIZE);
     }
 
-    private synchronized void startNewThreads() {
-        List<String> logList = new ArrayList<String>(12);
-        String desc;
-        int started = 0;
-        int largeActive = countLargeActive();
-        int active = 0;
-        for (PackagerItem pi : _packagerList) {
-            if (!pi.isRunning()) {
-                if ((pi.isLarge() && largeActive < MAX_LARGE_THREADS) || !pi.isLarge()) {
-                    desc = startThread(pi);
-                    logList.add(pi.isLarge() ? STARTED_LARGE : STARTED_SMALL + desc);
-                    started++;
-                    if (pi.isLarge() && largeActive < MAX_LARGE_THREADS) largeActive++;
-                }
-            }
-            if (pi.isRunning()) {
-                active++;
-                if (active > MAX_THREADS - 1) break;
-            }
-        }
-        _activeThreads = active;
-        _activeLargeThreads = largeActive;
-
-        logStartStatus(logList, started);
-    }
-
     public List<String> getStatus() {
         ArrayList<String> statuses = new ArrayList<String>();
         if (_totalPackage>0) {
-            QueueStats stats = new QueueStats(_packagerList);
+            QueueStats stats;
+            synchronized (this) {
+                stats = new QueueStats(_packagerList);
+            }
 
             statuses.add("  - Total large package (" + StringUtils.getSizeAsString(LARGE_PACKAGE, true) + ") threads: " +
-                                 _activeLargeThreads + " of " + MAX_LARGE_THREADS + " allowed");
+                                 _scheduler.getRunningLarge() + " of " + MAX_LARGE_THREADS + " allowed");
             statuses.add("  - Total running threads:                  " +
-                                 _activeThreads + " of " + MAX_THREADS + " allowed");
+                                 _scheduler.getRunning() + " of " + MAX_THREADS + " allowed");
             statuses.add("  - Longest current wait time:      " + stats.getLongestWaitStr());
             statuses.add("  - Total packaged since beginning: " + _totalPackage);
             statuses.add("  - Total packaged in background:   " + (_totalPackage - _totalImmediatePackage));
             statuses.add("  - Total immediate packaged:       " + _totalImmediatePackage);
-            statuses.add("  - Queue high water mark:          " + _queueHighWater);
-            statuses.add("  - Total large waiting:            " + (stats.getTotalLarge() - _activeLargeThreads));
+            statuses.add("  - Queue high water mark:          " + _scheduler.getQueueHighWater());
+            statuses.add("  - Total large waiting:            " + _scheduler.getWaitingLarge());
             statuses.add("  - Queue size:                     " + getQueueSize());
         }
         else {
@@ -151,29 +140,16 @@ public class PackagingController {
         return statuses;
     }
 
-    private void logStartStatus(List<String> logList, int started) {
-
-        if (started == 0) {
-            if (_activeThreads >= MAX_THREADS) {
-                logList.add(0, "Max packagers already running, 0 new threads started");
-            } else if (_packagerList.size() == 0) {
-                logList.add(0, "queue empty, 0 new threads started");
-            } else {
-                logList.add(0, "0 new threads started");
-            }
-        } else {
-            logList.add(0, started + " new" +
-                    (started == 1 ? " thread" : " threads") + " started");
-        }
-
-        logList.add(0, "PackagingController: Queue Status Report");
+    private void logQueueStatus(String msg) {
+        List<String> logList = new ArrayList<String>(12);
+        logList.add("PackagingController: Queue Status Report");
+        logList.add(msg);
         logList.addAll(getStatus());
-
         _log.info(logList.toArray(new String[logList.size()]));
     }
 
     public int getQueueSize() {
-        return (_packagerList.size() - _activeThreads);
+        return _scheduler.getWaiting();
     }
 
 //    private int countLarge() {
@@ -184,38 +160,6 @@ public class PackagingController {
 //        return large;
 //    }
 
-    private int countLargeActive() {
-        int large = 0;
-        for (PackagerItem pi : _packagerList) {
-            if (pi.isRunning()) {
-                if (pi.isLarge()) large++;
-            } else {
-                break;
-            }
-        }
-        return large;
-    }
-
-    private synchronized String startThread(final PackagerItem pi) {
-        PackagingThread tc = new PackagingThread(pi);
-        String name = "Packager-" + pi.getID();
-        Thread thread = new Thread(tc, name);
-        String desc = "thread: " + name;
-
-        thread.setUncaughtExceptionHandler(new Thread.UncaughtExceptionHandler() {
-            public void uncaughtException(Thread t, Throwable e) {
-                threadCompletedWithException(pi, t, e);
-            }
-        });
-
-        thread.setDaemon(true);
-        pi.setRunning(true);
-        pi.setThread(thread);
-        pi.markStartTime();
-        thread.start();
-        return desc;
-    }
-
     private BackgroundStatus doPackaging(Packager packager) {
         return doPackaging(packager, ALL);
     }
@@ -246,7 +190,7 @@ public class PackagingController {
 
     }
 
-    private synchronized void threadCompletedWithException(PackagerItem pi,
+    private void threadCompletedWithException(PackagerItem pi,
                                                            Thread t,
                                                            Throwable e) {
 
@@ -286,19 +230,35 @@ public class PackagingController {
 
     }
 
-    private synchronized void threadCompleted(PackagerItem pi) {
+    private void threadCompleted(PackagerItem pi) {
 
         pi.setRunning(false);
         pi.setThread(null);
 
-        if (_packagerList.contains(pi)) {
-            _packagerList.remove(pi);
-        } else {
-            _log.warn("could not find packager after it finished running, " +
-                              "Queue might be stuck");
+        synchronized (this) {
+            if (!_packagerList.remove(pi)) {
+                _log.warn("could not find packager after it finished running, " +
+                                  "Queue might be stuck");
+            }
         }
+        reportTimes(pi);
         updateStatistics(pi, true);
-        startNewThreads();
+        logQueueStatus("Completed: " + pi.getID());
+    }
+
+    /**
+     * add the time the package waited in the queue, and the time it took to package, to its status
+     */
+    private void reportTimes(PackagerItem pi) {
+        JobScheduler.Job job = JobScheduler.currentJob();
+        BackgroundInfoCacher info = pi.getPackager().getBackgroundInfoCacher();
+        if (job == null || info.isCanceled()) return;
+        BackgroundStatus bgStat = info.getStatus();
+        if (bgStat != null) {
+            bgStat.setQueueWaitMills(job.getQueueWaitMills());
+            bgStat.setRunMills(job.getRunMills());
+            info.setStatus(bgStat);
+        }
     }
 
     private void updateStatistics(PackagerItem pi, boolean queued) {
@@ -384,11 +344,19 @@ public class PackagingController {
         public void run() {
             Packager packager = _pi.getPackager();
             Thread thread = Thread.currentThread();
-            PackageMaster.logPIDDebug(_pi.getID(),
-                                      "Packager thread: " + thread.getName() + " is beginning");
-            doPackaging(packager, ALL);
-            PackageMaster.logPIDDebug(_pi.getID(),
-                                      "Packager thread: " + thread.getName() + "  has completed");
+            _pi.setRunning(true);
+            _pi.setThread(thread);
+            _pi.markStartTime();
+            try {
+                PackageMaster.logPIDDebug(_pi.getID(),
+                                          "Packager thread: " + thread.getName() + " is beginning");
+                doPackaging(packager, ALL);
+                PackageMaster.logPIDDebug(_pi.getID(),
+                                          "Packager thread: " + thread.getName() + "  has completed");
+            } catch (Throwable e) {
+                threadCompletedWithException(_pi, thread, e);
+                return;
+            }
             threadCompleted(_pi);
         }
 
@@ -7,6 +7,7 @@ import edu.caltech.ipac.firefly.data.FileInfo;
 import edu.caltech.ipac.util.download.URLDownload;
 import edu.caltech.ipac.firefly.core.background.BackgroundStatus;
 import edu.caltech.ipac.firefly.server.util.Logger;
+import edu.caltech.ipac.firefly.server.util.JobScheduler;
 import edu.caltech.ipac.util.AppProperties;
 import edu.caltech.ipac.util.Assert;
 import edu.caltech.ipac.util.FileUtil;
@@ -182,7 +183,7 @@ public class ZipHandler {
                 }
                 for (FileInfo fi : fg) {
                     if (fileIdx >= firstFileIdx && fileIdx < lastFileIdx) {
-                        if (_backgroundInfoCacher.isCanceled()) {
+                        if (JobScheduler.isCurrentCanceled() || _backgroundInfoCacher.isCanceled()) {
                             _bundle.cancel();
                             cleanup();
                             return;
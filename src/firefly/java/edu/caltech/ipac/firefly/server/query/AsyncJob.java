@@ -6,6 +6,8 @@ package edu.caltech.ipac.firefly.server.query;
 
 import edu.caltech.ipac.table.DataGroup;
 
+import java.io.File;
+
 /**
  * Date: 9/19/18
  *
@@ -16,6 +18,18 @@ public interface AsyncJob {
     enum Phase {PENDING, QUEUED, EXECUTING, COMPLETED, ABORTED, ERROR, UNKNOWN}
 
     DataGroup getDataGroup() throws DataAccessException;
+
+    /**
+     * @return the result of a completed job saved to a local file, so it can be streamed instead of loaded
+     */
+    File getResultFile() throws DataAccessException;
+
+    /**
+     * Add information about this job, i.e. a link to it, to the table of its result.
+     * @param dg  the table or its header
+     */
+    default void addJobInfo(DataGroup dg) {}
+
     boolean cancel();
     Phase getPhase() throws DataAccessException;
     String getErrorMsg() throws DataAccessException;
@@ -0,0 +1,101 @@
+/*
+ * License information at https://github.com/Caltech-IPAC/firefly/blob/master/License.txt
+ */
+package edu.caltech.ipac.firefly.server.query;
+
+import edu.caltech.ipac.util.AppProperties;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Polls the phase of every outstanding {@link AsyncJob} from one small scheduled pool, instead of keeping
+ * a sleeping thread per job.  A job is polled right away, then again after a delay that grows the longer
+ * the job runs: 500ms for the first 10 polls, 1s for the next 10, then from 2s up to async.job.poll.max.millis.
+ * The single scheduler thread only times the polls; each poll makes its remote call on one of the
+ * async.job.check.threads threads of a separate pool, so a slow service does not hold up the polls of other jobs.
+ */
+public class AsyncJobPoller {
+
+    private static final int MAX_DELAY = AppProperties.getIntProperty("async.job.poll.max.millis", 10000);
+    private static final AtomicInteger threadCnt = new AtomicInteger();
+    private static final ScheduledExecutorService poller = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "async-job-poller");
+        t.setDaemon(true);
+        return t;
+    });
+    private static final int CHECK_THREADS = AppProperties.getIntProperty("async.job.check.threads", 4);
+    private static final ExecutorService checkPool = Executors.newFixedThreadPool(CHECK_THREADS, r -> {
+        Thread t = new Thread(r, "async-job-check-" + threadCnt.incrementAndGet());
+        t.setDaemon(true);
+        return t;
+    });
+    private static final AtomicInteger outstanding = new AtomicInteger();
+
+    /**
+     * Watch a job until it is done.
+     * @param job the submitted job
+     * @return a future completed with the job when it reaches COMPLETED, or completed exceptionally with a
+     * DataAccessException when it fails or is aborted.  Cancelling the future stops the polling, not the job.
+     */
+    public static CompletableFuture<AsyncJob> watch(AsyncJob job) {
+        CompletableFuture<AsyncJob> future = new CompletableFuture<>();
+        outstanding.incrementAndGet();
+        future.whenComplete((j, e) -> outstanding.decrementAndGet());
+        checkPool.execute(new Poll(job, future));
+        return future;
+    }
+
+    /**
+     * @return the number of jobs being polled
+     */
+    public static int getOutstanding() { return outstanding.get(); }
+
+    static long nextDelay(int cnt) {
+        if (cnt < 10) return 500;
+        if (cnt < 20) return 1000;
+        return (long) Math.min(MAX_DELAY, 2000 * Math.pow(1.5, Math.min(cnt - 20, 30)));
+    }
+
+    private static class Poll implements Runnable {
+        private final AsyncJob job;
+        private final CompletableFuture<AsyncJob> future;
+        private int cnt;
+
+        Poll(AsyncJob job, CompletableFuture<AsyncJob> future) {
+            this.job = job;
+            this.future = future;
+        }
+
+        public void run() {
+            if (future.isDone()) return;
+            cnt++;
+            try {
+                AsyncJob.Phase phase = job.getPhase();
+                switch (phase) {
+                    case COMPLETED:
+                        future.complete(job);
+                        break;
+                    case ERROR:
+                    case UNKNOWN:
+                        future.completeExceptionally(new DataAccessException(job.getErrorMsg()));
+                        break;
+                    case ABORTED:
+                        future.completeExceptionally(new DataAccessException("Query aborted"));
+                        break;
+                    case PENDING:
+                    case EXECUTING:
+                    case QUEUED:
+                    default:
+                        poller.schedule(() -> checkPool.execute(this), nextDelay(cnt), TimeUnit.MILLISECONDS);
+                }
+            } catch (Exception e) {
+                future.completeExceptionally(e instanceof DataAccessException ? e : new DataAccessException(e.getMessage(), e));
+            }
+        }
+    }
+}
@@ -3,11 +3,17 @@
  */
 package edu.caltech.ipac.firefly.server.query;
 
+import edu.caltech.ipac.firefly.data.FileInfo;
 import edu.caltech.ipac.firefly.data.ServerRequest;
 import edu.caltech.ipac.firefly.data.TableServerRequest;
+import edu.caltech.ipac.firefly.server.util.JobScheduler;
 import edu.caltech.ipac.table.DataGroup;
 
+import java.io.File;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
 /**
  * Date: Sept 19, 2018
@@ -16,6 +22,8 @@ import java.util.concurrent.TimeUnit;
  * @version $Id: SearchProcessor.java,v 1.3 2012/06/21 18:23:53 loi Exp $
  */
 public abstract class AsyncSearchProcessor extends EmbeddedDbProcessor  {
+    private static final long CANCEL_CHECK_MILLS = 1000;
+
     abstract AsyncJob submitRequest(ServerRequest request) throws DataAccessException;
 
 //====================================================================
@@ -23,32 +31,39 @@ public abstract class AsyncSearchProcessor extends EmbeddedDbProcessor  {
 //====================================================================
 
     public DataGroup fetchDataGroup(TableServerRequest req) throws DataAccessException {
-        AsyncJob asyncJob = submitRequest(req);
-        int cnt = 0;
+        return waitForCompletion(submitRequest(req)).getDataGroup();
+    }
+
+    /**
+     * Submit the job, and download its result as soon as it completes.  The result file is then
+     * streamed into the database, with the job's information added to its header.
+     */
+    protected FileInfo ingestDataIntoDb(TableServerRequest req, File dbFile) throws DataAccessException {
+        AsyncJob asyncJob = waitForCompletion(submitRequest(req));
+        return streamDataIntoDb(req, dbFile, asyncJob.getResultFile(), asyncJob::addJobInfo);
+    }
+
+    /**
+     * Wait for the job while {@link AsyncJobPoller} polls it.  The wait is on a local future; no remote calls are
+     * made from this thread.  If the background job running this search is canceled, the remote job is aborted.
+     */
+    private static AsyncJob waitForCompletion(AsyncJob asyncJob) throws DataAccessException {
+        CompletableFuture<AsyncJob> done = AsyncJobPoller.watch(asyncJob);
         try {
-            while (true) {
-                cnt++;
-                AsyncJob.Phase phase = asyncJob.getPhase();
-                switch (phase) {
-                    case COMPLETED:
-                        return asyncJob.getDataGroup();
-                    case ERROR:
-                    case UNKNOWN:
-                        throw new DataAccessException(asyncJob.getErrorMsg());
-                    case ABORTED:
-                        throw new DataAccessException("Query aborted");
-                    case PENDING:
-                    case EXECUTING:
-                    case QUEUED:
-                    default:
-                    {
-                        int wait = cnt < 10 ? 500 : cnt < 20 ? 1000 : 2000;
-                        TimeUnit.MILLISECONDS.sleep(wait);
-                    }
-                }
+            while (!JobScheduler.isCurrentCanceled()) {
+                try {
+                    return done.get(CANCEL_CHECK_MILLS, TimeUnit.MILLISECONDS);
+                } catch (TimeoutException ignored) {}
             }
         } catch (InterruptedException e) {
-            throw new DataAccessException("Query aborted");
+            Thread.currentThread().interrupt();     // aborted below
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof DataAccessException) throw (DataAccessException) cause;
+            throw new DataAccessException(cause.getMessage(), cause);
         }
+        done.cancel(false);
+        asyncJob.cancel();
+        throw new DataAccessException("Query aborted");
     }
 }
@@ -126,6 +126,22 @@ public class AsyncTapQuery extends AsyncSearchProcessor {
         }
 
         public DataGroup getDataGroup() throws DataAccessException {
+            File outFile = getResultFile();
+            try {
+                DataGroup[] results = VoTableReader.voToDataGroups(outFile.getAbsolutePath());
+                if (results.length > 0) {
+                    addJobInfo(results[0]);
+                    return results[0];
+                } else {
+                    return null;
+                }
+            } catch (Exception e) {
+                throw new DataAccessException("Failure when retrieving results from "+baseJobUrl+"/results/result\n"+
+                        e.getMessage());
+            }
+        }
+
+        public File getResultFile() throws DataAccessException {
             try {
                 //download file first: failing to parse gaia results with topcat SAX parser from url
                 String filename = getFilename(baseJobUrl);
@@ -150,26 +166,22 @@ public class AsyncTapQuery extends AsyncSearchProcessor {
                         throw new RuntimeException(e.getMessage());
                     }
                 }));
-
-                DataGroup[] results = VoTableReader.voToDataGroups(outFile.getAbsolutePath());
-                if (results.length > 0) {
-                    DataGroup dg = results[0];
-                    LinkInfo jobLink = new LinkInfo();
-                    jobLink.setID("IVOA_UWS_JOB");
-                    jobLink.setTitle("Universal Worker Service Job");
-                    jobLink.setHref(baseJobUrl);
-                    // update table links
-                    dg.getLinkInfos().add(0, jobLink);
-                }  else {
-                    return null;
-                }
-                return results[0];
+                return outFile;
             } catch (Exception e) {
                 throw new DataAccessException("Failure when retrieving results from "+baseJobUrl+"/results/result\n"+
                         e.getMessage());
             }
         }
 
+        public void addJobInfo(DataGroup dg) {
+            LinkInfo jobLink = new LinkInfo();
+            jobLink.setID("IVOA_UWS_JOB");
+            jobLink.setTitle("Universal Worker Service Job");
+            jobLink.setHref(baseJobUrl);
+            // update table links
+            dg.getLinkInfos().add(0, jobLink);
+        }
+
         public boolean cancel() {
             return !HttpServices.postData(
                         HttpServiceInput.createWithCredential(baseJobUrl + "/phase").setParam("PHASE", Phase.ABORTED.name()),
@@ -12,10 +12,13 @@ import edu.caltech.ipac.firefly.server.events.ServerEventManager;
 import edu.caltech.ipac.firefly.server.packagedata.BackgroundInfoCacher;
 import edu.caltech.ipac.firefly.server.packagedata.PackageMaster;
 import edu.caltech.ipac.firefly.server.packagedata.PackagedEmail;
+import edu.caltech.ipac.firefly.server.packagedata.PackagingController;
 import edu.caltech.ipac.firefly.server.servlets.AnyFileDownload;
 import edu.caltech.ipac.firefly.server.util.DownloadScript;
+import edu.caltech.ipac.firefly.server.util.JobScheduler;
 import edu.caltech.ipac.firefly.server.util.Logger;
 import edu.caltech.ipac.firefly.util.event.Name;
+import edu.caltech.ipac.util.AppProperties;
 import edu.caltech.ipac.util.FileUtil;
 import edu.caltech.ipac.util.StringUtils;
 import edu.caltech.ipac.util.cache.Cache;
@@ -55,6 +58,8 @@ public class BackgroundEnv {
     private static final String BASE_SERVLET = "servlet/Download?"+ AnyFileDownload.LOG_PARAM +"=true&" +
                                                  AnyFileDownload.FILE_PARAM +"=";
     private static final String RET_FILE = "&"+AnyFileDownload.RETURN_PARAM+"=";
+    private static final int MAX_THREADS= AppProperties.getIntProperty("background.max.threads", 20);
+    private static final JobScheduler _scheduler= new JobScheduler("background-processor", MAX_THREADS, MAX_THREADS);
     private static final Map<String,Integer> _unknownWaitingReports= Collections.synchronizedMap(new HashMap<String,Integer>());
 
 
@@ -111,15 +116,27 @@ public class BackgroundEnv {
 
     public static boolean cancel(String id) {
         new BackgroundInfoCacher(id).cancel();
+        cancelJob(id);
         return true;
     }
 
     public static boolean remove(String id) {
         removeUserBackgroundInfo(id);
         new BackgroundInfoCacher(id).cancel();
+        cancelJob(id);
         return true;
     }
 
+    private static void cancelJob(String id) {
+        _scheduler.cancel(id);
+        PackagingController.getInstance().cancel(id);
+    }
+
+    /**
+     * @return the scheduler that runs the background jobs
+     */
+    public static JobScheduler getScheduler() { return _scheduler; }
+
     public static void setAttribute(String id, JobAttributes attribute) {
         BackgroundInfoCacher infoCacher= new BackgroundInfoCacher(id);
         BackgroundStatus bgStat= infoCacher.getStatus();
@@ -329,22 +346,18 @@ public class BackgroundEnv {
 
     private static void runBackgroundThread(int waitMills,
                                             final BackgroundProcessor processor) {
-        String name= "background-processor-" + processor.getBID();
-        Thread thread= new Thread(processor, name);
-
-        thread.setUncaughtExceptionHandler(new Thread.UncaughtExceptionHandler() {
-            public void uncaughtException(Thread t, Throwable e) {
-                threadCompletedWithException(processor.getBID(), t, e);
+        RequestOwner owner= processor.getRequestOwner();
+        JobScheduler.Job job= _scheduler.submit(processor.getBID(), owner==null ? null : owner.getUserKey(), false, () -> {
+            try {
+                processor.run();
+            } catch (Throwable e) {
+                threadCompletedWithException(processor.getBID(), Thread.currentThread(), e);
             }
         });
-
-        thread.setDaemon(true);
-        thread.start();
-        
         try {
-            thread.join(waitMills);
+            job.await(waitMills);
         } catch (InterruptedException e) {
-            threadCompletedWithException(processor.getBID(),thread,e);
+            threadCompletedWithException(processor.getBID(),Thread.currentThread(),e);
         }
     }
 
@@ -523,6 +536,11 @@ public class BackgroundEnv {
             } catch (Exception e) {
                 bgStat= threadCompletedWithException(_bid, Thread.currentThread(), e);
             }
+            JobScheduler.Job job= JobScheduler.currentJob();
+            if (job!=null && bgStat!=null) {
+                bgStat.setQueueWaitMills(job.getQueueWaitMills());
+                bgStat.setRunMills(job.getRunMills());
+            }
             synchronized (this) {
                 _bgStat= bgStat;
                 piCacher.setStatus(bgStat);
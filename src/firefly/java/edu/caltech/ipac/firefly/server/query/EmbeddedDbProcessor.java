@@ -21,9 +21,11 @@ import edu.caltech.ipac.firefly.server.ServerContext;
 import edu.caltech.ipac.firefly.server.db.DbAdapter;
 import edu.caltech.ipac.firefly.server.db.DbInstance;
 import edu.caltech.ipac.firefly.server.db.EmbeddedDbUtil;
+import edu.caltech.ipac.firefly.server.db.ResultSetCache;
 import edu.caltech.ipac.firefly.server.db.spring.JdbcFactory;
 import edu.caltech.ipac.firefly.server.util.Logger;
 import edu.caltech.ipac.firefly.server.util.QueryUtil;
+import edu.caltech.ipac.firefly.server.util.SingleFlight;
 import edu.caltech.ipac.firefly.server.util.StopWatch;
 import edu.caltech.ipac.table.DataGroupPart;
 import edu.caltech.ipac.table.JsonTableUtil;
@@ -46,10 +48,11 @@ import java.io.OutputStream;
 import java.io.OutputStreamWriter;
 import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.Callable;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
 import java.util.stream.Collectors;
 
 import static edu.caltech.ipac.firefly.data.table.MetaConst.HIGHLIGHTED_ROW;
@@ -89,8 +92,8 @@ import static edu.caltech.ipac.util.StringUtils.isEmpty;
  *   This applies to inputs used by the database component, ie.  INCL_COLUMNS, FILTERS, SORT_INFO, etc
  */
 abstract public class EmbeddedDbProcessor implements SearchProcessor<DataGroupPart>, SearchProcessor.CanGetDataFile, SearchProcessor.CanFetchDataGroup {
-    private static final Map<String, ReentrantLock> activeRequests = new HashMap<>();
-    private static final ReentrantLock lockChecker = new ReentrantLock();
+    private static final SingleFlight<String, File> dbCreations = new SingleFlight<>();
+    private static final SingleFlight<String, String> tblCreations = new SingleFlight<>();
     private static final Logger.LoggerImpl LOGGER = Logger.getLogger();
     private static final int MAX_COL_ENUM_COUNT = AppProperties.getIntProperty("max.col.enum.count", 15);
 
@@ -137,64 +140,112 @@ abstract public class EmbeddedDbProcessor implements SearchProcessor<DataGroupPa
 
         String unigueReqID = this.getUniqueID(request);
 
-        lockChecker.lock();
-        ReentrantLock lock = null;
-        try {
-            lock = activeRequests.get(unigueReqID);
-            if (lock == null) {
-                lock = new ReentrantLock();
-                activeRequests.put(unigueReqID, lock);
-            }
-        } finally {
-            lockChecker.unlock();
+        // only the creation of the database is done one at a time.  once it's created, requests for the same data
+        // are served in parallel.  the file is created before data is loaded into it, so it's ready only when
+        // it exists and no one is still creating it.
+        AtomicBoolean dbFileCreated = new AtomicBoolean(false);
+        File dbFile = getDbFile(treq);
+        if (!dbFile.exists() || dbCreations.isRunning(unigueReqID)) {
+            dbFile = singleFlight(dbCreations, unigueReqID, () -> {
+                File f = getDbFile(treq);
+                if (!f.exists()) {
+                    StopWatch.getInstance().start("createDbFile: " + treq.getRequestId());
+                    f = createDbFromRequest(treq);
+                    dbFileCreated.set(true);
+                    StopWatch.getInstance().stop("createDbFile: " + treq.getRequestId()).printLog("createDbFile: " + treq.getRequestId());
+                }
+                return f;
+            });
         }
 
-        // make sure multiple requests for the same data waits for the first one to create before accessing.
-        lock.lock();
+        StopWatch.getInstance().start("getDataset: " + request.getRequestId());
+        DataGroupPart results;
         try {
-            boolean dbFileCreated = false;
-            File dbFile = getDbFile(treq);
-            if (!dbFile.exists()) {
-                StopWatch.getInstance().start("createDbFile: " + treq.getRequestId());
-                dbFile = createDbFromRequest(treq);
-                dbFileCreated = true;
-                StopWatch.getInstance().stop("createDbFile: " + treq.getRequestId()).printLog("createDbFile: " + treq.getRequestId());
-            }
+            results = getResultSet(treq, dbFile);
+        } catch (Exception e) {
+            // table data exists.. but, bad grammar when querying for the resultset.
+            // should return table meta info + error message
+            // limit 0 does not work with oracle-like syntax
+            DataGroup dg = EmbeddedDbUtil.execQuery(DbAdapter.getAdapter(treq), dbFile, "select * from data where ROWNUM < 1", MAIN_DB_TBL);
+            results = EmbeddedDbUtil.toDataGroupPart(dg, treq);
+            results.setErrorMsg(retrieveMsgFromError(e, treq));
+        }
+        StopWatch.getInstance().stop("getDataset: " + request.getRequestId()).printLog("getDataset: " + request.getRequestId());
 
-            StopWatch.getInstance().start("getDataset: " + request.getRequestId());
-            DataGroupPart results;
-            try {
-                results = getResultSet(treq, dbFile);
-            } catch (Exception e) {
-                // table data exists.. but, bad grammar when querying for the resultset.
-                // should return table meta info + error message
-                // limit 0 does not work with oracle-like syntax
-                DataGroup dg = EmbeddedDbUtil.execQuery(DbAdapter.getAdapter(treq), dbFile, "select * from data where ROWNUM < 1", MAIN_DB_TBL);
-                results = EmbeddedDbUtil.toDataGroupPart(dg, treq);
-                results.setErrorMsg(retrieveMsgFromError(e, treq));
+        // ensure all meta are collected and set accordingly
+        TableUtil.consumeColumnMeta(results.getData(), treq);
+
+        if (dbFileCreated.get()) {
+            if (doLogging()) {
+                SearchProcessor.logStats(treq.getRequestId(), results.getRowCount(), 0, false, getDescResolver().getDesc(treq));
             }
-            StopWatch.getInstance().stop("getDataset: " + request.getRequestId()).printLog("getDataset: " + request.getRequestId());
+            // check for values that can be enumerated..
+            if (results.getRowCount() < 5000) {
+                enumeratedValuesCheck(dbFile, results, treq);
+            } else {
+                enumeratedValuesCheckBG(dbFile, results, treq);        // when it's more than 5000 rows, send it by background so it doesn't slow down response time.
+            }
+        }
 
-            // ensure all meta are collected and set accordingly
-            TableUtil.consumeColumnMeta(results.getData(), treq);
+        results.getData().getTableMeta().setAttribute(DataGroupPart.LOADING_STATUS, DataGroupPart.State.COMPLETED.name());
+        return results;
+    }
 
-            if (dbFileCreated) {
-                if (doLogging()) {
-                    SearchProcessor.logStats(treq.getRequestId(), results.getRowCount(), 0, false, getDescResolver().getDesc(treq));
-                }
-                // check for values that can be enumerated..
-                if (results.getRowCount() < 5000) {
-                    enumeratedValuesCheck(dbFile, results, treq);
-                } else {
-                    enumeratedValuesCheckBG(dbFile, results, treq);        // when it's more than 5000 rows, send it by background so it doesn't slow down response time.
+    /**
+     * Creates a table derived from the main table, i.e. a sorted or filtered result set, if it does not exist.
+     * Concurrent requests for the same table wait for the first one to create it.
+     * Created tables are tracked by {@link ResultSetCache}, which may drop them when they are no longer used.
+     * The table is pinned in the cache until the returned entry is closed.
+     * @param treq      the request
+     * @param dbFile    the database file
+     * @param tblName   the table to create
+     * @param creator   creates the table.  It is only called when the table does not exist.
+     * @return the pinned cache entry of the table
+     * @throws DataAccessException
+     */
+    protected ResultSetCache.Entry ensureTable(TableServerRequest treq, File dbFile, String tblName, Callable<?> creator) throws DataAccessException {
+        return ensureTable(treq, dbFile, tblName, null, creator);
+    }
+
+    /**
+     * Same as {@link #ensureTable(TableServerRequest, File, String, Callable)}
+     * @param filters   the filters applied to the main table to create this table.  When given, the table
+     *                  can be used as the starting point of a request with more filters.
+     */
+    protected ResultSetCache.Entry ensureTable(TableServerRequest treq, File dbFile, String tblName, List<String> filters, Callable<?> creator) throws DataAccessException {
+        DbAdapter dbAdapter = DbAdapter.getAdapter(treq);
+        String key = dbFile.getPath() + "|" + tblName;
+        ResultSetCache.Entry entry = ResultSetCache.acquire(dbAdapter, dbFile, tblName);
+        while (entry == null) {
+            singleFlight(tblCreations, key, () -> {
+                if (!ResultSetCache.contains(dbFile, tblName)) {
+                    ResultSetCache.awaitDrop(dbFile, tblName);
+                    if (!EmbeddedDbUtil.hasTable(treq, dbFile, tblName)) {
+                        creator.call();
+                    }
+                    ResultSetCache.add(dbAdapter, dbFile, tblName, filters);
                 }
-            }
+                return tblName;
+            });
+            entry = ResultSetCache.pin(dbFile, tblName);        // null only if it was dropped again in between
+        }
+        return entry;
+    }
 
-            results.getData().getTableMeta().setAttribute(DataGroupPart.LOADING_STATUS, DataGroupPart.State.COMPLETED.name());
-            return results;
-        } finally {
-            activeRequests.remove(unigueReqID);
-            lock.unlock();
+    /**
+     * @return the coalescing of database creation requests.  Used for reporting.
+     */
+    public static SingleFlight<String, File> getDbCreations() {
+        return dbCreations;
+    }
+
+    private static <V> V singleFlight(SingleFlight<String, V> flights, String key, Callable<V> task) throws DataAccessException {
+        try {
+            return flights.run(key, task);
+        } catch (DataAccessException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new DataAccessException(e.getMessage(), e);
         }
     }
 
@@ -230,6 +281,11 @@ abstract public class EmbeddedDbProcessor implements SearchProcessor<DataGroupPa
 
         DbAdapter dbAdapter = DbAdapter.getAdapter(req);
 
+        File tableFile = getTableFile(req);
+        if (tableFile != null) {
+            return streamDataIntoDb(req, dbFile, tableFile);
+        }
+
         StopWatch.getInstance().start("fetchDataGroup: " + req.getRequestId());
         DataGroup dg = fetchDataGroup(req);
         StopWatch.getInstance().stop("fetchDataGroup: " + req.getRequestId()).printLog("fetchDataGroup: " + req.getRequestId());
@@ -245,6 +301,53 @@ abstract public class EmbeddedDbProcessor implements SearchProcessor<DataGroupPa
         return finfo;
     }
 
+    /**
+     * Override this when the data of a request comes from a table file on the server, like an uploaded file.
+     * The file will then be streamed into the database instead of going through fetchDataGroup, so
+     * the whole table is never loaded into memory.
+     * @param req  search request
+     * @return the table file, or null to ingest the results of fetchDataGroup
+     * @throws DataAccessException
+     */
+    protected File getTableFile(TableServerRequest req) throws DataAccessException {
+        return null;
+    }
+
+    private FileInfo streamDataIntoDb(TableServerRequest req, File dbFile, File tableFile) throws DataAccessException {
+        return streamDataIntoDb(req, dbFile, tableFile, null);
+    }
+
+    /**
+     * Reads the given table file in batches of rows, and inserts them into the database as they are read.
+     * Peak memory usage does not depend on the number of rows in the table.
+     * @param req  search request
+     * @param dbFile  the database file
+     * @param tableFile  the table file to stream
+     * @param onHeader  called with the table's header before it is saved, to add information that is not in
+     *                  the file itself; may be null
+     */
+    protected FileInfo streamDataIntoDb(TableServerRequest req, File dbFile, File tableFile, Consumer<DataGroup> onHeader) throws DataAccessException {
+
+        DbAdapter dbAdapter = DbAdapter.getAdapter(req);
+        EmbeddedDbUtil.DbTableSink sink = new EmbeddedDbUtil.DbTableSink(dbFile, dbAdapter, MAIN_DB_TBL, header -> {
+            prepareTableMeta(header.getTableMeta(), Arrays.asList(header.getDataDefinitions()), req);
+            TableUtil.consumeColumnMeta(header, null);      // META-INFO in the request should only be pass-along and not persist.
+            if (onHeader != null) onHeader.accept(header);
+        });
+
+        StopWatch.getInstance().start("streamDataIntoDb: " + req.getRequestId());
+        try {
+            int tblIdx = req.getIntParam(TableServerRequest.TBL_INDEX, 0);
+            TableUtil.readAnyFormat(tableFile, tblIdx, req.getMeta(), sink);
+        } catch (IOException e) {
+            throw new DataAccessException(e.getMessage(), e);
+        } finally {
+            sink.abort();       // only has effect when reading failed
+        }
+        StopWatch.getInstance().stop("streamDataIntoDb: " + req.getRequestId()).printLog("streamDataIntoDb: " + req.getRequestId());
+        return new FileInfo(dbFile);
+    }
+
     public File getDataFile(TableServerRequest request) throws IpacTableException, IOException, DataAccessException {
         request.cloneRequest();
         request.setPageSize(Integer.MAX_VALUE);
@@ -314,6 +417,12 @@ abstract public class EmbeddedDbProcessor implements SearchProcessor<DataGroupPa
         return MAIN_DB_TBL + (isEmpty(id) ? "" : "_" + DigestUtils.md5Hex(id));
     }
 
+    private static ResultSetCache.Entry findRefinableBase(DbAdapter dbAdapter, File dbFile, List<String> filters) {
+        // ROW_NUM of a result set differs from the one of DATA; filters on it must be applied to DATA.
+        if (filters == null || filters.stream().anyMatch(f -> f.toUpperCase().contains(DataGroup.ROW_NUM))) return null;
+        return ResultSetCache.findBase(dbAdapter, dbFile, filters);
+    }
+
     private static List<String> ignoreCols = Arrays.asList(DataGroup.ROW_IDX, DataGroup.ROW_NUM, "\"" + DataGroup.ROW_IDX + "\"", "\"" + DataGroup.ROW_NUM + "\"");
     protected DataGroupPart getResultSet(TableServerRequest treq, File dbFile) throws DataAccessException {
 
@@ -325,21 +434,40 @@ abstract public class EmbeddedDbProcessor implements SearchProcessor<DataGroupPa
         DbAdapter dbAdapter = DbAdapter.getAdapter(treq);
         DbInstance dbInstance = dbAdapter.getDbInstance(dbFile);
 
-        if (!EmbeddedDbUtil.hasTable(treq, dbFile, resultSetID)) {
+        // a result set with all of the columns and filtered only by 'filters' can be the starting point of more filters
+        List<String> filters = isEmpty(treq.getInclColumns()) && isEmpty(treq.getSqlFilter()) ? treq.getFilters() : null;
+
+        Callable<Object> creator = () -> {
             // does not exists.. create table from original 'data' table
             List<String> cols = isEmpty(treq.getInclColumns()) ? dbAdapter.getColumnNames(dbInstance, MAIN_DB_TBL, "\"")
                                 : StringUtils.asList(treq.getInclColumns(), ",");
             cols = cols.stream().filter((s) -> !ignoreCols.contains(s)).collect(Collectors.toList());   // remove rowIdx and rowNum because it will be automatically added
 
+            // when a cached result set already applied some of the filters, only apply the rest to it
+            String fromTbl = MAIN_DB_TBL;
+            TableServerRequest whereReq = treq;
+            ResultSetCache.Entry base = findRefinableBase(dbAdapter, dbFile, filters);
+            if (base != null) {
+                List<String> more = new ArrayList<>(filters);
+                more.removeAll(base.getFilters());
+                fromTbl = base.getTblName();
+                whereReq = (TableServerRequest) treq.cloneRequest();
+                whereReq.setFilters(more);
+            }
+
             String selectPart = (cols.size() == 0 ? "" : StringUtils.toString(cols) + ", " )+ DataGroup.ROW_IDX;
-            String wherePart = dbAdapter.wherePart(treq);
+            String wherePart = dbAdapter.wherePart(whereReq);
             String orderBy = dbAdapter.orderByPart(treq);
 
             // copy data
-            String datasetSql = String.format("select %s from data %s %s", selectPart, wherePart, orderBy);
+            String datasetSql = String.format("select %s from %s %s %s", selectPart, fromTbl, wherePart, orderBy);
             String datasetSqlWithIdx = String.format("select b.*, (ROWNUM-1) as %s from (%s) as b", DataGroup.ROW_NUM, datasetSql);
             String sql = dbAdapter.createTableFromSelect(resultSetID, datasetSqlWithIdx);
-            JdbcFactory.getSimpleTemplate(dbInstance).update(sql);
+            try {
+                JdbcFactory.getSimpleTemplate(dbInstance).update(sql);
+            } finally {
+                ResultSetCache.release(base);
+            }
 
             // copy dd
             List<String> cnames = dbAdapter.getColumnNames(dbInstance, resultSetID, "'");
@@ -360,47 +488,51 @@ abstract public class EmbeddedDbProcessor implements SearchProcessor<DataGroupPa
             try {
                 JdbcFactory.getSimpleTemplate(dbInstance).update(auxSql);
             } catch (Exception ax) {/*ignore table may not exists*/}
-        }
+            return null;
+        };
 
-        // resultSetID is a table created sort and filter in consideration.  no need to re-apply.
-        TableServerRequest nreq = (TableServerRequest) treq.cloneRequest();
-        nreq.setFilters(null);
-        nreq.setSqlFilter(null);
-        nreq.setSortInfo(null);
+        try (ResultSetCache.Entry resultSet = ensureTable(treq, dbFile, resultSetID, filters, creator)) {
 
-        if (isEmpty(treq.getInclColumns())) {
-            nreq.setInclColumns();
-        } else {
-            List<String> requestedCols = StringUtils.asList(treq.getInclColumns(), ",");
-            List<String> cols = dbAdapter.getColumnNames(dbInstance, resultSetID, "\"");
+            // resultSetID is a table created sort and filter in consideration.  no need to re-apply.
+            TableServerRequest nreq = (TableServerRequest) treq.cloneRequest();
+            nreq.setFilters(null);
+            nreq.setSqlFilter(null);
+            nreq.setSortInfo(null);
 
-            // only return these columns if requested
-            if (!requestedCols.contains(rowIdx)) cols.remove(rowIdx);
-            if (!requestedCols.contains(rowNum)) cols.remove(rowNum);
+            if (isEmpty(treq.getInclColumns())) {
+                nreq.setInclColumns();
+            } else {
+                List<String> requestedCols = StringUtils.asList(treq.getInclColumns(), ",");
+                List<String> cols = dbAdapter.getColumnNames(dbInstance, resultSetID, "\"");
 
-            nreq.setInclColumns(cols.toArray(new String[0]));
-        }
+                // only return these columns if requested
+                if (!requestedCols.contains(rowIdx)) cols.remove(rowIdx);
+                if (!requestedCols.contains(rowNum)) cols.remove(rowNum);
+
+                nreq.setInclColumns(cols.toArray(new String[0]));
+            }
 
-        // handle highlightedRow request if present
-        // meta can be HIGHLIGHTED_ROW or HIGHLIGHTED_ROW_BY_ROWIDX
-        // if this row exists in the new table, fetch the page where this row is at, and set highlightedRow to it.
-        // Otherwise, return as requested.
-        int highlightedRow = handleHighlighedRowRequest(treq, nreq, dbFile, resultSetID);
+            // handle highlightedRow request if present
+            // meta can be HIGHLIGHTED_ROW or HIGHLIGHTED_ROW_BY_ROWIDX
+            // if this row exists in the new table, fetch the page where this row is at, and set highlightedRow to it.
+            // Otherwise, return as requested.
+            int highlightedRow = handleHighlighedRowRequest(treq, nreq, dbFile, resultSetID);
 
-        DataGroupPart page = execRequestQuery(nreq, dbFile, resultSetID);
-        page.getData().setHighlightedRow(highlightedRow);
+            DataGroupPart page = execRequestQuery(nreq, dbFile, resultSetID);
+            page.getData().setHighlightedRow(highlightedRow);
 
-        // handle selectInfo
-        // selectInfo is sent to the server as Request.META_INFO.selectInfo
-        // it will be moved into TableModel.selectInfo
-        SelectionInfo selectInfo = getSelectInfoForThisResultSet(treq, dbAdapter, dbFile, resultSetID, page.getRowCount());
-        treq.setSelectInfo(selectInfo);
+            // handle selectInfo
+            // selectInfo is sent to the server as Request.META_INFO.selectInfo
+            // it will be moved into TableModel.selectInfo
+            SelectionInfo selectInfo = getSelectInfoForThisResultSet(treq, dbAdapter, dbFile, resultSetID, page.getRowCount());
+            treq.setSelectInfo(selectInfo);
 
-        // save information needed to recreated this resultset
-        treq.setMeta(TableMeta.RESULTSET_REQ, makeResultSetReqStr(treq));
-        treq.setMeta(TableMeta.RESULTSET_ID, resultSetID);
+            // save information needed to recreated this resultset
+            treq.setMeta(TableMeta.RESULTSET_REQ, makeResultSetReqStr(treq));
+            treq.setMeta(TableMeta.RESULTSET_ID, resultSetID);
 
-        return page;
+            return page;
+        }
     }
 
     // use HIGHLIGHTED_ROW_BY_ROWIDX if exists then check HIGHLIGHTED_ROW
@@ -43,6 +43,11 @@ public class EmbeddedDbProcessorWrapper extends EmbeddedDbProcessor {
         return processor.fetchDataGroup(nreq);
     }
 
+    protected File getTableFile(TableServerRequest req) throws DataAccessException {
+        TableServerRequest nreq = (TableServerRequest) req.cloneRequest();
+        return processor.getTableFile(nreq);
+    }
+
     public void prepareTableMeta(TableMeta defaults, List<DataType> columns, ServerRequest request) {
         processor.prepareTableMeta(defaults, columns, request);
     }
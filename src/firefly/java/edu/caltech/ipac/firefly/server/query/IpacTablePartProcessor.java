@@ -11,6 +11,7 @@ import edu.caltech.ipac.table.query.DataGroupQueryStatement;
 import edu.caltech.ipac.table.query.InvalidStatementException;
 import edu.caltech.ipac.table.io.IpacTableException;
 import edu.caltech.ipac.table.io.IpacTableWriter;
+import edu.caltech.ipac.table.io.SpillTableIO;
 import edu.caltech.ipac.firefly.core.EndUserException;
 import edu.caltech.ipac.firefly.core.SearchDescResolver;
 import edu.caltech.ipac.firefly.data.*;
@@ -58,6 +59,8 @@ abstract public class IpacTablePartProcessor implements SearchProcessor<DataGrou
     //public static long logCounter = 0;
     private static final List<String> PAGE_PARAMS = Arrays.asList(PAGE_SIZE, START_IDX);
     private static final String SYS_PARAMS = "|" + StringUtils.toString(new String[]{FILTERS,SORT_INFO,PAGE_SIZE,START_IDX,INCL_COLUMNS,FIXED_LENGTH,META_INFO,TBL_ID}, "|") + "|";
+    private static final long SPILL_MIN_BYTES = AppProperties.getLongProperty("ipac.spill.min.bytes", 4 * 1024 * 1024);
+    private static final long MAPPED_MIN_BYTES = AppProperties.getLongProperty("ipac.fetch.mapped.min.bytes", 512 * 1024 * 1024);
 
 
 
@@ -365,7 +368,7 @@ abstract public class IpacTablePartProcessor implements SearchProcessor<DataGrou
                 String yColExpr = decimateInfo.getyColumnName();
                 String [] requestedCols = new String[]{xColExpr, yColExpr};
 
-                DataGroup dg = IpacTableReader.read(resultsFile, requestedCols);
+                DataGroup dg = readTable(resultsFile, requestedCols);
 
                 deciFile = File.createTempFile(getFilePrefix(request), ".tbl", ServerContext.getTempWorkDir());
                 DataGroup retval = QueryUtil.doDecimation(dg, decimateInfo);
@@ -415,7 +418,7 @@ abstract public class IpacTablePartProcessor implements SearchProcessor<DataGrou
         StopWatch timer = StopWatch.getInstance();
         timer.start("read");
         int pageSize = request.getPageSize();
-        DataGroup dg = IpacTableReader.read(inFile);
+        DataGroup dg = readTable(inFile);
         // if this file does not contain ROW_IDX, add it.
         if (!dg.containsKey(DataGroup.ROW_IDX)) {
             dg.addDataDefinition(DataGroup.makeRowIdx());
@@ -431,6 +434,49 @@ abstract public class IpacTablePartProcessor implements SearchProcessor<DataGrou
     }
 
 
+    /**
+     * Read the given IPAC table file, from its spill file when it has one.  The first time a large file is read
+     * in its entirety, its spill file is written, so the next fetch, sort or decimation of it does not parse it again.
+     * @param inf the IPAC table file
+     * @param onlyColumns the columns to read; all when none are given
+     * @return the table
+     * @throws IOException
+     */
+    public static DataGroup readTable(File inf, String... onlyColumns) throws IOException {
+        return readTable(inf, DataGroup.Storage.HEAP, onlyColumns);
+    }
+
+    /**
+     * Same as {@link #readTable(File, String...)}, but into the given storage.  Spill files are only used for HEAP storage.
+     * @param inf the IPAC table file
+     * @param storage how the column data is stored
+     * @param onlyColumns the columns to read; all when none are given
+     * @return the table
+     * @throws IOException
+     */
+    public static DataGroup readTable(File inf, DataGroup.Storage storage, String... onlyColumns) throws IOException {
+        if (storage != DataGroup.Storage.HEAP) return IpacTableReader.read(inf, storage, onlyColumns);
+
+        File spill = SpillTableIO.getSpillFile(inf);
+        try {
+            DataGroup dg = SpillTableIO.read(spill, inf, onlyColumns);
+            if (dg != null) return dg;
+        } catch (Exception e) {
+            LOGGER.warn(e, "Unable to read spill file: " + spill.getPath());
+        }
+
+        DataGroup dg = IpacTableReader.read(inf, onlyColumns);
+        boolean isAll = onlyColumns == null || onlyColumns.length == 0;
+        if (isAll && inf.length() >= SPILL_MIN_BYTES) {
+            try {
+                SpillTableIO.write(spill, dg, inf);
+            } catch (Exception e) {
+                LOGGER.warn(e, "Unable to write spill file: " + spill.getPath());
+            }
+        }
+        return dg;
+    }
+
 //====================================================================
 //
 //====================================================================
@@ -448,12 +494,26 @@ abstract public class IpacTablePartProcessor implements SearchProcessor<DataGrou
      */
     public DataGroup fetchDataGroup(TableServerRequest req) throws DataAccessException {
         try {
-            return IpacTableReader.read(loadDataFile(req));
+            File inf = loadDataFile(req);
+            // only a very large table is kept off the heap; it is then read serially
+            DataGroup.Storage storage = inf.length() >= MAPPED_MIN_BYTES ? DataGroup.Storage.MAPPED : DataGroup.Storage.HEAP;
+            return readTable(inf, storage);
         } catch (IOException e) {
             throw new DataAccessException(e.getMessage(), e);
         }
     }
 
+    /**
+     * When the data of a request comes from a table file on the server, return it so that it can be
+     * streamed into the database instead of going through fetchDataGroup.
+     * @param req
+     * @return the table file, or null if fetchDataGroup should be used.
+     * @throws DataAccessException
+     */
+    public File getTableFile(TableServerRequest req) throws DataAccessException {
+        return null;
+    }
+
     /**
      * subclass provide how the data are collected
      *
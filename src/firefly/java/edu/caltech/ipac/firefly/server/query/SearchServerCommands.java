@@ -17,13 +17,14 @@ import edu.caltech.ipac.firefly.server.ServCommand;
 import edu.caltech.ipac.firefly.server.db.EmbeddedDbUtil;
 import edu.caltech.ipac.firefly.server.packagedata.BackgroundInfoCacher;
 import edu.caltech.ipac.firefly.server.util.QueryUtil;
+import edu.caltech.ipac.table.BinaryTableWriter;
 import edu.caltech.ipac.table.DataGroupPart;
-import edu.caltech.ipac.table.JsonTableUtil;
+import edu.caltech.ipac.table.JsonTableWriter;
 import edu.caltech.ipac.firefly.server.SrvParam;
 import edu.caltech.ipac.util.StringUtils;
-import org.json.simple.JSONObject;
 
 import java.io.IOException;
+import java.io.OutputStream;
 import java.util.*;
 import java.util.stream.Collectors;
 
@@ -32,22 +33,50 @@ import java.util.stream.Collectors;
  */
 public class SearchServerCommands {
 
+    /**
+     * @return a writer of the given page, in the format the request asks for
+     */
+    static ServCommand.ResultWriter makeTableWriter(DataGroupPart page, TableServerRequest treq) {
+        if (!BinaryTableWriter.isRequested(treq)) {
+            return out -> JsonTableWriter.write(out, page, treq);
+        }
+        return new ServCommand.ResultWriter() {
+            public void write(OutputStream out) throws IOException {
+                BinaryTableWriter.write(out, page, treq);
+            }
+            public String getContentType() { return BinaryTableWriter.CONTENT_TYPE; }
+        };
+    }
+
 
 
 
     public static class TableSearch extends ServCommand {
 
         public String doCommand(SrvParam params) throws Exception {
+            return streamToString(params);
+        }
+
+        public ResultWriter doStreamCommand(SrvParam params) throws Exception {
             TableServerRequest tsr = params.getTableServerRequest();
             DataGroupPart dgp = new SearchManager().getDataGroup(tsr);
-            JSONObject json = JsonTableUtil.toJsonTableModel(dgp, tsr);
-            return json.toJSONString();
+            return makeTableWriter(dgp, tsr);
         }
     }
 
     public static class QueryTable extends ServCommand {
 
         public String doCommand(SrvParam params) throws Exception {
+            return streamToString(params);
+        }
+
+        public ResultWriter doStreamCommand(SrvParam params) throws Exception {
+            TableServerRequest treq = makeRequest(params);
+            DataGroupPart page = new SearchManager().getDataGroup(treq);
+            return makeTableWriter(page, treq);
+        }
+
+        private static TableServerRequest makeRequest(SrvParam params) {
             TableServerRequest treq = (TableServerRequest) params.getTableServerRequest().cloneRequest();
             treq.setStartIndex(0);
             treq.setPageSize(Integer.MAX_VALUE);
@@ -58,26 +87,28 @@ public class SearchServerCommands {
             if (!StringUtils.isEmpty(sortInfo)) {
                 treq.setSortInfo(SortInfo.parse(sortInfo));
             }
-
-            DataGroupPart page = new SearchManager().getDataGroup(treq);
-            return JsonTableUtil.toJsonTableModel(page, treq).toJSONString();
+            return treq;
         }
     }
 
     public static class SelectedValues extends ServCommand {
 
         public String doCommand(SrvParam params) throws Exception {
+            return streamToString(params);
+        }
+
+        public ResultWriter doStreamCommand(SrvParam params) throws Exception {
             String requestJson = params.getRequired(ServerParams.REQUEST);
             TableServerRequest treq = QueryUtil.convertToServerRequest(requestJson);
-            try {
-                List<String> cols = StringUtils.asList(params.getRequired("columnNames"), ",");
-                String[] colsAry = cols == null ? null : cols.toArray(new String[cols.size()]);
-                List<Integer> rows = StringUtils.convertToListInteger(params.getRequired("selectedRows"), ",");
-                DataGroupPart page = EmbeddedDbUtil.getSelectedDataAsDGPart(treq, rows, colsAry);
-                return JsonTableUtil.toJsonTableModel(page, treq).toJSONString();
-            } catch (IOException e) {
-                throw new DataAccessException("Unable to resolve a search processor for this request.  SelectedValues aborted.");
-            }
+            DataGroupPart page = getSelected(params, treq);
+            return makeTableWriter(page, treq);
+        }
+
+        private static DataGroupPart getSelected(SrvParam params, TableServerRequest treq) {
+            List<String> cols = StringUtils.asList(params.getRequired("columnNames"), ",");
+            String[] colsAry = cols == null ? null : cols.toArray(new String[cols.size()]);
+            List<Integer> rows = StringUtils.convertToListInteger(params.getRequired("selectedRows"), ",");
+            return EmbeddedDbUtil.getSelectedDataAsDGPart(treq, rows, colsAry);
         }
     }
 
@@ -5,9 +5,8 @@ import edu.caltech.ipac.firefly.data.Param;
 import edu.caltech.ipac.firefly.data.ServerParams;
 import edu.caltech.ipac.firefly.data.TableServerRequest;
 import edu.caltech.ipac.firefly.server.db.DbAdapter;
-import edu.caltech.ipac.firefly.server.db.DbInstance;
 import edu.caltech.ipac.firefly.server.db.EmbeddedDbUtil;
-import edu.caltech.ipac.firefly.server.db.spring.JdbcFactory;
+import edu.caltech.ipac.firefly.server.db.ResultSetCache;
 import edu.caltech.ipac.firefly.server.util.QueryUtil;
 import edu.caltech.ipac.table.DataGroupPart;
 import edu.caltech.ipac.table.DataGroup;
@@ -81,16 +80,13 @@ public abstract class TableFunctionProcessor extends EmbeddedDbProcessor {
         String resTblName = getResultSetTable(treq);
 
         DbAdapter dbAdapter = DbAdapter.getAdapter(treq);
-        DbInstance dbInstance =  dbAdapter.getDbInstance(dbFile);
-        String tblExists = String.format("select count(*) from %s", resTblName);
-        try {
-            JdbcFactory.getSimpleTemplate(dbInstance).queryForInt(tblExists);
-        } catch (Exception e) {
-            // does not exists.. fetch data and populate
-            DataGroup data = fetchData(treq, dbFile, dbAdapter);
-            EmbeddedDbUtil.ingestDataGroup(dbFile, data, dbAdapter, resTblName);
+        try (ResultSetCache.Entry resTbl = ensureTable(treq, dbFile, resTblName, () -> {
+                // does not exists.. fetch data and populate
+                DataGroup data = fetchData(treq, dbFile, dbAdapter);
+                return EmbeddedDbUtil.ingestDataGroup(dbFile, data, dbAdapter, resTblName);
+            })) {
+            return EmbeddedDbUtil.execRequestQuery(treq, dbFile, resTblName);
         }
-        return EmbeddedDbUtil.execRequestQuery(treq, dbFile, resTblName);
     }
 
     protected TableServerRequest getSearchRequest(TableServerRequest treq) throws DataAccessException {
@@ -31,21 +31,25 @@ public class UserCatalogQuery extends IpacTablePartProcessor {
 
     @Override
     public DataGroup fetchDataGroup(TableServerRequest req) throws DataAccessException {
+        File userCatFile = getTableFile(req);
+        try {
+            int tblIdx = req.getIntParam(TableServerRequest.TBL_INDEX, 0);
+            return TableUtil.readAnyFormat(userCatFile, tblIdx, req.getMeta());
+        } catch (IOException e) {
+            throw new DataAccessException(e.getMessage(), e);
+        }
+    }
+
+    @Override
+    public File getTableFile(TableServerRequest req) throws DataAccessException {
         String filePath = req.getParam("filePath");
 
         if (StringUtils.isEmpty(filePath)) throw new DataAccessException("filePath parameter is not found");
 
-        File userCatFile;
         if (ServerParams.IS_WS.equals(req.getParam(ServerParams.SOURCE_FROM))) {
-            userCatFile = WsServerUtils.getFileFromWorkspace(filePath);
+            return WsServerUtils.getFileFromWorkspace(filePath);
         } else {
-            userCatFile = ServerContext.convertToFile(filePath);
-        }
-        try {
-            int tblIdx = req.getIntParam(TableServerRequest.TBL_INDEX, 0);
-            return TableUtil.readAnyFormat(userCatFile, tblIdx, req.getMeta());
-        } catch (IOException e) {
-            throw new DataAccessException(e.getMessage(), e);
+            return ServerContext.convertToFile(filePath);
         }
     }
 
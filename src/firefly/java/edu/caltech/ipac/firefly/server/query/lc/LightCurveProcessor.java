@@ -9,12 +9,13 @@ import edu.caltech.ipac.firefly.server.query.IpacTablePartProcessor;
 import edu.caltech.ipac.firefly.server.query.SearchProcessorImpl;
 import edu.caltech.ipac.firefly.server.util.QueryUtil;
 import edu.caltech.ipac.table.DataGroup;
+import edu.caltech.ipac.util.AppProperties;
 import edu.caltech.ipac.util.download.FailedRequestException;
 import java.io.*;
 
 
 /**
- * This class takes care of the LC api call and return result IpacTable Data.
+ * This class computes the periodogram of a light curve and return result IpacTable Data.
  */
 
 @SearchProcessorImpl(id = "LightCurveProcessor")
@@ -24,13 +25,18 @@ public class LightCurveProcessor extends IpacTablePartProcessor {
     // API will return votable, depending on the request, return either peaks or periodogram table, which names are predefined here:
     private static final String PERIODOGRAM_TABLE_NAME = "periodogram_table.tbl";
     private static final String PEAKS_TABLE_NAME = "peaks_table.tbl";
-    private final IrsaLightCurveHandler h;
+    private final LightCurveHandler h;
 
     /**
-     * Class handling the API call and returning LC result table
+     * Periodograms are computed in this server, unless lc.periodogram.engine is set to 'irsa' to use the IRSA API
      */
     public LightCurveProcessor() {
-        h = new IrsaLightCurveHandler();
+        this(AppProperties.getProperty("lc.periodogram.engine", "local").equalsIgnoreCase("irsa")
+                ? new IrsaLightCurveHandler() : new LocalLightCurveHandler());
+    }
+
+    LightCurveProcessor(LightCurveHandler h) {
+        this.h = h;
     }
 
 
@@ -62,7 +68,7 @@ public class LightCurveProcessor extends IpacTablePartProcessor {
     }
 
     /**
-     * From the request, get the file and the algorithm to compute the peridogram by calling external API
+     * From the request, get the file and the algorithm to compute the peridogram
      *
      * @param req     request
      * @param tblName table name to distinguish them
@@ -0,0 +1,188 @@
+/*
+ * License information at https://github.com/Caltech-IPAC/firefly/blob/master/License.txt
+ */
+package edu.caltech.ipac.firefly.server.query.lc;
+
+import edu.caltech.ipac.firefly.data.TableServerRequest;
+import edu.caltech.ipac.firefly.server.query.DataAccessException;
+import edu.caltech.ipac.firefly.server.query.SearchManager;
+import edu.caltech.ipac.firefly.server.util.Logger;
+import edu.caltech.ipac.firefly.server.util.SingleFlight;
+import edu.caltech.ipac.table.DataGroup;
+import edu.caltech.ipac.table.DataObject;
+import edu.caltech.ipac.table.DataType;
+import edu.caltech.ipac.util.AppProperties;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Computes periodograms in this server with {@link PeriodogramCalculator}, instead of calling the IRSA
+ * periodogram API.  Lomb-Scargle (alg=ls) and Box-fitting Least Squares (alg=bls) are supported; any other
+ * algorithm is passed on to the API.
+ *
+ * The periodogram and peaks tables of a light curve are requested one after the other, so both are made from one
+ * computation: concurrent requests share a running computation, and its result is kept for lc.periodogram.cache.secs
+ * so a request that comes right after it is done reuses it.  At most {@link #MAX_RECENT} results are kept.
+ *
+ * @see PeriodogramAPIRequest
+ */
+public class LocalLightCurveHandler extends IrsaLightCurveHandler {
+
+    private static final Logger.LoggerImpl LOG = Logger.getLogger();
+    private static final int MAX_STEPS = AppProperties.getIntProperty("lc.periodogram.max.steps", 500000);
+    private static final long CACHE_MILLS = AppProperties.getLongProperty("lc.periodogram.cache.secs", 60) * 1000;
+    private static final int MAX_RECENT = 4;
+    private static final SingleFlight<String, Result> computing = new SingleFlight<>();
+    private static final Map<String, Recent> recent = new LinkedHashMap<>();
+
+    public DataGroup getPeriodogramTable(PeriodogramAPIRequest request) {
+        if (getAlgorithm(request) == null) return super.getPeriodogramTable(request);
+        Result result = compute(request);
+        return result == null ? null : makePeriodogramTable(result);
+    }
+
+    public DataGroup getPeaksTable(PeriodogramAPIRequest request) {
+        if (getAlgorithm(request) == null) return super.getPeaksTable(request);
+        Result result = compute(request);
+        return result == null ? null : makePeaksTable(result, request.getNumberPeaks());
+    }
+
+    /**
+     * @return the algorithm of the request, or null if it is not computed locally
+     */
+    static PeriodogramCalculator.Algorithm getAlgorithm(PeriodogramAPIRequest request) {
+        String alg = request.getAlgoName();
+        if (alg == null || alg.equalsIgnoreCase("ls")) return PeriodogramCalculator.Algorithm.LS;
+        if (alg.equalsIgnoreCase("bls")) return PeriodogramCalculator.Algorithm.BLS;
+        return null;
+    }
+
+    private Result compute(PeriodogramAPIRequest request) {
+        String key = String.join("|", request.getLcSource(), request.getTimeColName(), request.getDataColName(),
+                                 request.getAlgoName(), request.getParam(PeriodogramAPIRequest.MINIMUM_PERIOD),
+                                 request.getParam(PeriodogramAPIRequest.MAXIMUM_PERIOD),
+                                 request.getStepMethodName(), request.getParam(PeriodogramAPIRequest.STEP_SIZE));
+        Result cached = getRecent(key);
+        if (cached != null) return cached;
+        try {
+            return computing.run(key, () -> {
+                Result r = getRecent(key);
+                if (r == null) {
+                    TableServerRequest sreq = getTableServerRequest(request);
+                    DataGroup lc = new SearchManager().getDataGroup(sreq).getData();
+                    r = compute(lc, request);
+                    synchronized (recent) {
+                        recent.put(key, new Recent(r));
+                        if (recent.size() > MAX_RECENT) recent.remove(recent.keySet().iterator().next());
+                    }
+                }
+                return r;
+            });
+        } catch (Exception e) {
+            LOG.error(e, "Unable to compute the periodogram: " + e.getMessage());
+            return null;
+        }
+    }
+
+    private static Result getRecent(String key) {
+        synchronized (recent) {
+            Recent r = recent.get(key);
+            if (r == null) return null;
+            if (System.currentTimeMillis() - r.time < CACHE_MILLS) return r.result;
+            recent.remove(key);
+            return null;
+        }
+    }
+
+    static Result compute(DataGroup lc, PeriodogramAPIRequest request) throws DataAccessException {
+        String tCol = request.getTimeColName();
+        String yCol = request.getDataColName();
+        if (lc == null || !lc.containsKey(tCol) || !lc.containsKey(yCol)) {
+            throw new DataAccessException("Light curve does not have the columns: " + tCol + ", " + yCol);
+        }
+        int size = lc.size();
+        double[] t = new double[size];
+        double[] y = new double[size];
+        int n = 0;
+        for (int i = 0; i < size; i++) {
+            double tv = lc.getDouble(tCol, i);
+            double yv = lc.getDouble(yCol, i);
+            if (Double.isNaN(tv) || Double.isNaN(yv)) continue;
+            t[n] = tv;
+            y[n] = yv;
+            n++;
+        }
+        t = Arrays.copyOf(t, n);
+        y = Arrays.copyOf(y, n);
+
+        PeriodogramCalculator.StepMethod method = "fixedp".equalsIgnoreCase(request.getStepMethodName())
+                ? PeriodogramCalculator.StepMethod.FIXED_PERIOD : PeriodogramCalculator.StepMethod.FIXED_FREQUENCY;
+        try {
+            double[] periods = PeriodogramCalculator.makePeriods(t, request.getDoubleParam(PeriodogramAPIRequest.MINIMUM_PERIOD),
+                                                                 request.getDoubleParam(PeriodogramAPIRequest.MAXIMUM_PERIOD),
+                                                                 method, request.getDoubleParam(PeriodogramAPIRequest.STEP_SIZE), MAX_STEPS);
+            double[] power = getAlgorithm(request) == PeriodogramCalculator.Algorithm.BLS
+                    ? PeriodogramCalculator.bls(t, y, periods)
+                    : PeriodogramCalculator.lombScargle(t, y, periods, method == PeriodogramCalculator.StepMethod.FIXED_FREQUENCY);
+            return new Result(periods, power);
+        } catch (IllegalArgumentException e) {
+            throw new DataAccessException(e.getMessage());
+        }
+    }
+
+    static DataGroup makePeriodogramTable(Result result) {
+        DataType period = makeCol("Period", Double.class, "day");
+        DataType power = makeCol("Power", Double.class, null);
+        DataGroup dg = new DataGroup("periodogram", new DataType[] {period, power});
+        for (int i = 0; i < result.periods.length; i++) {
+            DataObject row = new DataObject(dg);
+            row.setDataElement(period, result.periods[i]);
+            row.setDataElement(power, result.power[i]);
+            dg.add(row);
+        }
+        return dg;
+    }
+
+    static DataGroup makePeaksTable(Result result, int maxPeaks) {
+        DataType peak = makeCol("Peak", Integer.class, null);
+        DataType period = makeCol("Period", Double.class, "day");
+        DataType power = makeCol("Power", Double.class, null);
+        DataType sde = makeCol("SDE", Double.class, null);
+        DataGroup dg = new DataGroup("peaks", new DataType[] {peak, period, power, sde});
+        int[] peaks = PeriodogramCalculator.findPeaks(result.power, maxPeaks);
+        for (int i = 0; i < peaks.length; i++) {
+            DataObject row = new DataObject(dg);
+            row.setDataElement(peak, i + 1);
+            row.setDataElement(period, result.periods[peaks[i]]);
+            row.setDataElement(power, result.power[peaks[i]]);
+            row.setDataElement(sde, PeriodogramCalculator.sde(result.power[peaks[i]], result.power));
+            dg.add(row);
+        }
+        return dg;
+    }
+
+    private static DataType makeCol(String name, Class<?> type, String units) {
+        DataType dt = new DataType(name, type);
+        if (units != null) dt.setUnits(units);
+        return dt;
+    }
+
+    static class Result {
+        final double[] periods;
+        final double[] power;
+
+        Result(double[] periods, double[] power) {
+            this.periods = periods;
+            this.power = power;
+        }
+    }
+
+    private static class Recent {
+        private final Result result;
+        private final long time = System.currentTimeMillis();
+
+        Recent(Result result) { this.result = result; }
+    }
+}
@@ -0,0 +1,242 @@
+/*
+ * License information at https://github.com/Caltech-IPAC/firefly/blob/master/License.txt
+ */
+package edu.caltech.ipac.firefly.server.query.lc;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.IntStream;
+
+/**
+ * Computes the periodogram of a light curve held in primitive arrays.  The trial periods are split into
+ * chunks of CHUNK_SIZE, which are computed in parallel on the common fork/join pool.
+ *
+ * Lomb-Scargle power uses the classic normalization, 1/(2 variance), as in Horne &amp; Baliunas (1986).
+ * When the trial frequencies are evenly spaced, the sines and cosines of each chunk are computed once for its
+ * first frequency and then rotated from one frequency to the next, as in Press &amp; Rybicki (1989).
+ *
+ * Box-fitting Least Squares follows Kovács, Zucker &amp; Mazeh (2002): the curve is folded and binned at each
+ * period, and the power is the signal residue of the best box of 1% to 10% of the period.
+ */
+public class PeriodogramCalculator {
+
+    public enum Algorithm {LS, BLS}
+    public enum StepMethod {FIXED_FREQUENCY, FIXED_PERIOD}
+
+    static final int CHUNK_SIZE = 512;
+    private static final int SAMPLES_PER_PEAK = 5;
+    private static final int NYQUIST_FACTOR = 5;
+    private static final int BLS_BINS = 200;
+    private static final double BLS_QMIN = 0.01;
+    private static final double BLS_QMAX = 0.1;
+
+    /**
+     * The trial periods, in ascending order.  With FIXED_FREQUENCY, the frequencies are evenly spaced.
+     * Defaults follow astropy's autofrequency: a frequency step of 1/(5 baseline), and a minimum period
+     * of baseline/(2.5 N).  The default maximum period is half the baseline.
+     * @param t the times
+     * @param pmin the minimum period, or NaN for the default
+     * @param pmax the maximum period, or NaN for the default
+     * @param method the step method
+     * @param stepSize the frequency step for FIXED_FREQUENCY, the period step for FIXED_PERIOD, or NaN for the default
+     * @param maxSteps the maximum number of periods.  The step is made larger to stay under it.
+     * @return the periods
+     */
+    public static double[] makePeriods(double[] t, double pmin, double pmax, StepMethod method, double stepSize, int maxSteps) {
+        double tmin = Double.MAX_VALUE, tmax = -Double.MAX_VALUE;
+        for (double v : t) {
+            tmin = Math.min(tmin, v);
+            tmax = Math.max(tmax, v);
+        }
+        double baseline = tmax - tmin;
+        if (t.length < 2 || baseline <= 0) throw new IllegalArgumentException("Light curve needs at least two different times");
+        if (!(pmax > 0)) pmax = baseline / 2;
+        if (!(pmin > 0)) pmin = baseline / (0.5 * NYQUIST_FACTOR * t.length);
+        if (pmin >= pmax) throw new IllegalArgumentException("Minimum period must be less than the maximum period");
+
+        double fmin = 1 / pmax, fmax = 1 / pmin;
+        if (method == StepMethod.FIXED_PERIOD) {
+            double step = stepSize > 0 ? stepSize : pmin * pmin / (SAMPLES_PER_PEAK * baseline);
+            int n = (int) Math.min(maxSteps, Math.floor((pmax - pmin) / step) + 1);
+            step = n > 1 ? Math.max(step, (pmax - pmin) / (n - 1)) : 0;
+            double[] periods = new double[n];
+            for (int i = 0; i < n; i++) periods[i] = pmin + i * step;
+            return periods;
+        } else {
+            double df = stepSize > 0 ? stepSize : 1 / (SAMPLES_PER_PEAK * baseline);
+            int n = (int) Math.min(maxSteps, Math.floor((fmax - fmin) / df) + 1);
+            df = n > 1 ? Math.max(df, (fmax - fmin) / (n - 1)) : 0;
+            double[] periods = new double[n];
+            for (int i = 0; i < n; i++) periods[i] = 1 / (fmax - i * df);
+            return periods;
+        }
+    }
+
+    /**
+     * @param t the times
+     * @param y the values
+     * @param periods the trial periods
+     * @param evenFrequencies true if 1/periods are evenly spaced, as returned by makePeriods with FIXED_FREQUENCY
+     * @return the Lomb-Scargle power at each period
+     */
+    public static double[] lombScargle(double[] t, double[] y, double[] periods, boolean evenFrequencies) {
+        int n = t.length;
+        double tref = mean(t);
+        double ymean = mean(y);
+        double[] tt = new double[n];
+        double[] yy = new double[n];
+        double var = 0;
+        for (int i = 0; i < n; i++) {
+            tt[i] = t[i] - tref;
+            yy[i] = y[i] - ymean;
+            var += yy[i] * yy[i];
+        }
+        var /= Math.max(1, n - 1);
+        double norm = var > 0 ? 1 / (2 * var) : 0;
+
+        double[] power = new double[periods.length];
+        forEachChunk(periods.length, (from, to) -> {
+            double[] c = new double[n], s = new double[n], dc = null, ds = null;
+            if (evenFrequencies && to - from > 1) {
+                double df = 2 * Math.PI * (1 / periods[from + 1] - 1 / periods[from]);
+                dc = new double[n];
+                ds = new double[n];
+                for (int i = 0; i < n; i++) {
+                    dc[i] = Math.cos(df * tt[i]);
+                    ds[i] = Math.sin(df * tt[i]);
+                }
+            }
+            for (int k = from; k < to; k++) {
+                if (k == from || dc == null) {
+                    double w = 2 * Math.PI / periods[k];
+                    for (int i = 0; i < n; i++) {
+                        c[i] = Math.cos(w * tt[i]);
+                        s[i] = Math.sin(w * tt[i]);
+                    }
+                } else {
+                    for (int i = 0; i < n; i++) {
+                        double ci = c[i];
+                        c[i] = ci * dc[i] - s[i] * ds[i];
+                        s[i] = s[i] * dc[i] + ci * ds[i];
+                    }
+                }
+                double yc = 0, ys = 0, cc = 0, cs = 0;
+                for (int i = 0; i < n; i++) {
+                    yc += yy[i] * c[i];
+                    ys += yy[i] * s[i];
+                    cc += c[i] * c[i];
+                    cs += c[i] * s[i];
+                }
+                double ss = n - cc;
+                double wtau = 0.5 * Math.atan2(2 * cs, cc - ss);
+                double ct = Math.cos(wtau), st = Math.sin(wtau);
+                double ycTau = ct * yc + st * ys;
+                double ysTau = ct * ys - st * yc;
+                double ccTau = ct * ct * cc + 2 * ct * st * cs + st * st * ss;
+                double ssTau = ct * ct * ss - 2 * ct * st * cs + st * st * cc;
+                double p = 0;
+                if (ccTau > 1e-12) p += ycTau * ycTau / ccTau;
+                if (ssTau > 1e-12) p += ysTau * ysTau / ssTau;
+                power[k] = norm * p;
+            }
+        });
+        return power;
+    }
+
+    /**
+     * @param t the times
+     * @param y the values
+     * @param periods the trial periods
+     * @return the BLS signal residue at each period
+     */
+    public static double[] bls(double[] t, double[] y, double[] periods) {
+        int n = t.length;
+        double tmin = Arrays.stream(t).min().orElse(0);
+        double ymean = mean(y);
+        int kmin = Math.max(1, (int) (BLS_QMIN * BLS_BINS));
+        int kmax = Math.max(kmin, (int) Math.ceil(BLS_QMAX * BLS_BINS));
+
+        double[] power = new double[periods.length];
+        forEachChunk(periods.length, (from, to) -> {
+            int[] cnt = new int[2 * BLS_BINS];
+            double[] sum = new double[2 * BLS_BINS];
+            for (int k = from; k < to; k++) {
+                Arrays.fill(cnt, 0);
+                Arrays.fill(sum, 0);
+                double p = periods[k];
+                for (int i = 0; i < n; i++) {
+                    double phase = (t[i] - tmin) / p;
+                    int b = (int) ((phase - Math.floor(phase)) * BLS_BINS);
+                    if (b >= BLS_BINS) b = BLS_BINS - 1;
+                    cnt[b]++;
+                    sum[b] += y[i] - ymean;
+                }
+                // the bins twice, so a box may wrap around phase 1
+                System.arraycopy(cnt, 0, cnt, BLS_BINS, BLS_BINS);
+                System.arraycopy(sum, 0, sum, BLS_BINS, BLS_BINS);
+                double best = 0;
+                for (int j = 0; j < BLS_BINS; j++) {
+                    int c = 0;
+                    double sm = 0;
+                    for (int w = 0; w < kmax; w++) {
+                        c += cnt[j + w];
+                        sm += sum[j + w];
+                        if (w + 1 < kmin || c == 0 || c == n) continue;
+                        double r = (double) c / n;
+                        double sr = (sm / n) * (sm / n) / (r * (1 - r));
+                        if (sr > best) best = sr;
+                    }
+                }
+                power[k] = Math.sqrt(best);
+            }
+        });
+        return power;
+    }
+
+    /**
+     * @param power the power at each period
+     * @param maxPeaks the number of peaks to return
+     * @return the indexes of the local maxima, highest first
+     */
+    public static int[] findPeaks(double[] power, int maxPeaks) {
+        List<Integer> peaks = new ArrayList<>();
+        for (int i = 0; i < power.length; i++) {
+            boolean left = i == 0 || power[i] > power[i - 1];
+            boolean right = i == power.length - 1 || power[i] >= power[i + 1];
+            if (left && right && power.length > 1) peaks.add(i);
+        }
+        return peaks.stream()
+                    .sorted((a, b) -> Double.compare(power[b], power[a]))
+                    .limit(maxPeaks)
+                    .mapToInt(Integer::intValue)
+                    .toArray();
+    }
+
+    /**
+     * @return the signal detection efficiency of the given power: how many standard deviations it is above the mean power
+     */
+    public static double sde(double value, double[] power) {
+        double m = mean(power);
+        double var = 0;
+        for (double p : power) var += (p - m) * (p - m);
+        double sd = Math.sqrt(var / Math.max(1, power.length - 1));
+        return sd > 0 ? (value - m) / sd : 0;
+    }
+
+    private static double mean(double[] vals) {
+        double sum = 0;
+        for (double v : vals) sum += v;
+        return vals.length == 0 ? 0 : sum / vals.length;
+    }
+
+    private static void forEachChunk(int size, ChunkTask task) {
+        int nChunks = (size + CHUNK_SIZE - 1) / CHUNK_SIZE;
+        IntStream.range(0, nChunks).parallel()
+                 .forEach(i -> task.compute(i * CHUNK_SIZE, Math.min(size, (i + 1) * CHUNK_SIZE)));
+    }
+
+    private interface ChunkTask {
+        void compute(int from, int to);
+    }
+}
@@ -53,11 +53,8 @@ public class IpacTableFromSource extends IpacTablePartProcessor {
 
     public DataGroup fetchDataGroup(TableServerRequest req) throws DataAccessException {
 
-        String source = req.getParam(ServerParams.SOURCE);
-        String altSource = req.getParam(ServerParams.ALT_SOURCE);
         String processor = req.getParam("processor");
         String jsonSearchRequest = req.getParam(SEARCH_REQUEST);
-        boolean checkForUpdates = req.getBooleanParam(URL_CHECK_FOR_NEWER, true);
 
         // by processor ID
         if (!StringUtils.isEmpty(processor)) {
@@ -70,8 +67,28 @@ public class IpacTableFromSource extends IpacTablePartProcessor {
         }
 
         // file based source
-        File inf;
+        File inf = resolveTableFile(req);
+
+        try {
+            int tblIdx = req.getIntParam(TBL_INDEX, 0);
+            return TableUtil.readAnyFormat(inf, tblIdx, req.getMeta());
+        } catch (IOException e) {
+            throw new DataAccessException(e.getMessage(), e);
+        }
+    }
 
+    @Override
+    public File getTableFile(TableServerRequest req) throws DataAccessException {
+        boolean isFileBased = StringUtils.isEmpty(req.getParam("processor")) && StringUtils.isEmpty(req.getParam(SEARCH_REQUEST));
+        return isFileBased ? resolveTableFile(req) : null;
+    }
+
+    private File resolveTableFile(TableServerRequest req) throws DataAccessException {
+        String source = req.getParam(ServerParams.SOURCE);
+        String altSource = req.getParam(ServerParams.ALT_SOURCE);
+        boolean checkForUpdates = req.getBooleanParam(URL_CHECK_FOR_NEWER, true);
+
+        File inf;
         if (isWorkspace(req)) {
             // by workspace
             inf = getFromWorkspace(source, altSource);
@@ -82,13 +99,7 @@ public class IpacTableFromSource extends IpacTablePartProcessor {
                 inf = getSourceFile(altSource, req, checkForUpdates);
             }
         }
-
-        try {
-            int tblIdx = req.getIntParam(TBL_INDEX, 0);
-            return TableUtil.readAnyFormat(inf, tblIdx, req.getMeta());
-        } catch (IOException e) {
-            throw new DataAccessException(e.getMessage(), e);
-        }
+        return inf;
     }
 
     protected File loadDataFile(TableServerRequest request) throws IOException, DataAccessException {
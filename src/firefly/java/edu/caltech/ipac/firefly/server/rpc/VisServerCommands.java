@@ -19,6 +19,7 @@ import edu.caltech.ipac.firefly.server.ServerCommandAccess;
 import edu.caltech.ipac.firefly.server.SrvParam;
 import edu.caltech.ipac.firefly.server.servlets.CommandService;
 import edu.caltech.ipac.firefly.server.util.Logger;
+import edu.caltech.ipac.firefly.server.visualize.DirectStretchUtils;
 import edu.caltech.ipac.firefly.server.visualize.VisJsonSerializer;
 import edu.caltech.ipac.firefly.server.visualize.VisServerOps;
 import edu.caltech.ipac.firefly.server.visualize.WebPlotResultSerializer;
@@ -37,6 +38,7 @@ import org.json.simple.JSONArray;
 import org.json.simple.JSONObject;
 
 import javax.servlet.http.HttpServletRequest;
+import java.awt.Rectangle;
 import javax.servlet.http.HttpServletResponse;
 import java.io.IOException;
 import java.nio.ByteBuffer;
@@ -200,8 +202,30 @@ public class VisServerCommands {
             ByteBuffer byteBuf = ByteBuffer.wrap(byte1D);
             byteBuf.position(0);
             WritableByteChannel chan= Channels.newChannel(res.getOutputStream());
-            chan.write(byteBuf);
-            chan.close();
+            try {
+                chan.write(byteBuf);
+                chan.close();
+            } finally {
+                DirectStretchUtils.releaseStretchData(byte1D);
+            }
+        }
+    }
+
+
+    /**
+     * Same as ByteAryCmd, but sends a low resolution overview first, then each tile as it is done.
+     * The optional viewport parameter, "x,y,width,height", is the area to send first.
+     * @see edu.caltech.ipac.firefly.server.visualize.DirectStretchUtils#writeProgressiveStretch
+     */
+    public static class ProgressiveByteAryCmd extends ServerCommandAccess.HttpCommand {
+
+        public void processRequest(HttpServletRequest req, HttpServletResponse res, SrvParam sp) throws Exception {
+
+            PlotState state= sp.getState();
+            int tileSize = sp.getRequiredInt(ServerParams.TILE_SIZE);
+            Rectangle viewport= DirectStretchUtils.parseViewport(sp.getOptional(ServerParams.VIEWPORT));
+            res.setContentType("application/octet-stream");
+            VisServerOps.writeProgressiveByteStretch(state, tileSize, viewport, res.getOutputStream());
         }
     }
 
@@ -9,6 +9,8 @@ import edu.caltech.ipac.firefly.server.SrvParam;
 import edu.caltech.ipac.firefly.server.cache.UserCache;
 import edu.caltech.ipac.firefly.server.query.BackgroundEnv;
 import edu.caltech.ipac.firefly.server.util.Logger;
+import edu.caltech.ipac.firefly.server.visualize.hips.HiPSPrefetcher;
+import edu.caltech.ipac.firefly.server.visualize.hips.HiPSTileCache;
 import edu.caltech.ipac.util.FileUtil;
 import edu.caltech.ipac.util.StringUtils;
 import edu.caltech.ipac.util.cache.Cache;
@@ -18,9 +20,18 @@ import edu.caltech.ipac.util.download.URLDownload;
 
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
+import java.io.EOFException;
 import java.io.File;
 import java.io.IOException;
+import java.io.OutputStream;
 import java.net.URL;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
 
 /**
  * Date: Feb 11, 2007
@@ -46,6 +57,12 @@ public class AnyFileDownload extends BaseHttpServlet {
     private static final String HIPS_CACHE_CONTROL= "must-revalidate, max-age=1800";
     private static final String SHORT_CACHE_CONTROL = "must-revalidate, max-age=300";
     private static final String STATIC_CACHE_CONTROL= "max-age=86400";
+    private static final int MAX_RANGES= 32;                // more than this in a Range header, and the whole file is sent
+    private static final long SENDFILE_MIN_SIZE= 48 * 1024;  // Tomcat's default; smaller files are written directly
+    private static final String SENDFILE_SUPPORT= "org.apache.tomcat.sendfile.support";
+    private static final String SENDFILE_FILENAME= "org.apache.tomcat.sendfile.filename";
+    private static final String SENDFILE_START= "org.apache.tomcat.sendfile.start";
+    private static final String SENDFILE_END= "org.apache.tomcat.sendfile.end";
 
     protected void processRequest(HttpServletRequest req, HttpServletResponse res) throws Exception {
         if (req.getParameterMap().containsKey(HIPS_PARAM)) {
@@ -94,6 +111,9 @@ public class AnyFileDownload extends BaseHttpServlet {
                 sendFileToClient(req,res,downloadFile, local);
             }
             else {
+                res.setHeader("Accept-Ranges", "bytes");
+                res.setHeader("ETag", makeETag(downloadFile));
+                res.addHeader("Content-Length", downloadFile.length()+"");
                 res.setStatus(200);
             }
         }
@@ -104,28 +124,37 @@ public class AnyFileDownload extends BaseHttpServlet {
             throws IOException {
         SrvParam sp= new SrvParam(req.getParameterMap());
         String hips= sp.getRequired(HIPS_PARAM);
-        FileInfo fi= HiPSRetrieve.retrieveHiPSData(hips, null);
-
-        if (fi.getFile()==null) {
-            if (fi.getResponseCode()==204) {
-                res.addHeader("Cache-Control", SHORT_CACHE_CONTROL);
-                res.addDateHeader("Last-Modified", System.currentTimeMillis());
+        File cacheFile= HiPSRetrieve.getCacheFile(hips);
+        HiPSTileCache cache= HiPSTileCache.getInstance();
+        if (cacheFile!=null) cache.pin(cacheFile);      // keep it from being evicted until it is sent
+        try {
+            FileInfo fi= HiPSRetrieve.retrieveHiPSData(hips, null);
+
+            if (fi.getFile()==null) {
+                if (fi.getResponseCode()==204) {
+                    res.addHeader("Cache-Control", SHORT_CACHE_CONTROL);
+                    res.addDateHeader("Last-Modified", System.currentTimeMillis());
+                }
+                res.sendError(fi.getResponseCode(), fi.getResponseCodeMsg());
+                return;
             }
-            res.sendError(fi.getResponseCode(), fi.getResponseCodeMsg());
-            return;
-        }
 
-        res.addHeader("Cache-Control", HIPS_CACHE_CONTROL);
-        res.addDateHeader("Last-Modified", System.currentTimeMillis());
-        if (fi.getResponseCode()==304 && req.getDateHeader("If-Modified-Since")> fi.getFile().lastModified()) {
-            res.setStatus(304);
-            return;
-        }
-        if (fullBody) {
-            sendFileToClient(req,res,fi.getFile(),null);
-        }
-        else {
-            res.setStatus(200);
+            HiPSPrefetcher.getInstance().tileServed(hips);
+            res.addHeader("Cache-Control", HIPS_CACHE_CONTROL);
+            res.addDateHeader("Last-Modified", System.currentTimeMillis());
+            if (fi.getResponseCode()==304 && req.getDateHeader("If-Modified-Since")> fi.getFile().lastModified()) {
+                res.setStatus(304);
+                return;
+            }
+            if (fullBody) {
+                // not handed to sendfile: the container would read the file after the pin is released
+                sendFileToClient(req,res,fi.getFile(),null,false);
+            }
+            else {
+                res.setStatus(200);
+            }
+        } finally {
+            if (cacheFile!=null) cache.unpin(cacheFile);
         }
     }
 
@@ -174,14 +203,20 @@ public class AnyFileDownload extends BaseHttpServlet {
 
 
     private void sendFileToClient(HttpServletRequest req, HttpServletResponse res, File f, String local) throws IOException {
+        sendFileToClient(req, res, f, local, true);
+    }
+
+    /**
+     * @param allowSendFile false if the file must be sent before this returns, i.e. it may be deleted after
+     */
+    private void sendFileToClient(HttpServletRequest req, HttpServletResponse res, File f, String local,
+                                  boolean allowSendFile) throws IOException {
         SrvParam sp= new SrvParam(req.getParameterMap());
         boolean log= sp.getOptionalBoolean(LOG_PARAM,false);
         boolean track= sp.getOptionalBoolean(TRACK_PARAM,false);
 
         String mType= getServletContext().getMimeType(f.getName());
-        if (mType!=null) res.setContentType(mType);
-
-        res.addHeader("Content-Length", f.length()+"");
+        if (mType==null) mType= "application/octet-stream";
 
         String retFileStr= (local!=null) ? local : f.getName();
         if (retFileStr.equals(USE_SERVER_NAME)) retFileStr= f.getName();
@@ -189,11 +224,38 @@ public class AnyFileDownload extends BaseHttpServlet {
             res.addHeader("Content-Disposition", "attachment; filename="+retFileStr);
         }
 
-
+        long length= f.length();
+        String etag= makeETag(f);
+        res.setHeader("Accept-Ranges", "bytes");
+        res.setHeader("ETag", etag);
+        List<ByteRange> ranges= null;
+        if (req.getHeader("Range")!=null && isIfRangeMatched(req, f, etag)) {
+            ranges= ByteRange.parse(req.getHeader("Range"), length);
+            if (ranges!=null && ranges.isEmpty()) {
+                res.setHeader("Content-Range", "bytes */"+length);
+                res.sendError(HttpServletResponse.SC_REQUESTED_RANGE_NOT_SATISFIABLE);
+                return;
+            }
+        }
 
         if (track) trackProgress(req, BackgroundEnv.DownloadProgress.WORKING);
         try {
-            FileUtil.writeFileToStream(f, res.getOutputStream());
+            if (ranges==null) {
+                res.setContentType(mType);
+                res.addHeader("Content-Length", length+"");
+                sendRange(req, res, f, 0, length, allowSendFile && !track);
+            }
+            else if (ranges.size()==1) {
+                ByteRange r= ranges.get(0);
+                res.setStatus(HttpServletResponse.SC_PARTIAL_CONTENT);
+                res.setContentType(mType);
+                res.addHeader("Content-Range", r.toContentRange(length));
+                res.addHeader("Content-Length", r.getLength()+"");
+                sendRange(req, res, f, r.start, r.getLength(), allowSendFile && !track);
+            }
+            else {
+                sendMultipleRanges(res, f, mType, ranges);
+            }
             if (track) trackProgress(req, BackgroundEnv.DownloadProgress.DONE);
             if (log) logActivity(f);
         } catch (IOException e) {
@@ -203,10 +265,147 @@ public class AnyFileDownload extends BaseHttpServlet {
 
     }
 
+    /**
+     * A multipart/byteranges response, with one part for each range.
+     */
+    private static void sendMultipleRanges(HttpServletResponse res, File f, String mType, List<ByteRange> ranges) throws IOException {
+        String boundary= "FIREFLY_BYTERANGES_" + Long.toHexString(System.nanoTime());
+        long length= f.length();
+        List<byte[]> partHeaders= new ArrayList<>(ranges.size());
+        long contentLength= 0;
+        for (ByteRange r : ranges) {
+            String head= "\r\n--" + boundary + "\r\nContent-Type: " + mType +
+                         "\r\nContent-Range: " + r.toContentRange(length) + "\r\n\r\n";
+            byte[] bytes= head.getBytes(StandardCharsets.US_ASCII);
+            partHeaders.add(bytes);
+            contentLength+= bytes.length + r.getLength();
+        }
+        byte[] end= ("\r\n--" + boundary + "--\r\n").getBytes(StandardCharsets.US_ASCII);
+        contentLength+= end.length;
+
+        res.setStatus(HttpServletResponse.SC_PARTIAL_CONTENT);
+        res.setContentType("multipart/byteranges; boundary=" + boundary);
+        res.addHeader("Content-Length", contentLength+"");
+        OutputStream out= res.getOutputStream();
+        try (FileChannel fc= FileChannel.open(f.toPath(), StandardOpenOption.READ)) {
+            WritableByteChannel target= Channels.newChannel(out);
+            for (int i= 0; i<ranges.size(); i++) {
+                out.write(partHeaders.get(i));
+                transfer(fc, ranges.get(i).start, ranges.get(i).getLength(), target);
+            }
+        }
+        out.write(end);
+        out.flush();
+    }
+
+    /**
+     * Send part of a file.  When the container supports it, i.e. Tomcat's NIO connector, the file is handed to the
+     * container to send with sendfile.  Otherwise, it is copied with FileChannel.transferTo.
+     * @param useSendFile false if the caller has to know when the file was sent
+     */
+    private static void sendRange(HttpServletRequest req, HttpServletResponse res, File f, long start, long count,
+                                  boolean useSendFile) throws IOException {
+        if (useSendFile && count >= SENDFILE_MIN_SIZE && Boolean.TRUE.equals(req.getAttribute(SENDFILE_SUPPORT))) {
+            req.setAttribute(SENDFILE_FILENAME, f.getCanonicalPath());
+            req.setAttribute(SENDFILE_START, start);
+            req.setAttribute(SENDFILE_END, start + count);
+            return;
+        }
+        OutputStream out= res.getOutputStream();
+        try (FileChannel fc= FileChannel.open(f.toPath(), StandardOpenOption.READ)) {
+            transfer(fc, start, count, Channels.newChannel(out));
+        }
+        out.flush();
+    }
+
+    private static void transfer(FileChannel fc, long start, long count, WritableByteChannel target) throws IOException {
+        long pos= start;
+        long end= start + count;
+        while (pos < end) {
+            long sent= fc.transferTo(pos, end - pos, target);
+            if (sent <= 0) throw new EOFException("File ended before the requested range: " + pos);
+            pos+= sent;
+        }
+    }
+
+    /**
+     * @return true if there is no If-Range header, or it matches the current file.  When it does not match,
+     * the whole file is sent.
+     */
+    private static boolean isIfRangeMatched(HttpServletRequest req, File f, String etag) {
+        String ifRange= req.getHeader("If-Range");
+        if (ifRange==null) return true;
+        if (ifRange.startsWith("\"") || ifRange.startsWith("W/")) return ifRange.equals(etag);
+        try {
+            long since= req.getDateHeader("If-Range");
+            return since >= 0 && f.lastModified() / 1000 <= since / 1000;
+        } catch (IllegalArgumentException e) {
+            return false;
+        }
+    }
 
+    private static String makeETag(File f) {
+        return "\"" + Long.toHexString(f.length()) + "-" + Long.toHexString(f.lastModified()) + "\"";
+    }
 
+    /**
+     * One range of a Range header, with inclusive start and end.
+     */
+    static class ByteRange {
+        final long start;
+        final long end;
 
+        ByteRange(long start, long end) {
+            this.start = start;
+            this.end = end;
+        }
 
+        long getLength() { return end - start + 1; }
+
+        String toContentRange(long length) { return "bytes " + start + "-" + end + "/" + length; }
+
+        /**
+         * @param header the value of the Range header
+         * @param length the length of the file
+         * @return the satisfiable ranges, in the order requested; an empty list if none are satisfiable;
+         * or null if the header can not be used, and the whole file should be sent.
+         */
+        static List<ByteRange> parse(String header, long length) {
+            if (header==null || !header.trim().startsWith("bytes=")) return null;
+            String[] specs= header.trim().substring("bytes=".length()).split(",");
+            if (specs.length > MAX_RANGES) return null;
+            List<ByteRange> ranges= new ArrayList<>(specs.length);
+            try {
+                for (String spec : specs) {
+                    spec= spec.trim();
+                    int dash= spec.indexOf('-');
+                    if (dash < 0) return null;
+                    String first= spec.substring(0, dash).trim();
+                    String last= spec.substring(dash + 1).trim();
+                    long start, end;
+                    if (first.isEmpty()) {
+                        long suffix= Long.parseLong(last);     // the last n bytes
+                        if (suffix <= 0) continue;
+                        start= Math.max(0, length - suffix);
+                        end= length - 1;
+                    } else {
+                        start= Long.parseLong(first);
+                        end= length - 1;
+                        if (!last.isEmpty()) {
+                            long lastPos= Long.parseLong(last);
+                            if (lastPos < start) return null;       // invalid, so the header is ignored
+                            end= Math.min(lastPos, end);
+                        }
+                    }
+                    if (start >= length || start > end) continue;
+                    ranges.add(new ByteRange(start, end));
+                }
+            } catch (NumberFormatException e) {
+                return null;
+            }
+            return ranges;
+        }
+    }
 
     private static void logActivity(File f) {
         String logStr= "File download -- File: " + f.getPath()+
@@ -8,10 +8,19 @@ import edu.caltech.ipac.firefly.server.Counters;
 import edu.caltech.ipac.firefly.server.ServerContext;
 import edu.caltech.ipac.firefly.server.cache.EhcacheProvider;
 import edu.caltech.ipac.firefly.server.db.DbAdapter;
+import edu.caltech.ipac.firefly.server.db.ResultSetCache;
+import edu.caltech.ipac.firefly.server.query.BackgroundEnv;
+import edu.caltech.ipac.firefly.server.query.EmbeddedDbProcessor;
+import edu.caltech.ipac.firefly.server.util.JobScheduler;
+import edu.caltech.ipac.firefly.server.util.SingleFlight;
+import edu.caltech.ipac.firefly.server.visualize.FitsSpillCache;
+import edu.caltech.ipac.firefly.server.visualize.hips.HiPSPrefetcher;
+import edu.caltech.ipac.firefly.server.visualize.hips.HiPSTileCache;
 import edu.caltech.ipac.firefly.server.events.ServerEventManager;
 import edu.caltech.ipac.firefly.server.packagedata.PackagingController;
 import edu.caltech.ipac.util.FileUtil;
 import edu.caltech.ipac.util.StringUtils;
+import edu.caltech.ipac.util.UTCTimeUtil;
 import edu.caltech.ipac.util.cache.Cache;
 import edu.caltech.ipac.util.cache.CachePeerProviderFactory;
 import edu.caltech.ipac.util.cache.StringKey;
@@ -81,6 +90,12 @@ public class ServerStatus extends BaseHttpServlet {
             displayCacheInfo(writer, prov.getSharedManager());
             skip(writer);
 
+            showFitsCacheStatus(writer);
+            skip(writer);
+
+            showHiPSCacheStatus(writer);
+            skip(writer);
+
             showDatabaseStatus(writer);
 
             if (showHeaders) {
@@ -139,6 +154,33 @@ public class ServerStatus extends BaseHttpServlet {
         }
     }
 
+    private static void showFitsCacheStatus(PrintWriter writer) {
+        FitsSpillCache.Stats stats = FitsSpillCache.getStats();
+        writer.println("FITS CACHE INFORMATION");
+        writer.println("----------------------");
+        writer.printf("Memory Hits:       %,10d  Memory Misses:       %,10d  Evicted: %,d\n", stats.memHits, stats.memMisses, stats.memEvictions);
+        writer.printf("Spilled:           %,10d  Spilled Size:        %10s  Max Size: %s  Max Spilled: %,d\n",
+                        stats.spillCount, FileUtil.getSizeAsString(stats.spillBytes),
+                        FileUtil.getSizeAsString(FitsSpillCache.maxBytes()), FitsSpillCache.maxEntries());
+        writer.printf("Spill Hits:        %,10d  Spill Misses:        %,10d  Evicted: %,d\n", stats.spillHits, stats.spillMisses, stats.spillEvictions);
+    }
+
+    private static void showHiPSCacheStatus(PrintWriter writer) {
+        HiPSTileCache cache = HiPSTileCache.getInstance();
+        writer.println("HiPS CACHE INFORMATION");
+        writer.println("----------------------");
+        writer.printf("Requests:          %,10d  Hit Ratio:           %9.1f%%\n", cache.getRequests(), cache.getHitRatio() * 100);
+        writer.printf("Hits:              %,10d  Revalidated:         %,10d  Coalesced: %,d\n", cache.getHits(), cache.getRevalidated(), cache.getCoalesced());
+        writer.printf("Downloads:         %,10d  Downloaded Size:     %10s  Failed: %,d\n",
+                        cache.getDownloads(), FileUtil.getSizeAsString(cache.getDownloadBytes()), cache.getFailed());
+        writer.printf("Files:             %,10d  Size:                %10s  Max Size: %s  Evicted: %,d\n",
+                        cache.getCount(), FileUtil.getSizeAsString(cache.getSize()),
+                        FileUtil.getSizeAsString(cache.getMaxBytes()), cache.getEvictions());
+        HiPSPrefetcher prefetcher = HiPSPrefetcher.getInstance();
+        writer.printf("Prefetch Scheduled:%,10d  Prefetched:          %,10d  Dropped: %,d\n",
+                        prefetcher.getScheduled(), prefetcher.getFetched(), prefetcher.getDropped());
+    }
+
     private static void showDatabaseStatus(PrintWriter writer) {
 
         DbAdapter.EmbeddedDbStats stats = DbAdapter.getAdapter().getRuntimeStats();
@@ -149,6 +191,12 @@ public class ServerStatus extends BaseHttpServlet {
         writer.printf("MAX_MEM_ROWS:      %,10d  PEAK_MAX_MEM_ROWS:   %,10d\n", stats.maxMemRows, stats.peakMaxMemRows);
         writer.printf("Rows In Memory:    %,10d  Peak Rows In Memory: %,10d\n", stats.memRows, stats.peakMemRows);
         writer.println(              "Cleanup Last Ran:  " + new SimpleDateFormat("HH:mm:ss").format(stats.lastCleanup));
+        SingleFlight<String, File> dbCreations = EmbeddedDbProcessor.getDbCreations();
+        writer.printf("Waited on Create:  %,10d  Total Wait(secs):    %,10.1f  Max Wait(secs): %,.1f\n",
+                        dbCreations.getWaitCount(), dbCreations.getTotalWaitTime()/1000.0, dbCreations.getMaxWaitTime()/1000.0);
+        writer.printf("Result Sets:       %,10d  Result Set Rows:     %,10d  Max Rows: %,d\n", stats.resultSetCount, stats.resultSetRows, ResultSetCache.maxRows());
+        writer.printf("Result Set Hits:   %,10d  Result Set Misses:   %,10d  Refined: %,d  Evicted: %,d\n",
+                        stats.resultSetHits, stats.resultSetMisses, stats.resultSetRefined, stats.resultSetEvictions);
         writer.println("");
         writer.println("Idled   Age     Tables  Rows        Columns  File Path         (elapsed time are in min:sec)");
         writer.println("------  ------  ------  ----------  -------  ---------");
@@ -232,6 +280,9 @@ public class ServerStatus extends BaseHttpServlet {
         w.println("  - Total events fired:" + ServerEventManager.getTotalEventCnt());
         w.println("  - Total events delivered:" + ServerEventManager.getDeliveredEventCnt());
         w.println("  - Total active queues:" + ServerEventManager.getActiveQueueCnt());
+        ServerEventManager.getDeliveryStats().forEach((scope, stats) ->
+                w.println("  - Delivery to " + scope + ": " + stats));
+        w.println("  - Websocket send queues: " + ServerEventManager.getSenderStats());
     }
 
     private static void showMessagingStatus(PrintWriter w) {
@@ -241,6 +292,11 @@ public class ServerStatus extends BaseHttpServlet {
     private static void showPackagingStatus(PrintWriter w) {
         w.println("Packaging Controller Information");
         w.println(StringUtils.toString(PackagingController.getInstance().getStatus(), "\n"));
+        JobScheduler bgJobs = BackgroundEnv.getScheduler();
+        w.println("Background Jobs Information");
+        w.println("  - Running: " + bgJobs.getRunning() + " of " + bgJobs.getMaxThreads() + " allowed");
+        w.println("  - Waiting: " + bgJobs.getWaiting() + ", longest wait: " + UTCTimeUtil.getHMSFromMills(bgJobs.getLongestWait()));
+        w.println("  - Total run: " + bgJobs.getTotalRun() + ", queue high water mark: " + bgJobs.getQueueHighWater());
     }
 
     private static void showHeaders(PrintWriter w, HttpServletRequest req) {
@@ -0,0 +1,260 @@
+/*
+ * License information at https://github.com/Caltech-IPAC/firefly/blob/master/License.txt
+ */
+package edu.caltech.ipac.firefly.server.util;
+
+import edu.caltech.ipac.firefly.core.background.CanCancel;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs background jobs with a limited number of threads.  Jobs wait in a queue until a thread is free.
+ * The next job to run is the one whose owner has the fewest running jobs, then small jobs before large ones,
+ * then the oldest.  A separate limit caps how many large jobs may run at once, so a few large jobs cannot take
+ * every thread.
+ *
+ * A job that is canceled while waiting never runs.  A running job is only flagged; its task should check
+ * {@link #isCurrentCanceled()} and stop on its own.  The thread is never interrupted, since an interrupt
+ * during NIO or embedded database work closes the channel under it.
+ */
+public class JobScheduler {
+
+    private static final Logger.LoggerImpl _log = Logger.getLogger();
+    private static final AtomicInteger seqCnt = new AtomicInteger();
+    private static final ThreadLocal<Job> currentJob = new ThreadLocal<>();
+
+    private final String name;
+    private final int maxThreads;
+    private final int maxLarge;
+    private final ExecutorService exec;
+    private final List<Job> waiting = new ArrayList<>();
+    private final Map<String, Job> jobs = new HashMap<>();
+    private final Map<String, Integer> runningByOwner = new HashMap<>();
+    private int running;
+    private int runningLarge;
+    private int queueHighWater;
+    private long totalRun;
+
+    /**
+     * @param name the name of the scheduler, used to name its threads
+     * @param maxThreads the number of jobs that may run at once
+     * @param maxLarge the number of large jobs that may run at once
+     */
+    public JobScheduler(String name, int maxThreads, int maxLarge) {
+        this.name = name;
+        this.maxThreads = Math.max(1, maxThreads);
+        this.maxLarge = Math.max(1, Math.min(maxLarge, this.maxThreads));
+        AtomicInteger cnt = new AtomicInteger();
+        exec = Executors.newCachedThreadPool(r -> {
+            Thread t = new Thread(r, name + "-" + cnt.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    /**
+     * Queue a job.  It starts right away if there is a free thread.
+     * @param id the ID of the job, i.e. a background ID; used by {@link #cancel(String)}
+     * @param owner the user the job runs for, i.e. the user key; may be null
+     * @param large true if this is a large job
+     * @param task the work.  It should catch its own exceptions; the ones it does not are logged.
+     * @return the job
+     */
+    public synchronized Job submit(String id, String owner, boolean large, Runnable task) {
+        Job job = new Job(id, owner == null ? "" : owner, large, task);
+        waiting.add(job);
+        jobs.put(id, job);
+        queueHighWater = Math.max(queueHighWater, waiting.size());
+        dispatch();
+        return job;
+    }
+
+    /**
+     * Cancel a job.  A waiting job is removed and never runs.  A running job is only flagged: it keeps running
+     * until its task checks {@link #isCurrentCanceled()} and returns, as the packaging and async search loops do.
+     * A task that never checks runs to the end.
+     * @param id the ID of the job
+     * @return true if the job was waiting or running
+     */
+    public boolean cancel(String id) {
+        Job job;
+        synchronized (this) { job = jobs.get(id); }
+        if (job == null) return false;
+        job.cancelTask();
+        return true;
+    }
+
+    /**
+     * @return the job running on this thread, or null if this is not a job thread
+     */
+    public static Job currentJob() { return currentJob.get(); }
+
+    /**
+     * @return true if the job running on this thread has been canceled
+     */
+    public static boolean isCurrentCanceled() {
+        Job job = currentJob.get();
+        return job != null && job.isCanceled();
+    }
+
+    public synchronized int getRunning() { return running; }
+
+    public synchronized int getRunningLarge() { return runningLarge; }
+
+    public synchronized int getWaiting() { return waiting.size(); }
+
+    public synchronized int getWaitingLarge() {
+        int cnt = 0;
+        for (Job j : waiting) if (j.large) cnt++;
+        return cnt;
+    }
+
+    public synchronized long getLongestWait() {
+        long now = System.currentTimeMillis();
+        return waiting.isEmpty() ? 0 : now - waiting.get(0).submitTime;
+    }
+
+    public synchronized int getQueueHighWater() { return queueHighWater; }
+
+    public synchronized long getTotalRun() { return totalRun; }
+
+    public int getMaxThreads() { return maxThreads; }
+
+    public int getMaxLarge() { return maxLarge; }
+
+    private synchronized void dispatch() {
+        while (running < maxThreads) {
+            Job next = null;
+            for (Job j : waiting) {
+                if (j.large && runningLarge >= maxLarge) continue;
+                if (next == null || compare(j, next) < 0) next = j;
+            }
+            if (next == null) return;
+            waiting.remove(next);
+            running++;
+            if (next.large) runningLarge++;
+            runningByOwner.merge(next.owner, 1, Integer::sum);
+            next.startTime = System.currentTimeMillis();
+            exec.submit(next::run);
+        }
+    }
+
+    /**
+     * the owner with fewer running jobs first, then small before large, then the oldest
+     */
+    private int compare(Job a, Job b) {
+        int c = Integer.compare(runningByOwner.getOrDefault(a.owner, 0), runningByOwner.getOrDefault(b.owner, 0));
+        if (c == 0) c = Boolean.compare(a.large, b.large);
+        if (c == 0) c = Long.compare(a.seq, b.seq);
+        return c;
+    }
+
+    private synchronized void completed(Job job) {
+        jobs.remove(job.id);
+        running--;
+        if (job.large) runningLarge--;
+        runningByOwner.computeIfPresent(job.owner, (k, v) -> v > 1 ? v - 1 : null);
+        totalRun++;
+        dispatch();
+    }
+
+    private synchronized boolean removeWaiting(Job job) {
+        if (waiting.remove(job)) {
+            jobs.remove(job.id);
+            return true;
+        }
+        return false;
+    }
+
+    public class Job implements CanCancel {
+        private final String id;
+        private final String owner;
+        private final boolean large;
+        private final Runnable task;
+        private final int seq = seqCnt.incrementAndGet();
+        private final long submitTime = System.currentTimeMillis();
+        private final CountDownLatch done = new CountDownLatch(1);
+        private volatile long startTime;
+        private volatile long endTime;
+        private volatile boolean canceled;
+
+        private Job(String id, String owner, boolean large, Runnable task) {
+            this.id = id;
+            this.owner = owner;
+            this.large = large;
+            this.task = task;
+        }
+
+        private void run() {
+            Thread t = Thread.currentThread();
+            String threadName = t.getName();
+            t.setName(name + "-" + id);
+            currentJob.set(this);
+            try {
+                if (!canceled) task.run();
+            } catch (Throwable e) {
+                _log.error(e, "Job ID: " + id, "Job completed with exception: " + e.toString());
+            } finally {
+                currentJob.remove();
+                t.setName(threadName);
+                endTime = System.currentTimeMillis();
+                completed(this);
+                done.countDown();
+            }
+        }
+
+        /**
+         * Cancel the job.  A waiting job is removed from the queue; a running one is flagged and left to stop
+         * on its own.
+         */
+        public void cancelTask() {
+            canceled = true;
+            if (removeWaiting(this)) {
+                endTime = System.currentTimeMillis();
+                done.countDown();
+            }
+        }
+
+        /**
+         * Wait for the job to finish.
+         * @param mills how long to wait
+         * @return true if the job is done
+         */
+        public boolean await(long mills) throws InterruptedException {
+            return done.await(mills, TimeUnit.MILLISECONDS);
+        }
+
+        public String getID() { return id; }
+
+        public boolean isLarge() { return large; }
+
+        public boolean isCanceled() { return canceled; }
+
+        public boolean isDone() { return done.getCount() == 0; }
+
+        /**
+         * @return the time the job waited for a thread, so far if it is still waiting
+         */
+        public long getQueueWaitMills() {
+            long start = startTime;
+            return (start > 0 ? start : endTime > 0 ? endTime : System.currentTimeMillis()) - submitTime;
+        }
+
+        /**
+         * @return the time the job ran, so far if it is still running
+         */
+        public long getRunMills() {
+            long start = startTime;
+            if (start == 0) return 0;
+            return (endTime > 0 ? endTime : System.currentTimeMillis()) - start;
+        }
+    }
+}
@@ -31,6 +31,7 @@ import edu.caltech.ipac.table.DataType;
 import edu.caltech.ipac.table.JsonTableUtil;
 import edu.caltech.ipac.util.*;
 import edu.caltech.ipac.util.decimate.DecimateKey;
+import edu.caltech.ipac.util.decimate.Decimator;
 import org.apache.commons.httpclient.URIException;
 import org.apache.commons.httpclient.util.URIUtil;
 import org.json.simple.JSONArray;
@@ -646,34 +647,15 @@ public class QueryUtil {
         if (!Double.isNaN(decimateInfo.getXMax())) { xDeciMax = decimateInfo.getXMax(); checkDeciLimits = true; }
         if (!Double.isNaN(decimateInfo.getYMin())) { yDeciMin = decimateInfo.getYMin(); checkDeciLimits = true; }
         if (!Double.isNaN(decimateInfo.getYMax())) { yDeciMax = decimateInfo.getYMax(); checkDeciLimits = true; }
-        int outRows = dg.size();
-        for (int rIdx = 0; rIdx < dg.size(); rIdx++) {
-            DataObject row = dg.get(rIdx);
-
-            double xval = xValGetter.getValue(row);
-            double yval = yValGetter.getValue(row);
-
-            if (Double.isNaN(xval) || Double.isNaN(yval)) {
-                outRows--;
-                continue;
-            }
+        String xCol = decimateInfo.getxColumnName();
+        String yCol = decimateInfo.getyColumnName();
+        double[] deciLimits = checkDeciLimits ? new double[]{xDeciMin, xDeciMax, yDeciMin, yDeciMax} : null;
+        Decimator.Range range = Decimator.getRange(dg, xCol, yCol, doDecimation ? deciLimits : null);
+        xMin = range.xMin; xMax = range.xMax; yMin = range.yMin; yMax = range.yMax;
+        int outRows = range.count - range.outside;
 
-            if (xval > xMax) { xMax = xval; }
-            if (xval < xMin) { xMin = xval; }
-            if (yval > yMax) { yMax = yval; }
-            if (yval < yMin) { yMin = yval; }
-
-            if (!doDecimation) {
-                DataObject retrow = new DataObject(retval);
-                retrow.setDataElement(columns[0], convertData(xColClass, xval));
-                retrow.setDataElement(columns[1], convertData(yColClass, yval));
-                retrow.setDataElement(columns[2], rIdx); // natural index
-                retval.add(retrow);
-            } else if (checkDeciLimits) {
-                if (xval>xDeciMax || xval<xDeciMin || yval>yDeciMax || yval<yDeciMin) {
-                    outRows--;
-                }
-            }
+        if (!doDecimation) {
+            addRows(dg, retval, columns, null);
         }
 
         if (Double.isFinite(xMax)) {
@@ -696,6 +678,7 @@ public class QueryUtil {
                 if (!Double.isNaN(decimateInfo.getYMin())) { yMin = yDeciMin; }
                 if (!Double.isNaN(decimateInfo.getYMax())) { yMax = yDeciMax; }
             }
+            double[] limits = checkLimits ? new double[]{xMin, xMax, yMin, yMax} : null;
 
             if (outRows < deciEnableSize) {
                 // no decimation needed
@@ -705,25 +688,7 @@ public class QueryUtil {
                 TableMeta meta = retval.getTableMeta();
                 retval = new DataGroup("decimated results", new DataType[]{columns[0],columns[1],columns[2]});
                 retval.setTableMeta(meta);
-
-                for (int rIdx = 0; rIdx < dg.size(); rIdx++) {
-                    DataObject row = dg.get(rIdx);
-
-                    double xval = xValGetter.getValue(row);
-                    double yval = yValGetter.getValue(row);
-
-                    if (Double.isNaN(xval) || Double.isNaN(yval)) {
-                        outRows--;
-                        continue;
-                    }
-
-                    if (checkLimits && (xval<xMin || xval>xMax || yval<yMin || yval>yMax)) { continue; }
-                    DataObject retrow = new DataObject(retval);
-                    retrow.setDataElement(columns[0], convertData(xColClass, xval));
-                    retrow.setDataElement(columns[1], convertData(yColClass, yval));
-                    retrow.setDataElement(columns[2], rIdx);
-                    retval.add(retrow);
-                }
+                addRows(dg, retval, columns, limits);
 
             } else {
 
@@ -746,55 +711,23 @@ public class QueryUtil {
 
                 DecimateKey decimateKey = new DecimateKey(xMin, yMin, nXs, nYs, xUnit, yUnit);
 
-                HashMap<String, SamplePoint> samples = new HashMap<>();
                 // decimating the data now....
-                for (int idx = 0; idx < dg.size(); idx++) {
-                    DataObject row = dg.get(idx);
-
-                    double xval = xValGetter.getValue(row);
-                    double yval = yValGetter.getValue(row);
-
-                    if (Double.isNaN(xval) || Double.isNaN(yval)) { continue; }
-
-                    if (checkLimits && (xval<xMin || xval>xMax || yval<yMin || yval>yMax)) { continue; }
-
-                    String key = decimateKey.getKey(xval, yval);
-
-                    if (samples.containsKey(key)) {
-                        SamplePoint pt = samples.get(key);
-                        // representative sample point is a random point from the bin
-                        int numRepRows = pt.getRepresentedRows()+1;
-                        if (Math.random() < 1d/(double)numRepRows) {
-                            String xvalFormatted = xValGetter.getFormattedValue(row);
-                            String yvalFormatted = yValGetter.getFormattedValue(row);
-                            SamplePoint replacePt = new SamplePoint(xval, xvalFormatted, yval, yvalFormatted, idx, numRepRows);
-                            samples.put(key, replacePt);
-                        } else {
-                            pt.addRepresentedRow();
-                        }
-                    } else {
-                        String xvalFormatted = xValGetter.getFormattedValue(row);
-                        String yvalFormatted = yValGetter.getFormattedValue(row);
-                        SamplePoint pt = new SamplePoint(xval, xvalFormatted, yval, yvalFormatted, idx);
-                        samples.put(key, pt);
-                    }
-                }
-
-                int minWeight=samples.size(), maxWeight=1, weight;
-                for(String key : samples.keySet()) {
-                    SamplePoint pt = samples.get(key);
-                    DataObject row = new DataObject(retval);
-                    weight = pt.getRepresentedRows();
-                    if (weight<minWeight) minWeight = weight;
-                    if (weight>maxWeight) maxWeight = weight;
-
-                    row.setDataElement(columns[0], convertData(xColClass, pt.getX()));
-                    row.setDataElement(columns[1], convertData(yColClass, pt.getY()));
-                    row.setDataElement(columns[2], pt.getRowIdx());
+                Decimator.Samples samples = Decimator.decimate(dg, xCol, yCol, decimateKey, limits);
+
+                int[] weightRange = {samples.size(), 1};
+                DataGroup out = retval;
+                samples.forEach((cell, rowIdx, weight) -> {
+                    if (weight<weightRange[0]) weightRange[0] = weight;
+                    if (weight>weightRange[1]) weightRange[1] = weight;
+
+                    DataObject row = new DataObject(out);
+                    row.setDataElement(columns[0], convertData(xColClass, dg.getDouble(xCol, rowIdx)));
+                    row.setDataElement(columns[1], convertData(yColClass, dg.getDouble(yCol, rowIdx)));
+                    row.setDataElement(columns[2], rowIdx);
                     row.setDataElement(columns[3], weight);
-                    row.setDataElement(columns[4], key);
-                    retval.add(row);
-                }
+                    row.setDataElement(columns[4], Decimator.toKeyString(cell));
+                    out.add(row);
+                });
                 String decimateInfoStr = decimateInfo.toString();
                 retval.addAttribute(DecimateInfo.DECIMATE_TAG,
                         decimateInfoStr.substring(DecimateInfo.DECIMATE_TAG.length() + 1));
@@ -803,8 +736,8 @@ public class QueryUtil {
                         decimateKey.toString());
                 retval.addAttribute(DecimateInfo.DECIMATE_TAG + ".X-UNIT", String.valueOf(xUnit));
                 retval.addAttribute(DecimateInfo.DECIMATE_TAG + ".Y-UNIT", String.valueOf(yUnit));
-                retval.addAttribute(DecimateInfo.DECIMATE_TAG + ".WEIGHT-MIN", String.valueOf(minWeight));
-                retval.addAttribute(DecimateInfo.DECIMATE_TAG + ".WEIGHT-MAX", String.valueOf(maxWeight));
+                retval.addAttribute(DecimateInfo.DECIMATE_TAG + ".WEIGHT-MIN", String.valueOf(weightRange[0]));
+                retval.addAttribute(DecimateInfo.DECIMATE_TAG + ".WEIGHT-MAX", String.valueOf(weightRange[1]));
                 retval.addAttribute(DecimateInfo.DECIMATE_TAG + ".XBINS", String.valueOf(nXs));
                 retval.addAttribute(DecimateInfo.DECIMATE_TAG + ".YBINS", String.valueOf(nYs));
 
@@ -816,6 +749,30 @@ public class QueryUtil {
         return retval;
     }
 
+    /**
+     * add the x, y, and rowidx of every row where neither x nor y is NaN
+     * @param limits if not null, xMin, xMax, yMin, yMax; the rows outside of these limits are skipped
+     */
+    private static void addRows(DataGroup dg, DataGroup retval, DataType[] columns, double[] limits) {
+        String xCol = columns[0].getKeyName();
+        String yCol = columns[1].getKeyName();
+        Class<?> xColClass = columns[0].getDataType();
+        Class<?> yColClass = columns[1].getDataType();
+        for (int rIdx = 0; rIdx < dg.size(); rIdx++) {
+            double xval = dg.getDouble(xCol, rIdx);
+            double yval = dg.getDouble(yCol, rIdx);
+
+            if (Double.isNaN(xval) || Double.isNaN(yval)) { continue; }
+
+            if (limits != null && (xval<limits[0] || xval>limits[1] || yval<limits[2] || yval>limits[3])) { continue; }
+            DataObject retrow = new DataObject(retval);
+            retrow.setDataElement(columns[0], convertData(xColClass, xval));
+            retrow.setDataElement(columns[1], convertData(yColClass, yval));
+            retrow.setDataElement(columns[2], rIdx); // natural index
+            retval.add(retrow);
+        }
+    }
+
     private static int getFirstSigDigitPos(double num) {
         return (int)Math.floor(Math.log10(num))+1;
     }
@@ -908,37 +865,4 @@ public class QueryUtil {
             e.printStackTrace();
         }
     }
-
-    private static class SamplePoint {
-        double x;
-        double y;
-        String formattedX;
-        String formattedY;
-        int rowIdx;
-        int representedRows;
-
-        public SamplePoint(double x, String formattedX, double y, String formattedY, int rowIdx) {
-            this(x, formattedX, y, formattedY, rowIdx, 1);
-        }
-
-
-        public SamplePoint(double x, String formattedX, double y, String formattedY, int rowIdx, int representedRows) {
-            this.x = x;
-            this.y = y;
-            this.formattedX = formattedX;
-            this.formattedY = formattedY;
-            this.rowIdx = rowIdx;
-            this.representedRows = representedRows;
-        }
-
-        public void addRepresentedRow() { representedRows++; }
-        public int getRepresentedRows() { return representedRows; }
-
-        public int getRowIdx() { return rowIdx; }
-        public double getX() { return x; }
-        public double getY() { return y; }
-        public String getFormattedX() { return formattedX; }
-        public String getFormattedY() { return formattedY; }
-
-    }
 }
@@ -0,0 +1,93 @@
+/*
+ * License information at https://github.com/Caltech-IPAC/firefly/blob/master/License.txt
+ */
+package edu.caltech.ipac.firefly.server.util;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Coalesces concurrent calls for the same key.  While a task for a key is running, other callers
+ * for the same key wait for its outcome instead of running the task again.  Once the task is done,
+ * the key is released; results are not cached.
+ *
+ * Callers that had to wait are counted, along with the time they spent waiting.
+ *
+ * @param <K> key type
+ * @param <V> result type
+ */
+public class SingleFlight<K, V> {
+    private final ConcurrentHashMap<K, CompletableFuture<V>> inFlight = new ConcurrentHashMap<>();
+    private final AtomicLong waitCount = new AtomicLong();
+    private final AtomicLong totalWaitTime = new AtomicLong();
+    private final AtomicLong maxWaitTime = new AtomicLong();
+
+    /**
+     * Run the task, unless one for the same key is already running.  In that case, wait for it and
+     * return its result, or throw its exception.
+     * @param key   identifies the task
+     * @param task  the task to run
+     * @return the result of the task
+     * @throws Exception  the exception thrown by the task
+     */
+    public V run(K key, Callable<V> task) throws Exception {
+        CompletableFuture<V> future = new CompletableFuture<>();
+        CompletableFuture<V> running = inFlight.putIfAbsent(key, future);
+        if (running != null) {
+            return await(running);
+        }
+
+        try {
+            V val = task.call();
+            future.complete(val);
+            return val;
+        } catch (Exception | Error e) {
+            future.completeExceptionally(e);
+            throw e;
+        } finally {
+            inFlight.remove(key, future);
+        }
+    }
+
+    /**
+     * @param key   identifies the task
+     * @return true if a task for the given key is running
+     */
+    public boolean isRunning(K key) {
+        return inFlight.containsKey(key);
+    }
+
+    /**
+     * @return the number of calls that waited for a task started by another caller
+     */
+    public long getWaitCount() { return waitCount.get(); }
+
+    /**
+     * @return the total time, in milliseconds, spent waiting for tasks started by other callers
+     */
+    public long getTotalWaitTime() { return totalWaitTime.get(); }
+
+    /**
+     * @return the longest time, in milliseconds, a caller spent waiting
+     */
+    public long getMaxWaitTime() { return maxWaitTime.get(); }
+
+    private V await(CompletableFuture<V> running) throws Exception {
+        long start = System.currentTimeMillis();
+        try {
+            return running.get();
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof Error) throw (Error) cause;
+            throw (Exception) cause;
+        } finally {
+            long elapsed = System.currentTimeMillis() - start;
+            waitCount.incrementAndGet();
+            totalWaitTime.addAndGet(elapsed);
+            maxWaitTime.accumulateAndGet(elapsed, Math::max);
+        }
+    }
+}
@@ -11,21 +11,46 @@ import edu.caltech.ipac.firefly.visualize.Band;
 import edu.caltech.ipac.firefly.visualize.PlotState;
 import edu.caltech.ipac.visualize.plot.ActiveFitsReadGroup;
 import edu.caltech.ipac.visualize.plot.Histogram;
-import edu.caltech.ipac.visualize.plot.ImageData;
 import edu.caltech.ipac.visualize.plot.ImageHeader;
 import edu.caltech.ipac.visualize.plot.RangeValues;
 import edu.caltech.ipac.visualize.plot.plotdata.FitsRead;
+import edu.caltech.ipac.visualize.plot.plotdata.ImageStretch;
 import edu.caltech.ipac.visualize.plot.plotdata.RGBIntensity;
 
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
-import java.util.concurrent.TimeUnit;
+import java.awt.Rectangle;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.ref.SoftReference;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
 
 /**
  * @author Trey Roby
  */
 public class DirectStretchUtils {
 
+    /** frame types of the progressive stream, see writeProgressiveStretch */
+    public static final byte FRAME_OVERVIEW = 0;
+    public static final byte FRAME_TILE = 1;
+    public static final byte FRAME_END = 2;
+
+    private static final int OVERVIEW_SIZE = 512;        // the overview's longest side is no more than this
+    private static final int MAX_POOLED_BUFFERS = 4;
+    private static final List<SoftReference<byte[]>> bufferPool = new ArrayList<>();
+    private static ForkJoinPool stretchPool;
+
     public static float [] flipFloatArray(float [] float1d, int naxis1, int naxis2) {
         float [] flipped= new float[float1d.length];
         int idx=0;
@@ -38,110 +63,380 @@ public class DirectStretchUtils {
         return flipped;
     }
 
-    public static byte [] getStretchData(PlotState state,  ActiveFitsReadGroup frGroup, int tileSize) throws InterruptedException {
+    /**
+     * Stretch the image into a byte array, tile by tile.  The tiles are written in column order, each tile's lines
+     * flipped compared to the FITS data.  The tiles are stretched in parallel, directly into the returned array.
+     * When the caller is done with the returned array, it should pass it to releaseStretchData so it can be reused.
+     */
+    public static byte [] getStretchData(PlotState state,  ActiveFitsReadGroup frGroup, int tileSize)
+                                        throws InterruptedException, ExecutionException {
+        StretchJob job= new StretchJob(state, frGroup, tileSize);
+        getStretchPool().submit(() -> IntStream.range(0, job.tileCnt).parallel().forEach(job::stretchTile)).get();
+        return job.byte1d;
+    }
 
-        FitsRead fr= frGroup.getFitsRead(state.firstBand());
-        int totWidth= fr.getNaxis1();
-        int totHeight= fr.getNaxis2();
+    /**
+     * Write the stretched image progressively.  First a low resolution overview, made from a block averaged copy
+     * of the image, then each full resolution tile as soon as it is done.  Tiles in or nearest to the viewport
+     * are stretched first.
+     *
+     * The stream is a sequence of frames.  All numbers are big-endian ints.
+     * <ul>
+     * <li>overview: FRAME_OVERVIEW, factor, width, height, bands, then width*height*bands bytes.
+     *     Each pixel of the overview is the average of a factor x factor block of the image.</li>
+     * <li>tile: FRAME_TILE, x, y, width, height, then width*height*bands bytes.</li>
+     * <li>end: FRAME_END</li>
+     * </ul>
+     * The bytes of a frame are laid out the same way as a tile of getStretchData: lines flipped compared to the
+     * FITS data, one band after the other.
+     *
+     * @param viewport the area of the image the user is looking at, in the flipped coordinates.  null to
+     *                 start from the center of the image.
+     */
+    public static void writeProgressiveStretch(PlotState state, ActiveFitsReadGroup frGroup, int tileSize,
+                                               Rectangle viewport, OutputStream outStream) throws IOException, InterruptedException {
+        StretchJob job= new StretchJob(state, frGroup, tileSize);
+        DataOutputStream out= new DataOutputStream(outStream);
+        AtomicBoolean aborted= new AtomicBoolean(false);
+        List<CompletableFuture<Void>> futures= new ArrayList<>(job.tileCnt);
+        try {
+            writeOverview(job, out);
 
+            Rectangle view= viewport!=null ? viewport :
+                                new Rectangle(job.totWidth/2, job.totHeight/2, 1, 1);
+            BlockingQueue<Object> done= new LinkedBlockingQueue<>();
+            for(int idx : job.getTilesByDistance(view)) {
+                futures.add(CompletableFuture.runAsync(() -> {
+                    if (!aborted.get()) job.stretchTile(idx);
+                }, getStretchPool()).whenComplete((v, e) -> done.add(e==null ? idx : e)));
+            }
 
-        int xPanels= totWidth / tileSize;
-        int yPanels= totHeight / tileSize;
-        if (totWidth % tileSize > 0) xPanels++;
-        if (totHeight % tileSize > 0) yPanels++;
-        ImageData[] imageDataAry= new ImageData[xPanels * yPanels];
+            for(int i= 0; i<job.tileCnt; i++) {
+                Object next= done.take();
+                if (next instanceof Throwable) throw new IOException("Unable to stretch tile", (Throwable) next);
+                int idx= (Integer) next;
+                Rectangle r= job.getTileRect(idx);
+                out.writeByte(FRAME_TILE);
+                out.writeInt(r.x);
+                out.writeInt(r.y);
+                out.writeInt(r.width);
+                out.writeInt(r.height);
+                out.write(job.byte1d, job.getTileOffset(idx) * job.bandCnt, r.width * r.height * job.bandCnt);
+                out.flush();
+            }
+            out.writeByte(FRAME_END);
+            out.flush();
+        } finally {
+            aborted.set(true);
+            // the buffer can only be reused once no tile is still writing to it
+            CompletableFuture.allOf(futures.toArray(new CompletableFuture<?>[0])).handle((v, e) -> null).join();
+            releaseStretchData(job.byte1d);
+        }
+    }
 
-        byte [] byte1d;
-        int idx;
-        int bPos= 0;
+    /**
+     * @param vpStr the viewport parameter of the progressive stretch: x,y,width,height
+     * @return the viewport, or null if vpStr is null
+     */
+    public static Rectangle parseViewport(String vpStr) {
+        if (vpStr==null) return null;
+        String[] parts= vpStr.split(",");
+        if (parts.length!=4) throw new IllegalArgumentException("viewport must be: x,y,width,height");
+        return new Rectangle(Integer.parseInt(parts[0].trim()), Integer.parseInt(parts[1].trim()),
+                             Integer.parseInt(parts[2].trim()), Integer.parseInt(parts[3].trim()));
+    }
 
-        int coreCnt= ServerContext.getParallelProcessingCoreCnt();
-        ExecutorService executor = Executors.newFixedThreadPool(coreCnt);
-        boolean normalTermination;
+    /**
+     * Average the pixels of the image in blocks of factor x factor.  NaN pixels are ignored; a block of
+     * only NaN is NaN.
+     * @return the averaged image, of size ceil(naxis1/factor) x ceil(naxis2/factor)
+     */
+    public static float [] blockAverage(float [] float1d, int naxis1, int naxis2, int factor) {
+        return blockAverage((y, line) -> System.arraycopy(float1d, y*naxis1, line, 0, naxis1), naxis1, naxis2, factor);
+    }
+
+    /**
+     * Same as blockAverage, reading the image one line at a time from the FitsRead, so the pixels
+     * of a memory mapped image are not all read into one array.
+     */
+    public static float [] blockAverage(FitsRead fr, int factor) {
+        int naxis1= fr.getNaxis1();
+        return blockAverage((y, line) -> fr.getRawPixels(0, y, naxis1, 1, line), naxis1, fr.getNaxis2(), factor);
+    }
 
-        if (state.isThreeColor()) {
-            float[][] float1dAry= new float[3][];
-            ImageHeader[] imHeadAry= new ImageHeader[3];
-            Histogram[] histAry= new Histogram[3];
-            Band[] bands= state.getBands();
+    private interface LineReader {
+        void read(int y, float [] line);
+    }
 
-            for(Band band : bands) {
-                FitsRead bandFr= frGroup.getFitsRead(band);
-                idx= band.getIdx();
-                float1dAry[idx] = flipFloatArray(bandFr.getRawFloatAry(),totWidth,totHeight);
-                imHeadAry[idx]= new ImageHeader(bandFr.getHeader());
-                histAry[idx]= bandFr.getHistogram();
+    private static float [] blockAverage(LineReader reader, int naxis1, int naxis2, int factor) {
+        int width= (naxis1 + factor - 1) / factor;
+        int height= (naxis2 + factor - 1) / factor;
+        float [] avg= new float[width*height];
+        double [] sums= new double[width];
+        int [] counts= new int[width];
+        float [] line= new float[naxis1];
+        for (int by= 0; by<height; by++) {
+            Arrays.fill(sums, 0);
+            Arrays.fill(counts, 0);
+            int lastLine= Math.min(naxis2, (by+1)*factor);
+            for (int y= by*factor; y<lastLine; y++) {
+                reader.read(y, line);
+                for (int x= 0; x<naxis1; x++) {
+                    float v= line[x];
+                    if (!Float.isNaN(v)) {
+                        sums[x/factor]+= v;
+                        counts[x/factor]++;
+                    }
+                }
+            }
+            for (int bx= 0; bx<width; bx++) {
+                avg[by*width+bx]= counts[bx]==0 ? Float.NaN : (float)(sums[bx]/counts[bx]);
             }
-            byte1d= new byte[totWidth*totHeight * state.getBands().length];
+        }
+        return avg;
+    }
 
+    /**
+     * Return an array from getStretchData, so it can be reused by a later call of the same size.
+     * @param byte1d the array, it should not be used after this call
+     */
+    public static void releaseStretchData(byte [] byte1d) {
+        if (byte1d==null || byte1d.length==0) return;
+        synchronized (bufferPool) {
+            if (bufferPool.size() >= MAX_POOLED_BUFFERS) bufferPool.remove(0);
+            bufferPool.add(new SoftReference<>(byte1d));
+        }
+    }
 
-            RangeValues rv= state.getRangeValues();
-            RGBIntensity rgbIntensity = new RGBIntensity();
-            boolean useIntensity= false;
-            if (rv.rgbPreserveHue() && bands.length==3) {
-                FitsRead [] fitsReadAry= new FitsRead[] {
-                        frGroup.getFitsRead(Band.RED),
-                        frGroup.getFitsRead(Band.GREEN),
-                        frGroup.getFitsRead(Band.BLUE),
-                };
-                for(int i=0; (i<3); i++) rgbIntensity.addRangeValues(fitsReadAry, i, rv);
-                useIntensity= true;
+    private static void writeOverview(StretchJob job, DataOutputStream out) throws IOException {
+        int factor= Math.max(1, (Math.max(job.totWidth, job.totHeight) + OVERVIEW_SIZE - 1) / OVERVIEW_SIZE);
+        int width= (job.totWidth + factor - 1) / factor;
+        int height= (job.totHeight + factor - 1) / factor;
+
+        float[][] dataAry= new float[3][];
+        ImageHeader[] headerAry= new ImageHeader[3];
+        for(int i=0; (i<3); i++) {
+            if (job.frAry[i]!=null) {
+                dataAry[i]= job.float1dAry[i]!=null ?
+                        blockAverage(job.float1dAry[i], job.totWidth, job.totHeight, factor) :
+                        blockAverage(job.frAry[i], factor);
+                headerAry[i]= resizedHeader(job.imHeadAry[i], width, height);
             }
+        }
+        byte[] ovBytes= new byte[width*height*job.bandCnt];
+        job.stretch(dataAry, headerAry, ovBytes, 0, 0, 0, width, height);
 
-            byte [][] tmpByte3CAry;
-            for(int i= 0; i<xPanels; i++) {
-                for(int j= 0; j<yPanels; j++) {
-                    int width= (i<xPanels-1) ? tileSize : ((totWidth-1) % tileSize + 1);
-                    int height= (j<yPanels-1) ? tileSize : ((totHeight-1) % tileSize + 1);
-                    idx= (i*yPanels) +j;
-                    imageDataAry[idx]= new ImageData(ImageData.ImageType.TYPE_24_BIT,
-                            0,state.getRangeValues(), tileSize*i,tileSize*j, width, height);
-                    imageDataAry[idx].stretch3ColorAndSave(float1dAry,imHeadAry,histAry,fr.getHeader(), useIntensity?rgbIntensity:null);
+        out.writeByte(FRAME_OVERVIEW);
+        out.writeInt(factor);
+        out.writeInt(width);
+        out.writeInt(height);
+        out.writeInt(job.bandCnt);
+        out.write(ovBytes);
+        out.flush();
+    }
+
+    private static ImageHeader resizedHeader(ImageHeader imHead, int width, int height) {
+        ImageHeader h= new ImageHeader();
+        h.bitpix= imHead.bitpix;
+        h.naxis= imHead.naxis;
+        h.naxis1= width;
+        h.naxis2= height;
+        h.bscale= imHead.bscale;
+        h.bzero= imHead.bzero;
+        h.blank_value= imHead.blank_value;
+        h.origin= imHead.origin;
+        return h;
+    }
+
+    private static byte [] getBuffer(int size) {
+        synchronized (bufferPool) {
+            for(Iterator<SoftReference<byte[]>> itr= bufferPool.iterator(); itr.hasNext(); ) {
+                byte [] b= itr.next().get();
+                if (b==null) {
+                    itr.remove();
                 }
-            }
-            executor.shutdown();
-            normalTermination= executor.awaitTermination(600, TimeUnit.SECONDS);
-
-            for (ImageData imageData : imageDataAry) {
-                tmpByte3CAry= imageData.getSaved3CStretch();
-                for(int bandIdx=0; (bandIdx<3);bandIdx++) {
-                    if (float1dAry[bandIdx]!=null) {
-                        System.arraycopy(tmpByte3CAry[bandIdx],0,byte1d,bPos,tmpByte3CAry[bandIdx].length);
-                        bPos+=tmpByte3CAry[bandIdx].length;
-                    }
+                else if (b.length==size) {
+                    itr.remove();
+                    return b;
                 }
             }
+        }
+        return new byte[size];
+    }
+
+    private static synchronized ForkJoinPool getStretchPool() {
+        if (stretchPool==null) stretchPool= new ForkJoinPool(ServerContext.getParallelProcessingCoreCnt());
+        return stretchPool;
+    }
+
+    /**
+     * Everything needed to stretch the tiles of one image.  The range of the stretch is computed once
+     * for the whole image.  The pixels of a memory mapped image are read one tile at a time.
+     */
+    private static class StretchJob extends TileLayout {
+        final int bandCnt;
+        final boolean threeColor;
+        final FitsRead[] frAry= new FitsRead[3];
+        final float[][] float1dAry= new float[3][];      // null for the bands that are memory mapped
+        final ImageHeader[] imHeadAry= new ImageHeader[3];
+        final Histogram[] histAry= new Histogram[3];
+        final double[][] rangeAry= new double[3][];
+        final RangeValues[] rvAry= new RangeValues[3];
+        final RGBIntensity intensity;
+        final double[] intensityRange;
+        final byte[] byte1d;
 
+        StretchJob(PlotState state, ActiveFitsReadGroup frGroup, int tileSize) {
+            this(state, frGroup, frGroup.getFitsRead(state.firstBand()), tileSize);
         }
-        else {
-            float [] float1d= fr.getRawFloatAry();
-            final float [] flip1d= flipFloatArray(float1d,totWidth,totHeight);
-            byte1d= new byte[flip1d.length];
-            for(int i= 0; i<xPanels; i++) {
-                for(int j= 0; j<yPanels; j++) {
-                    int width= (i<xPanels-1) ? tileSize : ((totWidth-1) % tileSize + 1);
-                    int height= (j<yPanels-1) ? tileSize : ((totHeight-1) % tileSize + 1);
-                    idx= (i*yPanels) +j;
-                    imageDataAry[idx]= new ImageData(ImageData.ImageType.TYPE_8_BIT,
-                            state.getColorTableId(),state.getRangeValues(), tileSize*i,tileSize*j, width, height);
-                    ImageData im= imageDataAry[idx];
-
-                    executor.execute(() -> im.stretch8bitAndSave(flip1d,fr.getHeader(),fr.getHistogram()));
+
+        private StretchJob(PlotState state, ActiveFitsReadGroup frGroup, FitsRead fr, int tileSize) {
+            super(fr.getNaxis1(), fr.getNaxis2(), tileSize);
+            this.threeColor= state.isThreeColor();
+
+            RangeValues rv= state.getRangeValues();
+            if (threeColor) {
+                Band[] bands= state.getBands();
+                for(Band band : bands) {
+                    FitsRead bandFr= frGroup.getFitsRead(band);
+                    int idx= band.getIdx();
+                    frAry[idx]= bandFr;
+                    if (!bandFr.isMapped()) float1dAry[idx] = bandFr.getRawFloatAry();
+                    imHeadAry[idx]= new ImageHeader(bandFr.getHeader());
+                    histAry[idx]= bandFr.getHistogram();
+                }
+                RGBIntensity rgbIntensity = null;
+                if (rv.rgbPreserveHue() && bands.length==3) {
+                    FitsRead [] fitsReadAry= new FitsRead[] {
+                            frGroup.getFitsRead(Band.RED),
+                            frGroup.getFitsRead(Band.GREEN),
+                            frGroup.getFitsRead(Band.BLUE),
+                    };
+                    rgbIntensity = new RGBIntensity();
+                    for(int i=0; (i<3); i++) rgbIntensity.addRangeValues(fitsReadAry, i, rv);
                 }
+                intensity= rgbIntensity;
+                bandCnt= bands.length;
             }
-            executor.shutdown();
-            normalTermination= executor.awaitTermination(600, TimeUnit.SECONDS);
+            else {
+                frAry[0]= fr;
+                if (!fr.isMapped()) float1dAry[0]= fr.getRawFloatAry();
+                imHeadAry[0]= new ImageHeader(fr.getHeader());
+                histAry[0]= fr.getHistogram();
+                intensity= null;
+                bandCnt= 1;
+            }
+            for(int i=0; (i<3); i++) {
+                rvAry[i]= rv;
+                if (frAry[i]!=null) rangeAry[i]= ImageStretch.getRange(rv, frAry[i].getRangeFloatAry(rv), imHeadAry[i], histAry[i]);
+            }
+            // the tiles are stretched in parallel and share rvAry; anything they would save in it is computed here
+            intensityRange= intensity!=null ? ImageStretch.getIntensityRange(rvAry, intensity) : null;
+            byte1d= getBuffer(totWidth*totHeight*bandCnt);
+        }
 
+        void stretchTile(int idx) {
+            Rectangle r= getTileRect(idx);
+            boolean mapped= false;
+            for(int i=0; (i<3); i++) mapped|= frAry[i]!=null && float1dAry[i]==null;
+            if (!mapped) {
+                stretch(float1dAry, imHeadAry, byte1d, getTileOffset(idx)*bandCnt, r.x, r.y, r.width, r.height);
+                return;
+            }
+            // read only the pixels of this tile; the tiles are flipped compared to the FITS data,
+            // so the tile's lines in the FITS data start at totHeight-r.y-r.height
+            float[][] dataAry= new float[3][];
+            ImageHeader[] headerAry= new ImageHeader[3];
+            for(int i=0; (i<3); i++) {
+                if (frAry[i]!=null) {
+                    dataAry[i]= new float[r.width*r.height];
+                    frAry[i].getRawPixels(r.x, totHeight-r.y-r.height, r.width, r.height, dataAry[i]);
+                    headerAry[i]= resizedHeader(imHeadAry[i], r.width, r.height);
+                }
+            }
+            stretch(dataAry, headerAry, byte1d, getTileOffset(idx)*bandCnt, 0, 0, r.width, r.height);
+        }
 
-            for (ImageData imageData : imageDataAry) {
-                byte[] tmpByteAry = imageData.getSavedStandardStretch();
-                System.arraycopy(tmpByteAry, 0, byte1d, bPos, tmpByteAry.length);
-                bPos += tmpByteAry.length;
+        void stretch(float[][] dataAry, ImageHeader[] headerAry, byte[] out, int offset, int x, int y, int width, int height) {
+            if (threeColor) {
+                int[] offsetAry= new int[3];
+                byte[][] outAry= new byte[3][];
+                int bPos= offset;
+                for(int i=0; (i<3); i++) {
+                    if (dataAry[i]!=null) {
+                        outAry[i]= out;
+                        offsetAry[i]= bPos;
+                        bPos+= width*height;
+                    }
+                }
+                ImageStretch.stretchTile3Color(rvAry, dataAry, outAry, offsetAry, true, headerAry, histAry,
+                                               rangeAry, intensity, intensityRange, x, x+width-1, y, y+height-1);
+            }
+            else {
+                ImageStretch.stretchTile8Bit(rvAry[0], dataAry[0], out, offset, true, headerAry[0], histAry[0], rangeAry[0],
+                                             x, x+width-1, y, y+height-1);
             }
         }
-        if (!normalTermination) executor.shutdownNow();
-        return byte1d;
     }
 
+    /**
+     * The tiles of an image, in column order.  Tiles are tileSize x tileSize, except in the last column and row.
+     */
+    static class TileLayout {
+        final int totWidth;
+        final int totHeight;
+        final int tileSize;
+        final int yPanels;
+        final int tileCnt;
+
+        TileLayout(int totWidth, int totHeight, int tileSize) {
+            this.totWidth= totWidth;
+            this.totHeight= totHeight;
+            this.tileSize= tileSize;
+
+            int xPanels= totWidth / tileSize;
+            int yPanels= totHeight / tileSize;
+            if (totWidth % tileSize > 0) xPanels++;
+            if (totHeight % tileSize > 0) yPanels++;
+            this.yPanels= yPanels;
+            this.tileCnt= xPanels * yPanels;
+        }
+
+        Rectangle getTileRect(int idx) {
+            int i= idx / yPanels;
+            int j= idx % yPanels;
+            return new Rectangle(tileSize*i, tileSize*j,
+                                 Math.min(tileSize, totWidth - tileSize*i), Math.min(tileSize, totHeight - tileSize*j));
+        }
+
+        /**
+         * @return where the tile starts in a single band output; all columns before this one, then all tiles above
+         * this one in this column.
+         */
+        int getTileOffset(int idx) {
+            Rectangle r= getTileRect(idx);
+            return r.x*totHeight + r.y*r.width;
+        }
 
+        /**
+         * @return the tile indexes, the ones nearest to the given area first
+         */
+        List<Integer> getTilesByDistance(Rectangle view) {
+            double cx= view.getCenterX();
+            double cy= view.getCenterY();
+            Comparator<Integer> byGap= Comparator.comparingDouble(idx -> gap(getTileRect(idx), view));
+            return IntStream.range(0, tileCnt).boxed()
+                    .sorted(byGap.thenComparingDouble(idx -> {
+                        Rectangle r= getTileRect(idx);
+                        return Math.hypot(r.getCenterX()-cx, r.getCenterY()-cy);
+                    }))
+                    .collect(Collectors.toList());
+        }
+
+        private static double gap(Rectangle r, Rectangle view) {
+            double dx= Math.max(0, Math.max(view.x - (r.x + r.width), r.x - (view.x + view.width)));
+            double dy= Math.max(0, Math.max(view.y - (r.y + r.height), r.y - (view.y + view.height)));
+            return Math.hypot(dx, dy);
+        }
+    }
 }
@@ -8,6 +8,7 @@ import edu.caltech.ipac.firefly.data.FileInfo;
 import edu.caltech.ipac.firefly.server.visualize.fitseval.FitsDataEval;
 import edu.caltech.ipac.firefly.server.visualize.fitseval.FitsEvaluation;
 import edu.caltech.ipac.firefly.server.ServerContext;
+import edu.caltech.ipac.firefly.server.cache.EhcacheImpl;
 import edu.caltech.ipac.firefly.server.cache.ObjectSizeEngineWrapper;
 import edu.caltech.ipac.firefly.server.util.Logger;
 import edu.caltech.ipac.firefly.visualize.WebPlotRequest;
@@ -18,6 +19,10 @@ import edu.caltech.ipac.util.cache.CacheKey;
 import edu.caltech.ipac.util.cache.CacheManager;
 import edu.caltech.ipac.util.cache.StringKey;
 import edu.caltech.ipac.visualize.plot.plotdata.FitsRead;
+import net.sf.ehcache.CacheException;
+import net.sf.ehcache.Ehcache;
+import net.sf.ehcache.Element;
+import net.sf.ehcache.event.CacheEventListener;
 import nom.tam.fits.Fits;
 import nom.tam.fits.FitsException;
 
@@ -38,6 +43,12 @@ public class FitsCacher {
     private static final Map<CacheKey, Object> activeRequest = new ConcurrentHashMap<>(61);
     private static final Logger.LoggerImpl _log = Logger.getLogger();
 
+    static {
+        if (memCache instanceof EhcacheImpl) {   // entries that leave the memory cache move to the spill cache
+            ((EhcacheImpl) memCache).getEHcache().getCacheEventNotificationService().registerListener(new SpillListener());
+        }
+    }
+
     static FitsDataEval readFits(File fitsFile) throws FitsException, IOException {
         return readFits(getFileInfoFromCache(fitsFile),null, true, false);
     }
@@ -49,7 +60,10 @@ public class FitsCacher {
         FitsDataEval fitsDataEval= null;
 
         if (useCache) fitsDataEval= getFromCache(fitsFileInfo);
-        if (fitsDataEval!=null) return fitsDataEval; // check first with out any locking
+        if (fitsDataEval!=null) {   // check first with out any locking
+            FitsSpillCache.recordMemHit();
+            return fitsDataEval;
+        }
           // if we are going to read the file then we might have multiple readers,
           // we want to lock here to give the second one a change to get it from cache
           // if the first reader reads and caches it.
@@ -57,7 +71,18 @@ public class FitsCacher {
             Object lockKey= activeRequest.computeIfAbsent(fitsFileInfo, k -> new Object());
             synchronized (lockKey) {
                 fitsDataEval= getFromCache(fitsFileInfo);
-                if (fitsDataEval!=null) return fitsDataEval;
+                if (fitsDataEval!=null) {
+                    FitsSpillCache.recordMemHit();
+                    return fitsDataEval;
+                }
+                if (useCache) {
+                    fitsDataEval= FitsSpillCache.promote(fitsFileInfo.getUniqueString());
+                    if (fitsDataEval!=null) {
+                        addToCache(fitsFileInfo, fitsDataEval);
+                        return fitsDataEval;
+                    }
+                }
+                FitsSpillCache.recordMemMiss();
 
                 try {
                     prepareCacheSpace(fitsFileInfo);
@@ -87,6 +112,33 @@ public class FitsCacher {
         }
     }
 
+    /**
+     * Moves a FitsDataEval that is evicted or expires from the memory cache to the {@link FitsSpillCache}.
+     * When one is removed or replaced, i.e. put with null, its promoted spill entry is released.
+     */
+    private static class SpillListener implements CacheEventListener {
+        public void notifyElementRemoved(Ehcache ehcache, Element element) throws CacheException { release(element, null); }
+        public void notifyElementPut(Ehcache ehcache, Element element) throws CacheException { release(element, element); }
+        public void notifyElementUpdated(Ehcache ehcache, Element element) throws CacheException { release(element, element); }
+        public void notifyElementExpired(Ehcache ehcache, Element element) { spill(element); }
+        public void notifyElementEvicted(Ehcache ehcache, Element element) { spill(element); }
+        public void notifyRemoveAll(Ehcache ehcache) { FitsSpillCache.releaseAll(); }
+        public void dispose() { }
+        public Object clone() throws CloneNotSupportedException { return super.clone(); }
+
+        private void spill(Element element) {
+            if (element!=null && element.getObjectValue() instanceof FitsDataEval) {
+                FitsSpillCache.add(element.getObjectKey().toString(), (FitsDataEval)element.getObjectValue());
+            }
+        }
+
+        private void release(Element element, Element current) {
+            if (element!=null && element.getObjectKey()!=null) {
+                FitsSpillCache.release(element.getObjectKey().toString(), current==null ? null : current.getObjectValue());
+            }
+        }
+    }
+
     private static void addToCache(FileInfo fitsFileInfo, FitsDataEval fitsDataEval) {
         if (memCache != null) memCache.put(fitsFileInfo, fitsDataEval);
     }
@@ -0,0 +1,236 @@
+/*
+ * License information at https://github.com/Caltech-IPAC/firefly/blob/master/License.txt
+ */
+package edu.caltech.ipac.firefly.server.visualize;
+
+import edu.caltech.ipac.firefly.server.ServerContext;
+import edu.caltech.ipac.firefly.server.util.Logger;
+import edu.caltech.ipac.firefly.server.visualize.fitseval.FitsDataEval;
+import edu.caltech.ipac.util.AppProperties;
+import edu.caltech.ipac.visualize.plot.plotdata.FitsRead;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * The second tier of the FITS cache.  The first tier is the VIS_SHARED_MEM cache, which is limited by the
+ * heap size of its entries.  When a FitsDataEval is evicted or expires from it, it is kept here instead of being
+ * thrown away.  The pixels of its images are written to spill files and memory mapped, so only the headers and
+ * histograms stay on the heap.  A later read of the same file promotes the entry back to the first tier, so the
+ * FITS file is not read, or uncompressed, again.  A promoted entry is kept until its FitsDataEval leaves the
+ * first tier again: evicted or expired, it goes back to this tier; removed or replaced, it is dropped.
+ *
+ * Pixels that are already mapped from the original file (see FitsRead.isMapped()) are not written again.
+ * Entries are dropped, least recently used first, when the spill files are over visualize.fits.spill.max.bytes
+ * or there are more than visualize.fits.spill.max.entries entries.
+ */
+public class FitsSpillCache {
+
+    private static final Logger.LoggerImpl _log = Logger.getLogger();
+    private static final String MAX_BYTES_PROP = "visualize.fits.spill.max.bytes";
+    private static final String MAX_ENTRIES_PROP = "visualize.fits.spill.max.entries";
+
+    private static final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(16, .75f, true);
+    private static final ExecutorService spillExec = Executors.newSingleThreadExecutor(r -> {
+        Thread t = new Thread(r, "fits-spill");
+        t.setDaemon(true);
+        return t;
+    });
+    private static final Stats stats = new Stats();
+    private static File spillDir;
+
+    /**
+     * Keep an entry that left the first tier.  Its pixels are spilled in the background.
+     * @param key the unique string of the cache key
+     * @param fitsDataEval the entry
+     */
+    static void add(String key, FitsDataEval fitsDataEval) {
+        Entry e;
+        synchronized (entries) {
+            stats.memEvictions++;
+            e = entries.get(key);
+            if (e == null || e.fitsDataEval != fitsDataEval) {
+                if (e != null) drop(key, e);
+                e = new Entry(fitsDataEval);
+                entries.put(key, e);
+            }
+            e.promoted = false;
+        }
+        Entry entry = e;
+        spillExec.submit(() -> spill(key, entry));
+    }
+
+    /**
+     * Remove an entry from this tier, to be put back in the first tier.
+     * @param key the unique string of the cache key
+     * @return the entry, or null if it is not here
+     */
+    static FitsDataEval promote(String key) {
+        synchronized (entries) {
+            Entry e = entries.get(key);
+            if (e == null || e.promoted) {
+                stats.spillMisses++;
+                return null;
+            }
+            e.promoted = true;         // keep the entry, it owns the spill files that the promoted images are mapped from
+            stats.spillHits++;
+            return e.fitsDataEval;
+        }
+    }
+
+    /**
+     * Called when the first tier entry of the given key is removed or replaced.  A promoted entry whose FitsDataEval
+     * is no longer in the first tier is dropped, with its spill files.
+     * @param key the unique string of the cache key
+     * @param current the value now in the first tier, or null when it was removed
+     */
+    static void release(String key, Object current) {
+        synchronized (entries) {
+            Entry e = entries.get(key);
+            if (e != null && e.promoted && e.fitsDataEval != current) {
+                entries.remove(key);
+                drop(key, e);
+            }
+        }
+    }
+
+    /**
+     * Called when the first tier is cleared.  Drops all of the promoted entries.
+     */
+    static void releaseAll() {
+        synchronized (entries) {
+            for (Iterator<Map.Entry<String, Entry>> itr = entries.entrySet().iterator(); itr.hasNext(); ) {
+                Map.Entry<String, Entry> e = itr.next();
+                if (e.getValue().promoted) {
+                    itr.remove();
+                    drop(e.getKey(), e.getValue());
+                }
+            }
+        }
+    }
+
+    static void recordMemHit() {
+        synchronized (entries) { stats.memHits++; }
+    }
+
+    static void recordMemMiss() {
+        synchronized (entries) { stats.memMisses++; }
+    }
+
+    /**
+     * @return a copy of the counters of both tiers
+     */
+    public static Stats getStats() {
+        synchronized (entries) {
+            Stats s = new Stats();
+            s.memHits = stats.memHits;
+            s.memMisses = stats.memMisses;
+            s.memEvictions = stats.memEvictions;
+            s.spillHits = stats.spillHits;
+            s.spillMisses = stats.spillMisses;
+            s.spillEvictions = stats.spillEvictions;
+            s.spillBytes = stats.spillBytes;
+            for (Entry e : entries.values()) {
+                if (!e.promoted) s.spillCount++;
+            }
+            return s;
+        }
+    }
+
+    public static long maxBytes() {
+        return AppProperties.getLongProperty(MAX_BYTES_PROP, 4L * 1024 * 1024 * 1024);
+    }
+
+    public static int maxEntries() {
+        return AppProperties.getIntProperty(MAX_ENTRIES_PROP, 500);
+    }
+
+    private static void spill(String key, Entry e) {
+        for (FitsRead fr : e.fitsDataEval.getFitReadAry()) {
+            if (fr == null || fr.isMapped()) continue;
+            File f = null;
+            try {
+                f = File.createTempFile("spill-", ".dat", getSpillDir());
+                if (fr.spillTo(f)) {
+                    synchronized (entries) {
+                        if (entries.get(key) == e) {
+                            e.files.add(f);
+                            stats.spillBytes += f.length();
+                        } else {
+                            f.delete();     // dropped while it was written, the image keeps the mapping
+                        }
+                    }
+                } else {
+                    f.delete();
+                }
+            } catch (IOException | RuntimeException ex) {
+                _log.warn("Could not spill " + key + ": " + ex.getMessage());
+                if (f != null) f.delete();
+            }
+        }
+        synchronized (entries) {
+            long maxBytes = maxBytes();
+            int maxEntries = maxEntries();
+            int count = 0;
+            for (Entry entry : entries.values()) {
+                if (!entry.promoted) count++;
+            }
+            for (Iterator<Map.Entry<String, Entry>> itr = entries.entrySet().iterator();
+                 itr.hasNext() && (stats.spillBytes > maxBytes || count > maxEntries); ) {
+                Map.Entry<String, Entry> lru = itr.next();
+                if (lru.getValue().promoted || lru.getValue() == e) continue;
+                itr.remove();
+                drop(lru.getKey(), lru.getValue());
+                stats.spillEvictions++;
+                count--;
+            }
+        }
+    }
+
+    /**
+     * Delete the spill files of an entry.  Images that are still in use keep their mapping to a deleted file.
+     */
+    private static void drop(String key, Entry e) {
+        for (File f : e.files) {
+            stats.spillBytes -= f.length();
+            if (!f.delete()) _log.warn("Could not delete spill file: " + f.getPath() + " of " + key);
+        }
+        e.files.clear();
+    }
+
+    private static synchronized File getSpillDir() {
+        if (spillDir == null) {
+            spillDir = new File(ServerContext.getTempWorkDir(), "fits-spill");
+            File[] old = spillDir.listFiles();
+            if (old != null) for (File f : old) f.delete();      // left over from the last run
+            spillDir.mkdirs();
+        }
+        return spillDir;
+    }
+
+    private static class Entry {
+        private final FitsDataEval fitsDataEval;
+        private final List<File> files = new ArrayList<>();
+        private boolean promoted;
+
+        Entry(FitsDataEval fitsDataEval) { this.fitsDataEval = fitsDataEval; }
+    }
+
+    public static class Stats {
+        public long memHits;
+        public long memMisses;
+        public long memEvictions;
+        public long spillHits;
+        public long spillMisses;
+        public long spillEvictions;
+        public long spillBytes;
+        public int spillCount;
+    }
+}
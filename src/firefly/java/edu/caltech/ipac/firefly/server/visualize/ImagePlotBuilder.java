@@ -6,8 +6,7 @@ package edu.caltech.ipac.firefly.server.visualize;
 import edu.caltech.ipac.firefly.data.FileInfo;
 import edu.caltech.ipac.firefly.server.ServerContext;
 import edu.caltech.ipac.firefly.server.util.Logger;
-import edu.caltech.ipac.firefly.server.visualize.imageretrieve.FileRetriever;
-import edu.caltech.ipac.firefly.server.visualize.imageretrieve.ImageFileRetrieverFactory;
+import edu.caltech.ipac.firefly.server.visualize.imageretrieve.ConcurrentFileRetriever;
 import edu.caltech.ipac.firefly.visualize.Band;
 import edu.caltech.ipac.firefly.visualize.PlotState;
 import edu.caltech.ipac.firefly.visualize.WebPlotRequest;
@@ -25,6 +24,8 @@ import java.util.Arrays;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
 
 import static edu.caltech.ipac.firefly.visualize.Band.*;
 
@@ -182,26 +183,37 @@ public class ImagePlotBuilder {
         PlotServUtils.updatePlotCreateProgress( firstRequest(requestMap), ProgressStat.PType.READING,
                                                 PlotServUtils.STARTING_READ_MSG);
 
-        for (Map.Entry<Band, WebPlotRequest> entry : requestMap.entrySet()) {
-            Band band = entry.getKey();
-            WebPlotRequest request = entry.getValue();
-            FileRetriever retrieve = ImageFileRetrieverFactory.getRetriever(request);
-            if (retrieve != null) {
-                FileInfo fileData;
-                try {
-                    fileData = retrieve.getFile(request);
-                    fitsFiles.put(band, fileData);
-                } catch (Exception e) {
-                    if (requestMap.size() > 1 && request.isContinueOnFail()) {
-                        _log.error("Failed to find file for band: " + band.toString() +
-                                           ", WebPlotRequest.isContinueOnFail() is true so attempting to continue");
-                    } else {
-                        throw e;
+        // all bands are retrieved at once, so a three color plot takes as long as its slowest band
+        WebPlotRequest firstR = firstRequest(requestMap);
+        Map<Band, Future<FileInfo>> results = ConcurrentFileRetriever.retrieve(requestMap, (band, done, total) -> {
+            if (total > 1) {
+                PlotServUtils.updatePlotCreateProgress(firstR, ProgressStat.PType.READING,
+                        PlotServUtils.READ_PERCENT_MSG + band.toString().toLowerCase() + " (" + done + " of " + total + ")");
+            }
+        });
+
+        try {
+            for (Map.Entry<Band, WebPlotRequest> entry : requestMap.entrySet()) {
+                Band band = entry.getKey();
+                WebPlotRequest request = entry.getValue();
+                Future<FileInfo> result = results.get(band);
+                if (result != null) {
+                    try {
+                        fitsFiles.put(band, getResult(result));
+                    } catch (Exception e) {
+                        if (requestMap.size() > 1 && request.isContinueOnFail()) {
+                            _log.error("Failed to find file for band: " + band.toString() +
+                                               ", WebPlotRequest.isContinueOnFail() is true so attempting to continue");
+                        } else {
+                            throw e;
+                        }
                     }
+                } else {
+                    _log.error("failed to find FileRetriever should only be FILE, URL, ALL_SKY, or SERVICE, for band " + band.toString());
                 }
-            } else {
-                _log.error("failed to find FileRetriever should only be FILE, URL, ALL_SKY, or SERVICE, for band " + band.toString());
             }
+        } finally {
+            for (Future<FileInfo> result : results.values()) result.cancel(true);     // no-op on the ones done
         }
 
         if (fitsFiles.size() > 0) {
@@ -215,6 +227,19 @@ public class ImagePlotBuilder {
         return fitsFiles;
     }
 
+    /**
+     * @return the retrieved file, or throw the exception the retrieval failed with
+     */
+    private static FileInfo getResult(Future<FileInfo> result) throws Exception {
+        try {
+            return result.get();
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof Exception) throw (Exception) cause;
+            throw e;
+        }
+    }
+
 
     /**
      * This method will create the determine how many plots to make and create the plot state for each plot.  It is
@@ -28,6 +28,7 @@ import edu.caltech.ipac.firefly.visualize.draw.StaticDrawInfo;
 import edu.caltech.ipac.table.DataGroup;
 import edu.caltech.ipac.table.DataObject;
 import edu.caltech.ipac.table.DataType;
+import edu.caltech.ipac.util.AppProperties;
 import edu.caltech.ipac.util.FileUtil;
 import edu.caltech.ipac.util.RegionFactory;
 import edu.caltech.ipac.util.RegionParser;
@@ -78,6 +79,7 @@ import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.io.OutputStream;
 import java.io.RandomAccessFile;
 import java.util.ArrayList;
 import java.util.Arrays;
@@ -86,6 +88,7 @@ import java.util.List;
 import java.util.Map;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
 import java.util.stream.Collectors;
 
@@ -102,6 +105,7 @@ public class VisServerOps {
 
     private static final Logger.LoggerImpl _log = Logger.getLogger();
     private static Counters counters = Counters.getInstance();
+    private static final int PLOT_GROUP_THREADS = AppProperties.getIntProperty("visualize.plot.group.threads", 8);
 
 
     static {
@@ -143,11 +147,13 @@ public class VisServerOps {
         }
         PlotServUtils.updatePlotCreateProgress(new ProgressStat(keyList, progressKey));
 
-        ExecutorService executor = Executors.newFixedThreadPool(rList.size());
+        // bounded, so a large group does not start a retrieval and a FITS read for every plot at once
+        ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, Math.min(rList.size(), PLOT_GROUP_THREADS)));
+        List<Future<WebPlotResult>> futures = new ArrayList<>(rList.size());
         boolean allCompleted = false;
         try {
             for (WebPlotRequest r : rList) {
-                executor.execute(() -> resultList.add(createPlot(r)));
+                futures.add(executor.submit(() -> createPlot(r)));
             }
             executor.shutdown();
             allCompleted = executor.awaitTermination(500, TimeUnit.SECONDS);
@@ -160,6 +166,14 @@ public class VisServerOps {
             }
         }
 
+        // in the order of the requests
+        for (Future<WebPlotResult> f : futures) {
+            try {
+                if (f.isDone() && !f.isCancelled()) resultList.add(f.get());
+            } catch (Exception e) {
+                _log.error(e, "on createPlotGroup");
+            }
+        }
         return resultList.toArray(new WebPlotResult[resultList.size()]);
     }
 
@@ -429,6 +443,28 @@ public class VisServerOps {
 
     }
 
+    /**
+     * Write the stretched image as a low resolution overview followed by full resolution tiles.
+     * @see DirectStretchUtils#writeProgressiveStretch
+     */
+    public static void writeProgressiveByteStretch(PlotState state, int tileSize, Rectangle viewport, OutputStream out)
+                                                  throws IOException {
+        try {
+            long start = System.currentTimeMillis();
+            ActiveCallCtx ctx = CtxControl.prepare(state);
+            ActiveFitsReadGroup frGroup= ctx.getFitsReadGroup();
+            DirectStretchUtils.writeProgressiveStretch(state,frGroup,tileSize,viewport,out);
+            long elapse = System.currentTimeMillis() - start;
+            PlotServUtils.statsLog("byteAryProgressive",
+                    "Type", state.isThreeColor() ? "3 Color" : "Standard",
+                    "Time", UTCTimeUtil.getHMSFromMills(elapse));
+        } catch (IOException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new IOException("Unable to stretch image", e);
+        }
+    }
+
     public static WebPlotResult recomputeStretch(PlotState state,
                                                  StretchData[] stretchData) {
         try {
@@ -43,15 +43,24 @@ public class FitsEvaluation {
         evalList.add(new SpectralCubeEval());
     }
 
+    /**
+     * Read and evaluate a FITS file.  When the HDUs are cleared the pixels of uncompressed images are memory mapped
+     * from the file instead of being read into memory.
+     */
     public static FitsDataEval readAndEvaluate(File f, boolean clearHdu, WebPlotRequest req) throws FitsException  {
-        return readAndEvaluate(new Fits(f), f, clearHdu, req);
+        return readAndEvaluate(new Fits(f), f, f, clearHdu, req);
     }
 
     public static FitsDataEval readAndEvaluate(Fits fits, File f, boolean clearHdu, WebPlotRequest req) throws FitsException  {
+        return readAndEvaluate(fits, f, null, clearHdu, req);
+    }
+
+    private static FitsDataEval readAndEvaluate(Fits fits, File f, File mapFile, boolean clearHdu, WebPlotRequest req)
+                                                       throws FitsException  {
         try  {
             BasicHDU[] HDUs = fits.read();
             if (HDUs == null || HDUs.length==0) throw new FitsException("Bad format in FITS file");
-            FitsRead frAry[] = FitsReadFactory.createFitsReadArray(HDUs, clearHdu);
+            FitsRead frAry[] = FitsReadFactory.createFitsReadArray(HDUs, mapFile, clearHdu);
             FitsDataEval fitsDataEval= new FitsDataEval(frAry);
             if (HDUs.length >1) { // Do evaluation
                 for(int i= 0; i<frAry.length; i++) {
@@ -0,0 +1,319 @@
+/*
+ * License information at https://github.com/Caltech-IPAC/firefly/blob/master/License.txt
+ */
+package edu.caltech.ipac.firefly.server.visualize.hips;
+
+import edu.caltech.ipac.firefly.data.FileInfo;
+import edu.caltech.ipac.firefly.server.util.Logger;
+import edu.caltech.ipac.util.AppProperties;
+import gov.fnal.eag.healpix.PixTools;
+
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Warms the HiPS cache with the tiles a user is likely to ask for next.  After a tile is served, its HEALPix
+ * neighbors at the same order (panning), its parent (zooming out) and its four children (zooming in) are downloaded
+ * in the background, unless they are cached already.
+ *
+ * Only surveys whose properties file was served through this server are prefetched, and at most
+ * hips.prefetch.surveys.max of them are tracked, least recently served first out.
+ * Each survey may start at most hips.prefetch.rate prefetches per second, and all of them together at most
+ * hips.prefetch.total.rate; the ones over that are dropped, not delayed.  A survey starts with an empty budget.
+ * At most hips.prefetch.queue.max prefetches wait for one of the hips.prefetch.threads threads.
+ * Tiles that the server does not have, i.e. outside of a partial survey, are remembered and not asked for again.
+ * Set hips.prefetch.rate to 0 to turn prefetching off.
+ */
+public class HiPSPrefetcher {
+
+    private static final Logger.LoggerImpl _log = Logger.getLogger();
+    private static final Pattern TILE_PATTERN =
+            Pattern.compile("^(.*)/Norder(\\d+)/Dir\\d+/Npix(\\d+)\\.([A-Za-z]+)$");
+    private static final int MAX_HEALPIX_ORDER = 19;       // the largest order PixTools supports
+    private static final int MAX_MISSING = 10000;
+    private static HiPSPrefetcher instance;
+
+    private final HiPSTileCache cache;
+    private final double rate;
+    private final TokenBucket totalBudget;
+    private final ThreadPoolExecutor exec;
+    private final Map<String, Survey> surveys;
+    private final Set<String> pending = ConcurrentHashMap.newKeySet();
+    private final Map<String, Boolean> missing = new LinkedHashMap<String, Boolean>(16, .75f, true) {
+        protected boolean removeEldestEntry(Map.Entry<String, Boolean> eldest) { return size() > MAX_MISSING; }
+    };
+    private final AtomicLong scheduled = new AtomicLong();
+    private final AtomicLong fetched = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong();
+
+    public static synchronized HiPSPrefetcher getInstance() {
+        if (instance == null) {
+            instance = new HiPSPrefetcher(HiPSTileCache.getInstance(),
+                                          AppProperties.getFloatProperty("hips.prefetch.rate", 20),
+                                          AppProperties.getFloatProperty("hips.prefetch.total.rate", 100),
+                                          AppProperties.getIntProperty("hips.prefetch.surveys.max", 100),
+                                          AppProperties.getIntProperty("hips.prefetch.threads", 4),
+                                          AppProperties.getIntProperty("hips.prefetch.queue.max", 1000));
+        }
+        return instance;
+    }
+
+    /**
+     * @param cache the cache to warm
+     * @param rate the number of prefetches per second each survey may start
+     * @param totalRate the number of prefetches per second all surveys together may start
+     * @param maxSurveys the number of surveys tracked
+     * @param threads the number of download threads
+     * @param maxQueue the number of prefetches that may wait for a thread
+     */
+    HiPSPrefetcher(HiPSTileCache cache, double rate, double totalRate, int maxSurveys, int threads, int maxQueue) {
+        this.cache = cache;
+        this.rate = rate;
+        this.totalBudget = new TokenBucket(totalRate, totalRate);
+        surveys = new LinkedHashMap<String, Survey>(16, .75f, true) {
+            protected boolean removeEldestEntry(Map.Entry<String, Survey> eldest) { return size() > maxSurveys; }
+        };
+        AtomicInteger cnt = new AtomicInteger();
+        exec = new ThreadPoolExecutor(Math.max(1, threads), Math.max(1, threads), 60, TimeUnit.SECONDS,
+                                      new LinkedBlockingQueue<>(Math.max(1, maxQueue)),
+                                      r -> {
+                                          Thread t = new Thread(r, "hips-prefetch-" + cnt.incrementAndGet());
+                                          t.setDaemon(true);
+                                          return t;
+                                      },
+                                      (r, e) -> {
+                                          pending.remove(((PrefetchTask) r).tileUrl);
+                                          dropped.incrementAndGet();
+                                      });
+        exec.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * Called after a HiPS file is served.  If it is a tile, schedule the prefetch of the tiles around it.
+     * @param urlStr the url of the file
+     */
+    public void tileServed(String urlStr) {
+        if (rate <= 0 || urlStr == null) return;
+        Matcher m = TILE_PATTERN.matcher(urlStr);
+        if (!m.matches()) return;
+        String base = m.group(1);
+        int order = Integer.parseInt(m.group(2));
+        long npix = Long.parseLong(m.group(3));
+        String ext = m.group(4);
+        Survey survey = getSurvey(base);
+        if (survey == null) return;
+
+        for (long[] tile : getRelatedTiles(order, npix, survey.getMinOrder(), survey.getMaxOrder())) {
+            if (!schedule(survey, makeTileUrl(base, (int) tile[0], tile[1], ext))) break;
+        }
+    }
+
+    public long getScheduled() { return scheduled.get(); }
+    public long getFetched() { return fetched.get(); }
+    public long getDropped() { return dropped.get(); }
+
+//====================================================================
+//
+//====================================================================
+
+    /**
+     * @return the survey of the given base url, or null if its properties file was not served through this server
+     */
+    private Survey getSurvey(String base) {
+        synchronized (surveys) {
+            Survey survey = surveys.get(base);
+            if (survey != null) return survey;
+        }
+        File propFile;
+        try {
+            propFile = cache.getCacheFile(new URL(base + "/properties"), null);
+        } catch (MalformedURLException e) {
+            return null;
+        }
+        if (!cache.contains(propFile)) return null;
+        synchronized (surveys) {
+            return surveys.computeIfAbsent(base, Survey::new);
+        }
+    }
+
+    /**
+     * @return false if the survey, or all of them together, are out of their budget
+     */
+    private boolean schedule(Survey survey, String tileUrl) {
+        synchronized (missing) {
+            if (missing.containsKey(tileUrl)) return true;
+        }
+        URL url;
+        try {
+            url = new URL(tileUrl);
+        } catch (MalformedURLException e) {
+            return true;
+        }
+        File target = cache.getCacheFile(url, null);
+        if (cache.contains(target) || pending.contains(tileUrl)) return true;
+        if (!survey.budget.take() || !totalBudget.take()) {
+            dropped.incrementAndGet();
+            return false;
+        }
+        if (pending.add(tileUrl)) {
+            scheduled.incrementAndGet();
+            exec.execute(new PrefetchTask(tileUrl, url, target));
+        }
+        return true;
+    }
+
+    /**
+     * @return the tiles to prefetch after the given one: the neighbors, the parent, then the children.
+     * Each one is {order, npix}.
+     */
+    static List<long[]> getRelatedTiles(int order, long npix, int minOrder, int maxOrder) {
+        List<long[]> tiles = new ArrayList<>(13);
+        if (order > MAX_HEALPIX_ORDER) return tiles;
+        long nside = 1L << order;
+        long npixMax = 12 * nside * nside;
+        for (long n : getNeighbors(nside, npix)) {
+            if (n >= 0 && n < npixMax && n != npix) tiles.add(new long[] {order, n});
+        }
+        if (order > minOrder) tiles.add(new long[] {order - 1, npix / 4});
+        if (order < maxOrder) {
+            for (int i = 0; i < 4; i++) tiles.add(new long[] {order + 1, npix * 4 + i});
+        }
+        return tiles;
+    }
+
+    private static Set<Long> getNeighbors(long nside, long npix) {
+        Set<Long> neighbors = new LinkedHashSet<>();
+        List<?> list;
+        PixTools pixTools = PixTools.getInstance();
+        synchronized (pixTools) {
+            list = pixTools.neighbours_nest(nside, npix);
+        }
+        // at most 8 neighbors; the list may be padded past that
+        for (int i = 0; i < list.size() && i < 8; i++) neighbors.add(((Number) list.get(i)).longValue());
+        return neighbors;
+    }
+
+    static String makeTileUrl(String base, int order, long npix, String ext) {
+        return base + "/Norder" + order + "/Dir" + (npix / 10000) * 10000 + "/Npix" + npix + "." + ext;
+    }
+
+    private class PrefetchTask implements Runnable {
+        private final String tileUrl;
+        private final URL url;
+        private final File target;
+
+        PrefetchTask(String tileUrl, URL url, File target) {
+            this.tileUrl = tileUrl;
+            this.url = url;
+            this.target = target;
+        }
+
+        public void run() {
+            try {
+                FileInfo fi = cache.prefetch(url, target);
+                if (fi != null && fi.getFile() != null) {
+                    fetched.incrementAndGet();
+                } else if (fi != null) {
+                    synchronized (missing) { missing.put(tileUrl, Boolean.TRUE); }
+                }
+            } catch (Exception e) {
+                _log.briefDebug("HiPS prefetch failed: " + tileUrl + ": " + e.getMessage());
+            } finally {
+                pending.remove(tileUrl);
+            }
+        }
+    }
+
+    /**
+     * Allows up to rate takes per second, with bursts of up to max.
+     */
+    static class TokenBucket {
+        private final double rate;
+        private final double max;
+        private double tokens;
+        private long lastRefill = System.currentTimeMillis();
+
+        /**
+         * @param rate the number of tokens added per second
+         * @param max the most tokens the bucket holds
+         * @param tokens the tokens it starts with
+         */
+        TokenBucket(double rate, double max, double tokens) {
+            this.rate = rate;
+            this.max = max;
+            this.tokens = tokens;
+        }
+
+        TokenBucket(double rate, double max) { this(rate, max, max); }
+
+        synchronized boolean take() {
+            long now = System.currentTimeMillis();
+            tokens = Math.min(max, tokens + (now - lastRefill) * rate / 1000);
+            lastRefill = now;
+            if (tokens < 1) return false;
+            tokens--;
+            return true;
+        }
+    }
+
+    /**
+     * The prefetch budget of one survey, and its orders, taken from its properties file.
+     */
+    private class Survey {
+        private final String base;
+        private final TokenBucket budget = new TokenBucket(rate, rate, 0);
+        private volatile int minOrder = 0;
+        private volatile int maxOrder = MAX_HEALPIX_ORDER;
+        private volatile boolean propsRead;
+
+        Survey(String base) {
+            this.base = base;
+        }
+
+        int getMinOrder() {
+            readProperties();
+            return minOrder;
+        }
+
+        int getMaxOrder() {
+            readProperties();
+            return maxOrder;
+        }
+
+        private void readProperties() {
+            if (propsRead) return;
+            try {
+                File propFile = cache.getCacheFile(new URL(base + "/properties"), null);
+                if (!cache.contains(propFile)) return;         // try again once the client has loaded it
+                Properties p = new Properties();
+                try (Reader r = new FileReader(propFile)) {
+                    p.load(r);
+                }
+                minOrder = Integer.parseInt(p.getProperty("hips_order_min", "0").trim());
+                maxOrder = Integer.parseInt(p.getProperty("hips_order", String.valueOf(MAX_HEALPIX_ORDER)).trim());
+            } catch (IOException | NumberFormatException e) {
+                // use the defaults
+            }
+            propsRead = true;
+        }
+    }
+}
@@ -0,0 +1,431 @@
+/*
+ * License information at https://github.com/Caltech-IPAC/firefly/blob/master/License.txt
+ */
+package edu.caltech.ipac.firefly.server.visualize.hips;
+
+import edu.caltech.ipac.firefly.data.FileInfo;
+import edu.caltech.ipac.firefly.server.ServerContext;
+import edu.caltech.ipac.firefly.server.util.Logger;
+import edu.caltech.ipac.firefly.server.util.SingleFlight;
+import edu.caltech.ipac.util.AppProperties;
+import edu.caltech.ipac.util.download.FailedRequestException;
+import edu.caltech.ipac.util.download.ResponseMessage;
+import edu.caltech.ipac.util.download.URLDownload;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Reader;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.net.URLConnection;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.TimeZone;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+
+/**
+ * The on-disk cache of HiPS tiles and metadata files, under ServerContext.getHiPSDir().
+ *
+ * A cached file is returned without contacting the HiPS server until it is older than hips.cache.revalidate.secs
+ * (hips.cache.meta.revalidate.secs for properties, lists and other non-tile files).  After that, it is revalidated
+ * with If-Modified-Since and If-None-Match; a 304 only refreshes its time.  Concurrent requests for the same file
+ * share one download.  A download is written to a temporary file, checked by length and magic bytes, then renamed,
+ * so a partial file is never served.  When the cache is over hips.cache.max.bytes, the least recently used files
+ * are deleted, except the ones pinned while they are being sent to a client.
+ */
+public class HiPSTileCache {
+
+    private static final Logger.LoggerImpl _log = Logger.getLogger();
+    private static final String MAX_BYTES_PROP = "hips.cache.max.bytes";
+    private static final String REVALIDATE_PROP = "hips.cache.revalidate.secs";
+    private static final String META_REVALIDATE_PROP = "hips.cache.meta.revalidate.secs";
+    private static final byte[] JPEG_MAGIC = {(byte) 0xFF, (byte) 0xD8, (byte) 0xFF};
+    private static final byte[] PNG_MAGIC = {(byte) 0x89, 'P', 'N', 'G', '\r', '\n', 0x1A, '\n'};
+    private static final byte[] FITS_MAGIC = {'S', 'I', 'M', 'P', 'L', 'E'};
+    private static final int FITS_BLOCK = 2880;
+    private static final int MAX_DRAIN = 64 * 1024;
+    private static HiPSTileCache instance;
+
+    private final File dir;
+    private final long maxBytes;
+    private final long tileTtl;
+    private final long metaTtl;
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(16, .75f, true);
+    private final SingleFlight<String, FileInfo> fetches = new SingleFlight<>();
+    private final Map<String, Integer> pins = new HashMap<>();
+    private final Set<String> deleteOnUnpin = new HashSet<>();
+    private long totalBytes;
+    private final AtomicLong requests = new AtomicLong();
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong revalidated = new AtomicLong();
+    private final AtomicLong downloads = new AtomicLong();
+    private final AtomicLong downloadBytes = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+
+    public static synchronized HiPSTileCache getInstance() {
+        if (instance == null) {
+            instance = new HiPSTileCache(ServerContext.getHiPSDir(),
+                                         AppProperties.getLongProperty(MAX_BYTES_PROP, 10L * 1024 * 1024 * 1024),
+                                         AppProperties.getLongProperty(REVALIDATE_PROP, 7 * 24 * 3600) * 1000,
+                                         AppProperties.getLongProperty(META_REVALIDATE_PROP, 3600) * 1000);
+            Thread loader = new Thread(instance::loadExisting, "hips-cache-load");
+            loader.setDaemon(true);
+            loader.start();
+        }
+        return instance;
+    }
+
+    /**
+     * @param dir the cache directory.  The files already in it are added by {@link #loadExisting()}.
+     * @param maxBytes the size of the cache
+     * @param tileTtl milliseconds before a tile is revalidated
+     * @param metaTtl milliseconds before any other file is revalidated
+     */
+    HiPSTileCache(File dir, long maxBytes, long tileTtl, long metaTtl) {
+        this.dir = dir;
+        this.maxBytes = maxBytes;
+        this.tileTtl = tileTtl;
+        this.metaTtl = metaTtl;
+    }
+
+    /**
+     * Return the file, downloading it if it is not cached, or revalidating it if it is stale.
+     * @param url the url of the file
+     * @param target where the file is cached.  It must be under the cache directory.
+     * @return the file info.  The response code is 200 if the file was downloaded, 304 if the cached file is current,
+     * 204 if an image does not exist, otherwise the response code of the server with a null file.
+     * @throws FailedRequestException when the server cannot be reached
+     */
+    public FileInfo get(URL url, File target) throws FailedRequestException {
+        requests.incrementAndGet();
+        String key = target.getAbsolutePath();
+        Entry e = getEntry(key);
+        if (e != null && System.currentTimeMillis() - e.validated < ttl(target)) {
+            hits.incrementAndGet();
+            return new FileInfo(target, HttpURLConnection.HTTP_NOT_MODIFIED);
+        }
+        return fetchOnce(url, target, key);
+    }
+
+    /**
+     * Download a file that is not cached yet, i.e. a tile the user is likely to ask for next.  It is not counted
+     * as a request, so prefetching does not change the hit ratio of the requests that are made.
+     * @param url the url of the file
+     * @param target where the file is cached
+     * @return the file info, or null if the file is already cached or being downloaded
+     * @throws FailedRequestException when the server cannot be reached
+     */
+    FileInfo prefetch(URL url, File target) throws FailedRequestException {
+        String key = target.getAbsolutePath();
+        if (getEntry(key) != null || fetches.isRunning(key)) return null;
+        return fetchOnce(url, target, key);
+    }
+
+    /**
+     * @param target a file under the cache directory
+     * @return true if the file is in the cache, current or not
+     */
+    public boolean contains(File target) {
+        return getEntry(target.getAbsolutePath()) != null;
+    }
+
+    /**
+     * Keep a file from being evicted or deleted while it is sent to a client.  A file may be pinned before it
+     * is cached.  Every pin must be followed by an unpin.
+     * @param target a file under the cache directory
+     */
+    public synchronized void pin(File target) {
+        pins.merge(target.getAbsolutePath(), 1, Integer::sum);
+    }
+
+    /**
+     * Release a pin.  A file that was removed from the cache while it was pinned is deleted now.
+     * @param target a file under the cache directory
+     */
+    public void unpin(File target) {
+        String key = target.getAbsolutePath();
+        synchronized (this) {
+            Integer cnt = pins.get(key);
+            if (cnt == null) return;
+            if (cnt > 1) {
+                pins.put(key, cnt - 1);
+                return;
+            }
+            pins.remove(key);
+            if (!deleteOnUnpin.remove(key)) return;
+        }
+        target.delete();
+    }
+
+    /**
+     * @param url the url of a file, or of its directory if pathExt is given
+     * @param pathExt if not null, the name of the file under url
+     * @return where the file is cached: the host and path of the url, under the cache directory
+     */
+    public File getCacheFile(URL url, String pathExt) {
+        String fPath = pathExt == null ? url.getPath() : (url.getPath() + "/" + pathExt);
+        File parent = new File(dir, new File(url.getHost() + fPath).getParent());
+        return new File(parent, new File((pathExt == null ? url.getFile() : pathExt)).getName());
+    }
+
+    public long getRequests() { return requests.get(); }
+    public long getHits() { return hits.get(); }
+    public long getRevalidated() { return revalidated.get(); }
+    public long getDownloads() { return downloads.get(); }
+    public long getDownloadBytes() { return downloadBytes.get(); }
+    public long getFailed() { return failed.get(); }
+    public long getEvictions() { return evictions.get(); }
+    public long getMaxBytes() { return maxBytes; }
+
+    /**
+     * @return the number of requests that waited for a download started by another request
+     */
+    public long getCoalesced() { return fetches.getWaitCount(); }
+
+    /**
+     * @return the fraction of requests answered from the cache, with or without revalidation
+     */
+    public double getHitRatio() {
+        long req = requests.get();
+        return req == 0 ? 0 : (double) (hits.get() + revalidated.get()) / req;
+    }
+
+    public synchronized long getSize() { return totalBytes; }
+
+    public synchronized int getCount() { return entries.size(); }
+
+//====================================================================
+//
+//====================================================================
+
+    private FileInfo fetchOnce(URL url, File target, String key) throws FailedRequestException {
+        try {
+            return fetches.run(key, () -> fetch(url, target, key));
+        } catch (FailedRequestException fre) {
+            throw fre;
+        } catch (Exception ex) {
+            throw new FailedRequestException(ResponseMessage.getNetworkCallFailureMessage(ex), ex);
+        }
+    }
+
+    private FileInfo fetch(URL url, File target, String key) throws IOException, FailedRequestException {
+        Entry old = getEntry(key);
+        Map<String, String> reqProps = new HashMap<>();
+        if (old != null) {
+            if (old.etag != null) reqProps.put("If-None-Match", old.etag);
+            reqProps.put("If-Modified-Since", toHttpDate(target.lastModified()));
+        }
+        URLConnection conn = URLDownload.makeConnection(url, null, reqProps, true);
+        int rCode = conn instanceof HttpURLConnection ? ((HttpURLConnection) conn).getResponseCode() : 200;
+
+        if (rCode != HttpURLConnection.HTTP_OK) discard(conn);
+        if (rCode == HttpURLConnection.HTTP_NOT_MODIFIED && old != null) {
+            old.validated = System.currentTimeMillis();
+            revalidated.incrementAndGet();
+            return new FileInfo(target, HttpURLConnection.HTTP_NOT_MODIFIED);
+        }
+        if (rCode != HttpURLConnection.HTTP_OK) {
+            failed.incrementAndGet();
+            if (rCode == HttpURLConnection.HTTP_NOT_FOUND) remove(key);
+            if (rCode == HttpURLConnection.HTTP_NOT_FOUND && isImage(target.getName())) return new FileInfo(null, 204);
+            return new FileInfo(null, rCode);
+        }
+
+        File parent = target.getParentFile();
+        if (!parent.exists()) parent.mkdirs();
+        long expectedLength = conn.getContentEncoding() == null ? conn.getContentLengthLong() : -1;
+        File tmp = File.createTempFile(target.getName() + "-", ".part", parent);
+        try {
+            URLDownload.getDataToFile(conn, tmp, null, false, true, false, 0L);
+            if (!isValid(tmp, target.getName(), expectedLength)) {
+                failed.incrementAndGet();
+                _log.briefInfo("invalid HiPS file: " + url);
+                return new FileInfo(null, rCode);
+            }
+            long lastModified = conn.getLastModified();
+            if (lastModified > 0) tmp.setLastModified(lastModified);
+            Files.move(tmp.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            tmp.delete();   // only exists if the download failed
+        }
+        downloads.incrementAndGet();
+        downloadBytes.addAndGet(target.length());
+        put(key, new Entry(target.length(), conn.getHeaderField("ETag"), System.currentTimeMillis()));
+        return new FileInfo(target, rCode);
+    }
+
+    private synchronized Entry getEntry(String key) {
+        return entries.get(key);
+    }
+
+    private void remove(String key) {
+        synchronized (this) {
+            Entry e = entries.remove(key);
+            if (e != null) totalBytes -= e.length;
+            if (pins.containsKey(key)) {
+                deleteOnUnpin.add(key);
+                return;
+            }
+        }
+        new File(key).delete();
+    }
+
+    private void put(String key, Entry e) {
+        List<File> victims = new ArrayList<>();
+        synchronized (this) {
+            Entry old = entries.put(key, e);
+            if (old != null) totalBytes -= old.length;
+            totalBytes += e.length;
+            if (totalBytes > maxBytes) {
+                long lowWater = maxBytes - maxBytes / 10;
+                for (Iterator<Map.Entry<String, Entry>> itr = entries.entrySet().iterator();
+                     itr.hasNext() && totalBytes > lowWater; ) {
+                    Map.Entry<String, Entry> me = itr.next();
+                    if (me.getKey().equals(key) || fetches.isRunning(me.getKey()) || pins.containsKey(me.getKey())) continue;
+                    itr.remove();
+                    totalBytes -= me.getValue().length;
+                    victims.add(new File(me.getKey()));
+                }
+            }
+        }
+        evictions.addAndGet(victims.size());
+        victims.forEach(File::delete);
+    }
+
+    private long ttl(File f) {
+        String name = f.getName();
+        return isImage(name) || name.startsWith("Npix") ? tileTtl : metaTtl;
+    }
+
+    /**
+     * Add the files already in the cache directory, oldest first.  It runs in the background, without holding
+     * the cache lock while the directory is walked.  A file that is downloaded meanwhile is not replaced, and only
+     * partial files older than the walk are deleted.
+     */
+    void loadExisting() {
+        if (dir == null || !dir.isDirectory()) return;
+        long startTime = System.currentTimeMillis();
+        List<File> files = new ArrayList<>();
+        try (Stream<Path> paths = Files.walk(dir.toPath())) {
+            paths.filter(Files::isRegularFile).forEach(p -> files.add(p.toFile()));
+        } catch (IOException | RuntimeException e) {
+            _log.warn("Unable to read HiPS cache directory: " + dir + ": " + e.getMessage());
+        }
+        files.sort(Comparator.comparingLong(File::lastModified));
+        for (File f : files) {
+            if (f.getName().endsWith(".part")) {
+                if (f.lastModified() < startTime) f.delete();       // left by a download that did not finish
+            } else {
+                String key = f.getAbsolutePath();
+                if (getEntry(key) == null && !fetches.isRunning(key)) {
+                    put(key, new Entry(f.length(), null, 0));       // revalidate on first use
+                }
+            }
+        }
+    }
+
+    /**
+     * Read what is left of a response that is not downloaded, so the connection can be reused.  A large body
+     * or an error closes the connection instead.
+     */
+    private static void discard(URLConnection conn) {
+        if (!(conn instanceof HttpURLConnection)) return;
+        HttpURLConnection hc = (HttpURLConnection) conn;
+        try (InputStream in = hc.getErrorStream() != null ? hc.getErrorStream() : hc.getInputStream()) {
+            byte[] buf = new byte[4096];
+            long total = 0;
+            for (int r = in.read(buf); r >= 0; r = in.read(buf)) {
+                total += r;
+                if (total > MAX_DRAIN) {
+                    hc.disconnect();
+                    return;
+                }
+            }
+        } catch (IOException e) {
+            hc.disconnect();
+        }
+    }
+
+    /**
+     * A cheap check that a downloaded file is complete: its length matches the Content-Length, and images
+     * and FITS files start with the right magic bytes.
+     */
+    static boolean isValid(File f, String name, long expectedLength) {
+        long len = f.length();
+        if (len == 0 || (expectedLength > 0 && len != expectedLength)) return false;
+        String lname = name.toLowerCase();
+        try {
+            if (lname.endsWith("jpg") || lname.endsWith("jpeg")) return startsWith(f, JPEG_MAGIC);
+            if (lname.endsWith("png")) return startsWith(f, PNG_MAGIC);
+            if (lname.endsWith("fits")) return len % FITS_BLOCK == 0 && startsWith(f, FITS_MAGIC);
+            if (lname.equals("properties")) {
+                Properties p = new Properties();
+                try (Reader r = new FileReader(f)) {
+                    p.load(r);
+                }
+                return p.size() >= 2;
+            }
+            return true;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    static boolean isImage(String name) {
+        String lname = name.toLowerCase();
+        return lname.endsWith("jpg") || lname.endsWith("jpeg") || lname.endsWith("png");
+    }
+
+    private static boolean startsWith(File f, byte[] magic) throws IOException {
+        byte[] buf = new byte[magic.length];
+        try (InputStream in = new FileInputStream(f)) {
+            int n = 0;
+            while (n < buf.length) {
+                int r = in.read(buf, n, buf.length - n);
+                if (r < 0) return false;
+                n += r;
+            }
+        }
+        for (int i = 0; i < magic.length; i++) {
+            if (buf[i] != magic[i]) return false;
+        }
+        return true;
+    }
+
+    private static String toHttpDate(long time) {
+        SimpleDateFormat fmt = new SimpleDateFormat(URLDownload.PATTERN_RFC1123, Locale.US);
+        fmt.setTimeZone(TimeZone.getTimeZone("GMT"));
+        return fmt.format(new Date(time));
+    }
+
+    private static class Entry {
+        private final long length;
+        private final String etag;
+        private volatile long validated;
+
+        Entry(long length, String etag, long validated) {
+            this.length = length;
+            this.etag = etag;
+            this.validated = validated;
+        }
+    }
+}
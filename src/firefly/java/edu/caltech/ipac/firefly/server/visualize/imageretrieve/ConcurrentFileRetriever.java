@@ -0,0 +1,154 @@
+/*
+ * License information at https://github.com/Caltech-IPAC/firefly/blob/master/License.txt
+ */
+package edu.caltech.ipac.firefly.server.visualize.imageretrieve;
+
+import edu.caltech.ipac.firefly.data.FileInfo;
+import edu.caltech.ipac.firefly.visualize.WebPlotRequest;
+import edu.caltech.ipac.util.AppProperties;
+import edu.caltech.ipac.util.download.FailedRequestException;
+import edu.caltech.ipac.visualize.plot.plotdata.GeomException;
+
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static edu.caltech.ipac.util.StringUtils.isEmpty;
+
+/**
+ * Retrieves the files of many plot requests at once, i.e. the bands of a three color plot.
+ * At most visualize.retrieve.threads files are retrieved at once for one call.  Across all calls, at most
+ * visualize.retrieve.per.host files are retrieved at once from the same host or image service.
+ * A host is only kept while a file is being retrieved from it, or waiting to be.
+ *
+ * The threads are made for each call, so they get a copy of the caller's RequestOwner, the same as
+ * the threads of VisServerOps.createPlotGroup.
+ */
+public class ConcurrentFileRetriever {
+
+    private static final int MAX_THREADS = AppProperties.getIntProperty("visualize.retrieve.threads", 6);
+    private static final int MAX_PER_HOST = AppProperties.getIntProperty("visualize.retrieve.per.host", 3);
+    private static final Map<String, HostLimit> hostLimits = new ConcurrentHashMap<>();    // only the hosts in use
+
+    public interface DoneListener<K> {
+        /**
+         * called on the retrieving thread after the file of the given key is retrieved, or has failed
+         * @param key the key of the request
+         * @param done the number of requests done so far, including this one
+         * @param total the number of requests
+         */
+        void done(K key, int done, int total);
+    }
+
+    /**
+     * Start the retrieval of the files of the given requests.  The requests that have no FileRetriever are left out.
+     * When there is only one request, it is retrieved on this thread.
+     * @param requests the requests, by key, i.e. Band
+     * @param listener called after each one is done; may be null
+     * @param <K> the type of the key
+     * @return the retrieved file of each request, in the same order.  Cancel the ones not needed, i.e. after one fails.
+     */
+    public static <K> Map<K, Future<FileInfo>> retrieve(Map<K, WebPlotRequest> requests, DoneListener<K> listener) {
+        Map<K, Future<FileInfo>> results = new LinkedHashMap<>();
+        int total = requests.size();
+        AtomicInteger done = new AtomicInteger();
+        ExecutorService executor = total > 1 ? Executors.newFixedThreadPool(Math.min(total, Math.max(1, MAX_THREADS))) : null;
+        try {
+            for (Map.Entry<K, WebPlotRequest> entry : requests.entrySet()) {
+                K key = entry.getKey();
+                WebPlotRequest request = entry.getValue();
+                FileRetriever retriever = ImageFileRetrieverFactory.getRetriever(request);
+                if (retriever == null) continue;
+
+                Callable<FileInfo> task = () -> {
+                    try {
+                        return getFile(retriever, request);
+                    } finally {
+                        if (listener != null) listener.done(key, done.incrementAndGet(), total);
+                    }
+                };
+                if (executor == null) {
+                    FutureTask<FileInfo> ft = new FutureTask<>(task);
+                    ft.run();
+                    results.put(key, ft);
+                } else {
+                    results.put(key, executor.submit(task));
+                }
+            }
+        } finally {
+            if (executor != null) executor.shutdown();      // the threads end after the tasks are done or cancelled
+        }
+        return results;
+    }
+
+    /**
+     * Retrieve the file of the given request, waiting while too many files are retrieved from the same host.
+     */
+    public static FileInfo getFile(FileRetriever retriever, WebPlotRequest request)
+                                            throws FailedRequestException, GeomException, SecurityException {
+        String host = getHostKey(request);
+        HostLimit limit = host == null ? null : hostLimits.compute(host, (k, v) -> {
+            HostLimit l = v == null ? new HostLimit() : v;
+            l.users++;
+            return l;
+        });
+        try {
+            if (limit != null) {
+                try {
+                    limit.permits.acquire();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new FailedRequestException("Retrieval was interrupted", "while waiting to retrieve from " + host, e);
+                }
+            }
+            try {
+                return retriever.getFile(request);
+            } finally {
+                if (limit != null) limit.permits.release();
+            }
+        } finally {
+            if (limit != null) hostLimits.computeIfPresent(host, (k, v) -> --v.users == 0 ? null : v);
+        }
+    }
+
+    /**
+     * @return the number of hosts that files are being retrieved from, or are waiting to be
+     */
+    static int getActiveHostCount() { return hostLimits.size(); }
+
+    /**
+     * @return the host of a URL request, or the name of the image service; null when the file is local
+     */
+    static String getHostKey(WebPlotRequest request) {
+        String urlStr = request.getURL();
+        if (!isEmpty(urlStr) && !urlStr.toLowerCase().startsWith("file:")) {
+            try {
+                return new URL(urlStr).getHost().toLowerCase();
+            } catch (MalformedURLException e) {
+                return null;
+            }
+        }
+        if (request.containsParam(WebPlotRequest.SERVICE) || request.containsParam(WebPlotRequest.SURVEY_KEY)) {
+            return "service:" + request.getServiceTypeString();
+        }
+        return null;
+    }
+
+    /**
+     * The limit of one host, with the number of calls using it.  The users count is only changed
+     * inside the map's compute methods, so the entry is removed when the last call is done.
+     */
+    private static class HostLimit {
+        private final Semaphore permits = new Semaphore(Math.max(1, MAX_PER_HOST), true);
+        private int users;
+    }
+}
@@ -0,0 +1,250 @@
+/*
+ * License information at https://github.com/Caltech-IPAC/firefly/blob/master/License.txt
+ */
+package edu.caltech.ipac.table;
+
+import edu.caltech.ipac.firefly.data.TableServerRequest;
+import org.json.simple.JSONObject;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.StringWriter;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Writes a page of data as typed column blocks instead of JSON, for clients that load many rows of numbers,
+ * i.e. charts.  A client asks for it with the request parameter {@link TableServerRequest#RESPONSE_FORMAT}=binary.
+ *
+ * All numbers are little-endian, and every block starts on an 8 byte boundary, so a client can view a
+ * numeric column as a typed array without copying it.  The layout is:
+ * <pre>
+ *   "FFTB", int32 version
+ *   int32 length, int32 0, the UTF-8 JSON table model without tableData.data
+ *   int32 rows, int32 columns
+ *   for each column:
+ *     int32 type, int32 0
+ *     validity bitmap: one bit per row, lowest bit first; 0 when the value is null
+ *     FLOAT64, INT64:   rows x 8 bytes
+ *     FLOAT32, INT32:   rows x 4 bytes
+ *     BOOLEAN:          rows x 1 byte
+ *     STRING:           int32 offsets[rows + 1], then the UTF-8 bytes of all of the values
+ *     JSON:             int32 length, int32 0, then a UTF-8 JSON array of the values, i.e. arrays and dates
+ * </pre>
+ * The value of a null cell is undefined.
+ */
+public class BinaryTableWriter {
+
+    public static final String BINARY = "binary";
+    public static final String CONTENT_TYPE = "application/octet-stream";
+    public static final int VERSION = 1;
+
+    static final int FLOAT64 = 1;
+    static final int FLOAT32 = 2;
+    static final int INT32 = 3;
+    static final int INT64 = 4;
+    static final int BOOLEAN = 5;
+    static final int STRING = 6;
+    static final int JSON = 7;
+
+    private static final byte[] MAGIC = "FFTB".getBytes(StandardCharsets.US_ASCII);
+
+    /**
+     * @return true if the request asks for the binary format
+     */
+    public static boolean isRequested(TableServerRequest request) {
+        return request != null && BINARY.equalsIgnoreCase(request.getParam(TableServerRequest.RESPONSE_FORMAT));
+    }
+
+    /**
+     * Write the page to the given stream.  The stream is flushed but not closed.
+     */
+    public static void write(OutputStream out, DataGroupPart page, TableServerRequest request) throws IOException {
+        JSONObject tableModel = JsonTableUtil.toJsonTableModel(page, request, false);
+        DataGroup data = page.getData();
+        DataType[] cols = data.getDataDefinitions();
+        int rows = data.size();
+
+        BlockOutput bout = new BlockOutput(out);
+        bout.write(MAGIC);
+        bout.putInt(VERSION);
+        bout.writeSized(tableModel.toJSONString().getBytes(StandardCharsets.UTF_8));
+        bout.putInt(rows);
+        bout.putInt(cols.length);
+        for (DataType col : cols) {
+            writeColumn(bout, data, col, rows);
+        }
+        bout.flush();
+    }
+
+//====================================================================
+//  private methods
+//====================================================================
+
+    private static void writeColumn(BlockOutput out, DataGroup data, DataType col, int rows) throws IOException {
+        String cname = col.getKeyName();
+        PrimitiveList values = data.getColumnData(cname);
+        int type = getType(values, col);
+        out.putInt(type);
+        out.putInt(0);
+
+        byte[] valid = new byte[(rows + 7) / 8];
+        for (int r = 0; r < rows; r++) {
+            boolean isValid = values == null ? data.getData(cname, r) != null : !isNull(values, type, r);
+            if (isValid) valid[r >> 3] |= 1 << (r & 7);
+        }
+        out.write(valid);
+        out.align();
+
+        switch (type) {
+            case FLOAT64:
+                for (int r = 0; r < rows; r++) out.putDouble(values.getDouble(r));
+                break;
+            case FLOAT32:
+                for (int r = 0; r < rows; r++) out.putFloat((float) values.getDouble(r));
+                break;
+            case INT32:
+                for (int r = 0; r < rows; r++) {
+                    double v = values.getDouble(r);
+                    out.putInt(Double.isNaN(v) ? 0 : (int) v);
+                }
+                break;
+            case INT64:
+                for (int r = 0; r < rows; r++) {
+                    Object v = values.get(r);
+                    out.putLong(v == null ? 0 : (Long) v);
+                }
+                break;
+            case BOOLEAN:
+                for (int r = 0; r < rows; r++) out.put(Boolean.TRUE.equals(values.get(r)) ? (byte) 1 : 0);
+                break;
+            case STRING:
+                ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+                out.putInt(0);
+                for (int r = 0; r < rows; r++) {
+                    Object v = values.get(r);
+                    if (v != null) bytes.write(v.toString().getBytes(StandardCharsets.UTF_8));
+                    out.putInt(bytes.size());
+                }
+                out.align();
+                bytes.writeTo(out);
+                break;
+            default:
+                StringWriter json = new StringWriter();
+                json.write('[');
+                for (int r = 0; r < rows; r++) {
+                    if (r > 0) json.write(',');
+                    JsonTableWriter.writeValue(json, values == null ? data.getData(cname, r) : values.get(r));
+                }
+                json.write(']');
+                out.writeSized(json.toString().getBytes(StandardCharsets.UTF_8));
+        }
+        out.align();
+    }
+
+    private static int getType(PrimitiveList values, DataType col) {
+        if (values instanceof PrimitiveList.Doubles || values instanceof DirectPrimitiveList.Doubles) return FLOAT64;
+        if (values instanceof PrimitiveList.Floats || values instanceof DirectPrimitiveList.Floats) return FLOAT32;
+        if (values instanceof PrimitiveList.Integers || values instanceof DirectPrimitiveList.Integers) return INT32;
+        if (values instanceof PrimitiveList.Longs || values instanceof DirectPrimitiveList.Longs) return INT64;
+        if (values instanceof PrimitiveList.Booleans) return BOOLEAN;
+        if (values != null && col.getDataType() == String.class && !col.isArrayType()) return STRING;
+        return JSON;
+    }
+
+    private static boolean isNull(PrimitiveList values, int type, int row) {
+        switch (type) {
+            case FLOAT64:
+            case FLOAT32:
+            case INT32:
+                return Double.isNaN(values.getDouble(row));
+            default:
+                return values.get(row) == null;
+        }
+    }
+
+    /**
+     * A little-endian output that keeps count of the bytes written, so blocks can be aligned.
+     */
+    private static class BlockOutput extends OutputStream {
+        private final OutputStream out;
+        private final ByteBuffer buf = ByteBuffer.allocate(64 * 1024).order(ByteOrder.LITTLE_ENDIAN);
+        private long written;
+
+        BlockOutput(OutputStream out) {
+            this.out = out;
+        }
+
+        void putInt(int v) throws IOException {
+            ensure(Integer.BYTES).putInt(v);
+        }
+
+        void putLong(long v) throws IOException {
+            ensure(Long.BYTES).putLong(v);
+        }
+
+        void putFloat(float v) throws IOException {
+            ensure(Float.BYTES).putFloat(v);
+        }
+
+        void putDouble(double v) throws IOException {
+            ensure(Double.BYTES).putDouble(v);
+        }
+
+        void put(byte v) throws IOException {
+            ensure(1).put(v);
+        }
+
+        /**
+         * write the length of the bytes, then the bytes, then pad to the next block
+         */
+        void writeSized(byte[] bytes) throws IOException {
+            putInt(bytes.length);
+            putInt(0);
+            write(bytes);
+            align();
+        }
+
+        void align() throws IOException {
+            while (position() % 8 != 0) put((byte) 0);
+        }
+
+        public void write(int b) throws IOException {
+            put((byte) b);
+        }
+
+        public void write(byte[] b, int off, int len) throws IOException {
+            if (len > buf.remaining()) {
+                drain();
+                if (len > buf.capacity()) {
+                    out.write(b, off, len);
+                    written += len;
+                    return;
+                }
+            }
+            buf.put(b, off, len);
+        }
+
+        public void flush() throws IOException {
+            drain();
+            out.flush();
+        }
+
+        private long position() {
+            return written + buf.position();
+        }
+
+        private ByteBuffer ensure(int size) throws IOException {
+            if (buf.remaining() < size) drain();
+            return buf;
+        }
+
+        private void drain() throws IOException {
+            out.write(buf.array(), 0, buf.position());
+            written += buf.position();
+            buf.clear();
+        }
+    }
+}
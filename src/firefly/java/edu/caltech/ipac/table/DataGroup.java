@@ -17,11 +17,20 @@ public class DataGroup implements Serializable, Cloneable, Iterable<DataObject>
     public static final String ROW_IDX = "ROW_IDX";               // this contains the original row index of the table before any sorting or filtering
     public static final String ROW_NUM = "ROW_NUM";               // this is row number of the current dataset. (oracle's rownum)
 
+    /**
+     * How column data is stored.
+     * HEAP:    primitive arrays on the java heap.  This is the default.
+     * DIRECT:  direct (off-heap) memory, with dictionary encoding for string columns.
+     * MAPPED:  memory-mapped temp files, with dictionary encoding for string columns.
+     */
+    public enum Storage {HEAP, DIRECT, MAPPED}
+
     private LinkedHashMap<String, DataType> columns = new LinkedHashMap<>();
     private HashMap<String, PrimitiveList> data = new HashMap<>();
     private TableMeta meta = new TableMeta();
     private String title;
     private int size;
+    private Storage storage = Storage.HEAP;
     private List<GroupInfo> groups = new ArrayList<>();   // for <GROUP> under <TABLE> of VOTable
     private List<LinkInfo> links = new ArrayList<>();     // for <LINK> under <TABLE> of VOTable
     private List<ParamInfo> params = new ArrayList<>();  // for <PARAM> under <TABLE> of VOTABLE
@@ -44,6 +53,17 @@ public class DataGroup implements Serializable, Cloneable, Iterable<DataObject>
         return title;
     }
 
+    public Storage getStorage() { return storage; }
+
+    /**
+     * Select how column data is stored.  This only affects columns whose data has not been created yet,
+     * therefore it should be set before any data is added.
+     * @param storage  the storage to use
+     */
+    public void setStorage(Storage storage) {
+        this.storage = storage == null ? Storage.HEAP : storage;
+    }
+
     public void setTableMeta(TableMeta meta) { this.meta = meta; }
     public TableMeta getTableMeta() { return meta; }
 
@@ -68,7 +88,8 @@ public class DataGroup implements Serializable, Cloneable, Iterable<DataObject>
         if (names == null) return;
         for(String cn : names) {
             columns.remove(cn);
-            data.remove(cn);
+            PrimitiveList plist = data.remove(cn);
+            if (plist != null) plist.clear();
         };
     }
 
@@ -119,6 +140,7 @@ public class DataGroup implements Serializable, Cloneable, Iterable<DataObject>
     }
 
     public void clearData() {
+        data.values().forEach(PrimitiveList::clear);      // release off-heap resources promptly
         data.clear();
     }
 
@@ -198,6 +220,7 @@ public class DataGroup implements Serializable, Cloneable, Iterable<DataObject>
         }
         DataGroup copy = new DataGroup(title, copyCols);
         copy.meta = meta.clone();
+        copy.storage = storage;
         return copy;
     }
 
@@ -450,6 +473,37 @@ public class DataGroup implements Serializable, Cloneable, Iterable<DataObject>
         return data == null ? null : data.get(rowIdx);
     }
 
+    /**
+     * @return the value of the given cell as a double, without boxing it when the column is stored as primitives.
+     * NaN if the column has no data, or the value is null or not a number.  It does not change the DataGroup,
+     * so it can be called from many threads at once.
+     */
+    public double getDouble(String cname, int rowIdx) {
+        PrimitiveList values = data.get(cname);
+        return values == null ? Double.NaN : values.getDouble(rowIdx);
+    }
+
+    /**
+     * @return the stored values of the given column, or null if it has none.  For readers and writers that go
+     * through a whole column, i.e. {@link JsonTableWriter}.
+     */
+    public PrimitiveList getColumnData(String cname) {
+        return data.get(cname);
+    }
+
+    /**
+     * Grow this DataGroup to the given number of rows, so its column data can be set by row index, i.e. by many
+     * threads at once, each on its own rows.  Every row added must be set.  Only HEAP storage supports this.
+     * @param rows the number of rows
+     */
+    public void ensureRows(int rows) {
+        if (storage != Storage.HEAP) throw new IllegalStateException("ensureRows is only supported by HEAP storage");
+        for (DataType dt : getDataDefinitions()) {
+            getDataList(dt.getKeyName()).setSize(rows);
+        }
+        size = Math.max(size, rows);
+    }
+
     public void setData(String cname, int rowIdx, Object val) {
         PrimitiveList data = getDataList(cname);
         if (data != null) {
@@ -479,27 +533,48 @@ public class DataGroup implements Serializable, Cloneable, Iterable<DataObject>
         if (dataList == null) {
             DataType dt = getDataDefintion(cname);
             if (dt != null) {
-                if (dt.getArraySize() != null) {
-                    dataList =  new PrimitiveList.Objects();
-                } else {
-                    Class clz = dt.getDataType();
-                    if (clz == Double.class) {
-                        dataList = new PrimitiveList.Doubles();
-                    } else if (clz == Float.class) {
-                        dataList = new PrimitiveList.Floats();
-                    } else if (clz == Long.class) {
-                        dataList = new PrimitiveList.Longs();
-                    } else if (clz == Integer.class) {
-                        dataList = new PrimitiveList.Integers();
-                    } else if (clz == Boolean.class) {
-                        dataList = new PrimitiveList.Booleans();
-                    } else {
-                        dataList = new PrimitiveList.Objects();
-                    }
-                }
+                dataList = storage == Storage.HEAP ? makeHeapList(dt) : makeDirectList(dt, storage == Storage.MAPPED);
                 data.put(cname, dataList);
             }
         }
         return dataList;
     }
+
+    private static PrimitiveList makeHeapList(DataType dt) {
+        if (dt.getArraySize() != null) return new PrimitiveList.Objects();
+
+        Class clz = dt.getDataType();
+        if (clz == Double.class) {
+            return new PrimitiveList.Doubles();
+        } else if (clz == Float.class) {
+            return new PrimitiveList.Floats();
+        } else if (clz == Long.class) {
+            return new PrimitiveList.Longs();
+        } else if (clz == Integer.class) {
+            return new PrimitiveList.Integers();
+        } else if (clz == Boolean.class) {
+            return new PrimitiveList.Booleans();
+        } else {
+            return new PrimitiveList.Objects();
+        }
+    }
+
+    private static PrimitiveList makeDirectList(DataType dt, boolean mapped) {
+        if (dt.getArraySize() != null) return new PrimitiveList.Objects();
+
+        Class<?> clz = dt.getDataType();
+        if (clz == Double.class) {
+            return new DirectPrimitiveList.Doubles(mapped);
+        } else if (clz == Float.class) {
+            return new DirectPrimitiveList.Floats(mapped);
+        } else if (clz == Long.class) {
+            return new DirectPrimitiveList.Longs(mapped);
+        } else if (clz == Integer.class) {
+            return new DirectPrimitiveList.Integers(mapped);
+        } else if (clz == Boolean.class) {
+            return new PrimitiveList.Booleans();
+        } else {
+            return new DirectPrimitiveList.Dictionary(mapped);
+        }
+    }
 }
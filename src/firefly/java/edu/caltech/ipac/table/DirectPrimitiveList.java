@@ -0,0 +1,388 @@
+/*
+ * License information at https://github.com/Caltech-IPAC/firefly/blob/master/License.txt
+ */
+
+package edu.caltech.ipac.table;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.lang.ref.PhantomReference;
+import java.lang.ref.ReferenceQueue;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * PrimitiveList implementations that keep column data outside of the java heap.
+ * Data is stored in fixed-size chunks of either direct ByteBuffer or memory-mapped temp file,
+ * so growing a column never copies the data already stored, and a column is not limited to 2GB.
+ * Null values are represented the same way as the heap-based PrimitiveList.
+ *
+ * Use {@link DataGroup#setStorage(DataGroup.Storage)} to select this family for a DataGroup.
+ */
+public abstract class DirectPrimitiveList implements PrimitiveList {
+    static final int CHUNK_SHIFT = 16;                  // 64k elements per chunk
+    static final int CHUNK_SIZE = 1 << CHUNK_SHIFT;
+    static final int CHUNK_MASK = CHUNK_SIZE - 1;
+    private static final ReferenceQueue<DirectPrimitiveList> unreachable = new ReferenceQueue<>();
+    private static final Set<MapFileRef> mapFileRefs = ConcurrentHashMap.newKeySet();
+
+    static {
+        Thread closer = new Thread(DirectPrimitiveList::closeUnreachable, "mapped-column-closer");
+        closer.setDaemon(true);
+        closer.start();
+    }
+
+    private final int elemSize;
+    private final boolean mapped;
+    private ArrayList<ByteBuffer> chunks = new ArrayList<>();
+    private MapFileRef mapFile;
+    private int size;
+
+    /**
+     * @param elemSize  number of bytes per element
+     * @param mapped    true to back this list with a memory-mapped temp file, otherwise direct memory is used.
+     */
+    protected DirectPrimitiveList(int elemSize, boolean mapped) {
+        this.elemSize = elemSize;
+        this.mapped = mapped;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public void clear() {
+        size = 0;
+        chunks.clear();
+        if (mapFile != null) {
+            mapFile.close();
+            mapFile = null;
+        }
+    }
+
+    /**
+     * Direct buffers allocate only what's needed for the last chunk.  Mapped file only consumes what's touched,
+     * so there is nothing to trim.
+     */
+    public void trimToSize() {
+        if (mapped || chunks.size() == 0) return;
+        int lastIdx = chunks.size() - 1;
+        int needed = (size - (lastIdx << CHUNK_SHIFT)) * elemSize;
+        ByteBuffer last = chunks.get(lastIdx);
+        if (needed <= 0) {
+            chunks.remove(lastIdx);
+        } else if (needed < last.capacity()) {
+            chunks.set(lastIdx, copyOf(last, needed));
+        }
+    }
+
+    /**
+     * @return the number of bytes allocated outside of the java heap by this list
+     */
+    public long getAllocatedBytes() {
+        long total = 0;
+        for (ByteBuffer bb : chunks) total += bb.capacity();
+        return total;
+    }
+
+//====================================================================
+//  for subclasses
+//====================================================================
+
+    /**
+     * @return the chunk containing the given index, allocating it if needed.
+     */
+    protected ByteBuffer chunkForWrite(int idx) {
+        int cidx = idx >>> CHUNK_SHIFT;
+        if (cidx >= chunks.size() - 1) {
+            int lastIdx = chunks.size() - 1;
+            if (lastIdx >= 0 && chunks.get(lastIdx).capacity() < CHUNK_SIZE * elemSize) {
+                // last chunk was trimmed; restore it to full size
+                chunks.set(lastIdx, copyOf(chunks.get(lastIdx), CHUNK_SIZE * elemSize));
+            }
+            while (cidx >= chunks.size()) {
+                chunks.add(allocChunk(chunks.size()));
+            }
+        }
+        if (idx >= size) size = idx + 1;
+        return chunks.get(cidx);
+    }
+
+    protected ByteBuffer chunkForRead(int idx) {
+        if (idx < 0 || idx >= size) throw new IndexOutOfBoundsException("Index: " + idx + ", Size: " + size);
+        return chunks.get(idx >>> CHUNK_SHIFT);
+    }
+
+    protected int offset(int idx) {
+        return (idx & CHUNK_MASK) * elemSize;
+    }
+
+    private ByteBuffer allocChunk(int cidx) {
+        int bytes = CHUNK_SIZE * elemSize;
+        if (mapped) {
+            try {
+                if (mapFile == null) mapFile = new MapFileRef(this);
+                return mapFile.raf.getChannel()
+                        .map(FileChannel.MapMode.READ_WRITE, (long) cidx * bytes, bytes)
+                        .order(ByteOrder.nativeOrder());
+            } catch (IOException e) {
+                throw new RuntimeException("Unable to map column data to a temp file: " + e.getMessage(), e);
+            }
+        } else {
+            return ByteBuffer.allocateDirect(bytes).order(ByteOrder.nativeOrder());
+        }
+    }
+
+    /**
+     * The temp file behind a mapped list.  The file is deleted as soon as it is opened; its space is
+     * released when it is closed, on clear() or, once the list is no longer reachable, by the closer thread.
+     */
+    private static class MapFileRef extends PhantomReference<DirectPrimitiveList> {
+        private final RandomAccessFile raf;
+
+        MapFileRef(DirectPrimitiveList list) throws IOException {
+            super(list, unreachable);
+            File f = File.createTempFile("col-", ".dat");
+            raf = new RandomAccessFile(f, "rw");
+            if (!f.delete()) f.deleteOnExit();      // an open file cannot be deleted on some platforms
+            mapFileRefs.add(this);
+        }
+
+        void close() {
+            if (!mapFileRefs.remove(this)) return;      // already closed
+            clear();
+            try {
+                raf.close();
+            } catch (IOException ignored) {}
+        }
+    }
+
+    private static void closeUnreachable() {
+        while (true) {
+            try {
+                ((MapFileRef) unreachable.remove()).close();
+            } catch (InterruptedException ignored) {}
+        }
+    }
+
+    private static ByteBuffer copyOf(ByteBuffer src, int capacity) {
+        ByteBuffer copy = ByteBuffer.allocateDirect(capacity).order(ByteOrder.nativeOrder());
+        ByteBuffer from = src.duplicate();
+        from.position(0).limit(Math.min(src.capacity(), capacity));
+        copy.put(from);
+        copy.clear();
+        return copy;
+    }
+
+//====================================================================
+//  implementations
+//====================================================================
+
+    public static class Doubles extends DirectPrimitiveList {
+        public Doubles(boolean mapped) { super(Double.BYTES, mapped); }
+
+        public Class<?> getDataClass() {
+            return Double.class;
+        }
+
+        public Object get(int idx) {
+            double v = chunkForRead(idx).getDouble(offset(idx));
+            return Double.isNaN(v) ? null : v;
+        }
+
+        public double getDouble(int idx) {
+            return chunkForRead(idx).getDouble(offset(idx));
+        }
+
+        public void set(int idx, Object val) {
+            checkType(val);
+            chunkForWrite(idx).putDouble(offset(idx), val == null ? Double.NaN : (double) val);
+        }
+    }
+
+    public static class Floats extends DirectPrimitiveList {
+        public Floats(boolean mapped) { super(Float.BYTES, mapped); }
+
+        public Class<?> getDataClass() {
+            return Float.class;
+        }
+
+        public Object get(int idx) {
+            float v = chunkForRead(idx).getFloat(offset(idx));
+            return Float.isNaN(v) ? null : v;
+        }
+
+        public double getDouble(int idx) {
+            return chunkForRead(idx).getFloat(offset(idx));
+        }
+
+        public void set(int idx, Object val) {
+            checkType(val);
+            chunkForWrite(idx).putFloat(offset(idx), val == null ? Float.NaN : (float) val);
+        }
+    }
+
+    public static class Longs extends DirectPrimitiveList {
+        public Longs(boolean mapped) { super(Long.BYTES, mapped); }
+
+        public Class<?> getDataClass() {
+            return Long.class;
+        }
+
+        public Object get(int idx) {
+            long v = chunkForRead(idx).getLong(offset(idx));
+            return v == Long.MIN_VALUE ? null : v;
+        }
+
+        public double getDouble(int idx) {
+            long v = chunkForRead(idx).getLong(offset(idx));
+            return v == Long.MIN_VALUE ? Double.NaN : v;
+        }
+
+        public void set(int idx, Object val) {
+            checkType(val);
+            chunkForWrite(idx).putLong(offset(idx), val == null ? Long.MIN_VALUE : (long) val);
+        }
+    }
+
+    public static class Integers extends DirectPrimitiveList {
+        public Integers(boolean mapped) { super(Integer.BYTES, mapped); }
+
+        public Class<?> getDataClass() {
+            return Integer.class;
+        }
+
+        public Object get(int idx) {
+            int v = getInt(idx);
+            return v == Integer.MIN_VALUE ? null : v;
+        }
+
+        public double getDouble(int idx) {
+            int v = getInt(idx);
+            return v == Integer.MIN_VALUE ? Double.NaN : v;
+        }
+
+        public void set(int idx, Object val) {
+            setInt(idx, val == null ? Integer.MIN_VALUE : getIntValue(val));
+        }
+
+        int getInt(int idx) {
+            return chunkForRead(idx).getInt(offset(idx));
+        }
+
+        void setInt(int idx, int val) {
+            chunkForWrite(idx).putInt(offset(idx), val);
+        }
+    }
+
+    /**
+     * Dictionary encoded list for columns with many repeated values, i.e. String.
+     * Each row is stored as an int code in direct memory, and each distinct value is stored only once on the heap.
+     * Code 0 is null, so rows that were never set read as null.
+     * When the number of distinct values exceeds maxDictSize, encoding no longer pays off; the list then
+     * decodes itself into a plain heap-based list and behaves like PrimitiveList.Objects.
+     */
+    public static class Dictionary implements PrimitiveList {
+        public static final int DEF_MAX_DICT_SIZE = 1 << 16;
+        private static final int NULL_CODE = 0;
+
+        private final int maxDictSize;
+        private DirectPrimitiveList.Integers codes;
+        private ArrayList<Object> dict = new ArrayList<>();
+        private HashMap<Object, Integer> lookup = new HashMap<>();
+        private PrimitiveList.Objects decoded;            // not null when dictionary encoding was abandoned
+
+        public Dictionary(boolean mapped) {
+            this(mapped, DEF_MAX_DICT_SIZE);
+        }
+
+        public Dictionary(boolean mapped, int maxDictSize) {
+            this.maxDictSize = maxDictSize;
+            this.codes = new DirectPrimitiveList.Integers(mapped);
+        }
+
+        public Class<?> getDataClass() {
+            return Object.class;
+        }
+
+        public Object get(int idx) {
+            if (decoded != null) return decoded.get(idx);
+            int code = codes.getInt(idx);
+            return code == NULL_CODE ? null : dict.get(code - 1);
+        }
+
+        public void set(int idx, Object val) {
+            if (decoded != null) {
+                decoded.set(idx, val);
+                return;
+            }
+            if (val == null) {
+                codes.setInt(idx, NULL_CODE);
+                return;
+            }
+            Integer code = lookup.get(val);
+            if (code == null) {
+                if (dict.size() >= maxDictSize) {
+                    decode();
+                    decoded.set(idx, val);
+                    return;
+                }
+                dict.add(val);
+                code = dict.size();
+                lookup.put(val, code);
+            }
+            codes.setInt(idx, code);
+        }
+
+        public int size() {
+            return decoded != null ? decoded.size() : codes.size();
+        }
+
+        public void clear() {
+            codes.clear();
+            dict.clear();
+            lookup.clear();
+            decoded = null;
+        }
+
+        public void trimToSize() {
+            if (decoded != null) {
+                decoded.trimToSize();
+            } else {
+                codes.trimToSize();
+                dict.trimToSize();
+            }
+        }
+
+        /**
+         * @return true if values are still dictionary encoded
+         */
+        public boolean isEncoded() {
+            return decoded == null;
+        }
+
+        /**
+         * @return number of distinct values in the dictionary
+         */
+        public int getDictSize() {
+            return dict.size();
+        }
+
+        private void decode() {
+            PrimitiveList.Objects list = new PrimitiveList.Objects();
+            for (int i = 0; i < codes.size(); i++) {
+                list.add(get(i));
+            }
+            codes.clear();
+            dict = new ArrayList<>();
+            lookup = new HashMap<>();
+            decoded = list;
+        }
+    }
+}
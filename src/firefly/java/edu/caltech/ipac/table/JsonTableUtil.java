@@ -39,8 +39,15 @@ public class JsonTableUtil {
      * @throws IOException
      */
     public static JSONObject toJsonTableModel(DataGroupPart page, TableServerRequest request) throws IOException {
+        return toJsonTableModel(page, request, true);
+    }
+
+    /**
+     * @param inclData  false to leave out tableData.data, i.e. when the rows are written by {@link JsonTableWriter}
+     */
+    static JSONObject toJsonTableModel(DataGroupPart page, TableServerRequest request, boolean inclData) {
 
-        JSONObject tableModel = toJsonDataGroup(page.getData());
+        JSONObject tableModel = toJsonDataGroup(page.getData(), false, inclData);
         tableModel.put("totalRows", page.getRowCount());                // override DataGroup size because it may be just one page of data.
         if (request != null ){
             tableModel.put("request", toJsonTableRequest(request));
@@ -74,6 +81,10 @@ public class JsonTableUtil {
      * @return
      */
     public static JSONObject toJsonDataGroup(DataGroup dataGroup, boolean cleanUpStrings) {
+        return toJsonDataGroup(dataGroup, cleanUpStrings, true);
+    }
+
+    private static JSONObject toJsonDataGroup(DataGroup dataGroup, boolean cleanUpStrings, boolean inclData) {
 
         JSONObject tableModel = new JSONObject();
         TableMeta meta = dataGroup.getTableMeta();
@@ -87,7 +98,7 @@ public class JsonTableUtil {
         }
 
         tableModel.put("type", guessType(meta));
-        tableModel.put("tableData", toJsonTableData(dataGroup,cleanUpStrings));
+        tableModel.put("tableData", toJsonTableData(dataGroup, cleanUpStrings, inclData));
 
         if (meta.getKeywords().size() > 0) {
             List<JSONObject> keywords = new ArrayList<>();
@@ -162,6 +173,10 @@ public class JsonTableUtil {
      * @return
      */
     public static JSONObject toJsonTableData(DataGroup data, boolean cleanUpStrings) {
+        return toJsonTableData(data, cleanUpStrings, true);
+    }
+
+    private static JSONObject toJsonTableData(DataGroup data, boolean cleanUpStrings, boolean inclData) {
 
         JSONObject tdata = new JSONObject();
 
@@ -176,7 +191,7 @@ public class JsonTableUtil {
                 .filter(att -> att.getKey().startsWith("col."))
                 .forEach(att -> data.getTableMeta().removeAttribute(att.getKey()));
 
-        if (data.size() > 0) {
+        if (inclData && data.size() > 0) {
             List<List> tableData = new ArrayList<>();
             for (int i = 0; i < data.size(); i++) {
                 Object[] rowData = Arrays.stream(data.get(i).getData()).map(d -> mapToJsonAware(d,cleanUpStrings)).toArray();
@@ -0,0 +1,221 @@
+/*
+ * License information at https://github.com/Caltech-IPAC/firefly/blob/master/License.txt
+ */
+package edu.caltech.ipac.table;
+
+import edu.caltech.ipac.firefly.data.TableServerRequest;
+import org.json.simple.JSONAware;
+import org.json.simple.JSONObject;
+import org.json.simple.JSONValue;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.lang.reflect.Array;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+
+/**
+ * Writes a page of data as the JSON table model returned by {@link JsonTableUtil#toJsonTableModel}, straight
+ * to a stream.  The metadata is small and is still converted by JsonTableUtil, but the rows are written cell by
+ * cell from the stored column data; no JSONArray, boxed value, or String of the whole page is made.
+ * The writer of each column is picked once from how its values are stored, so double, float and int
+ * columns are formatted from primitives.
+ */
+public class JsonTableWriter {
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    /**
+     * Write the table model to the given stream as UTF-8.  The stream is flushed but not closed.
+     */
+    public static void write(OutputStream out, DataGroupPart page, TableServerRequest request) throws IOException {
+        Writer writer = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8), BUFFER_SIZE);
+        write(writer, page, request);
+        writer.flush();
+    }
+
+    public static void write(Writer out, DataGroupPart page, TableServerRequest request) throws IOException {
+        JSONObject tableModel = JsonTableUtil.toJsonTableModel(page, request, false);
+        JSONObject tableData = (JSONObject) tableModel.remove("tableData");
+
+        out.write('{');
+        for (Object o : tableModel.entrySet()) {
+            Map.Entry<?, ?> entry = (Map.Entry<?, ?>) o;
+            writeString(out, String.valueOf(entry.getKey()));
+            out.write(':');
+            JSONValue.writeJSONString(entry.getValue(), out);
+            out.write(',');
+        }
+        out.write("\"tableData\":{");
+        Object columns = tableData.get("columns");
+        if (columns != null) {
+            out.write("\"columns\":");
+            JSONValue.writeJSONString(columns, out);
+        }
+        DataGroup data = page.getData();
+        if (data.size() > 0) {
+            if (columns != null) out.write(',');
+            out.write("\"data\":");
+            writeRows(out, data);
+        }
+        out.write("}}");
+    }
+
+    /**
+     * Write the rows of the given table as a JSON array of arrays, in the order of its columns.
+     */
+    public static void writeRows(Writer out, DataGroup data) throws IOException {
+        DataType[] cols = data.getDataDefinitions();
+        CellWriter[] writers = new CellWriter[cols.length];
+        for (int c = 0; c < cols.length; c++) {
+            writers[c] = makeCellWriter(data, cols[c].getKeyName());
+        }
+        out.write('[');
+        for (int r = 0; r < data.size(); r++) {
+            if (r > 0) out.write(',');
+            out.write('[');
+            for (int c = 0; c < writers.length; c++) {
+                if (c > 0) out.write(',');
+                writers[c].write(out, r);
+            }
+            out.write(']');
+        }
+        out.write(']');
+    }
+
+//====================================================================
+//  private methods
+//====================================================================
+
+    private static CellWriter makeCellWriter(DataGroup data, String cname) {
+        PrimitiveList values = data.getColumnData(cname);
+        if (values == null) {
+            return (out, row) -> writeValue(out, data.getData(cname, row));
+        } else if (values instanceof PrimitiveList.Doubles || values instanceof DirectPrimitiveList.Doubles) {
+            return (out, row) -> writeDouble(out, values.getDouble(row));
+        } else if (values instanceof PrimitiveList.Floats || values instanceof DirectPrimitiveList.Floats) {
+            return (out, row) -> writeFloat(out, (float) values.getDouble(row));
+        } else if (values instanceof PrimitiveList.Integers || values instanceof DirectPrimitiveList.Integers) {
+            return (out, row) -> {
+                double v = values.getDouble(row);       // exact for an int; NaN when null
+                out.write(Double.isNaN(v) ? "null" : Integer.toString((int) v));
+            };
+        } else {
+            // long values do not all fit in a double; they are read as objects, like strings and arrays
+            return (out, row) -> writeValue(out, values.get(row));
+        }
+    }
+
+    /**
+     * Same output as json-simple, except for arrays, which are written as JSON arrays, and Dates,
+     * which are written with {@link JsonTableUtil#getJsonMapper}.
+     */
+    static void writeValue(Writer out, Object val) throws IOException {
+        if (val == null) {
+            out.write("null");
+        } else if (val instanceof String) {
+            writeString(out, (String) val);
+        } else if (val instanceof Double) {
+            writeDouble(out, (Double) val);
+        } else if (val instanceof Float) {
+            writeFloat(out, (Float) val);
+        } else if (val.getClass().isArray()) {
+            writeArray(out, val);
+        } else {
+            JSONAware mapper = JsonTableUtil.getJsonMapper(val);
+            if (mapper != null) {
+                out.write(mapper.toJSONString());
+            } else {
+                JSONValue.writeJSONString(val, out);
+            }
+        }
+    }
+
+    private static void writeArray(Writer out, Object ary) throws IOException {
+        out.write('[');
+        if (ary instanceof double[]) {
+            double[] vals = (double[]) ary;
+            for (int i = 0; i < vals.length; i++) {
+                if (i > 0) out.write(',');
+                writeDouble(out, vals[i]);
+            }
+        } else if (ary instanceof float[]) {
+            float[] vals = (float[]) ary;
+            for (int i = 0; i < vals.length; i++) {
+                if (i > 0) out.write(',');
+                writeFloat(out, vals[i]);
+            }
+        } else if (ary instanceof int[]) {
+            int[] vals = (int[]) ary;
+            for (int i = 0; i < vals.length; i++) {
+                if (i > 0) out.write(',');
+                out.write(Integer.toString(vals[i]));
+            }
+        } else if (ary instanceof long[]) {
+            long[] vals = (long[]) ary;
+            for (int i = 0; i < vals.length; i++) {
+                if (i > 0) out.write(',');
+                out.write(Long.toString(vals[i]));
+            }
+        } else {
+            int len = Array.getLength(ary);
+            for (int i = 0; i < len; i++) {
+                if (i > 0) out.write(',');
+                writeValue(out, Array.get(ary, i));
+            }
+        }
+        out.write(']');
+    }
+
+    private static void writeDouble(Writer out, double v) throws IOException {
+        out.write(Double.isNaN(v) || Double.isInfinite(v) ? "null" : Double.toString(v));
+    }
+
+    private static void writeFloat(Writer out, float v) throws IOException {
+        out.write(Float.isNaN(v) || Float.isInfinite(v) ? "null" : Float.toString(v));
+    }
+
+    /**
+     * Write the string in quotes, escaped the same way as JSONValue.escape.
+     */
+    static void writeString(Writer out, String s) throws IOException {
+        out.write('"');
+        int start = 0;
+        int len = s.length();
+        for (int i = 0; i < len; i++) {
+            char ch = s.charAt(i);
+            String esc = escape(ch);
+            if (esc != null) {
+                if (i > start) out.write(s, start, i - start);
+                out.write(esc);
+                start = i + 1;
+            }
+        }
+        if (len > start) out.write(s, start, len - start);
+        out.write('"');
+    }
+
+    private static String escape(char ch) {
+        switch (ch) {
+            case '"':  return "\\\"";
+            case '\\': return "\\\\";
+            case '\b': return "\\b";
+            case '\f': return "\\f";
+            case '\n': return "\\n";
+            case '\r': return "\\r";
+            case '\t': return "\\t";
+            case '/':  return "\\/";
+        }
+        if (ch <= '\u001F' || (ch >= '\u007F' && ch <= '\u009F') || (ch >= '\u2000' && ch <= '\u20FF')) {
+            return String.format("\\u%04X", (int) ch);
+        }
+        return null;
+    }
+
+    private interface CellWriter {
+        void write(Writer out, int row) throws IOException;
+    }
+}
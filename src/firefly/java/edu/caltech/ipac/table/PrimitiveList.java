@@ -25,6 +25,30 @@ public interface PrimitiveList {
         set(size(), val);
     }
 
+    /**
+     * Grow to the given size.  The values added are undefined until they are set.  Afterward, the values below
+     * the size can be set by many threads at once, as long as each index is set by only one of them.
+     * Only the lists on the heap support this.
+     */
+    default void setSize(int size) {
+        if (size > size()) set(size - 1, null);
+    }
+
+    /**
+     * @return the value at the given index as a double; NaN if it is null or not a number.
+     * Numeric lists override this to return the value without boxing it.
+     */
+    default double getDouble(int idx) {
+        Object val = get(idx);
+        if (val instanceof Number) return ((Number) val).doubleValue();
+        if (val != null) {
+            try {
+                return Double.parseDouble(String.valueOf(val));
+            } catch (NumberFormatException ex) {}
+        }
+        return Double.NaN;
+    }
+
     default void checkType(Object val) {
         if (val != null && !val.getClass().isAssignableFrom(getDataClass())) {
             throw new RuntimeException(String.format("Type mismatch(%s): expecting %s but found %s", val, getDataClass(), val.getClass()));
@@ -45,8 +69,8 @@ public interface PrimitiveList {
     default int newCapacity(int minCapacity, int oldCapacity) {
         // overflow-conscious code
         int newCapacity = oldCapacity + (oldCapacity >> 1);
-        if (newCapacity - minCapacity < 0)
-            newCapacity = minCapacity;
+        if (newCapacity - minCapacity <= 0)
+            newCapacity = minCapacity + 1;      // minCapacity is the index to set
         return newCapacity;
 
     }
@@ -74,6 +98,11 @@ public interface PrimitiveList {
             return data.size();
         }
 
+        public void setSize(int size) {
+            data.ensureCapacity(size);
+            while (data.size() < size) data.add(null);
+        }
+
         public void clear() { data.clear(); }
 
         public void trimToSize() { data.trimToSize(); }
@@ -91,6 +120,10 @@ public interface PrimitiveList {
             return Double.isNaN(data[idx]) ? null : data[idx];
         }
 
+        public double getDouble(int idx) {
+            return data[idx];
+        }
+
         public void set(int idx, Object val) {
             checkType(val);
             ensureCapacity(idx);
@@ -98,6 +131,13 @@ public interface PrimitiveList {
             if (idx >= size()) size = idx+1;
         }
 
+        /** same as set, without boxing the value */
+        public void setDouble(int idx, double val) {
+            ensureCapacity(idx);
+            data[idx] = val;
+            if (idx >= size()) size = idx+1;
+        }
+
         public int size() {
             return size;
         }
@@ -139,6 +179,10 @@ public interface PrimitiveList {
             return Float.isNaN(data[idx]) ? null : data[idx];
         }
 
+        public double getDouble(int idx) {
+            return data[idx];
+        }
+
         public void set(int idx, Object val) {
             checkType(val);
             ensureCapacity(idx);
@@ -146,6 +190,13 @@ public interface PrimitiveList {
             if (idx >= size()) size = idx+1;
         }
 
+        /** same as set, without boxing the value */
+        public void setFloat(int idx, float val) {
+            ensureCapacity(idx);
+            data[idx] = val;
+            if (idx >= size()) size = idx+1;
+        }
+
         public int size() {
             return size;
         }
@@ -183,6 +234,10 @@ public interface PrimitiveList {
             return data[idx] == Long.MIN_VALUE ? null : data[idx];
         }
 
+        public double getDouble(int idx) {
+            return data[idx] == Long.MIN_VALUE ? Double.NaN : data[idx];
+        }
+
         public void set(int idx, Object val) {
             checkType(val);
             ensureCapacity(idx);
@@ -190,6 +245,13 @@ public interface PrimitiveList {
             if (idx >= size()) size = idx+1;
         }
 
+        /** same as set, without boxing the value */
+        public void setLong(int idx, long val) {
+            ensureCapacity(idx);
+            data[idx] = val;
+            if (idx >= size()) size = idx+1;
+        }
+
         public int size() {
             return size;
         }
@@ -227,6 +289,10 @@ public interface PrimitiveList {
             return data[idx] == Integer.MIN_VALUE ? null : data[idx];
         }
 
+        public double getDouble(int idx) {
+            return data[idx] == Integer.MIN_VALUE ? Double.NaN : data[idx];
+        }
+
         public void set(int idx, Object val) {
             int ival = val == null ? Integer.MIN_VALUE : getIntValue(val);
             ensureCapacity(idx);
@@ -234,6 +300,13 @@ public interface PrimitiveList {
             if (idx >= size()) size = idx+1;
         }
 
+        /** same as set, without boxing the value */
+        public void setInt(int idx, int val) {
+            ensureCapacity(idx);
+            data[idx] = val;
+            if (idx >= size()) size = idx+1;
+        }
+
         public int size() {
             return size;
         }
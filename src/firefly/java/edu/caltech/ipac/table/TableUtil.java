@@ -8,6 +8,7 @@ import edu.caltech.ipac.firefly.server.util.JsonToDataGroup;
 import edu.caltech.ipac.table.io.DsvTableIO;
 import edu.caltech.ipac.table.io.FITSTableReader;
 import edu.caltech.ipac.table.io.IpacTableReader;
+import edu.caltech.ipac.table.io.TableRowSink;
 import edu.caltech.ipac.table.io.VoTableReader;
 import org.apache.commons.csv.CSVFormat;
 
@@ -61,6 +62,39 @@ public class TableUtil {
         }
     }
 
+    /**
+     * Similar to readAnyFormat, except the table is passed to the given sink in batches of rows instead of
+     * being returned as one DataGroup.  Formats that cannot be read in batches are loaded first, then passed to the sink.
+     * @param inf           the table file
+     * @param tableIndex    index of the table when the file contains more than one
+     * @param metaInfo      meta info used when reading a FITS image as a table
+     * @param sink          the receiver of the table's header and rows
+     * @return the number of rows read
+     */
+    public static int readAnyFormat(File inf, int tableIndex, Map<String, String> metaInfo, TableRowSink sink) throws IOException {
+        Format format = guessFormat(inf);
+        if (format == Format.IPACTABLE) {
+            return IpacTableReader.read(inf, sink);
+        } else if (format == Format.VO_TABLE) {
+            return VoTableReader.readTable(inf.getAbsolutePath(), tableIndex, sink);
+        } else if (format == Format.CSV || format == Format.TSV) {
+            return DsvTableIO.parse(inf, format.type, sink);
+        } else if (format == Format.FITS ) {
+            try {
+                return FITSTableReader.readTable(inf.getAbsolutePath(), metaInfo, FITSTableReader.DEFAULT, tableIndex, sink);
+            } catch (IOException e) {
+                throw e;
+            } catch (Exception e) {
+                throw new IOException("Unable to read FITS file:" + inf, e);
+            }
+        } else {
+            DataGroup dg = readAnyFormat(inf, tableIndex, metaInfo);
+            if (dg == null) throw new IOException("No data found in file:" + inf);
+            TableRowSink.sendAll(dg, sink);
+            return dg.size();
+        }
+    }
+
     public static Format guessFormat(File inf) throws IOException {
 
         int readAhead = 10;
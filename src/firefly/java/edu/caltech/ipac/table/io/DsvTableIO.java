@@ -49,6 +49,36 @@ public class DsvTableIO {
     }
 
 
+    /**
+     * Parse the given file, passing its rows to the sink in batches instead of returning them in a DataGroup.
+     * Records are read one at a time, so the file is never loaded in its entirety.
+     * @param inf       the file to parse
+     * @param format    the format of the file, i.e. CSV or TSV
+     * @param sink      the receiver of the table's header and rows
+     * @return the number of rows read
+     */
+    public static int parse(File inf, CSVFormat format, TableRowSink sink) throws IOException {
+
+        try (BufferedReader reader = new BufferedReader(new FileReader(inf), IpacTableUtil.FILE_IO_BUFFER_SIZE)) {
+            CSVParser parser = new CSVParser(reader, format);
+            Iterator<CSVRecord> records = parser.iterator();
+            if (!records.hasNext()) {
+                throw new IOException("No data found in file:" + inf.getName());
+            }
+
+            // parse the column info
+            DataGroup header = new DataGroup(null, convertToDataType(records.next()));
+            TableUtil.ColCheckInfo colCheckInfo = new TableUtil.ColCheckInfo();
+            RowBatcher batcher = new RowBatcher(header, sink);
+
+            // parse the data
+            while (records.hasNext()) {
+                batcher.add(parseRow(header, records.next(), colCheckInfo));
+            }
+            return batcher.finish();
+        }
+    }
+
     private static DataGroup getData( BufferedReader reader, CSVFormat format)throws IOException{
         CSVParser parser = new CSVParser(reader, format);
         List<CSVRecord> records = parser.getRecords();
@@ -536,9 +536,88 @@ public final class FITSTableReader
             strategy = DEFAULT;
         }
 
+        LinkedHashMap<ColumnInfo, Integer> colIdxMap = new LinkedHashMap<>();
+        DataGroup dataGroup = makeHeader(table, inclCols, inclHeaders, strategy, colIdxMap);
+
+        // creating DataGroup rows.
+        for (long row = 0; row < table.getRowCount(); row++){
+            DataObject aRow = makeRow(table, dataGroup, colIdxMap, row);
+            if (aRow != null) dataGroup.add(aRow);
+        }
+        dataGroup.trimToSize();
+        return dataGroup;
+    }
+
+    /**
+     * Read a table from a FITS file, passing its rows to the sink in batches instead of returning them in a DataGroup.
+     * Table rows are read from the file as they are needed.  An image HDU is read as a table the same
+     * way as {@link #convertFitsToDataGroup(String, Map, String, int)}.
+     * @param fits_filename
+     * @param metaInfo
+     * @param strategy The strategy used to deal with the repeat count  of the data in the given dataCols columns.
+     * @param table_idx table index, i.e. HDU number in FITS
+     * @param sink  the receiver of the table's header and rows
+     * @return the number of rows read
+     * @throws FitsException
+     * @throws IOException
+     */
+    public static int readTable(String fits_filename, Map<String,String> metaInfo, String strategy,
+                                int table_idx, TableRowSink sink) throws FitsException, IOException {
+
+        Fits fits= null;
+        try {
+            FitsFactory.useThreadLocalSettings(true);
+            FitsFactory.setLongStringsEnabled(false);
+            DataGroup imageTable = null;
+            StarTable table = null;
+            if (table_idx==0) { //FITS tables are not at 0, if at zero try to read it as an image first
+                imageTable= getFitsImageAsTable(fits_filename,metaInfo, table_idx);
+                if (imageTable==null) {
+                    fits = new Fits(fits_filename);
+                    table = getStarTable(fits, fits_filename, table_idx);
+                }
+            }
+            else { // if >0 then try to read it as a table first.
+                fits = new Fits(fits_filename);
+                table = getStarTable(fits, fits_filename, table_idx);
+                if (table==null) imageTable= getFitsImageAsTable(fits_filename,metaInfo, table_idx);
+            }
+
+            if (imageTable != null) {
+                TableRowSink.sendAll(imageTable, sink);
+                return imageTable.size();
+            }
+            if (table == null) throw new IOException("No table found at HDU " + table_idx);
+
+            LinkedHashMap<ColumnInfo, Integer> colIdxMap = new LinkedHashMap<>();
+            DataGroup header = makeHeader(table, null, null, strategy == null ? DEFAULT : strategy, colIdxMap);
+            RowBatcher batcher = new RowBatcher(header, sink);
+            for (long row = 0; row < table.getRowCount(); row++){
+                batcher.add(makeRow(table, header, colIdxMap, row));
+            }
+            return batcher.finish();
+        } catch (FitsException|IOException e) {
+            logTableReadError(fits_filename,table_idx,e.getMessage());
+            throw e;
+        } finally {
+            FitsFactory.useThreadLocalSettings(false);
+            try {
+                if (fits!=null && fits.getStream()!=null) fits.getStream().close();
+            } catch (IOException e) {
+                // do nothing
+            }
+        }
+    }
+
+    /**
+     * create a DataGroup with the column info and meta of the given table, but without data.
+     * @param colIdxMap  filled with the StarTable column index of each included column
+     */
+    private static DataGroup makeHeader(StarTable table, String[] inclCols, String[] inclHeaders, String strategy,
+                                        LinkedHashMap<ColumnInfo, Integer> colIdxMap) throws FitsException {
+
         //creating DataType list ... column info
         ArrayList<DataType> dataTypes = new ArrayList<>();
-        LinkedHashMap<ColumnInfo, Integer> colIdxMap = new LinkedHashMap<>();
         List<String> colList = inclCols == null ? null : Arrays.asList(inclCols);
 
         for (int colIdx = 0; colIdx < table.getColumnCount(); colIdx++) {
@@ -549,12 +628,7 @@ public final class FITSTableReader
                 colIdxMap.put(colInfo, colIdx);
             }
         }
-
-        // creating DataGroup rows.
         DataGroup dataGroup = new DataGroup(table.getName(), dataTypes);
-        for (long row = 0; row < table.getRowCount(); row++){
-            addRowToDataGroup(table, dataGroup, colIdxMap, row, strategy);
-        }
 
         // setting DataGroup meta info
         for(int colIdx = 0; colIdx < dataTypes.size(); colIdx++) {
@@ -577,11 +651,13 @@ public final class FITSTableReader
                 }
             }
         }
-        dataGroup.trimToSize();
         return dataGroup;
     }
 
-    private static void addRowToDataGroup(StarTable table, DataGroup dataGroup, LinkedHashMap<ColumnInfo, Integer> colIdxMap, long rowIdx, String strategy) {
+    /**
+     * @return the row at rowIdx, or null if it cannot be read
+     */
+    private static DataObject makeRow(StarTable table, DataGroup dataGroup, LinkedHashMap<ColumnInfo, Integer> colIdxMap, long rowIdx) {
         DataObject aRow = new DataObject(dataGroup);
         ColumnInfo[] colAry = colIdxMap.keySet().toArray(new ColumnInfo[0]);
         try {
@@ -592,9 +668,10 @@ public final class FITSTableReader
                 Object data =  table.getCell(rowIdx, colIdx);
                 aRow.setDataElement(dt, data);
             }
-            dataGroup.add(aRow);
+            return aRow;
         } catch (IOException e) {
             logger.error("Unable to read StarTable row:" + rowIdx + "   msg:" + e.getMessage());
+            return null;
         }
     }
 
@@ -11,6 +11,7 @@ import edu.caltech.ipac.table.DataType;
 import edu.caltech.ipac.table.IpacTableUtil;
 import edu.caltech.ipac.table.IpacTableDef;
 import edu.caltech.ipac.table.TableUtil;
+import edu.caltech.ipac.util.AppProperties;
 
 import java.io.BufferedReader;
 import java.io.File;
@@ -30,11 +31,30 @@ import java.util.List;
 public final class IpacTableReader {
 
     private static final Logger.LoggerImpl logger = Logger.getLogger();
+    private static final long PARALLEL_MIN_BYTES = AppProperties.getLongProperty("ipac.parallel.min.bytes", 32 * 1024 * 1024);
+    private static final long PARALLEL_CHUNK_BYTES = AppProperties.getLongProperty("ipac.parallel.chunk.bytes", 8 * 1024 * 1024);
 
     public static DataGroup read(File inf, String... onlyColumns) throws IOException {
+        return read(inf, DataGroup.Storage.HEAP, onlyColumns);
+    }
+
+    /**
+     * Read the given IPAC table into a DataGroup whose column data is kept in the given storage.
+     * Large files are read on many threads, but only into HEAP storage.
+     * @param inf           the IPAC table file
+     * @param storage       how the column data is stored
+     * @param onlyColumns   the columns to read, or all when none are given
+     * @return the table
+     */
+    public static DataGroup read(File inf, DataGroup.Storage storage, String... onlyColumns) throws IOException {
         IpacTableDef tableDef = IpacTableUtil.getMetaInfo(inf);
+        if (storage == DataGroup.Storage.HEAP && inf.length() >= PARALLEL_MIN_BYTES) {
+            DataGroup dg = readParallel(inf, tableDef, PARALLEL_CHUNK_BYTES, onlyColumns);
+            if (dg != null) return dg;
+            tableDef = IpacTableUtil.getMetaInfo(inf);      // start over with a clean one
+        }
         BufferedReader bufferedReader = new BufferedReader(new FileReader(inf), IpacTableUtil.FILE_IO_BUFFER_SIZE);
-        return doRead(bufferedReader, tableDef, onlyColumns);
+        return doRead(bufferedReader, tableDef, storage, onlyColumns);
     }
 
     public static DataGroup read(InputStream inputStream, String... onlyColumns) throws IOException {
@@ -44,6 +64,24 @@ public final class IpacTableReader {
     }
 
 
+    /**
+     * Read the given IPAC table, passing its rows to the sink in batches instead of returning them in a DataGroup.
+     * @param inf   the IPAC table file
+     * @param sink  the receiver of the table's header and rows
+     * @return the number of rows read
+     */
+    public static int read(File inf, TableRowSink sink) throws IOException {
+        IpacTableDef tableDef = IpacTableUtil.getMetaInfo(inf);
+        BufferedReader bufferedReader = new BufferedReader(new FileReader(inf), IpacTableUtil.FILE_IO_BUFFER_SIZE);
+
+        DataGroup header = new DataGroup(null, tableDef.getCols());
+        header.getTableMeta().setKeywords(tableDef.getKeywords());
+        IpacTableUtil.consumeColumnInfo(header);   // move column attributes into columns
+        RowBatcher batcher = new RowBatcher(header, sink);
+        readRows(bufferedReader, tableDef, header, batcher::add);
+        return batcher.finish();
+    }
+
     public static void main(String args[]) {
 
         if (args.length > 0) {
@@ -73,53 +111,69 @@ public final class IpacTableReader {
         }
     }
 
+    /**
+     * Read the given file on many threads, in chunks of the given size.
+     * @return the table, or null if it has to be read serially, i.e. the type of a column could not be guessed
+     * from its first rows.
+     */
+    static DataGroup readParallel(File inf, IpacTableDef tableDef, long chunkSize, String... onlyColumns) throws IOException {
+        DataGroup inData = new DataGroup(null, tableDef.getCols());
+        DataGroup outData = makeOutData(inData, tableDef, onlyColumns);
+        try {
+            return ParallelIpacTableReader.read(inf, tableDef, inData, outData, chunkSize);
+        } catch (IOException e) {
+            logger.error(e, "while reading " + inf.getPath());
+            throw e;
+        } catch (Exception e) {
+            logger.error(e, "while reading " + inf.getPath());
+            throw new IOException(e.getMessage(), e);
+        }
+    }
+
     static DataGroup doRead(BufferedReader bufferedReader, IpacTableDef tableDef, String... onlyColumns) throws IOException {
+        return doRead(bufferedReader, tableDef, DataGroup.Storage.HEAP, onlyColumns);
+    }
 
-        List<DataGroup.Attribute> attributes = tableDef.getKeywords();
-        List<DataType> cols = tableDef.getCols();
+    static DataGroup doRead(BufferedReader bufferedReader, IpacTableDef tableDef, DataGroup.Storage storage, String... onlyColumns) throws IOException {
 
-        DataGroup inData = new DataGroup(null, cols);
-        DataGroup outData;
-        boolean isSelectedColumns = onlyColumns != null && onlyColumns.length > 0;
+        DataGroup inData = new DataGroup(null, tableDef.getCols());
+        DataGroup outData = makeOutData(inData, tableDef, onlyColumns);
+        outData.setStorage(storage);
+        boolean isSelectedColumns = outData != inData;
 
-        if (isSelectedColumns) {
-            List<DataType> selCols = new ArrayList<DataType>();
-            for (String c : onlyColumns) {
-                DataType dt = inData.getDataDefintion(c);
-                if (dt != null) {
-                    try {
-                        selCols.add((DataType) dt.clone());
-                    } catch (CloneNotSupportedException e) {}       // shouldn't happen
+        readRows(bufferedReader, tableDef, inData, row -> {
+            if (row == null) return;
+            if (isSelectedColumns) {
+                DataObject arow = new DataObject(outData);
+                for (DataType dt : outData.getDataDefinitions()) {
+                    arow.setDataElement(dt, row.getDataElement(dt.getKeyName()));
                 }
+                outData.add(arow);
+            } else {
+                outData.add(row);
             }
-            outData = new DataGroup(null, selCols);
-        } else {
-            outData = inData;
-        }
+        });
+        outData.trimToSize();
+        return outData;
+    }
 
-        outData.getTableMeta().setKeywords(attributes);
-        IpacTableUtil.consumeColumnInfo(outData);   // move column attributes into columns
+    private interface RowHandler {
+        void accept(DataObject row) throws IOException;
+    }
 
+    /**
+     * Parse the data lines of the table, passing each row to the given handler.  Rows that cannot be parsed are passed as null.
+     * The reader is closed when done.
+     */
+    private static void readRows(BufferedReader bufferedReader, IpacTableDef tableDef, DataGroup inData, RowHandler handler) throws IOException {
         String line = null;
         int lineNum = tableDef.getExtras() == null ? 0 : tableDef.getExtras().getKey();
 
         try {
             line = tableDef.getExtras() == null ? bufferedReader.readLine() : tableDef.getExtras().getValue();
             lineNum++;
-            DataObject row, arow;
             while (line != null) {
-                row = IpacTableUtil.parseRow(inData, line, tableDef);
-                if (row != null) {
-                    if (isSelectedColumns) {
-                        arow = new DataObject(outData);
-                        for (DataType dt : outData.getDataDefinitions()) {
-                            arow.setDataElement(dt, row.getDataElement(dt.getKeyName()));
-                        }
-                        outData.add(arow);
-                    } else {
-                        outData.add(row);
-                    }
-                }
+                handler.accept(IpacTableUtil.parseRow(inData, line, tableDef));
                 line = bufferedReader.readLine();
                 lineNum++;
             }
@@ -131,7 +185,30 @@ public final class IpacTableReader {
         } finally {
             bufferedReader.close();
         }
-        outData.trimToSize();
+    }
+
+    /**
+     * @return a DataGroup with only the given columns of inData, or inData itself when none are given
+     */
+    private static DataGroup makeOutData(DataGroup inData, IpacTableDef tableDef, String... onlyColumns) {
+        DataGroup outData;
+        if (onlyColumns != null && onlyColumns.length > 0) {
+            List<DataType> selCols = new ArrayList<DataType>();
+            for (String c : onlyColumns) {
+                DataType dt = inData.getDataDefintion(c);
+                if (dt != null) {
+                    try {
+                        selCols.add((DataType) dt.clone());
+                    } catch (CloneNotSupportedException e) {}       // shouldn't happen
+                }
+            }
+            outData = new DataGroup(null, selCols);
+        } else {
+            outData = inData;
+        }
+
+        outData.getTableMeta().setKeywords(tableDef.getKeywords());
+        IpacTableUtil.consumeColumnInfo(outData);   // move column attributes into columns
         return outData;
     }
 
@@ -0,0 +1,485 @@
+/*
+ * License information at https://github.com/Caltech-IPAC/firefly/blob/master/License.txt
+ */
+package edu.caltech.ipac.table.io;
+
+import edu.caltech.ipac.table.DataGroup;
+import edu.caltech.ipac.table.DataObject;
+import edu.caltech.ipac.table.DataType;
+import edu.caltech.ipac.table.IpacTableDef;
+import edu.caltech.ipac.table.IpacTableUtil;
+import edu.caltech.ipac.table.PrimitiveList;
+import edu.caltech.ipac.table.TableUtil;
+import edu.caltech.ipac.util.StringUtils;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.IntStream;
+
+/**
+ * Reads the data of a large IPAC table file on many threads.  The data section is memory-mapped in chunks that
+ * end on a line.  The chunks are parsed in parallel, twice: once to count their rows, so each one knows the
+ * index of its first row, and once to parse them.  Each value is taken from the bytes of the line at the
+ * column offsets of the header; numbers are parsed without making a String, and all values are written straight
+ * into the column lists of the DataGroup.
+ *
+ * The first rows are passed to IpacTableUtil.parseRow beforehand, so data types and formats are guessed the
+ * same way as a serial read.  Lines that are not plain ASCII, and values this class does not parse, i.e. arrays,
+ * are converted by DataType.convertStringToData as before.
+ */
+class ParallelIpacTableReader {
+
+    static final int GUESS_ROWS = 1000;
+    private static final Charset CHARSET = Charset.defaultCharset();       // the same as FileReader
+
+    private final File inf;
+    private final IpacTableDef tableDef;
+    private final DataGroup inData;
+    private final DataGroup outData;
+    private final long chunkSize;
+    private Column[] columns;
+
+    private ParallelIpacTableReader(File inf, IpacTableDef tableDef, DataGroup inData, DataGroup outData, long chunkSize) {
+        this.inf = inf;
+        this.tableDef = tableDef;
+        this.inData = inData;
+        this.outData = outData;
+        this.chunkSize = chunkSize;
+    }
+
+    /**
+     * @param inf the IPAC table file
+     * @param tableDef its meta info
+     * @param inData a DataGroup with all of the columns of the file
+     * @param outData the DataGroup to fill; its columns may be a subset of inData's
+     * @param chunkSize the size of the chunks to parse in parallel
+     * @return outData, or null if the file can not be read this way, i.e. a column's type can not be guessed.
+     */
+    static DataGroup read(File inf, IpacTableDef tableDef, DataGroup inData, DataGroup outData, long chunkSize) throws IOException {
+        return new ParallelIpacTableReader(inf, tableDef, inData, outData, chunkSize).read();
+    }
+
+    private DataGroup read() throws IOException {
+        try (FileChannel fc = FileChannel.open(inf.toPath(), StandardOpenOption.READ)) {
+            long dataStart = findDataStart(fc);
+            List<Chunk> chunks = makeChunks(fc, dataStart);
+
+            if (!guessTypes(fc, dataStart)) return null;
+
+            try {
+                chunks.parallelStream().forEach(c -> c.countRows(fc));
+                int total = 0;
+                for (Chunk c : chunks) {
+                    c.firstRow = total;
+                    total += c.rows;
+                }
+                outData.ensureRows(total);
+                columns = makeColumns();
+                chunks.parallelStream().forEach(c -> c.parse(fc));
+            } catch (UncheckedIOException e) {
+                throw e.getCause();
+            }
+            guessFormats(chunks);
+        }
+        outData.trimToSize();
+        return outData;
+    }
+
+//====================================================================
+//  setup
+//====================================================================
+
+    /**
+     * @return the byte offset of the first line that is not part of the header
+     */
+    private static long findDataStart(FileChannel fc) throws IOException {
+        ByteBuffer buf = ByteBuffer.allocate(64 * 1024);
+        long pos = 0, lineStart = 0;
+        int first = -1;         // the first byte of the current line
+        while (fc.read(buf, pos) > 0) {
+            buf.flip();
+            while (buf.hasRemaining()) {
+                byte b = buf.get();
+                if (first < 0) first = b;
+                if (b == '\n') {
+                    if (first != '\\' && first != '|' && first != '\n' && first != '\r') return lineStart;
+                    lineStart = pos + buf.position();
+                    first = -1;
+                }
+            }
+            pos += buf.limit();
+            buf.clear();
+        }
+        return first == '\\' || first == '|' ? pos : lineStart;
+    }
+
+    private List<Chunk> makeChunks(FileChannel fc, long dataStart) throws IOException {
+        List<Chunk> chunks = new ArrayList<>();
+        long size = fc.size();
+        long start = dataStart;
+        ByteBuffer one = ByteBuffer.allocate(4096);
+        while (start < size) {
+            long end = Math.min(size, start + chunkSize);
+            // extend the chunk to the end of its last line
+            while (end < size) {
+                one.clear();
+                int n = fc.read(one, end);
+                if (n <= 0) break;
+                int i = 0;
+                while (i < n && one.get(i) != '\n') i++;
+                end += i < n ? i + 1 : n;
+                if (i < n) break;
+            }
+            chunks.add(new Chunk(start, end));
+            start = end;
+        }
+        return chunks;
+    }
+
+    /**
+     * Pass the first rows to parseRow, so the data types and formats of the columns are guessed as before.
+     * @return false if a column's type is still unknown
+     */
+    private boolean guessTypes(FileChannel fc, long dataStart) throws IOException {
+        long len = Math.min(fc.size() - dataStart, (long) Math.max(tableDef.getLineWidth(), 256) * GUESS_ROWS + 1);
+        if (len > 0) {
+            ByteBuffer buf = ByteBuffer.allocate((int) len);
+            fc.read(buf, dataStart);
+            String[] lines = new String(buf.array(), 0, buf.position(), CHARSET).split("\r?\n");
+            boolean isAll = dataStart + len == fc.size();
+            int cnt = Math.min(GUESS_ROWS, isAll ? lines.length : lines.length - 1);     // otherwise, the last line may be cut off
+            for (int i = 0; i < cnt; i++) {
+                IpacTableUtil.parseRow(inData, lines[i], tableDef);
+            }
+        }
+        for (DataType dt : inData.getDataDefinitions()) {
+            if (!dt.isKnownType()) return false;
+        }
+        return true;
+    }
+
+    private Column[] makeColumns() {
+        DataType[] inCols = inData.getDataDefinitions();
+        DataType[] outCols = outData.getDataDefinitions();
+        boolean fixlen = String.valueOf(tableDef.getAttribute("fixlen")).trim().equals("T");
+        Column[] cols = new Column[outCols.length];
+        for (int i = 0; i < outCols.length; i++) {
+            int idx = 0;
+            while (!inCols[idx].getKeyName().equals(outCols[i].getKeyName())) idx++;
+            DataType dt = inCols[idx];
+            int end = idx < inCols.length - 1 ? tableDef.getColOffset(idx + 1) : -1;
+            TableUtil.CheckInfo checkInfo = tableDef.getColCheckInfos().getCheckInfo(dt.getKeyName());
+            cols[i] = new Column(dt, tableDef.getColOffset(idx), end, outData.getColumnData(outCols[i].getKeyName()),
+                                 fixlen && !checkInfo.formatChecked);
+        }
+        return cols;
+    }
+
+    /**
+     * Finish the guessing of the formats that parseRow could not do from the first rows, because they had no value.
+     */
+    private void guessFormats(List<Chunk> chunks) {
+        for (int i = 0; i < columns.length; i++) {
+            if (!columns[i].guessFormat) continue;
+            TableUtil.CheckInfo checkInfo = tableDef.getColCheckInfos().getCheckInfo(columns[i].type.getKeyName());
+            for (Chunk c : chunks) {
+                if (checkInfo.formatChecked) break;
+                if (c.firstValues != null && c.firstValues[i] != null) {
+                    IpacTableUtil.applyGuessLogic(columns[i].type, c.firstValues[i], checkInfo);
+                }
+            }
+        }
+    }
+
+//====================================================================
+//  parsing
+//====================================================================
+
+    private static final int DOUBLE = 1, FLOAT = 2, INT = 3, LONG = 4, STRING = 5, OTHER = 0;
+
+    /**
+     * How the values of one column are parsed and stored
+     */
+    private static class Column {
+        final DataType type;
+        final String name;
+        final int offset;
+        final int end;                  // -1 for the end of the line
+        final PrimitiveList values;
+        final int kind;
+        final byte[] nullBytes;
+        final boolean guessFormat;      // true if its format is guessed from its first value
+
+        Column(DataType type, int offset, int end, PrimitiveList values, boolean guessFormat) {
+            this.type = type;
+            this.name = type.getKeyName();
+            this.offset = offset;
+            this.end = end;
+            this.values = values;
+            this.guessFormat = guessFormat;
+            this.nullBytes = type.getNullString().getBytes(StandardCharsets.ISO_8859_1);
+            boolean isAscii = type.getNullString().chars().allMatch(c -> c < 0x80);
+            if (!StringUtils.isEmpty(type.getArraySize()) || !isAscii) {
+                kind = OTHER;
+            } else if (values instanceof PrimitiveList.Doubles) {
+                kind = DOUBLE;
+            } else if (values instanceof PrimitiveList.Floats) {
+                kind = FLOAT;
+            } else if (values instanceof PrimitiveList.Integers) {
+                kind = INT;
+            } else if (values instanceof PrimitiveList.Longs) {
+                kind = LONG;
+            } else if (values instanceof PrimitiveList.Objects && type.getDataType() == String.class) {
+                kind = STRING;
+            } else {
+                kind = OTHER;
+            }
+        }
+
+        boolean isNull(byte[] line, int s, int e) {
+            if (e - s != nullBytes.length) return false;
+            for (int i = 0; i < nullBytes.length; i++) {
+                if (line[s + i] != nullBytes[i]) return false;
+            }
+            return true;
+        }
+    }
+
+    private class Chunk {
+        final long start;
+        final long end;
+        int rows;
+        int firstRow;
+        String[] firstValues;       // the first value of each column whose format is still guessed
+
+        Chunk(long start, long end) {
+            this.start = start;
+            this.end = end;
+        }
+
+        void countRows(FileChannel fc) {
+            MappedByteBuffer buf = map(fc);
+            int lineStart = 0;
+            int limit = buf.limit();
+            for (int i = 0; i <= limit; i++) {
+                if (i == limit || buf.get(i) == '\n') {
+                    if (isDataLine(buf, lineStart, i)) rows++;
+                    lineStart = i + 1;
+                }
+            }
+        }
+
+        void parse(FileChannel fc) {
+            MappedByteBuffer buf = map(fc);
+            byte[] line = new byte[Math.max(256, tableDef.getLineWidth() + 2)];
+            int row = firstRow;
+            int lineStart = 0;
+            int limit = buf.limit();
+            for (int i = 0; i <= limit; i++) {
+                if (i == limit || buf.get(i) == '\n') {
+                    if (isDataLine(buf, lineStart, i)) {
+                        int len = i - lineStart;
+                        if (len > line.length) line = new byte[len * 2];
+                        buf.position(lineStart);
+                        buf.get(line, 0, len);
+                        if (len > 0 && line[len - 1] == '\r') len--;
+                        parseLine(line, len, row++);
+                    }
+                    lineStart = i + 1;
+                }
+            }
+        }
+
+        private MappedByteBuffer map(FileChannel fc) {
+            try {
+                return fc.map(FileChannel.MapMode.READ_ONLY, start, end - start);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        /**
+         * The same rules as parseRow: a data line starts with a space and is not blank.  Blank lines, and lines
+         * that start with '\' or '|' are skipped.  Any other line is an error.
+         */
+        private boolean isDataLine(ByteBuffer buf, int from, int to) {
+            if (from >= to) return false;
+            byte first = buf.get(from);
+            for (int i = from; i < to; i++) {
+                byte b = buf.get(i);
+                if (b != ' ' && b != '\r' && b != '\t') {
+                    if (first == ' ') return true;
+                    if (first == '\\' || first == '|') return false;
+                    throw new UncheckedIOException(new IOException("Data row must start with a space.<br>at byte " + (start + from)));
+                }
+            }
+            return false;
+        }
+
+        private void parseLine(byte[] line, int len, int row) {
+            for (int i = 0; i < len; i++) {
+                if (line[i] < 0) {
+                    parseNonAscii(new String(line, 0, len, CHARSET), row);
+                    return;
+                }
+            }
+            for (int c = 0; c < columns.length; c++) {
+                Column col = columns[c];
+                if (col.offset > len) {
+                    col.values.set(row, null);      // it's okay.  we'll take what's given and treat the rest as null.
+                    continue;
+                }
+                int s = col.offset;
+                int e = col.end < 0 || col.end > len ? len : col.end;
+                while (s < e && line[s] <= ' ') s++;
+                while (e > s && line[e - 1] <= ' ') e--;
+
+                if (col.guessFormat && (firstValues == null || firstValues[c] == null) && e > s && !col.isNull(line, s, e)) {
+                    if (firstValues == null) firstValues = new String[columns.length];
+                    firstValues[c] = new String(line, s, e - s, StandardCharsets.ISO_8859_1);
+                }
+                if (col.isNull(line, s, e)) {
+                    col.values.set(row, null);
+                } else if (!setValue(col, line, s, e, row)) {
+                    col.values.set(row, col.type.convertStringToData(new String(line, s, e - s, StandardCharsets.ISO_8859_1)));
+                }
+            }
+        }
+
+        /**
+         * @return false if the value was not parsed here
+         */
+        private boolean setValue(Column col, byte[] line, int s, int e, int row) {
+            switch (col.kind) {
+                case DOUBLE: {
+                    double v = parseDouble(line, s, e, 15, 22);
+                    if (Double.isNaN(v)) return false;
+                    ((PrimitiveList.Doubles) col.values).setDouble(row, v);
+                    return true;
+                }
+                case FLOAT: {
+                    double v = parseDouble(line, s, e, 7, 10);
+                    if (Double.isNaN(v)) return false;
+                    ((PrimitiveList.Floats) col.values).setFloat(row, (float) v);
+                    return true;
+                }
+                case INT: {
+                    long v = parseLong(line, s, e, 9);
+                    if (v == Long.MIN_VALUE) return false;
+                    ((PrimitiveList.Integers) col.values).setInt(row, (int) v);
+                    return true;
+                }
+                case LONG: {
+                    long v = parseLong(line, s, e, 19);
+                    if (v == Long.MIN_VALUE) return false;
+                    ((PrimitiveList.Longs) col.values).setLong(row, v);
+                    return true;
+                }
+                case STRING:
+                    if (e == s) return false;
+                    col.values.set(row, new String(line, s, e - s, StandardCharsets.ISO_8859_1));
+                    return true;
+                default:
+                    return false;
+            }
+        }
+
+        private void parseNonAscii(String line, int row) {
+            DataObject parsed;
+            synchronized (tableDef) {           // parseRow may update the guessed formats
+                parsed = IpacTableUtil.parseRow(inData, line, tableDef);
+            }
+            for (Column col : columns) {
+                col.values.set(row, parsed == null ? null : parsed.getDataElement(col.name));
+            }
+        }
+    }
+
+    /**
+     * Parse a decimal number when it can be done exactly in double arithmetic: the digits fit in a long
+     * that a double holds exactly, and the power of ten is exact.  For floats, the limits are those of float.
+     * @param maxDigits the most significant digits allowed
+     * @param maxExp the largest power of ten allowed
+     * @return the value, or NaN if it has to be parsed by Double.parseDouble or Float.parseFloat
+     */
+    static double parseDouble(byte[] b, int s, int e, int maxDigits, int maxExp) {
+        int i = s;
+        boolean neg = false;
+        if (i < e && (b[i] == '-' || b[i] == '+')) neg = b[i++] == '-';
+        long mantissa = 0;
+        int digits = 0, exp = 0, nDigits = 0;
+        for (; i < e && b[i] >= '0' && b[i] <= '9'; i++, nDigits++) {
+            if (mantissa > 0 || b[i] != '0') {
+                mantissa = mantissa * 10 + (b[i] - '0');
+                if (++digits > maxDigits) return Double.NaN;
+            }
+        }
+        if (i < e && b[i] == '.') {
+            for (i++; i < e && b[i] >= '0' && b[i] <= '9'; i++, nDigits++) {
+                exp--;
+                if (mantissa > 0 || b[i] != '0') {
+                    mantissa = mantissa * 10 + (b[i] - '0');
+                    if (++digits > maxDigits) return Double.NaN;
+                }
+            }
+        }
+        if (nDigits == 0) return Double.NaN;
+        if (i < e && (b[i] == 'e' || b[i] == 'E')) {
+            i++;
+            boolean negExp = false;
+            if (i < e && (b[i] == '-' || b[i] == '+')) negExp = b[i++] == '-';
+            if (i == e) return Double.NaN;
+            int ev = 0;
+            for (; i < e && b[i] >= '0' && b[i] <= '9'; i++) {
+                ev = ev * 10 + (b[i] - '0');
+                if (ev > 400) return Double.NaN;
+            }
+            exp += negExp ? -ev : ev;
+        }
+        if (i != e) return Double.NaN;
+        if (mantissa == 0) return neg ? -0.0 : 0.0;
+        if (exp < -maxExp || exp > maxExp) return Double.NaN;
+
+        double v;
+        if (maxDigits <= 7) {
+            float f = (float) mantissa;
+            f = exp < 0 ? f / FLOAT_POW10[-exp] : f * FLOAT_POW10[exp];
+            v = f;
+        } else {
+            v = exp < 0 ? mantissa / POW10[-exp] : mantissa * POW10[exp];
+        }
+        return neg ? -v : v;
+    }
+
+    /**
+     * @return the value, or Long.MIN_VALUE if it is not a plain integer of at most maxDigits digits that fits in a long
+     */
+    static long parseLong(byte[] b, int s, int e, int maxDigits) {
+        int i = s;
+        boolean neg = false;
+        if (i < e && (b[i] == '-' || b[i] == '+')) neg = b[i++] == '-';
+        if (i == e || e - i > maxDigits) return Long.MIN_VALUE;
+        long v = 0;
+        for (; i < e; i++) {
+            if (b[i] < '0' || b[i] > '9') return Long.MIN_VALUE;
+            if (v > (Long.MAX_VALUE - (b[i] - '0')) / 10) return Long.MIN_VALUE;      // too big
+            v = v * 10 + (b[i] - '0');
+        }
+        return neg ? -v : v;
+    }
+
+    private static final double[] POW10 = IntStream.rangeClosed(0, 22).mapToDouble(i -> Double.parseDouble("1e" + i)).toArray();
+    private static final float[] FLOAT_POW10 = new float[11];
+    static {
+        for (int i = 0; i < FLOAT_POW10.length; i++) FLOAT_POW10[i] = Float.parseFloat("1e" + i);
+    }
+}
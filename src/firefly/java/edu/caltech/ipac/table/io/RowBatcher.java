@@ -0,0 +1,81 @@
+/*
+ * License information at https://github.com/Caltech-IPAC/firefly/blob/master/License.txt
+ */
+package edu.caltech.ipac.table.io;
+
+import edu.caltech.ipac.table.DataGroup;
+import edu.caltech.ipac.table.DataObject;
+import edu.caltech.ipac.table.DataType;
+
+import java.io.IOException;
+
+/**
+ * Used by the table readers to group rows into batches and pass them to a {@link TableRowSink}.
+ *
+ * When a column's type is guessed from its data, i.e. csv, the sink is not started until every column's type
+ * is known, or MAX_GUESS_ROWS are read.  Columns still unknown by then are treated as String.
+ */
+class RowBatcher {
+    static final int MAX_GUESS_ROWS = 100000;
+
+    private final DataGroup header;
+    private final TableRowSink sink;
+    private DataGroup batch;
+    private boolean started;
+    private int rowCount;
+
+    RowBatcher(DataGroup header, TableRowSink sink) {
+        this.header = header;
+        this.sink = sink;
+        batch = newBatch();
+    }
+
+    void add(DataObject row) throws IOException {
+        if (row == null) return;
+        batch.add(row);
+        rowCount++;
+        if (!started) {
+            if (!isAllTypesKnown() && batch.size() < MAX_GUESS_ROWS) return;
+            start();
+        }
+        if (batch.size() >= sink.getBatchSize()) flush();
+    }
+
+    /**
+     * send the remaining rows, then end the sink
+     * @return the total number of rows read
+     */
+    int finish() throws IOException {
+        if (!started) start();
+        flush();
+        sink.end(header, rowCount);
+        return rowCount;
+    }
+
+    private void start() throws IOException {
+        for (DataType dt : header.getDataDefinitions()) {
+            if (!dt.isKnownType()) dt.setDataType(String.class);
+        }
+        sink.start(header);
+        started = true;
+    }
+
+    private void flush() throws IOException {
+        if (batch.size() > 0) {
+            sink.rows(batch);
+            batch = newBatch();
+        }
+    }
+
+    private DataGroup newBatch() {
+        // shares the DataType with header so column info guessed from the data ends up in the header.
+        return new DataGroup(header.getTitle(), header.getDataDefinitions());
+    }
+
+    private boolean isAllTypesKnown() {
+        for (DataType dt : header.getDataDefinitions()) {
+            if (!dt.isKnownType()) return false;
+        }
+        return true;
+    }
+}
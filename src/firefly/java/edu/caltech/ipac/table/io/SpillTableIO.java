@@ -0,0 +1,414 @@
+/*
+ * License information at https://github.com/Caltech-IPAC/firefly/blob/master/License.txt
+ */
+package edu.caltech.ipac.table.io;
+
+import edu.caltech.ipac.table.DataGroup;
+import edu.caltech.ipac.table.DataType;
+import edu.caltech.ipac.table.PrimitiveList;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.DoubleBuffer;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Reads and writes a DataGroup as a binary file of typed column blocks.  It is used to cache a table that
+ * is read from an IPAC table file more than once, so it does not have to be parsed each time.
+ * A spill file remembers the length and the modified time of the file it was made from, and it is not read
+ * once that file has changed.
+ *
+ * The blocks are read by memory map, one column at a time, so only the columns asked for are read.
+ * The layout is:
+ * <pre>
+ *   "FFSP", int32 version, int64 source length, int64 source modified time
+ *   int32 length, int32 0, the serialized DataGroup without data: its columns and meta
+ *   int32 rows, int32 columns
+ *   for each column, starting on an 8 byte boundary:
+ *     int32 type, int32 0
+ *     FLOAT64, INT64:  rows x 8 bytes, with NaN or Long.MIN_VALUE for null; the same as the column list
+ *     FLOAT32, INT32:  rows x 4 bytes, with NaN or Integer.MIN_VALUE for null
+ *     BOOLEAN:         rows x 1 byte
+ *     STRING:          null bitmap, one bit per row; int64 offsets[rows + 1], then the UTF-8 bytes of the values
+ *     OBJECT:          the serialized values, i.e. arrays
+ *   int64 offsets[columns] of the column blocks
+ *   int64 offset of the above
+ * </pre>
+ * Numbers are big-endian.
+ */
+public class SpillTableIO {
+
+    static final int VERSION = 1;
+    static final int FLOAT64 = 1;
+    static final int FLOAT32 = 2;
+    static final int INT64 = 3;
+    static final int INT32 = 4;
+    static final int BOOLEAN = 5;
+    static final int STRING = 6;
+    static final int OBJECT = 7;
+
+    private static final byte[] MAGIC = "FFSP".getBytes(StandardCharsets.US_ASCII);
+
+    /**
+     * @param source the file the table was read from
+     * @return the file to spill it into
+     */
+    public static File getSpillFile(File source) {
+        return new File(source.getPath() + ".spill");
+    }
+
+    /**
+     * Write the given table into the spill file.  The file is written to a unique temporary file in the same
+     * directory, then moved into place atomically, so a reader never sees a partial file and concurrent writers
+     * do not share a temporary file.
+     * @param spill the file to write
+     * @param dg the table; its storage must be HEAP
+     * @param source the file the table was read from
+     */
+    public static void write(File spill, DataGroup dg, File source) throws IOException {
+        File tmp = File.createTempFile(spill.getName() + "-", ".tmp", spill.getAbsoluteFile().getParentFile());
+        try {
+            try (FileChannel fc = FileChannel.open(tmp.toPath(), StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+                BlockOutput out = new BlockOutput(fc);
+                out.put(MAGIC);
+                out.putInt(VERSION);
+                out.putLong(source.length());
+                out.putLong(source.lastModified());
+                out.putSized(serialize(dg.cloneWithoutData()));
+
+                DataType[] cols = dg.getDataDefinitions();
+                int rows = dg.size();
+                out.putInt(rows);
+                out.putInt(cols.length);
+                long[] offsets = new long[cols.length];
+                for (int i = 0; i < cols.length; i++) {
+                    offsets[i] = out.position();
+                    writeColumn(out, cols[i], dg.getColumnData(cols[i].getKeyName()), rows);
+                }
+                long tableStart = out.position();
+                for (long offset : offsets) out.putLong(offset);
+                out.putLong(tableStart);
+                out.flush();
+            }
+            Files.move(tmp.toPath(), spill.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            tmp.delete();       // only exists if writing failed
+        }
+    }
+
+    /**
+     * @param spill the spill file
+     * @param source the file it was made from
+     * @param onlyColumns the columns to read; all when none are given
+     * @return the table, or null if there is no spill file, or it is no longer the same as its source
+     */
+    public static DataGroup read(File spill, File source, String... onlyColumns) throws IOException {
+        if (!spill.canRead()) return null;
+        try (FileChannel fc = FileChannel.open(spill.toPath(), StandardOpenOption.READ)) {
+            ByteBuffer head = ByteBuffer.allocate(32);
+            fc.read(head, 0);
+            head.flip();
+            byte[] magic = new byte[MAGIC.length];
+            head.get(magic);
+            if (!Arrays.equals(magic, MAGIC) || head.getInt() != VERSION) return null;
+            if (head.getLong() != source.length() || head.getLong() != source.lastModified()) return null;
+
+            int headerLen = head.getInt();
+            long pos = head.position() + 4;
+            ByteBuffer headerBytes = ByteBuffer.allocate(headerLen);
+            fc.read(headerBytes, pos);
+            DataGroup header = deserialize(headerBytes.array(), DataGroup.class);
+            pos = align(pos + headerLen);
+
+            ByteBuffer counts = ByteBuffer.allocate(8);
+            fc.read(counts, pos);
+            counts.flip();
+            int rows = counts.getInt();
+            int ncols = counts.getInt();
+
+            ByteBuffer last = ByteBuffer.allocate(8);
+            fc.read(last, fc.size() - 8);
+            last.flip();
+            long tableStart = last.getLong();
+            ByteBuffer table = ByteBuffer.allocate(ncols * 8);
+            fc.read(table, tableStart);
+            table.flip();
+            long[] offsets = new long[ncols + 1];
+            for (int i = 0; i < ncols; i++) offsets[i] = table.getLong();
+            offsets[ncols] = tableStart;
+
+            DataType[] cols = header.getDataDefinitions();
+            DataGroup dg = header;
+            if (onlyColumns != null && onlyColumns.length > 0) {
+                List<DataType> selCols = new ArrayList<>();
+                for (String c : onlyColumns) {
+                    DataType dt = header.getDataDefintion(c);
+                    if (dt != null) selCols.add(dt);
+                }
+                dg = new DataGroup(header.getTitle(), selCols);
+                dg.setStorage(DataGroup.Storage.HEAP);
+                dg.setTableMeta(header.getTableMeta());
+            }
+            dg.ensureRows(rows);
+            for (int i = 0; i < cols.length; i++) {
+                if (dg.getDataDefintion(cols[i].getKeyName()) == null) continue;
+                long len = offsets[i + 1] - offsets[i];
+                if (len > Integer.MAX_VALUE) return null;       // too big to map; read the source instead
+                MappedByteBuffer block = fc.map(FileChannel.MapMode.READ_ONLY, offsets[i], len);
+                readColumn(block, dg.getColumnData(cols[i].getKeyName()), rows);
+            }
+            return dg;
+        }
+    }
+
+//====================================================================
+//  column blocks
+//====================================================================
+
+    private static void writeColumn(BlockOutput out, DataType dt, PrimitiveList values, int rows) throws IOException {
+        if (values instanceof PrimitiveList.Doubles) {
+            out.putType(FLOAT64);
+            for (int r = 0; r < rows; r++) out.putDouble(values.getDouble(r));
+        } else if (values instanceof PrimitiveList.Floats) {
+            out.putType(FLOAT32);
+            for (int r = 0; r < rows; r++) out.putFloat((float) values.getDouble(r));
+        } else if (values instanceof PrimitiveList.Longs) {
+            out.putType(INT64);
+            for (int r = 0; r < rows; r++) {
+                Object v = values.get(r);
+                out.putLong(v == null ? Long.MIN_VALUE : (Long) v);
+            }
+        } else if (values instanceof PrimitiveList.Integers) {
+            out.putType(INT32);
+            for (int r = 0; r < rows; r++) {
+                Object v = values.get(r);
+                out.putInt(v == null ? Integer.MIN_VALUE : (Integer) v);
+            }
+        } else if (values instanceof PrimitiveList.Booleans) {
+            out.putType(BOOLEAN);
+            for (int r = 0; r < rows; r++) out.put((byte) (Boolean.TRUE.equals(values.get(r)) ? 1 : 0));
+        } else if (isStrings(values, rows)) {
+            out.putType(STRING);
+            byte[] valid = new byte[(rows + 7) / 8];
+            byte[][] bytes = new byte[rows][];
+            for (int r = 0; r < rows; r++) {
+                Object v = values.get(r);
+                if (v != null) {
+                    valid[r >> 3] |= 1 << (r & 7);
+                    bytes[r] = ((String) v).getBytes(StandardCharsets.UTF_8);
+                }
+            }
+            out.put(valid);
+            out.align();
+            long offset = 0;
+            out.putLong(offset);
+            for (byte[] b : bytes) {
+                offset += b == null ? 0 : b.length;
+                out.putLong(offset);
+            }
+            for (byte[] b : bytes) {
+                if (b != null) out.put(b);
+            }
+        } else {
+            out.putType(OBJECT);
+            Object[] vals = new Object[rows];
+            for (int r = 0; r < rows; r++) vals[r] = values.get(r);
+            out.put(serialize(vals));
+        }
+        out.align();
+    }
+
+    private static void readColumn(ByteBuffer block, PrimitiveList values, int rows) throws IOException {
+        int type = block.getInt();
+        block.getInt();
+        ByteBuffer data = block.slice();
+        switch (type) {
+            case FLOAT64: {
+                DoubleBuffer buf = data.asDoubleBuffer();
+                PrimitiveList.Doubles list = (PrimitiveList.Doubles) values;
+                for (int r = 0; r < rows; r++) list.setDouble(r, buf.get(r));
+                break;
+            }
+            case FLOAT32: {
+                FloatBuffer buf = data.asFloatBuffer();
+                PrimitiveList.Floats list = (PrimitiveList.Floats) values;
+                for (int r = 0; r < rows; r++) list.setFloat(r, buf.get(r));
+                break;
+            }
+            case INT64: {
+                LongBuffer buf = data.asLongBuffer();
+                PrimitiveList.Longs list = (PrimitiveList.Longs) values;
+                for (int r = 0; r < rows; r++) list.setLong(r, buf.get(r));
+                break;
+            }
+            case INT32: {
+                IntBuffer buf = data.asIntBuffer();
+                PrimitiveList.Integers list = (PrimitiveList.Integers) values;
+                for (int r = 0; r < rows; r++) list.setInt(r, buf.get(r));
+                break;
+            }
+            case BOOLEAN:
+                for (int r = 0; r < rows; r++) values.set(r, data.get(r) == 1);
+                break;
+            case STRING: {
+                byte[] valid = new byte[(rows + 7) / 8];
+                data.get(valid);
+                int offsetsStart = (int) align(valid.length);
+                data.position(offsetsStart);
+                LongBuffer offsets = data.slice().asLongBuffer();
+                int bytesStart = offsetsStart + (rows + 1) * 8;
+                byte[] bytes = new byte[256];
+                for (int r = 0; r < rows; r++) {
+                    if ((valid[r >> 3] & (1 << (r & 7))) == 0) {
+                        values.set(r, null);
+                    } else {
+                        int start = (int) offsets.get(r);
+                        int len = (int) offsets.get(r + 1) - start;
+                        if (len > bytes.length) bytes = new byte[len * 2];
+                        data.position(bytesStart + start);
+                        data.get(bytes, 0, len);
+                        values.set(r, new String(bytes, 0, len, StandardCharsets.UTF_8));
+                    }
+                }
+                break;
+            }
+            case OBJECT: {
+                byte[] bytes = new byte[data.remaining()];
+                data.get(bytes);
+                Object[] vals = deserialize(bytes, Object[].class);
+                for (int r = 0; r < rows; r++) values.set(r, vals[r]);
+                break;
+            }
+            default:
+                throw new IOException("Unknown column type in spill file: " + type);
+        }
+    }
+
+    private static boolean isStrings(PrimitiveList values, int rows) {
+        if (!(values instanceof PrimitiveList.Objects)) return false;
+        for (int r = 0; r < rows; r++) {
+            Object v = values.get(r);
+            if (v != null && !(v instanceof String)) return false;
+        }
+        return true;
+    }
+
+//====================================================================
+//
+//====================================================================
+
+    private static long align(long pos) {
+        return (pos + 7) / 8 * 8;
+    }
+
+    private static byte[] serialize(Object obj) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+            out.writeObject(obj);
+        }
+        return bytes.toByteArray();
+    }
+
+    private static <T> T deserialize(byte[] bytes, Class<T> type) throws IOException {
+        try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes))) {
+            return type.cast(in.readObject());
+        } catch (ClassNotFoundException e) {
+            throw new IOException(e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Buffers the values written to the file, and keeps track of the position
+     */
+    private static class BlockOutput {
+        private final FileChannel fc;
+        private final ByteBuffer buf = ByteBuffer.allocateDirect(64 * 1024);
+        private long written;
+
+        BlockOutput(FileChannel fc) {
+            this.fc = fc;
+        }
+
+        long position() {
+            return written + buf.position();
+        }
+
+        void putType(int type) throws IOException {
+            putInt(type);
+            putInt(0);
+        }
+
+        void putInt(int v) throws IOException {
+            ensure(Integer.BYTES).putInt(v);
+        }
+
+        void putLong(long v) throws IOException {
+            ensure(Long.BYTES).putLong(v);
+        }
+
+        void putFloat(float v) throws IOException {
+            ensure(Float.BYTES).putFloat(v);
+        }
+
+        void putDouble(double v) throws IOException {
+            ensure(Double.BYTES).putDouble(v);
+        }
+
+        void put(byte v) throws IOException {
+            ensure(1).put(v);
+        }
+
+        void put(byte[] bytes) throws IOException {
+            if (bytes.length > buf.remaining()) {
+                flush();
+                if (bytes.length > buf.capacity()) {
+                    ByteBuffer src = ByteBuffer.wrap(bytes);
+                    while (src.hasRemaining()) written += fc.write(src);
+                    return;
+                }
+            }
+            buf.put(bytes);
+        }
+
+        /**
+         * write the length of the bytes, then the bytes, then pad to the next block
+         */
+        void putSized(byte[] bytes) throws IOException {
+            putInt(bytes.length);
+            putInt(0);
+            put(bytes);
+            align();
+        }
+
+        void align() throws IOException {
+            while (position() % 8 != 0) put((byte) 0);
+        }
+
+        void flush() throws IOException {
+            buf.flip();
+            while (buf.hasRemaining()) written += fc.write(buf);
+            buf.clear();
+        }
+
+        private ByteBuffer ensure(int bytes) throws IOException {
+            if (buf.remaining() < bytes) flush();
+            return buf;
+        }
+    }
+}
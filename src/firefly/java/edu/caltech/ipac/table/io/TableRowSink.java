@@ -0,0 +1,61 @@
+/*
+ * License information at https://github.com/Caltech-IPAC/firefly/blob/master/License.txt
+ */
+package edu.caltech.ipac.table.io;
+
+import edu.caltech.ipac.table.DataGroup;
+
+import java.io.IOException;
+
+/**
+ * A receiver of table data as it is being read.  Instead of collecting all of the rows into one DataGroup,
+ * a reader passes the rows to this sink in batches, so a table can be consumed without holding it in memory.
+ *
+ * The calling sequence is:  start, followed by zero or more rows, then end.
+ */
+public interface TableRowSink {
+    int DEF_BATCH_SIZE = 5000;
+
+    /**
+     * Called once, before any rows are passed in.  The types of all columns are known at this point.
+     * @param header  columns and meta of the table.  It does not contain any data.
+     */
+    void start(DataGroup header) throws IOException;
+
+    /**
+     * Called for every batch of rows read.  Columns of the batch are the same as the header's.
+     * The sink takes ownership of the batch; the reader will not reuse it.
+     * @param batch  a DataGroup containing the next batch of rows
+     */
+    void rows(DataGroup batch) throws IOException;
+
+    /**
+     * Called once after all of the rows were passed in.
+     * @param header  the same header passed to start.  Column info like format and precision
+     *                may have been updated while the rows were read.
+     * @param rowCount total number of rows read
+     */
+    void end(DataGroup header, int rowCount) throws IOException;
+
+    /**
+     * @return the number of rows to collect before passing them to this sink.
+     */
+    default int getBatchSize() { return DEF_BATCH_SIZE; }
+
+
+    /**
+     * Passes an already loaded DataGroup to the given sink.  Used for formats that cannot be read in batches.
+     * @param dg    the table
+     * @param sink  the sink to send it to
+     */
+    static void sendAll(DataGroup dg, TableRowSink sink) throws IOException {
+        DataGroup header = dg.cloneWithoutData();
+        header.setGroupInfos(dg.getGroupInfos());
+        header.setLinkInfos(dg.getLinkInfos());
+        header.setParamInfos(dg.getParamInfos());
+        header.setResourceInfos(dg.getResourceInfos());
+        sink.start(header);
+        if (dg.size() > 0) sink.rows(dg);
+        sink.end(header, dg.size());
+    }
+}
@@ -96,6 +96,40 @@ public class VoTableReader {
         return groups.toArray(new DataGroup[groups.size()]);
     }
 
+    /**
+     * Read one table from a votable, passing its rows to the sink in batches instead of returning them in a DataGroup.
+     * The parsed table data is buffered on disk instead of in memory.
+     * @param location  location of the votable data source using automatic format detection.  Can be file or url.
+     * @param tableIndex  index of the table to read
+     * @param sink  the receiver of the table's header and rows
+     * @return the number of rows read
+     */
+    public static int readTable(String location, int tableIndex, TableRowSink sink) throws IOException {
+
+        VOElement docRoot = getVoTableRoot(location, StoragePolicy.PREFER_DISK);
+        List<TableElement> tableAry = getAllTableElements(docRoot);
+        if (tableIndex < 0 || tableIndex >= tableAry.size()) {
+            throw new IOException("Table not found at index " + tableIndex + " of " + location);
+        }
+
+        TableElement tableEl = tableAry.get(tableIndex);
+        DataGroup header = makeHeader(tableEl);
+        List<ResourceInfo> resources = getAllResources(docRoot);
+        if (resources != null) header.setResourceInfos(resources);
+
+        List<DataType> cols = Arrays.asList(header.getDataDefinitions());
+        RowBatcher batcher = new RowBatcher(header, sink);
+        RowSequence rs = new VOStarTable(tableEl).getRowSequence();
+        try {
+            while (rs.next()) {
+                batcher.add(makeRow(header, cols, rs));
+            }
+        } finally {
+            rs.close();
+        }
+        return batcher.finish();
+    }
+
     public static String getError(InputStream inputStream, String location) throws DataAccessException {
         try {
             VOElementFactory voFactory =  new VOElementFactory();
@@ -238,6 +272,30 @@ public class VoTableReader {
      */
     private static DataGroup convertToDataGroup(TableElement tableEl, StarTable table,  boolean headerOnly) {
 
+        DataGroup dg = makeHeader(tableEl);
+        List<DataType> cols = Arrays.asList(dg.getDataDefinitions());
+
+        // table data
+        try {
+            if (!headerOnly) {
+                RowSequence rs = table.getRowSequence();
+
+                while (rs.next()) {
+                    dg.add(makeRow(dg, cols, rs));
+                }
+            }
+        } catch (IOException e) {
+            LOG.error(e);
+        }
+        dg.trimToSize();
+        return dg;
+    }
+
+    /**
+     * returns the header of the given table with the custom logic applied.
+     */
+    private static DataGroup makeHeader(TableElement tableEl) {
+
         DataGroup dg = getTableHeader(tableEl);
         List<DataType> cols = Arrays.asList(dg.getDataDefinitions());
 
@@ -250,32 +308,22 @@ public class VoTableReader {
             dg.addAttribute("POS_EQ_RA_MAIN", raCol.getKeyName());
             dg.addAttribute("POS_EQ_DEC_MAIN", decCol.getKeyName());
         }
+        return dg;
+    }
 
-        // table data
-        try {
-            if (!headerOnly) {
-                RowSequence rs = table.getRowSequence();
+    private static DataObject makeRow(DataGroup dg, List<DataType> cols, RowSequence rs) throws IOException {
+        DataObject row = new DataObject(dg);
+        for(int i = 0; i < cols.size(); i++) {
+            DataType dtype = cols.get(i);
+            Object val = rs.getCell(i);
 
-                while (rs.next()) {
-                    DataObject row = new DataObject(dg);
-                    for(int i = 0; i < cols.size(); i++) {
-                        DataType dtype = cols.get(i);
-                        Object val = rs.getCell(i);
-
-                        if ((val instanceof Double && Double.isNaN((Double) val)) ||
-                                (val instanceof Float && Float.isNaN((Float) val))    )    {
-                            val = null;
-                        }
-                        row.setDataElement(dtype, val);
-                    }
-                    dg.add(row);
-                }
+            if ((val instanceof Double && Double.isNaN((Double) val)) ||
+                    (val instanceof Float && Float.isNaN((Float) val))    )    {
+                val = null;
             }
-        } catch (IOException e) {
-            LOG.error(e);
+            row.setDataElement(dtype, val);
         }
-        dg.trimToSize();
-        return dg;
+        return row;
     }
 
     private static DataGroup getTableHeader(TableElement table) {
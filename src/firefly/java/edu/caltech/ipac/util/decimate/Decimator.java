@@ -0,0 +1,253 @@
+/*
+ * License information at https://github.com/Caltech-IPAC/firefly/blob/master/License.txt
+ */
+package edu.caltech.ipac.util.decimate;
+
+import edu.caltech.ipac.table.DataGroup;
+
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Server side decimation of the x and y columns of a table.  The xy plane is divided into the cells of
+ * a {@link DecimateKey}, and one random row is kept per cell, along with the number of rows it represents.
+ *
+ * Values are read from the table's columns as primitives, cells are identified by a long instead of
+ * a String key, and the rows are split into ranges that are processed in parallel, then merged.
+ */
+public class Decimator {
+    private static final int CHUNK_SIZE = 1 << 16;      // rows processed by one task
+
+    /**
+     * Find the range of the x and y values of the table.  Rows where x or y is NaN are ignored.
+     * @param dg the table
+     * @param xCol the x column
+     * @param yCol the y column
+     * @param limits xMin, xMax, yMin, yMax; the rows outside of these limits are counted in {@link Range#outside}
+     * @return the range
+     */
+    public static Range getRange(DataGroup dg, String xCol, String yCol, double[] limits) {
+        return ForkJoinPool.commonPool().invoke(new RangeTask(dg, xCol, yCol, limits, 0, dg.size()));
+    }
+
+    /**
+     * Keep one random row per cell.
+     * @param dg the table
+     * @param xCol the x column
+     * @param yCol the y column
+     * @param key the cells
+     * @param limits if not null, xMin, xMax, yMin, yMax; the rows outside of these limits are skipped
+     * @return the sampled rows, one per cell
+     */
+    public static Samples decimate(DataGroup dg, String xCol, String yCol, DecimateKey key, double[] limits) {
+        return ForkJoinPool.commonPool().invoke(new SampleTask(dg, xCol, yCol, key, limits, 0, dg.size()));
+    }
+
+    /**
+     * @return the cell, x index in the high 32 bits, y index in the low 32 bits
+     */
+    public static long toCell(int xIdx, int yIdx) {
+        return ((long) xIdx << 32) | (yIdx & 0xFFFFFFFFL);
+    }
+
+    /**
+     * @return the key of the cell, the same as {@link DecimateKey#getKey(double, double)}
+     */
+    public static String toKeyString(long cell) {
+        return (int) (cell >> 32) + DecimateKey.XY_SEPARATOR + (int) cell;
+    }
+
+    private static boolean isOutside(double x, double y, double[] limits) {
+        return x < limits[0] || x > limits[1] || y < limits[2] || y > limits[3];
+    }
+
+    public static class Range {
+        public double xMin = Double.POSITIVE_INFINITY;
+        public double xMax = Double.NEGATIVE_INFINITY;
+        public double yMin = Double.POSITIVE_INFINITY;
+        public double yMax = Double.NEGATIVE_INFINITY;
+        public int count;           // rows where neither x nor y is NaN
+        public int outside;         // of those, rows outside of the limits
+
+        void merge(Range r) {
+            xMin = Math.min(xMin, r.xMin);
+            xMax = Math.max(xMax, r.xMax);
+            yMin = Math.min(yMin, r.yMin);
+            yMax = Math.max(yMax, r.yMax);
+            count += r.count;
+            outside += r.outside;
+        }
+    }
+
+    /**
+     * The sampled rows, in a hash table keyed by cell.
+     */
+    public static class Samples {
+        private long[] cells;
+        private int[] rows;         // -1 when the slot is empty
+        private int[] weights;
+        private int size;
+
+        Samples() {
+            this(64);
+        }
+
+        private Samples(int capacity) {
+            cells = new long[capacity];
+            rows = new int[capacity];
+            weights = new int[capacity];
+            Arrays.fill(rows, -1);
+        }
+
+        public int size() { return size; }
+
+        public void forEach(SampleConsumer consumer) {
+            for (int i = 0; i < rows.length; i++) {
+                if (rows[i] >= 0) consumer.accept(cells[i], rows[i], weights[i]);
+            }
+        }
+
+        /**
+         * Add weight rows to a cell.  The representative row of the cell is replaced by rowIdx with the probability
+         * weight/total, so every row of the cell has the same chance to be the representative.
+         */
+        void add(long cell, int rowIdx, int weight, Random random) {
+            int slot = find(cell);
+            if (rows[slot] < 0) {
+                cells[slot] = cell;
+                rows[slot] = rowIdx;
+                weights[slot] = weight;
+                if (++size * 2 > rows.length) grow();
+            } else {
+                int total = weights[slot] + weight;
+                if (random.nextInt(total) < weight) rows[slot] = rowIdx;
+                weights[slot] = total;
+            }
+        }
+
+        void merge(Samples other, Random random) {
+            for (int i = 0; i < other.rows.length; i++) {
+                if (other.rows[i] >= 0) add(other.cells[i], other.rows[i], other.weights[i], random);
+            }
+        }
+
+        private int find(long cell) {
+            int mask = rows.length - 1;
+            int slot = (int) ((cell * 0x9E3779B97F4A7C15L) >>> 40) & mask;
+            while (rows[slot] >= 0 && cells[slot] != cell) slot = (slot + 1) & mask;
+            return slot;
+        }
+
+        private void grow() {
+            Samples bigger = new Samples(rows.length * 2);
+            for (int i = 0; i < rows.length; i++) {
+                if (rows[i] >= 0) {
+                    int slot = bigger.find(cells[i]);
+                    bigger.cells[slot] = cells[i];
+                    bigger.rows[slot] = rows[i];
+                    bigger.weights[slot] = weights[i];
+                }
+            }
+            cells = bigger.cells;
+            rows = bigger.rows;
+            weights = bigger.weights;
+        }
+    }
+
+    public interface SampleConsumer {
+        void accept(long cell, int rowIdx, int weight);
+    }
+
+    private static class RangeTask extends RecursiveTask<Range> {
+        private static final long serialVersionUID = 1L;
+        private final DataGroup dg;
+        private final String xCol;
+        private final String yCol;
+        private final double[] limits;
+        private final int start;
+        private final int end;
+
+        RangeTask(DataGroup dg, String xCol, String yCol, double[] limits, int start, int end) {
+            this.dg = dg;
+            this.xCol = xCol;
+            this.yCol = yCol;
+            this.limits = limits;
+            this.start = start;
+            this.end = end;
+        }
+
+        protected Range compute() {
+            if (end - start > CHUNK_SIZE) {
+                int mid = (start + end) >>> 1;
+                RangeTask left = new RangeTask(dg, xCol, yCol, limits, start, mid);
+                left.fork();
+                Range r = new RangeTask(dg, xCol, yCol, limits, mid, end).compute();
+                r.merge(left.join());
+                return r;
+            }
+            Range r = new Range();
+            for (int i = start; i < end; i++) {
+                double x = dg.getDouble(xCol, i);
+                double y = dg.getDouble(yCol, i);
+                if (Double.isNaN(x) || Double.isNaN(y)) continue;
+                if (x > r.xMax) r.xMax = x;
+                if (x < r.xMin) r.xMin = x;
+                if (y > r.yMax) r.yMax = y;
+                if (y < r.yMin) r.yMin = y;
+                r.count++;
+                if (limits != null && isOutside(x, y, limits)) r.outside++;
+            }
+            return r;
+        }
+    }
+
+    private static class SampleTask extends RecursiveTask<Samples> {
+        private static final long serialVersionUID = 1L;
+        private final DataGroup dg;
+        private final String xCol;
+        private final String yCol;
+        private final DecimateKey key;
+        private final double[] limits;
+        private final int start;
+        private final int end;
+
+        SampleTask(DataGroup dg, String xCol, String yCol, DecimateKey key, double[] limits, int start, int end) {
+            this.dg = dg;
+            this.xCol = xCol;
+            this.yCol = yCol;
+            this.key = key;
+            this.limits = limits;
+            this.start = start;
+            this.end = end;
+        }
+
+        protected Samples compute() {
+            Random random = ThreadLocalRandom.current();
+            if (end - start > CHUNK_SIZE) {
+                int mid = (start + end) >>> 1;
+                SampleTask left = new SampleTask(dg, xCol, yCol, key, limits, start, mid);
+                left.fork();
+                Samples right = new SampleTask(dg, xCol, yCol, key, limits, mid, end).compute();
+                Samples samples = left.join();
+                if (samples.size() < right.size()) {
+                    right.merge(samples, random);
+                    return right;
+                }
+                samples.merge(right, random);
+                return samples;
+            }
+            Samples samples = new Samples();
+            for (int i = start; i < end; i++) {
+                double x = dg.getDouble(xCol, i);
+                double y = dg.getDouble(yCol, i);
+                if (Double.isNaN(x) || Double.isNaN(y)) continue;
+                if (limits != null && isOutside(x, y, limits)) continue;
+                samples.add(toCell(key.getXIdx(x), key.getYIdx(y)), i, 1, random);
+            }
+            return samples;
+        }
+    }
+}
@@ -15,6 +15,7 @@ import edu.caltech.ipac.util.FileUtil;
 import java.io.DataInputStream;
 import java.io.EOFException;
 import java.io.IOException;
+import java.io.InterruptedIOException;
 import java.io.OutputStream;
 import java.net.URLConnection;
 import java.util.Date;
@@ -89,6 +90,9 @@ public class Downloader {
             int read;
             byte[] buffer = new byte[BUFFER_SIZE];
             while ((read = _in.read(buffer)) != -1) {
+                if (Thread.currentThread().isInterrupted()) {     // i.e. the Future of the download was cancelled
+                    throw new InterruptedIOException("Download was interrupted after " + FileUtil.getSizeAsString(totalRead));
+                }
                 totalRead += read;
                 if ((++cnt % informInc) == 0) {
                     if (startDate == null) startDate = new Date();
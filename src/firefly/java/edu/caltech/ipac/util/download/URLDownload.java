@@ -383,7 +383,14 @@ public class URLDownload {
 
 
             long start = System.currentTimeMillis();
-            netCopy(in, out, conn, maxFileSize, dl);
+            try {
+                netCopy(in, out, conn, maxFileSize, dl);
+            } catch (IOException | FailedRequestException | RuntimeException e) {
+                // do not leave a partial file, i.e. when the download was interrupted or is too big
+                FileUtil.silentClose(out);
+                if (f.exists() && !f.delete()) _log.warn("could not delete partial download: " + f.getPath());
+                throw e;
+            }
 
             long elapse = System.currentTimeMillis() - start;
             outFileData = new FileInfo(f, suggested, responseCode, ResponseMessage.getHttpResponseMessage(responseCode));
@@ -5,7 +5,9 @@ package edu.caltech.ipac.visualize.plot;
 
 import edu.caltech.ipac.util.SUTDebug;
 
-import java.util.Arrays;
+import java.util.SplittableRandom;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
 
 /**
  * Creates a histogram of an image
@@ -22,32 +24,95 @@ import java.util.Arrays;
 public class Histogram {
     private static int HISTSIZ2 = 4096;  /* full size of hist array */
     private static int HISTSIZ = 2048;     /* half size of hist array */
+    private static final int PARALLEL_CHUNK = 1 << 18;    /* arrays larger than this are scanned in parallel chunks */
 
     private int[] hist;
     private double histMin;
     private double histBinsize;
     private double irafMin;
     private double irafMax;
+    private boolean sampled;
+    private int sampleCount;
 
+    /**
+     * Reads the pixels of an image a part at a time, so the image does not have to be in one array,
+     * i.e. when it is memory mapped.
+     */
+    public interface PixelReader {
+        /**
+         * @param from the index of the first pixel
+         * @param dest the array to fill, starting at 0
+         * @param len the number of pixels to read
+         */
+        void read(int from, float[] dest, int len);
+    }
 
 
     public Histogram(float[] float1dArray, double datamin, double datamax) {
+        this(float1dArray, null, float1dArray.length, datamin, datamax, false);
+    }
+
+    /**
+     * Creates a histogram of an image that is read a part at a time.  The result is the same as from the whole array.
+     * @param reader reads the pixels
+     * @param size the number of pixels
+     * @param datamin the minimum value of the data, or NaN if not known
+     * @param datamax the maximum value of the data, or NaN if not known
+     */
+    public Histogram(PixelReader reader, int size, double datamin, double datamax) {
+        this(null, reader, size, datamin, datamax, false);
+    }
+
+    /**
+     * Creates a histogram from a sample of the image, for quick previews of large images.
+     * The pixels are drawn uniformly at random, so percentiles are approximate; see getPercentileErrorBound.
+     * A fixed stride is not used since it would follow any row or column structure of the image.
+     * The draws are seeded, so the same image always gives the same histogram.
+     * @param float1dArray the image data
+     * @param datamin      the minimum value of the data, or NaN if not known
+     * @param datamax      the maximum value of the data, or NaN if not known
+     * @param maxSamples   the maximum number of pixels to use
+     * @return the histogram; an exact one when the image has no more than maxSamples pixels
+     */
+    public static Histogram createSampled(float[] float1dArray, double datamin, double datamax, int maxSamples) {
+        if (float1dArray.length <= maxSamples) return new Histogram(float1dArray, datamin, datamax);
+        float[] sample = new float[Math.max(1, maxSamples)];
+        SplittableRandom random = new SplittableRandom(float1dArray.length);
+        for (int i = 0; i < sample.length; i++) sample[i] = float1dArray[random.nextInt(float1dArray.length)];
+        return new Histogram(sample, null, sample.length, datamin, datamax, true);
+    }
+
+    /**
+     * Same as createSampled, for an image that is read a part at a time.
+     * @see #createSampled(float[], double, double, int)
+     */
+    public static Histogram createSampled(PixelReader reader, int size, double datamin, double datamax, int maxSamples) {
+        if (size <= maxSamples) return new Histogram(reader, size, datamin, datamax);
+        float[] sample = new float[Math.max(1, maxSamples)];
+        float[] pixel = new float[1];
+        SplittableRandom random = new SplittableRandom(size);
+        for (int i = 0; i < sample.length; i++) {
+            reader.read(random.nextInt(size), pixel, 1);
+            sample[i] = pixel[0];
+        }
+        return new Histogram(sample, null, sample.length, datamin, datamax, true);
+    }
+
+    /**
+     * @param float1dArray the image data, or null to read it with reader
+     */
+    private Histogram(float[] float1dArray, PixelReader reader, int size, double datamin, double datamax, boolean sampled) {
+
+        this.sampled = sampled;
+        sampleCount = size;
 
 	   /*
         If the datamin or datamax is NaN, adjust them
 		 */
         if (Double.isNaN(datamin) || Double.isNaN(datamax)) {
-            datamax = -Double.MAX_VALUE;
-            datamin = Double.MAX_VALUE;
-            for (int k = 0; k < float1dArray.length; k++) {
-
-                if (!Double.isNaN(float1dArray[k])) {
-                    if (float1dArray[k] < datamin)
-                        datamin = float1dArray[k];
-                    if (float1dArray[k] > datamax)
-                        datamax = float1dArray[k];
-                }
-            }
+            BinCounter range = scan(float1dArray, reader, 0, 0, null);
+            datamin = range.dataMin;
+            datamax = range.dataMax;
         }
 
         hist = new int[HISTSIZ2 + 1];
@@ -63,35 +128,11 @@ public class Histogram {
 
             boolean redo_flag = false;
             histBinsize =getHistBinSize(histMax );
-             //reintialize the hist to 0
-            Arrays.fill(hist, 0);
-            int underflowCount = 0;
-            int overflowCount = 0;
-            for (int k = 0; k < float1dArray.length; k++)
-            {
-                if (!Double.isNaN(float1dArray[k]))
-                {
-                   int i = (int) ((float1dArray[k] - histMin) / histBinsize);
-                      if (i<0)
-                    {
-                        //redo_flag = true;   /* hist_min was bad */
-                        underflowCount++;
-                    }
-                    else if (i>HISTSIZ2)
-                    {
-                        //redo_flag = true;   /* hist_max was bad */
-                        overflowCount++;
-                    }
-                    else
-                    {
-                        hist[i] ++;
-                    }
-                    if (float1dArray[k] < histDatamin)
-                        histDatamin = float1dArray[k];
-                    if (float1dArray[k] > histDatamax)
-                        histDatamax = float1dArray[k];
-                }
-            }
+            BinCounter counts = scan(float1dArray, reader, histMin, histBinsize, hist);
+            int underflowCount = counts.underflowCount;
+            int overflowCount = counts.overflowCount;
+            histDatamin = Math.min(histDatamin, counts.dataMin);
+            histDatamax = Math.max(histDatamax, counts.dataMax);
 
 
             printeDebugInfo(histMax, underflowCount, overflowCount);
@@ -99,9 +140,9 @@ public class Histogram {
             datamax = histDatamax;
 
 	        /* redo if more than 1% of pixels fell off histogram */
-            if (underflowCount > float1dArray.length * .01)
+            if (underflowCount > sampleCount * .01)
                 redo_flag = true;
-            if (overflowCount > float1dArray.length * .01)
+            if (overflowCount > sampleCount * .01)
                 redo_flag = true;
 
             /* check if we got a good spread */
@@ -154,6 +195,115 @@ public class Histogram {
 
     }
 
+    /**
+     * Count the pixels into bins, and find the min and max of the data.  Large arrays are split into
+     * chunks that are counted in parallel, then merged.  The result is the same as a serial scan.
+     * When the data is read with a PixelReader, only one chunk per thread is in memory at a time.
+     * @param bins  the bins to fill, or null to find only the min and max
+     */
+    private BinCounter scan(float[] float1dArray, PixelReader reader, double histMin, double histBinsize, int[] bins) {
+        BinCounter counter = new BinCounter(float1dArray, reader, 0, sampleCount, histMin, histBinsize, bins != null);
+        if (sampleCount > PARALLEL_CHUNK) {
+            ForkJoinPool.commonPool().invoke(counter);
+        } else {
+            counter.compute();
+        }
+        if (bins != null) System.arraycopy(counter.bins, 0, bins, 0, bins.length);
+        return counter;
+    }
+
+    /**
+     * Counts the pixels from index 'from' to 'to'(exclusive), splitting the work when it is large.
+     */
+    private static class BinCounter extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+        private final float[] data;
+        private final PixelReader reader;
+        private final int from;
+        private final int to;
+        private final double histMin;
+        private final double histBinsize;
+        private final boolean doBins;
+        private int[] bins;
+        private int underflowCount;
+        private int overflowCount;
+        private double dataMin = Double.MAX_VALUE;
+        private double dataMax = -Double.MAX_VALUE;
+
+        BinCounter(float[] data, PixelReader reader, int from, int to, double histMin, double histBinsize, boolean doBins) {
+            this.data = data;
+            this.reader = reader;
+            this.from = from;
+            this.to = to;
+            this.histMin = histMin;
+            this.histBinsize = histBinsize;
+            this.doBins = doBins;
+        }
+
+        protected void compute() {
+            if (to - from > PARALLEL_CHUNK) {
+                int mid = (from + to) >>> 1;
+                BinCounter left = new BinCounter(data, reader, from, mid, histMin, histBinsize, doBins);
+                BinCounter right = new BinCounter(data, reader, mid, to, histMin, histBinsize, doBins);
+                invokeAll(left, right);
+                merge(left, right);
+                return;
+            }
+            if (doBins) bins = new int[HISTSIZ2 + 1];
+            float[] values = data;
+            int offset = 0;
+            if (values == null) {
+                values = new float[to - from];
+                reader.read(from, values, to - from);
+                offset = from;
+            }
+            for (int s = from; s < to; s++) {
+                float v = values[s - offset];
+                if (!Double.isNaN(v)) {
+                    if (doBins) {
+                        int i = (int) ((v - histMin) / histBinsize);
+                        if (i < 0) {
+                            underflowCount++;
+                        } else if (i > HISTSIZ2) {
+                            overflowCount++;
+                        } else {
+                            bins[i]++;
+                        }
+                    }
+                    if (v < dataMin) dataMin = v;
+                    if (v > dataMax) dataMax = v;
+                }
+            }
+        }
+
+        private void merge(BinCounter left, BinCounter right) {
+            if (doBins) {
+                bins = left.bins;
+                for (int i = 0; i < bins.length; i++) bins[i] += right.bins[i];
+            }
+            underflowCount = left.underflowCount + right.underflowCount;
+            overflowCount = left.overflowCount + right.overflowCount;
+            dataMin = Math.min(left.dataMin, right.dataMin);
+            dataMax = Math.max(left.dataMax, right.dataMax);
+        }
+    }
+
+    /**
+     * For a histogram created with createSampled, the maximum difference, in percentile, between a
+     * percentile computed from the sample and the one of the full image, at 95% confidence.
+     * The bound is from the Dvoretzky-Kiefer-Wolfowitz inequality.  It is 0 when all pixels are used.
+     * @return the error bound, i.e. 0.5 means get_pct(99) is between the 98.5 and 99.5 percentile of the image.
+     */
+    public double getPercentileErrorBound() {
+        if (!sampled || sampleCount == 0) return 0;
+        return 100 * Math.sqrt(Math.log(2 / 0.05) / (2.0 * sampleCount));
+    }
+
+    /**
+     * @return true if this histogram was created from a sample of the pixels
+     */
+    public boolean isSampled() { return sampled; }
+
     private double  getHistBinSize(double histMax){
         double  hbinsiz = (histMax - histMin) / HISTSIZ2;
         if (hbinsiz == 0.0)
@@ -13,6 +13,7 @@ import edu.caltech.ipac.table.DataObject;
 import edu.caltech.ipac.table.DataType;
 import edu.caltech.ipac.table.IpacTableToFITS;
 import edu.caltech.ipac.table.io.FITSTableReader;
+import edu.caltech.ipac.util.AppProperties;
 import edu.caltech.ipac.visualize.plot.CoordinateSys;
 import edu.caltech.ipac.visualize.plot.Histogram;
 import edu.caltech.ipac.visualize.plot.ImageHeader;
@@ -35,6 +36,7 @@ import java.io.File;
 import java.io.IOException;
 import java.io.OutputStream;
 import java.io.Serializable;
+import java.lang.ref.SoftReference;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.zip.DataFormatException;
@@ -48,12 +50,16 @@ public class FitsRead implements Serializable {
     private static final ArrayList<Integer> SUPPORTED_BIT_PIXS = new ArrayList<>(Arrays.asList(8, 16, 32, -32, -64));
     //class variable
     private static RangeValues DEFAULT_RANGE_VALUE = new RangeValues();
+    // images with more pixels than this get a histogram from a random sample of their pixels; 0 to always use all pixels
+    private static final int HISTOGRAM_MAX_SAMPLES = AppProperties.getIntProperty("visualize.histogram.max.samples", 0);
 
     //private variables
     private int planeNumber;
     private int hduNumber;
     private BasicHDU hdu;
-    private float[] float1d;
+    private volatile float[] float1d;
+    private transient volatile MappedPixelData mappedData;
+    private transient SoftReference<float[]> mappedFloat1d;
     private ImageHeader imageHeader;
     private Header header;
     private Header zeroHeader;
@@ -72,6 +78,20 @@ public class FitsRead implements Serializable {
      * @throws FitsException
      */
     FitsRead( BasicHDU imageHdu, Header zeroHeader, boolean clearHdu) throws FitsException {
+        this(imageHdu, zeroHeader, null, clearHdu);
+    }
+
+    /**
+     * Cachable class made for holding FITS data.
+     *
+     * @param imageHdu
+     * @param zeroHeader
+     * @param mapFile if not null and the image is not compressed, the pixels are memory mapped from this file
+     *                and only read into a float array when they are used, see {@link MappedPixelData}
+     * @param clearHdu
+     * @throws FitsException
+     */
+    FitsRead( BasicHDU<?> imageHdu, Header zeroHeader, File mapFile, boolean clearHdu) throws FitsException {
 
         tileCompress= (imageHdu instanceof CompressedImageHDU);
 
@@ -97,7 +117,12 @@ public class FitsRead implements Serializable {
 
 
         //convert the data to float to do all the calculations
-        float1d = FitsReadUtil.getImageHDUDataInFloatArray(hdu);
+        if (mapFile!=null && MappedPixelData.canMap(hdu)) {
+            mappedData= MappedPixelData.map(mapFile, hdu, planeNumber);
+        }
+        else {
+            float1d = FitsReadUtil.getImageHDUDataInFloatArray(hdu);
+        }
 
         if (clearHdu) hdu= null;
 
@@ -112,12 +137,13 @@ public class FitsRead implements Serializable {
      * a TAB lookup Table, this constructor will used.
      * @param imageHdu
      * @param tableHDU
+     * @param mapFile
      * @param clearHdu
      * @throws FitsException
      */
-    FitsRead( BasicHDU imageHdu, BinaryTableHDU tableHDU, Header zeroHeader, boolean clearHdu) throws FitsException {
+    FitsRead( BasicHDU<?> imageHdu, BinaryTableHDU tableHDU, Header zeroHeader, File mapFile, boolean clearHdu) throws FitsException {
 
-        this(imageHdu, zeroHeader, clearHdu);
+        this(imageHdu, zeroHeader, mapFile, clearHdu);
         this.tableHDU = tableHDU;
     }
 
@@ -138,7 +164,79 @@ public class FitsRead implements Serializable {
 
     public BinaryTableHDU getTableHDU() { return tableHDU; } //todo - remove this methdo
 
-    public float[] getRawFloatAry() { return float1d; }
+    /**
+     * Get the raw pixel values.  If the pixels are memory mapped, they are read into an array that is kept
+     * until memory is needed and read again on the next call.  Callers should not hold on to the array.
+     * The stretch and the histogram do not call this, they read the mapped pixels with {@link #getRawPixels}.
+     * @return the raw values, the same as the FITS file, BSCALE and BZERO are not applied
+     */
+    public float[] getRawFloatAry() {
+        float[] inMemory= float1d;    // read before mappedData, spillTo() sets mappedData before it clears float1d
+        MappedPixelData md= mappedData;
+        if (md==null) return inMemory;
+        synchronized (md) {
+            float[] data= mappedFloat1d!=null ? mappedFloat1d.get() : null;
+            if (data==null) {
+                data= md.toFloatArray();
+                mappedFloat1d= new SoftReference<>(data);
+            }
+            return data;
+        }
+    }
+
+    public boolean isMapped() { return mappedData!=null; }
+
+    /**
+     * Get the raw values of a rectangle of pixels.  If the pixels are memory mapped, only this rectangle is read.
+     * @param x the first pixel of each line
+     * @param y the first line
+     * @param width the number of pixels of each line
+     * @param height the number of lines
+     * @param dest the array to fill line by line, starting at 0.  Its lines are in the same order as getRawFloatAry.
+     */
+    public void getRawPixels(int x, int y, int width, int height, float[] dest) {
+        float[] inMemory= float1d;
+        MappedPixelData md= mappedData;
+        if (md!=null) {
+            md.read(x, y, width, height, dest);
+        }
+        else {
+            for(int i=0; (i<height); i++) {
+                System.arraycopy(inMemory, (y+i)*imageHeader.naxis1+x, dest, i*width, width);
+            }
+        }
+    }
+
+    /**
+     * Get the pixels needed to compute the range of a stretch, see {@link ImageStretch#getRange}.
+     * Only zscale needs the pixels, the other ranges come from the histogram.
+     * @param rangeValues the stretch
+     * @return the raw values, or null when the pixels are memory mapped and are not needed
+     */
+    public float[] getRangeFloatAry(RangeValues rangeValues) {
+        boolean zscale= rangeValues.getLowerWhich()==RangeValues.ZSCALE || rangeValues.getUpperWhich()==RangeValues.ZSCALE;
+        return (zscale || !isMapped()) ? getRawFloatAry() : null;
+    }
+
+    /**
+     * Write the pixels to a file and memory map them from it, so they no longer hold the heap.
+     * Does nothing if the pixels are already mapped.
+     * @param f the file to write
+     * @return true if the pixels were written to the file, false if they were already mapped
+     * @throws IOException if the file could not be written
+     */
+    public boolean spillTo(File f) throws IOException {
+        float[] data= float1d;
+        if (mappedData!=null || data==null) return false;
+        MappedPixelData md= MappedPixelData.spill(data, imageHeader.naxis1, imageHeader.naxis2,
+                                                  imageHeader.bscale, imageHeader.bzero, f);
+        synchronized (md) {
+            mappedFloat1d= new SoftReference<>(data);
+            mappedData= md;
+            float1d= null;
+        }
+        return true;
+    }
 
     public static RangeValues getDefaultFutureStretch() {
         return DEFAULT_RANGE_VALUE;
@@ -178,7 +276,7 @@ public class FitsRead implements Serializable {
 
 
         ImageStretch.stretchPixelsForMask(startPixel, lastPixel, startLine, lastLine, imageHeader.naxis1,
-                        blank_pixel_value, float1d, pixelData, pixelhist, lsstMasks);
+                        blank_pixel_value, getRawFloatAry(), pixelData, pixelhist, lsstMasks);
 
 
     }
@@ -206,7 +304,9 @@ public class FitsRead implements Serializable {
 
         int index = yint * imageHeader.naxis1 + xint;
 
-        double raw_dn = float1d[index];
+        float[] inMemory= float1d;
+        MappedPixelData md= mappedData;
+        double raw_dn = md!=null ? md.getRaw(index) : inMemory[index];
         return ImageStretch.getFlux(raw_dn, imageHeader);
 
     }
@@ -251,7 +351,7 @@ public class FitsRead implements Serializable {
      */
     public byte[] getHistColors(Histogram hist, RangeValues rangeValues) {
 
-        return ImageStretch.getHistColors( hist, rangeValues, float1d, imageHeader);
+        return ImageStretch.getHistColors( hist, rangeValues, getRangeFloatAry(rangeValues), imageHeader);
     }
 
     public Header getHeader() { return header; }
@@ -270,8 +370,18 @@ public class FitsRead implements Serializable {
 
 
     private Histogram  computeHistogram() {
-        return new Histogram(float1d, (imageHeader.datamin - imageHeader.bzero) / imageHeader.bscale,
-                (imageHeader.datamax - imageHeader.bzero) / imageHeader.bscale);
+        double datamin = (imageHeader.datamin - imageHeader.bzero) / imageHeader.bscale;
+        double datamax = (imageHeader.datamax - imageHeader.bzero) / imageHeader.bscale;
+        MappedPixelData md= mappedData;
+        if (md!=null) {      // read the mapped pixels a part at a time instead of into one array
+            return HISTOGRAM_MAX_SAMPLES > 0 ?
+                    Histogram.createSampled(md::read, md.size(), datamin, datamax, HISTOGRAM_MAX_SAMPLES) :
+                    new Histogram(md::read, md.size(), datamin, datamax);
+        }
+        if (HISTOGRAM_MAX_SAMPLES > 0) {
+            return Histogram.createSampled(getRawFloatAry(), datamin, datamax, HISTOGRAM_MAX_SAMPLES);
+        }
+        return new Histogram(getRawFloatAry(), datamin, datamax);
 
     }
 
@@ -320,6 +430,7 @@ public class FitsRead implements Serializable {
      */
     public float[] getDataFloat() {
 
+        float[] float1d= getRawFloatAry();
         if (imageHeader.bscale==1.0 && imageHeader.bzero==0) return float1d;
 
         float[] fData = new float[float1d.length];
@@ -334,6 +445,8 @@ public class FitsRead implements Serializable {
 
     public void freeResources() {
         float1d = null;
+        mappedData = null;
+        mappedFloat1d = null;
         imageHeader = null;
         header = null;
         hist= null;
@@ -366,7 +479,7 @@ public class FitsRead implements Serializable {
         Fits output_fits = new Fits();
         for(FitsRead fr : fitsReadAry) {
              BasicHDU  refHdu = refFits.getHDU(0);
-             ImageHDU imageHDU = new ImageHDU(refHdu.getHeader(),  FitsReadUtil.getImageData(refHdu, fr.float1d) );
+             ImageHDU imageHDU = new ImageHDU(refHdu.getHeader(),  FitsReadUtil.getImageData(refHdu, fr.getRawFloatAry()) );
             output_fits.addHDU(imageHDU);
         }
         output_fits.write(new DataOutputStream(stream));
@@ -29,6 +29,7 @@ import nom.tam.fits.FitsException;
 import nom.tam.fits.Header;
 import nom.tam.fits.ImageHDU;
 
+import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
 
@@ -49,12 +50,13 @@ public class FitsReadFactory {
      * @param imageHDUs
      * @param tableHDUs
      * @param zeroHeader
+     * @param mapFile if not null, the file to map the pixels of the image HDUs from
      * @param clearHdu
      * @return
      * @throws FitsException
      */
     private static FitsRead[] getFitsReadArray(BasicHDU[]  imageHDUs, BasicHDU[] tableHDUs,
-                                               Header zeroHeader, boolean clearHdu)throws FitsException{
+                                               Header zeroHeader, File mapFile, boolean clearHdu)throws FitsException{
 
         FitsRead[] fitsReadAry = new FitsRead[imageHDUs.length];
         for (int i = 0; i < imageHDUs.length; i++) {
@@ -69,8 +71,8 @@ public class FitsReadFactory {
                 bHdu = FitsReadUtil.getBinaryTableHdu(tableHDUs, extName);
             }
             fitsReadAry[i] = bHdu!=null?
-                    new FitsRead(imageHDUs[i], bHdu, zeroHeader, clearHdu) :
-                    new FitsRead(imageHDUs[i], zeroHeader, clearHdu);
+                    new FitsRead(imageHDUs[i], bHdu, zeroHeader, mapFile, clearHdu) :
+                    new FitsRead(imageHDUs[i], zeroHeader, mapFile, clearHdu);
         }
         return fitsReadAry;
     }
@@ -90,7 +92,7 @@ public class FitsReadFactory {
 
         if (HDUs == null) throw new FitsException(BAD_FORMAT_MSG);
 
-        ArrayList<BasicHDU> HDUList = FitsReadUtil.getImageHDUList(HDUs);
+        ArrayList<BasicHDU<?>> HDUList = FitsReadUtil.getImageHDUList(HDUs);
 
         if (HDUList.size() == 0) { //The FITS file does not have any Image
             String msg= (HDUs.length>1) ? NO_IMAGE_HDU_MSG_ONLY_TABLE : NO_IMAGE_HDU_MSG;
@@ -105,7 +107,7 @@ public class FitsReadFactory {
         }
 
         Header zeroHeader= getZeroHeader(HDUs);
-        return getFitsReadArray(HDUList.toArray(new BasicHDU[0]), tblHDUs, zeroHeader, false);
+        return getFitsReadArray(HDUList.toArray(new BasicHDU<?>[0]), tblHDUs, zeroHeader, null, false);
     }
 
     /**
@@ -149,15 +151,30 @@ public class FitsReadFactory {
      */
     public static FitsRead[] createFitsReadArray( BasicHDU[] HDUs, boolean clearHdu)
             throws FitsException {
+        return createFitsReadArray(HDUs, null, clearHdu);
+    }
 
+    /**
+     * read the HDUs of a FITS file to create a list of the FistRead object.  When the HDU is cleared, the pixels of
+     * uncompressed images are memory mapped from the file instead of read, see {@link MappedPixelData}.
+     *
+     * @param HDUs
+     * @param file the file the HDUs were read from, may be null
+     * @param clearHdu
+     * @return
+     * @throws FitsException
+     */
+    public static FitsRead[] createFitsReadArray( BasicHDU<?>[] HDUs, File file, boolean clearHdu)
+            throws FitsException {
 
-        if (HDUs == null) throw new FitsException(BAD_FORMAT_MSG);
 
+        if (HDUs == null) throw new FitsException(BAD_FORMAT_MSG);
 
-        ArrayList<BasicHDU> HDUList = FitsReadUtil.getImageHDUList(HDUs);
+        File mapFile= (clearHdu && file!=null && file.canRead()) ? file : null;
+        ArrayList<BasicHDU<?>> HDUList = FitsReadUtil.getImageHDUList(HDUs, mapFile!=null);
 
         Header zeroHeader= getZeroHeader(HDUs);
-        return getFitsReadArray( HDUList.toArray(new BasicHDU[0]), HDUs, zeroHeader, clearHdu);
+        return getFitsReadArray( HDUList.toArray(new BasicHDU<?>[0]), HDUs, zeroHeader, mapFile, clearHdu);
 
     }
 
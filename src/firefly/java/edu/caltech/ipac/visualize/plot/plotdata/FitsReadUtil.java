@@ -201,8 +201,20 @@ public class FitsReadUtil {
 
     }
 
-    public static ArrayList<BasicHDU> getImageHDUList(BasicHDU[] HDUs) throws FitsException {
-        ArrayList<BasicHDU> HDUList = new ArrayList<>();
+    public static ArrayList<BasicHDU<?>> getImageHDUList(BasicHDU<?>[] HDUs) throws FitsException {
+        return getImageHDUList(HDUs, false);
+    }
+
+    /**
+     * Get the image HDUs, with each plane of a cube as its own HDU.
+     * @param HDUs all the HDUs of the file
+     * @param mapped if true, the planes of a cube that can be mapped (see {@link MappedPixelData#canMap(BasicHDU)})
+     *               are not read.  Each plane HDU shares the data of the cube and must be read with {@link MappedPixelData}.
+     * @return the list of image HDUs
+     * @throws FitsException if the file does not contain a valid image
+     */
+    public static ArrayList<BasicHDU<?>> getImageHDUList(BasicHDU<?>[] HDUs, boolean mapped) throws FitsException {
+        ArrayList<BasicHDU<?>> HDUList = new ArrayList<>();
 
         String delayedExceptionMsg = null; // the exception can be ignored if HDUList size is greater than 0
         for (int j = 0; j < HDUs.length; j++) {
@@ -211,7 +223,7 @@ public class FitsReadUtil {
             }
 
             //process image HDU or compressed image HDU as ImageHDU
-            BasicHDU hdu = HDUs[j];
+            BasicHDU<?> hdu = HDUs[j];
 
 
             Header header = (hdu != null) ? hdu.getHeader() : null;
@@ -245,7 +257,7 @@ public class FitsReadUtil {
                 if ((naxis > 2) && (naxis3 > 1)) { //it is a cube data
                     if (SUTDebug.isDebug())
                         System.out.println("GOT A FITS CUBE");
-                    BasicHDU[] splitHDUs = splitFitsCube( hdu);
+                    BasicHDU<?>[] splitHDUs = mapped && MappedPixelData.canMap(hdu) ? splitMappedFitsCube(hdu) : splitFitsCube( hdu);
                     /* for each plane of cube */
                     Collections.addAll(HDUList, splitHDUs);
                 } else {
@@ -295,6 +307,18 @@ public class FitsReadUtil {
 
     }
 
+    private static BasicHDU<?>[] splitMappedFitsCube(BasicHDU<?> inHdu) throws FitsException {
+        BasicHDU<?>[] hduList = new BasicHDU<?>[inHdu.getHeader().getIntValue("NAXIS3", 0)];
+        for (int i = 0; i < hduList.length; i++) {
+            Header header = cloneHeaderFrom(inHdu.getHeader());
+            header.getIntValue("BITPIX", -1); // set the header pointer so SPOT_PL is not added after the "END" key
+            header.addLine(new HeaderCard("SPOT_PL", i, "Plane of FITS cube (added by Firefly)"));
+            header.resetOriginalSize();
+            hduList[i] = new ImageHDU(header, ((ImageHDU) inHdu).getData());
+        }
+        return hduList;
+    }
+
     private static BasicHDU[] splitFitsCube(BasicHDU inHdu) throws FitsException {
         ImageHDU hdu = (inHdu instanceof ImageHDU) ? (ImageHDU) inHdu : ((CompressedImageHDU) inHdu).asImageHDU();  // if we have to uncompress a cube it could take a long time
         int naxis = inHdu.getHeader().getIntValue("NAXIS", -1);
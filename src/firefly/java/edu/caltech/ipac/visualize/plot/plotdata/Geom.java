@@ -15,6 +15,7 @@ import edu.caltech.ipac.visualize.plot.ProjectionException;
 import edu.caltech.ipac.visualize.plot.ProjectionPt;
 import edu.caltech.ipac.visualize.plot.WorldPt;
 import edu.caltech.ipac.visualize.plot.projection.Projection;
+import edu.caltech.ipac.visualize.plot.projection.ProjectionParams;
 import nom.tam.fits.BasicHDU;
 import nom.tam.fits.Fits;
 import nom.tam.fits.FitsException;
@@ -29,6 +30,13 @@ import nom.tam.util.Cursor;
 import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 
 public class Geom {
@@ -38,6 +46,14 @@ public class Geom {
  * "2.0 (Thu Jul  7 21:09:27 PDT 1994)";
  */
     static final String VERSION = "2.1 (Thu Nov 14 17:08:51 PST 1996)";
+    private static final Object convertLock = new Object();
+    // shared by all reprojections, so concurrent ones do not use more threads than there are processors
+    private static final ExecutorService bandExec = Executors.newFixedThreadPool(
+                    Runtime.getRuntime().availableProcessors(), r -> {
+                        Thread t = new Thread(r, "geom-band");
+                        t.setDaemon(true);
+                        return t;
+                    });
     //private static final String im_history_line = "geom V" + VERSION;
 
     private ImageHeader ref_header;
@@ -57,6 +73,8 @@ public class Geom {
     int tie_skip = 10;
     boolean interp_flag = false;
     double min_wgt = 0.5;
+    int min_parallel_pixels = 512 * 512;
+    double affine_tolerance = 1e-6;
     int override_naxis1;
     int override_naxis2;
     public boolean n_override_naxis1 = false;
@@ -130,20 +148,13 @@ public class Geom {
     /* buffers & such */
     private float blank_val = Float.NaN;
     //int stat;
-    private int n2;
     private Projection in_proj;
     private Projection out_proj;
     private CoordinateSys in_coordinate_sys;
     private CoordinateSys out_coordinate_sys;
     private float in_data[];
-    private double x_val[];
-    private double y_val[];
-    private double x_next[];
-    private double y_next[];
-    private double x_dd[];
-    private double y_dd[];
     private float out_data[];
-    float glop5;
+    private double affine[];
 
 
     public ImageHeader open_in(FitsRead inFitsRead) throws
@@ -767,307 +778,426 @@ public class Geom {
     }
 
 
-    int next_n2 = 0;
-
-    private void compute_geom_line() {
-        float n2_interp;
-        int n1;
+    /**
+     * The output lines from first up to, but not including, last.  A band has its own line buffers,
+     * so the bands of an image can be computed at the same time.  first is always a tie line, so
+     * a band computes the same values it would as part of the whole image.
+     */
+    private class RowBand {
+        private final int first;
+        private final int last;
+        private int n2;
+        private int next_n2;
+        private final double x_val[] = new double[out_naxis1];
+        private final double y_val[] = new double[out_naxis1];
+        private final double x_next[] = new double[out_naxis1];
+        private final double y_next[] = new double[out_naxis1];
+        private final double x_dd[] = new double[out_naxis1];
+        private final double y_dd[] = new double[out_naxis1];
+        float glop5;
+
+        RowBand(int first, int last) {
+            this.first = first;
+            this.last = last;
+        }
 
-        if (n2 == 0) next_n2 = 0;
+        void compute() {
+            for (n2 = first; n2 < last; n2++) {
+                if (affine != null) compute_affine_line();
+                else compute_geom_line();
 
-        if (n2 == next_n2) {
-            if (n2 != 0) {
-                System.arraycopy(x_next, 0, x_val, 0, out_naxis1);
-                System.arraycopy(y_next, 0, y_val, 0, out_naxis1);
-            } else
-                compute_a_line(0, x_val, y_val);
+                if (interp_flag)
+                    bin_bilinear();
+                else
+                    bin_nearest_neighbor();
+            }
         }
 
-        if (n2 > next_n2) {
-            next_n2 += tie_skip;
-            if (next_n2 >= out_naxis2) next_n2 = out_naxis2 - 1;
-            compute_a_line(next_n2, x_next, y_next);
-            n2_interp = next_n2 - n2 + 1;
-            if (n2_interp > 0) for (n1 = 0; n1 < out_naxis1; n1++) {
-                if (x_val[n1] == x_val[n1] && x_next[n1] == x_next[n1]) {
-                    x_dd[n1] = (x_next[n1] - x_val[n1]) / n2_interp;
-                    y_dd[n1] = (y_next[n1] - y_val[n1]) / n2_interp;
-                    glop5 = n2_interp;  // this is here to combat an optimizer bug
-                } else x_dd[n1] = blank_val;
+        private void compute_affine_line() {
+            double x = affine[0] + affine[2] * n2;
+            double y = affine[3] + affine[5] * n2;
+            for (int n1 = 0; n1 < out_naxis1; n1++) {
+                x_val[n1] = x + affine[1] * n1;
+                y_val[n1] = y + affine[4] * n1;
             }
         }
 
-        if (n2 < next_n2) {
-            for (n1 = 0; n1 < out_naxis1; n1++)
-                if (x_dd[n1] == x_dd[n1]) {
-                    x_val[n1] = x_val[n1] + x_dd[n1];
-                    y_val[n1] = y_val[n1] + y_dd[n1];
+
+        private void compute_geom_line() {
+            float n2_interp;
+            int n1;
+
+            if (n2 == first) next_n2 = first;
+
+            if (n2 == next_n2) {
+                if (n2 != first) {
+                    System.arraycopy(x_next, 0, x_val, 0, out_naxis1);
+                    System.arraycopy(y_next, 0, y_val, 0, out_naxis1);
+                } else
+                    compute_a_line(first, x_val, y_val);
+            }
+
+            if (n2 > next_n2) {
+                next_n2 += tie_skip;
+                if (next_n2 >= out_naxis2) next_n2 = out_naxis2 - 1;
+                compute_a_line(next_n2, x_next, y_next);
+                n2_interp = next_n2 - n2 + 1;
+                if (n2_interp > 0) for (n1 = 0; n1 < out_naxis1; n1++) {
+                    if (x_val[n1] == x_val[n1] && x_next[n1] == x_next[n1]) {
+                        x_dd[n1] = (x_next[n1] - x_val[n1]) / n2_interp;
+                        y_dd[n1] = (y_next[n1] - y_val[n1]) / n2_interp;
+                        glop5 = n2_interp;  // this is here to combat an optimizer bug
+                    } else x_dd[n1] = blank_val;
                 }
-        }
+            }
 
-    } /* end compute_geom_line */
+            if (n2 < next_n2) {
+                for (n1 = 0; n1 < out_naxis1; n1++)
+                    if (x_dd[n1] == x_dd[n1]) {
+                        x_val[n1] = x_val[n1] + x_dd[n1];
+                        y_val[n1] = y_val[n1] + y_dd[n1];
+                    }
+            }
 
+        } /* end compute_geom_line */
 
-    private void compute_a_line(int local_n2,
-                                double local_x_dd[], double local_y_dd[]) {
-        int next_n1;
-        int n1;
-        int stat;
-        double x_del = Double.NaN, y_del = Double.NaN;
-        double n1_interp;
-        double tmp_x, tmp_y;
-        double lon, lat;
-        ProjectionPt image_pt;
-        WorldPt world_pt;
 
-        next_n1 = -tie_skip;
-        for (n1 = 0; n1 < out_naxis1; n1++) {
+        private void compute_a_line(int local_n2,
+                                    double local_x_dd[], double local_y_dd[]) {
+            int next_n1;
+            int n1;
+            int stat;
+            double x_del = Double.NaN, y_del = Double.NaN;
+            double n1_interp;
+            double tmp_xy[] = new double[2];
 
-            if (n1 > next_n1) {
-	    /* compute via map functions */
-                next_n1 += tie_skip;
-                if (next_n1 >= out_naxis1) next_n1 = out_naxis1 - 1;
-                tmp_x = next_n1 + 1;
-                tmp_y = local_n2 + 1;
+            next_n1 = -tie_skip;
+            for (n1 = 0; n1 < out_naxis1; n1++) {
 
-                try {
-                    //System.out.println("in = " + tmp_x + "," + tmp_y);
-                    world_pt = out_proj.getWorldCoords(tmp_x - 1, tmp_y - 1);
-                    //System.out.println("RBH PRE lon = " + world_pt.getX()
-                    //    + "  lat = " + world_pt.getY());
-                    //System.out.println(
-                    //    "RBH out_coordinate_sys = " + out_coordinate_sys +
-                    //    "  in_coordinate_sys = " + in_coordinate_sys);
-                    if (!out_coordinate_sys.equals(in_coordinate_sys)) {
-                        world_pt = Plot.convert(world_pt, in_coordinate_sys);
-                    }
-                    lon = world_pt.getX();
-                    lat = world_pt.getY();
-                    //System.out.println("RBH POST lon = " + lon + "  lat = " + lat);
-                    image_pt = in_proj.getImageCoords(lon, lat);
-                    tmp_x = image_pt.getFsamp() + 1;
-                    tmp_y = image_pt.getFline() + 1;
-                    stat = 0;
-                    //System.out.println("out = " + tmp_x + "," + tmp_y);
-                } catch (ProjectionException pe) {
-                    if (SUTDebug.isDebug()) {
-                        System.out.println("got ProjectionException: " +
-                                pe.getMessage());
-                    }
-                    stat = 1;
-                }
+                if (n1 > next_n1) {
+	    /* compute via map functions */
+                    next_n1 += tie_skip;
+                    if (next_n1 >= out_naxis1) next_n1 = out_naxis1 - 1;
+                    stat = map_point(next_n1, local_n2, tmp_xy) ? 0 : 1;
 	    /* printf(" out=%f,%f stat=%d\n",tmp_x,tmp_y,stat); */
-                if (stat == 0) {
-                    local_x_dd[next_n1] = tmp_x;
-                    local_y_dd[next_n1] = tmp_y;
-                } else {
-                    local_x_dd[next_n1] = blank_val;
-                    local_y_dd[next_n1] = blank_val;
-                }
-
-                n1_interp = next_n1 - n1 + 1; /* compute delt pix-to-pix */
-                if ((n1_interp > 0.0) && (n1 > 0)) {
-                    if (!Double.isNaN(local_x_dd[n1])) {
-                        x_del = (local_x_dd[next_n1] - local_x_dd[n1 - 1]) / n1_interp;
-                        y_del = (local_y_dd[next_n1] - local_y_dd[n1 - 1]) / n1_interp;
+                    if (stat == 0) {
+                        local_x_dd[next_n1] = tmp_xy[0];
+                        local_y_dd[next_n1] = tmp_xy[1];
                     } else {
-                        x_del = blank_val;
-                        y_del = blank_val;
+                        local_x_dd[next_n1] = blank_val;
+                        local_y_dd[next_n1] = blank_val;
+                    }
+
+                    n1_interp = next_n1 - n1 + 1; /* compute delt pix-to-pix */
+                    if ((n1_interp > 0.0) && (n1 > 0)) {
+                        if (!Double.isNaN(local_x_dd[n1])) {
+                            x_del = (local_x_dd[next_n1] - local_x_dd[n1 - 1]) / n1_interp;
+                            y_del = (local_y_dd[next_n1] - local_y_dd[n1 - 1]) / n1_interp;
+                        } else {
+                            x_del = blank_val;
+                            y_del = blank_val;
+                        }
                     }
                 }
-            }
 
-            if (n1 < next_n1) {
+                if (n1 < next_n1) {
 	    /* interpolate within the line */
-                if (!Double.isNaN(x_del)) {
-                    local_x_dd[n1] = local_x_dd[n1 - 1] + x_del;
-                    local_y_dd[n1] = local_y_dd[n1 - 1] + y_del;
-                } else {
-                    local_x_dd[n1] = blank_val;
-                    local_y_dd[n1] = blank_val;
+                    if (!Double.isNaN(x_del)) {
+                        local_x_dd[n1] = local_x_dd[n1 - 1] + x_del;
+                        local_y_dd[n1] = local_y_dd[n1 - 1] + y_del;
+                    } else {
+                        local_x_dd[n1] = blank_val;
+                        local_y_dd[n1] = blank_val;
+                    }
                 }
-            }
 
-        } /* end for n1 */
+            } /* end for n1 */
 
-    } /* END OF compute_a_line */
+        } /* END OF compute_a_line */
 
 
-    private void bin_nearest_neighbor() {
-        double del_x, del_y;
-        int x_coord, y_coord;
-        int n1;
-        int index;
-        int out_index;
+        private void bin_nearest_neighbor() {
+            double del_x, del_y;
+            int x_coord, y_coord;
+            int n1;
+            int index;
+            int out_index;
 
-        del_x = in_crpix1 - 0.5;
-        del_y = in_crpix2 - 0.5;
+            del_x = in_crpix1 - 0.5;
+            del_y = in_crpix2 - 0.5;
 
-        for (n1 = 0; n1 < out_naxis1; n1++) {
+            for (n1 = 0; n1 < out_naxis1; n1++) {
 
-            out_index = n1 + n2 * out_naxis1;
+                out_index = n1 + n2 * out_naxis1;
 
-            if (x_val[n1] != x_val[n1]) {
-                out_data[out_index] = blank_val;
-                continue;
-            }
-            x_coord = (int) (x_val[n1] + del_x);
-            if (x_coord < 0 || x_coord >= in_naxis1) {
-                out_data[out_index] = blank_val;
-                continue;
-            }
-            y_coord = (int) (y_val[n1] + del_y);
-            if (y_coord < 0 || y_coord >= in_naxis2) {
-                out_data[out_index] = blank_val;
-                continue;
-            }
-            index = x_coord + y_coord * in_naxis1;
-            //System.out.println("x_coord = " + x_coord + "  y_coord = " + y_coord +
-            //    "   index = " + index + "  n1 = " + n1
-            //    + "  out_index = " + out_index);
-
-            out_data[out_index] = in_data[index];
-
-        } /* end for n1 */
-    } /* end bin_nearest_neighbor */
-
-
-    private void bin_bilinear() {
-        double min_x_inside, min_y_inside;
-        double max_x_inside, max_y_inside;
-        double del_x, del_y;
-        double x_float, y_float;
-        double x_frac, y_frac;
-        int x_coord, y_coord;
-        //float *ptr_00, *ptr_10, *ptr_01, *ptr_11;
-        int ptr_00, ptr_10, ptr_01, ptr_11;
-        double wgt_00, wgt_10, wgt_01, wgt_11;
-        double weight;
-        double sum;
-        int n1;
-        int index;
-        int out_index;
+                if (x_val[n1] != x_val[n1]) {
+                    out_data[out_index] = blank_val;
+                    continue;
+                }
+                x_coord = (int) (x_val[n1] + del_x);
+                if (x_coord < 0 || x_coord >= in_naxis1) {
+                    out_data[out_index] = blank_val;
+                    continue;
+                }
+                y_coord = (int) (y_val[n1] + del_y);
+                if (y_coord < 0 || y_coord >= in_naxis2) {
+                    out_data[out_index] = blank_val;
+                    continue;
+                }
+                index = x_coord + y_coord * in_naxis1;
+                //System.out.println("x_coord = " + x_coord + "  y_coord = " + y_coord +
+                //    "   index = " + index + "  n1 = " + n1
+                //    + "  out_index = " + out_index);
+
+                out_data[out_index] = in_data[index];
+
+            } /* end for n1 */
+        } /* end bin_nearest_neighbor */
+
+
+        private void bin_bilinear() {
+            double min_x_inside, min_y_inside;
+            double max_x_inside, max_y_inside;
+            double del_x, del_y;
+            double x_float, y_float;
+            double x_frac, y_frac;
+            int x_coord, y_coord;
+            //float *ptr_00, *ptr_10, *ptr_01, *ptr_11;
+            int ptr_00, ptr_10, ptr_01, ptr_11;
+            double wgt_00, wgt_10, wgt_01, wgt_11;
+            double weight;
+            double sum;
+            int n1;
+            int index;
+            int out_index;
    
-   /* compute constants */
-        min_x_inside = min_wgt - in_crpix1;
-        min_y_inside = min_wgt - in_crpix2;
-        max_x_inside = 1.0 + in_naxis1 - min_wgt - in_crpix1;
-        max_y_inside = 1.0 + in_naxis2 - min_wgt - in_crpix2;
+       /* compute constants */
+            min_x_inside = min_wgt - in_crpix1;
+            min_y_inside = min_wgt - in_crpix2;
+            max_x_inside = 1.0 + in_naxis1 - min_wgt - in_crpix1;
+            max_y_inside = 1.0 + in_naxis2 - min_wgt - in_crpix2;
 
-        del_x = in_crpix1 - 1.0;
-        del_y = in_crpix2 - 1.0;
+            del_x = in_crpix1 - 1.0;
+            del_y = in_crpix2 - 1.0;
 
-        for (n1 = 0; n1 < out_naxis1; n1++) {
+            for (n1 = 0; n1 < out_naxis1; n1++) {
 
-            out_index = n1 + n2 * out_naxis1;
+                out_index = n1 + n2 * out_naxis1;
 
-            if (x_val[n1] != x_val[n1]) {
-                out_data[out_index] = blank_val;
-                continue;
-            }
-            if (x_val[n1] < min_x_inside || x_val[n1] > max_x_inside) {
-                out_data[out_index] = blank_val;
-                continue;
-            }
-            if (y_val[n1] < min_y_inside || y_val[n1] > max_y_inside) {
-                out_data[out_index] = blank_val;
-                continue;
-            }
+                if (x_val[n1] != x_val[n1]) {
+                    out_data[out_index] = blank_val;
+                    continue;
+                }
+                if (x_val[n1] < min_x_inside || x_val[n1] > max_x_inside) {
+                    out_data[out_index] = blank_val;
+                    continue;
+                }
+                if (y_val[n1] < min_y_inside || y_val[n1] > max_y_inside) {
+                    out_data[out_index] = blank_val;
+                    continue;
+                }
 
-            x_float = x_val[n1] + del_x;
-            if (x_float > 0) x_coord = (int) x_float;
-            else x_coord = (int) x_float + 1;
-            x_frac = x_float - x_coord;
-
-            y_float = y_val[n1] + del_y;
-            if (y_float > 0) y_coord = (int) y_float;
-            else y_coord = (int) y_float + 1;
-            y_frac = y_float - y_coord;
-
-            index = x_coord + y_coord * in_naxis1;
-            ptr_00 = index;
-            ptr_10 = ptr_00 + 1;
-            ptr_01 = ptr_00 + in_naxis1;
-            ptr_11 = ptr_01 + 1;
-
-            wgt_11 = x_frac * y_frac;
-            wgt_01 = y_frac - wgt_11;
-            wgt_10 = x_frac - wgt_11;
-            wgt_00 = 1.0 - y_frac - wgt_10;
-
-            if (x_coord < 0) {
-                ptr_00 = -1;
-                ptr_01 = -1;
-            } else if (x_coord >= in_naxis1) {
-                ptr_10 = -1;
-                ptr_11 = -1;
-            }
-            if (y_coord < 0) {
-                ptr_00 = -1;
-                ptr_10 = -1;
-            } else if (y_coord >= in_naxis2) {
-                ptr_01 = -1;
-                ptr_11 = -1;
-            }
+                x_float = x_val[n1] + del_x;
+                if (x_float > 0) x_coord = (int) x_float;
+                else x_coord = (int) x_float + 1;
+                x_frac = x_float - x_coord;
 
-            try {
-                if ((ptr_00 < 0) || (ptr_00 >= in_data.length) ||
-                        (Double.isNaN(in_data[ptr_00])))
+                y_float = y_val[n1] + del_y;
+                if (y_float > 0) y_coord = (int) y_float;
+                else y_coord = (int) y_float + 1;
+                y_frac = y_float - y_coord;
+
+                index = x_coord + y_coord * in_naxis1;
+                ptr_00 = index;
+                ptr_10 = ptr_00 + 1;
+                ptr_01 = ptr_00 + in_naxis1;
+                ptr_11 = ptr_01 + 1;
+
+                wgt_11 = x_frac * y_frac;
+                wgt_01 = y_frac - wgt_11;
+                wgt_10 = x_frac - wgt_11;
+                wgt_00 = 1.0 - y_frac - wgt_10;
+
+                if (x_coord < 0) {
                     ptr_00 = -1;
-                if ((ptr_01 < 0) || (ptr_01 >= in_data.length) ||
-                        (Double.isNaN(in_data[ptr_01])))
                     ptr_01 = -1;
-                if ((ptr_10 < 0) || (ptr_10 >= in_data.length) ||
-                        (Double.isNaN(in_data[ptr_10])))
+                } else if (x_coord >= in_naxis1) {
                     ptr_10 = -1;
-                if ((ptr_11 < 0) || (ptr_11 >= in_data.length) ||
-                        (Double.isNaN(in_data[ptr_11])))
                     ptr_11 = -1;
-            } catch (ArrayIndexOutOfBoundsException ae) {
-                if (SUTDebug.isDebug()) {
-                    System.out.println("ArrayIndexOutOfBoundsException index = " +
-                            index + "  ptr_01 = " + ptr_01);
                 }
-                throw ae;
+                if (y_coord < 0) {
+                    ptr_00 = -1;
+                    ptr_10 = -1;
+                } else if (y_coord >= in_naxis2) {
+                    ptr_01 = -1;
+                    ptr_11 = -1;
+                }
+
+                try {
+                    if ((ptr_00 < 0) || (ptr_00 >= in_data.length) ||
+                            (Double.isNaN(in_data[ptr_00])))
+                        ptr_00 = -1;
+                    if ((ptr_01 < 0) || (ptr_01 >= in_data.length) ||
+                            (Double.isNaN(in_data[ptr_01])))
+                        ptr_01 = -1;
+                    if ((ptr_10 < 0) || (ptr_10 >= in_data.length) ||
+                            (Double.isNaN(in_data[ptr_10])))
+                        ptr_10 = -1;
+                    if ((ptr_11 < 0) || (ptr_11 >= in_data.length) ||
+                            (Double.isNaN(in_data[ptr_11])))
+                        ptr_11 = -1;
+                } catch (ArrayIndexOutOfBoundsException ae) {
+                    if (SUTDebug.isDebug()) {
+                        System.out.println("ArrayIndexOutOfBoundsException index = " +
+                                index + "  ptr_01 = " + ptr_01);
+                    }
+                    throw ae;
+                }
+
+                sum = 0.0;
+                weight = 1.0;
+                if (ptr_00 >= 0) sum += in_data[ptr_00] * wgt_00;
+                else weight -= wgt_00;
+                if (ptr_10 >= 0) sum += in_data[ptr_10] * wgt_10;
+                else weight -= wgt_10;
+                if (ptr_01 >= 0) sum += in_data[ptr_01] * wgt_01;
+                else weight -= wgt_01;
+                if (ptr_11 >= 0) sum += in_data[ptr_11] * wgt_11;
+                else weight -= wgt_11;
+
+                if (weight >= min_wgt) out_data[out_index] = (float) (sum / weight);
+                else out_data[out_index] = blank_val;
+
+
+    /* +++++++++++++++++++++++++++++++++++++
+    if (n1==0)  {
+    printf("n1= %d  n2=%d\n",n1,n2);
+    printf("x_val[n1] = %f   y_val[n1] = %f\n",x_val[n1],y_val[n1]);
+    printf("x_float = %f   y_float = %f\n",x_float,y_float);
+    printf("x_coord = %d   y_coord = %d\n",x_coord,y_coord);
+    printf("x_frac = %f   y_frac = %f\n",x_frac,y_frac);
+    printf("ptr_00=%d  ptr_01=%d  ptr_10=%d  ptr_11=%d\n",
+      ptr_00,ptr_01,ptr_10,ptr_11);
+    printf("*ptr_00=%g  *ptr_01=%g  *ptr_10=%g  *ptr_11=%g\n",
+      *ptr_00,*ptr_01,*ptr_10,*ptr_11);
+    printf("wgt_00=%f  wgt_01=%f  wgt_10=%f  wgt_11=%f\n",
+      wgt_00,wgt_01,wgt_10,wgt_11);
+    printf("sum = %g   weight = %f   out_data[n1] = %g\n",
+       sum, weight, out_data[n1]);
+    }
+    ++++++++++++++++++++++++++++++++ */
+
+
+            } /* end for n1 */
+
+        } /* end bin_bilinear */
+    }
+
+
+    /**
+     * Map the given output pixel to the input image, the same as tie points are mapped.
+     *
+     * @param out_n1 the output pixel x, zero based
+     * @param out_n2 the output pixel y, zero based
+     * @param in_xy  gets the input x and y, in the units used by the bin functions
+     * @return false if the pixel has no position in the input image
+     */
+    private boolean map_point(double out_n1, double out_n2, double in_xy[]) {
+        try {
+            WorldPt world_pt = out_proj.getWorldCoords(out_n1, out_n2);
+            if (!out_coordinate_sys.equals(in_coordinate_sys)) {
+                synchronized (convertLock) {        // the astro.conv routines cache in statics
+                    world_pt = Plot.convert(world_pt, in_coordinate_sys);
+                }
             }
+            ProjectionPt image_pt = in_proj.getImageCoords(world_pt.getX(), world_pt.getY());
+            in_xy[0] = image_pt.getFsamp() + 1;
+            in_xy[1] = image_pt.getFline() + 1;
+            return !Double.isNaN(in_xy[0]) && !Double.isNaN(in_xy[1]);
+        } catch (ProjectionException pe) {
+            if (SUTDebug.isDebug()) {
+                System.out.println("got ProjectionException: " +
+                        pe.getMessage());
+            }
+            return false;
+        }
+    }
 
-            sum = 0.0;
-            weight = 1.0;
-            if (ptr_00 >= 0) sum += in_data[ptr_00] * wgt_00;
-            else weight -= wgt_00;
-            if (ptr_10 >= 0) sum += in_data[ptr_10] * wgt_10;
-            else weight -= wgt_10;
-            if (ptr_01 >= 0) sum += in_data[ptr_01] * wgt_01;
-            else weight -= wgt_01;
-            if (ptr_11 >= 0) sum += in_data[ptr_11] * wgt_11;
-            else weight -= wgt_11;
-
-            if (weight >= min_wgt) out_data[out_index] = (float) (sum / weight);
-            else out_data[out_index] = blank_val;
-
-
-/* +++++++++++++++++++++++++++++++++++++
-if (n1==0)  {
-printf("n1= %d  n2=%d\n",n1,n2);
-printf("x_val[n1] = %f   y_val[n1] = %f\n",x_val[n1],y_val[n1]);
-printf("x_float = %f   y_float = %f\n",x_float,y_float);
-printf("x_coord = %d   y_coord = %d\n",x_coord,y_coord);
-printf("x_frac = %f   y_frac = %f\n",x_frac,y_frac);
-printf("ptr_00=%d  ptr_01=%d  ptr_10=%d  ptr_11=%d\n",
-  ptr_00,ptr_01,ptr_10,ptr_11);
-printf("*ptr_00=%g  *ptr_01=%g  *ptr_10=%g  *ptr_11=%g\n",
-  *ptr_00,*ptr_01,*ptr_10,*ptr_11);
-printf("wgt_00=%f  wgt_01=%f  wgt_10=%f  wgt_11=%f\n",
-  wgt_00,wgt_01,wgt_10,wgt_11);
-printf("sum = %g   weight = %f   out_data[n1] = %g\n",
-   sum, weight, out_data[n1]);
-}
-++++++++++++++++++++++++++++++++ */
+
+    /**
+     * When both images are linear, or gnomonic about the same tangent point, without distortion, the input
+     * pixel is an affine function of the output pixel, i.e. when an image is rotated or rescaled about its
+     * tangent point.  Fit it from the corners and check it on a grid of exact points.
+     *
+     * @return x0, dx/dn1, dx/dn2, y0, dy/dn1, dy/dn2; or null when the mapping is not affine
+     */
+    private double[] find_affine() {
+        ProjectionParams in_params = in_proj.getProjectionParams();
+        ProjectionParams out_params = out_proj.getProjectionParams();
+        if (in_params.map_distortion || out_params.map_distortion) return null;
+        if (!isLinearOrTan(in_params.maptype) || !isLinearOrTan(out_params.maptype)) return null;
+
+        double last1 = out_naxis1 - 1;
+        double last2 = out_naxis2 - 1;
+        double p00[] = new double[2], p10[] = new double[2], p01[] = new double[2], p[] = new double[2];
+        if (!map_point(0, 0, p00) || !map_point(last1, 0, p10) || !map_point(0, last2, p01)) return null;
+        double a[] = {
+                p00[0], (p10[0] - p00[0]) / last1, (p01[0] - p00[0]) / last2,
+                p00[1], (p10[1] - p00[1]) / last1, (p01[1] - p00[1]) / last2};
+
+        int steps = 8;
+        for (int j = 0; j <= steps; j++) {
+            for (int i = 0; i <= steps; i++) {
+                double n1 = last1 * i / steps;
+                double n2 = last2 * j / steps;
+                if (!map_point(n1, n2, p)) return null;
+                if (Math.abs(a[0] + a[1] * n1 + a[2] * n2 - p[0]) > affine_tolerance ||
+                        Math.abs(a[3] + a[4] * n1 + a[5] * n2 - p[1]) > affine_tolerance) {
+                    return null;
+                }
+            }
+        }
+        return a;
+    }
+
+    private static boolean isLinearOrTan(int maptype) {
+        return maptype == Projection.LINEAR || maptype == Projection.GNOMONIC;
+    }
 
 
-        } /* end for n1 */
+    /**
+     * Compute the output image in bands of lines.  Large images are computed in parallel.
+     */
+    private void compute_bands() throws GeomException {
+        affine = find_affine();
+        int bands = 1;
+        if ((long) out_naxis1 * out_naxis2 >= min_parallel_pixels) {
+            bands = Runtime.getRuntime().availableProcessors() * 4;
+        }
+        int tie_lines = (out_naxis2 + tie_skip - 1) / tie_skip;
+        int band_lines = tie_skip * Math.max(1, (tie_lines + bands - 1) / bands);
 
-    } /* end bin_bilinear */
+        List<RowBand> rowBands = new ArrayList<>();
+        for (int first = 0; first < out_naxis2; first += band_lines) {
+            rowBands.add(new RowBand(first, Math.min(first + band_lines, out_naxis2)));
+        }
+        if (rowBands.size() == 1) {
+            rowBands.get(0).compute();
+            return;
+        }
+
+        List<Callable<Object>> tasks = new ArrayList<>(rowBands.size());
+        for (RowBand band : rowBands) tasks.add(Executors.callable(band::compute));
+        try {
+            for (Future<Object> f : bandExec.invokeAll(tasks)) f.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new GeomException("Reprojection was interrupted", out_naxis1, out_naxis2);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) throw (RuntimeException) e.getCause();
+            throw new IllegalStateException(e.getCause());
+        }
+    }
 
 
     /**
@@ -1559,24 +1689,7 @@ printf("sum = %g   weight = %f   out_data[n1] = %g\n",
         out_proj = out_header.createProjection(out_coordinate_sys);
 
         out_data = new float[out_naxis1 * out_naxis2];
-        x_val = new double[out_naxis1];
-        y_val = new double[out_naxis1];
-        x_next = new double[out_naxis1];
-        y_next = new double[out_naxis1];
-        x_dd = new double[out_naxis1];
-        y_dd = new double[out_naxis1];
-
-
-        for (n2 = 0; n2 < out_naxis2; n2++) {
-            compute_geom_line();
-
-            if (interp_flag)
-                bin_bilinear();
-            else
-                bin_nearest_neighbor();
-
-            //im_wpix_r(out_fid, out_data, out_naxis1);
-        }
+        compute_bands();
 
         Fits newFits = write_pixels();
 
@@ -33,10 +33,9 @@ public class ImageStretch {
                                          int lastPixel,
                                          int startLine,
                                          int lastLine ) {
-        double slow = getSlow(rangeValues, float1d, imageHeader, hist);
-        double shigh = getShigh(rangeValues, float1d, imageHeader, hist);
-        stretchPixelsByBand(startPixel, lastPixel, startLine, lastLine, imageHeader.naxis1, hist,
-                (byte)255, float1d, pixelData, rangeValues,slow,shigh);
+        double[] range = getRange(rangeValues, float1d, imageHeader, hist);
+        stretchTile8Bit(rangeValues, float1d, pixelData, 0, false, imageHeader, hist, range,
+                        startPixel, lastPixel, startLine, lastLine);
     }
 
     public static void stretchPixels3Color(RangeValues rangeValuesAry[],
@@ -53,21 +52,125 @@ public class ImageStretch {
         if (float1dAry.length!=3 || imageHeaderAry.length!=3 || histAry.length!=3) {
             throw new IllegalArgumentException("float1dAry, imageHeaderAry, histAry must be exactly 3 elements, some can be null ");
         }
+        double[][] rangeAry = new double[3][];
+        for(int i=0; (i<float1dAry.length); i++) {
+            if (float1dAry[i]!=null) {
+                rangeAry[i] = getRange(rangeValuesAry[i], float1dAry[i], imageHeaderAry[i], histAry[i]);
+            }
+            else if (!isHuePreserving(rangeValuesAry[0])) {
+                Arrays.fill(pixelDataAry[i], (byte)0);
+            }
+        }
+        double[] intensityRange = isHuePreserving(rangeValuesAry[0]) ? getIntensityRange(rangeValuesAry, rgbIntensity) : null;
+        stretchTile3Color(rangeValuesAry, float1dAry, pixelDataAry, new int[3], false, imageHeaderAry, histAry,
+                          rangeAry, rgbIntensity, intensityRange, startPixel, lastPixel, startLine, lastLine);
+    }
+
+    /**
+     * Compute the intensity range of a hue preserving stretch, and the asinh Q value if it is not set.
+     * The asinh stretch and Q value used are saved in all of the range values.  Like getRange, call it once
+     * per image, before any tile is stretched; the tiles only read the range values.
+     * @return a two elements array; the lower and upper range for intensity
+     */
+    public static double[] getIntensityRange(RangeValues[] rangeValuesAry, RGBIntensity rgbIntensity) {
+        RangeValues rv = rangeValuesAry[0];
+
+        // should we use z-scale to calculate intensity slow and shigh values
+        boolean useZ = rv.getLowerWhich()==RangeValues.ZSCALE || !Double.isFinite(rv.getAsinhStretch());
+        double slow = useZ ? rgbIntensity.getIntensityLow() : rgbIntensity.getIntensityDataLow(); // lower range for intensity
+        double stretch = useZ ? rgbIntensity.getIntensityHigh()-rgbIntensity.getIntensityLow() : rv.getAsinhStretch();
+
+        if (!useZ) {
+            double intensityRange = rgbIntensity.getIntensityDataHigh()-slow;
+            if (stretch > intensityRange && intensityRange > 0) {
+                stretch = intensityRange;
+            } else if (stretch < 1e-10) {
+                stretch = 1e-10;
+            }
+        }
+
+        double shigh = slow + stretch; // upper range for intensity
+
+        double qvalue = rv.getAsinhQValue();
+        if (!Double.isFinite(qvalue)) {
+            double minFlux = Double.isFinite(slow) ? slow : rgbIntensity.getIntensityDataLow();
+            double maxFlux = Double.isFinite(shigh) ? shigh : rgbIntensity.getIntensityDataHigh();
+            qvalue = getDefaultAsinhQ(minFlux, maxFlux, rgbIntensity.getIntensityDataHigh());
+        }
+        for (RangeValues anRV : rangeValuesAry) {
+            anRV.setAsinhQValue(qvalue);
+            anRV.setAsinhStretch(stretch);
+        }
+        return new double[] {slow, shigh};
+    }
+
+    /**
+     * Compute the lower and upper range of the stretch.  Computing it once per image instead of
+     * once per tile avoids repeating expensive computations, i.e. zscale.
+     * @return a two elements array; slow and shigh
+     */
+    public static double[] getRange(RangeValues rangeValues, float[] float1d, ImageHeader imageHeader, Histogram hist) {
+        return new double[] {getSlow(rangeValues, float1d, imageHeader, hist),
+                             getShigh(rangeValues, float1d, imageHeader, hist)};
+    }
+
+    /**
+     * Stretch a tile of an 8 bit image into a part of a larger output buffer.
+     * The tile coordinates are in the output's orientation.  When flipY is set, the output is upside down
+     * compared to float1d; line 0 of the output is read from the last line of float1d.
+     * @param pixelData the output buffer
+     * @param pixelOffset where in pixelData to write this tile
+     * @param flipY true to read the lines of float1d from the bottom up
+     * @param range slow and shigh, from getRange
+     */
+    public static void stretchTile8Bit(RangeValues rangeValues,
+                                       float[] float1d,
+                                       byte[] pixelData,
+                                       int pixelOffset,
+                                       boolean flipY,
+                                       ImageHeader imageHeader,
+                                       Histogram hist,
+                                       double[] range,
+                                       int startPixel,
+                                       int lastPixel,
+                                       int startLine,
+                                       int lastLine ) {
+        Lines lines = new Lines(startPixel, lastPixel, startLine, lastLine, imageHeader.naxis1, imageHeader.naxis2, flipY);
+        stretchPixelsByBand(lines, hist, (byte)255, float1d, pixelData, pixelOffset, rangeValues, range[0], range[1]);
+    }
+
+    /**
+     * Stretch a tile of a 3 color image.  Each band is written to pixelDataAry[i] starting at pixelOffsetAry[i].
+     * Bands without data are skipped.
+     * @param intensityRange from getIntensityRange when the stretch is hue preserving, otherwise not used
+     * @see #stretchTile8Bit
+     */
+    public static void stretchTile3Color(RangeValues rangeValuesAry[],
+                                         float[][] float1dAry,
+                                         byte[][] pixelDataAry,
+                                         int[] pixelOffsetAry,
+                                         boolean flipY,
+                                         ImageHeader[] imageHeaderAry,
+                                         Histogram[] histAry,
+                                         double[][] rangeAry,
+                                         RGBIntensity rgbIntensity,
+                                         double[] intensityRange,
+                                         int startPixel,
+                                         int lastPixel,
+                                         int startLine,
+                                         int lastLine ) {
 
         if (isHuePreserving(rangeValuesAry[0])) {
-            stretchPixelsHuePreserving(startPixel, lastPixel, startLine, lastLine, imageHeaderAry, histAry,
-                    rgbIntensity, float1dAry, pixelDataAry, rangeValuesAry);
+            stretchPixelsHuePreserving(startPixel, lastPixel, startLine, lastLine, flipY, imageHeaderAry, histAry,
+                    rgbIntensity, intensityRange, float1dAry, pixelDataAry, pixelOffsetAry, rangeValuesAry, rangeAry);
         }
         else {
             for(int i=0; (i<float1dAry.length); i++) {
                 if (float1dAry[i]!=null) {
-                    double slow = getSlow(rangeValuesAry[i], float1dAry[i], imageHeaderAry[i], histAry[i]);
-                    double shigh = getShigh(rangeValuesAry[i], float1dAry[i], imageHeaderAry[i], histAry[i]);
-                    stretchPixelsByBand(startPixel, lastPixel, startLine, lastLine,imageHeaderAry[i].naxis1, histAry[i],
-                            (byte)0, float1dAry[i], pixelDataAry[i], rangeValuesAry[i],slow,shigh);
-                }
-                else {
-                    Arrays.fill(pixelDataAry[i], (byte)0);
+                    Lines lines = new Lines(startPixel, lastPixel, startLine, lastLine,
+                                            imageHeaderAry[i].naxis1, imageHeaderAry[i].naxis2, flipY);
+                    stretchPixelsByBand(lines, histAry[i], (byte)0, float1dAry[i], pixelDataAry[i], pixelOffsetAry[i],
+                            rangeValuesAry[i], rangeAry[i][0], rangeAry[i][1]);
                 }
             }
         }
@@ -78,10 +181,13 @@ public class ImageStretch {
                                                   int lastPixel,
                                                   int startLine,
                                                   int lastLine,
+                                                  boolean flipY,
                                                   ImageHeader[] imageHeaderAry,
                                                   Histogram[] histAry,
                                                   RGBIntensity rgbIntensity,
-                                                  float[][]float1dAry, byte[][] pixelDataAry, RangeValues[] rangeValuesAry) {
+                                                  double[] intensityRange,
+                                                  float[][]float1dAry, byte[][] pixelDataAry, int[] pixelOffsetAry,
+                                                  RangeValues[] rangeValuesAry, double[][] rangeAry) {
 
         for (int i = 0; (i < float1dAry.length); i++) {
             if (float1dAry[i] == null || imageHeaderAry[i] == null || histAry[i] == null) {
@@ -100,23 +206,22 @@ public class ImageStretch {
         double [] slowAry = new double[3];
         for(int i=0; i<3; i++) {
             blankPxValAry[i]= imageHeaderAry[i].blank_value;
-            slowAry[i] = getSlow(rangeValuesAry[i], float1dAry[i], imageHeaderAry[i], histAry[i]);
-            slowAry[i] = getScaled(slowAry[i], imageHeaderAry[i], rangeValuesAry[i]);
+            slowAry[i] = getScaled(rangeAry[i][0], imageHeaderAry[i], rangeValuesAry[i]);
         }
 
-        // recreate an array of intensities (the part that will be used)
-        int naxis1 = imageHeaderAry[0].naxis1;
-        float [] intensity = new float[float1dAry[0].length];
+        // create an array of intensities of this tile only
+        Lines lines = new Lines(startPixel, lastPixel, startLine, lastLine, imageHeaderAry[0].naxis1, imageHeaderAry[0].naxis2, flipY);
+        float [] intensity = new float[lines.getPixelCount()];
         Arrays.fill(intensity, Float.NaN);
         int pixelCount = 0;
         for (int line = startLine; line <= lastLine; line++) {
-            int start_index = line * naxis1 + startPixel;
-            int last_index = line * naxis1 + lastPixel;
+            int start_index = lines.getStartIndex(line);
+            int last_index = start_index + lastPixel - startPixel;
 
             for (int index = start_index; index <= last_index; index++) {
                 
                 if (float1dAry[0][index] != blankPxValAry[0] && float1dAry[1][index] != blankPxValAry[1] && float1dAry[2][index] != blankPxValAry[1]) {
-                    intensity[index] = RGBIntensity.computeIntensity(index, float1dAry, imageHeaderAry, slowAry, rangeValuesAry);
+                    intensity[pixelCount] = RGBIntensity.computeIntensity(index, float1dAry, imageHeaderAry, slowAry, rangeValuesAry);
                 }
                 pixelCount++;
             }
@@ -127,30 +232,11 @@ public class ImageStretch {
         // stretch an array of intensities
         byte[] pixelData = new byte[pixelCount];
 
-        // should we use z-scale to calculate intensity slow and shigh values
-        boolean useZ = rangeValuesAry[0].getLowerWhich()==RangeValues.ZSCALE || !Double.isFinite(rangeValuesAry[0].getAsinhStretch());
-        double slow = useZ ? rgbIntensity.getIntensityLow() : rgbIntensity.getIntensityDataLow(); // lower range for intensity
-        double stretch = useZ ? rgbIntensity.getIntensityHigh()-rgbIntensity.getIntensityLow() : rv.getAsinhStretch();
-
-        if (!useZ) {
-            double intensityRange = rgbIntensity.getIntensityDataHigh()-slow;
-            if (stretch > intensityRange && intensityRange > 0) {
-                stretch = intensityRange;
-            } else if (stretch < 1e-10) {
-                stretch = 1e-10;
-            }
-        }
-
-        double shigh = slow + stretch; // upper range for intensity
-
         // for three color we use 0 as blank pixel value
-        stretchPixelsUsingAsinh( startPixel, lastPixel,startLine,lastLine, naxis1,
+        // the Q value is already set by getIntensityRange, so the range values are not modified here
+        stretchPixelsUsingAsinh(new Lines(0, pixelCount-1, 0, 0, pixelCount, 1, false),
                 rgbIntensity.getIntensityDataLow(), rgbIntensity.getIntensityDataHigh(),
-                (byte)0, intensity, pixelData, rv, slow, shigh);
-        for (RangeValues anRV : rangeValuesAry) {
-            anRV.setAsinhQValue(rv.getAsinhQValue());
-            anRV.setAsinhStretch(stretch);
-        }
+                (byte)0, intensity, pixelData, 0, rv, intensityRange[0], intensityRange[1]);
 
         // fill pixel data for each band
         pixelCount = 0;
@@ -159,8 +245,8 @@ public class ImageStretch {
         float maxv; // max value
         double flux;
         for (int line = startLine; line <= lastLine; line++) {
-            int start_index = line * naxis1 + startPixel;
-            int last_index = line * naxis1 + lastPixel;
+            int start_index = lines.getStartIndex(line);
+            int last_index = start_index + lastPixel - startPixel;
 
             for (int index = start_index; index <= last_index; index++) {
                 maxv = 0;
@@ -169,7 +255,7 @@ public class ImageStretch {
                     if (flux < 0 || Double.isNaN(flux)) {
                         rgb[c] = 0;
                     } else {
-                        rgb[c] = (0xFF&pixelData[pixelCount])*((float)flux)/intensity[index];
+                        rgb[c] = (0xFF&pixelData[pixelCount])*((float)flux)/intensity[pixelCount];
                         if (rgb[c]>maxv) {
                             maxv = rgb[c];
                         }
@@ -180,14 +266,46 @@ public class ImageStretch {
                     rgb[1] = pixmax * rgb[1] / maxv;
                     rgb[2] = pixmax * rgb[2] / maxv;
                 }
-                pixelDataAry[0][pixelCount] = (byte)rgb[0];
-                pixelDataAry[1][pixelCount] = (byte)rgb[1];
-                pixelDataAry[2][pixelCount] = (byte)rgb[2];
+                pixelDataAry[0][pixelOffsetAry[0] + pixelCount] = (byte)rgb[0];
+                pixelDataAry[1][pixelOffsetAry[1] + pixelCount] = (byte)rgb[1];
+                pixelDataAry[2][pixelOffsetAry[2] + pixelCount] = (byte)rgb[2];
                 pixelCount++;
             }
         }
     }
 
+    /**
+     * The lines of a tile and where they start in the image's data.
+     */
+    private static class Lines {
+        final int startPixel;
+        final int lastPixel;
+        final int startLine;
+        final int lastLine;
+        final int naxis1;
+        final int naxis2;
+        final boolean flipY;
+
+        Lines(int startPixel, int lastPixel, int startLine, int lastLine, int naxis1, int naxis2, boolean flipY) {
+            this.startPixel = startPixel;
+            this.lastPixel = lastPixel;
+            this.startLine = startLine;
+            this.lastLine = lastLine;
+            this.naxis1 = naxis1;
+            this.naxis2 = naxis2;
+            this.flipY = flipY;
+        }
+
+        /** @return index of the first pixel of this tile on the given line */
+        int getStartIndex(int line) {
+            return (flipY ? naxis2 - 1 - line : line) * naxis1 + startPixel;
+        }
+
+        int getPixelCount() {
+            return (lastPixel - startPixel + 1) * (lastLine - startLine + 1);
+        }
+    }
+
     /**
      * A pixel is a cell or small rectangle which stores the information the computer can handle. A discrete pixels make the map.
      * Each pixel store a value which represents the color of the map.
@@ -199,21 +317,16 @@ public class ImageStretch {
      * other values in between change accordingly (using the same formula). As 0 is by default displayed in black, and 255 in white, the
      * contrast will be better when the image is displayed.
      *
-     * @param startPixel (tile info) start pixel in each line
-     * @param lastPixel (tile info) end pixel in each line
-     * @param startLine (tile info) start line
-     * @param lastLine (tile info) end line
+     * @param lines (tile info) the lines of the tile
      * @param blank_pixel_value blank pixel value
+     * @param pixelOffset where in pixeldata to write the tile
      */
-    private static void stretchPixelsByBand(int startPixel,
-                                           int lastPixel,
-                                           int startLine,
-                                           int lastLine,
-                                           int naxis1,
+    private static void stretchPixelsByBand(Lines lines,
                                            Histogram hist,
                                            byte blank_pixel_value,
                                            float[] float1dArray,
                                            byte[] pixeldata,
+                                           int pixelOffset,
                                            RangeValues rangeValues,
                                            double slow,
                                            double shigh) {
@@ -225,14 +338,14 @@ public class ImageStretch {
          * stretch algorithm
          */
         if (rangeValues.getStretchAlgorithm()==RangeValues.STRETCH_ASINH) {
-            stretchPixelsUsingAsinh( startPixel, lastPixel,startLine,lastLine, naxis1, hist.getDNMin(), hist.getDNMax(),
-                    blank_pixel_value, float1dArray, pixeldata, rangeValues,slow,shigh);
+            stretchPixelsUsingAsinh(lines, hist.getDNMin(), hist.getDNMax(),
+                    blank_pixel_value, float1dArray, pixeldata, pixelOffset, rangeValues,slow,shigh);
 
 
         }
         else {
-            stretchPixelsUsingOtherAlgorithms(startPixel, lastPixel, startLine, lastLine,naxis1, hist,
-                    blank_pixel_value,float1dArray, pixeldata, rangeValues, slow, shigh);
+            stretchPixelsUsingOtherAlgorithms(lines, hist,
+                    blank_pixel_value,float1dArray, pixeldata, pixelOffset, rangeValues, slow, shigh);
         }
     }
 
@@ -261,15 +374,12 @@ public class ImageStretch {
 
     }
 
-    private static void stretchPixelsUsingOtherAlgorithms(int startPixel,
-                                                         int lastPixel,
-                                                         int startLine,
-                                                         int lastLine,
-                                                         int naxis1,
+    private static void stretchPixelsUsingOtherAlgorithms(Lines lines,
                                                          Histogram hist,
                                                          byte blank_pixel_value,
                                                          float[] float1dArray,
                                                          byte[] pixeldata,
+                                                         int pixelOffset,
                                                          RangeValues rangeValues,
                                                          double slow,
                                                          double shigh){
@@ -293,10 +403,10 @@ public class ImageStretch {
         int deltasav = sdiff > 0 ? 64 : -64;
 
         double gamma=rangeValues.getGammaValue();
-        int pixelCount = 0;
-        for (int line = startLine; line <= lastLine; line++) {
-            int start_index = line * naxis1 + startPixel;
-            int last_index = line * naxis1 + lastPixel;
+        int pixelCount = pixelOffset;
+        for (int line = lines.startLine; line <= lines.lastLine; line++) {
+            int start_index = lines.getStartIndex(line);
+            int last_index = start_index + lines.lastPixel - lines.startPixel;
 
             for (int index = start_index; index <= last_index; index++) {
 
@@ -438,16 +548,13 @@ public class ImageStretch {
         return dtbl;
     }
 
-    private static void stretchPixelsUsingAsinh(int startPixel,
-                                                int lastPixel,
-                                                int startLine,
-                                                int lastLine,
-                                                int naxis1,
+    private static void stretchPixelsUsingAsinh(Lines lines,
                                                 double dnmin,
                                                 double dnmax,
                                                 byte blank_pixel_value,
                                                 float[] float1dArray,
                                                 byte[] pixeldata,
+                                                int pixelOffset,
                                                 RangeValues rangeValues,
                                                 double slow,
                                                 double shigh){
@@ -477,12 +584,12 @@ public class ImageStretch {
             rangeValues.setAsinhQValue(qvalue);
         }
 
-        int pixelCount = 0;
+        int pixelCount = pixelOffset;
         double flux;
 
-        for (int line = startLine; line <= lastLine; line++) {
-            int start_index = line * naxis1 + startPixel;
-            int last_index = line * naxis1 + lastPixel;
+        for (int line = lines.startLine; line <= lines.lastLine; line++) {
+            int start_index = lines.getStartIndex(line);
+            int last_index = start_index + lines.lastPixel - lines.startPixel;
             for (int index = start_index; index <= last_index; index++) {
                 flux = float1dArray[index];
                 if (Double.isNaN(flux)) { // if original pixel value is NaN, assign it to blank
@@ -580,10 +687,9 @@ public class ImageStretch {
         int naxis1 = 1;
         byte blank_pixel_value = 0;
 
-        stretchPixelsByBand(start_pixel, last_pixel,
-                start_line, last_line, naxis1, hist,
+        stretchPixelsByBand(new Lines(start_pixel, last_pixel, start_line, last_line, naxis1, 1, false), hist,
                 blank_pixel_value, hist_bin_values,
-                pixeldata,  rangeValues, slow, shigh);
+                pixeldata, 0, rangeValues, slow, shigh);
 
         return pixeldata;
     }
@@ -0,0 +1,230 @@
+/*
+ * License information at https://github.com/Caltech-IPAC/firefly/blob/master/License.txt
+ */
+package edu.caltech.ipac.visualize.plot.plotdata;
+
+import edu.caltech.ipac.util.AppProperties;
+import nom.tam.fits.BasicHDU;
+import nom.tam.fits.FitsException;
+import nom.tam.fits.Header;
+import nom.tam.fits.ImageData;
+import nom.tam.fits.ImageHDU;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * The pixels of one plane of an uncompressed FITS image, read directly from a memory mapped file.
+ * The mapped pages belong to the OS file cache, not to the heap, so a FitsRead backed by this class
+ * only needs a float array while the pixels are actually being used.
+ *
+ * Pixels are indexed the same way as the array returned by {@link FitsReadUtil#getImageHDUDataInFloatArray},
+ * including the reversed lines when CDELT2 is negative.  Values are the raw values from the file, BSCALE and BZERO
+ * are applied by {@link #getPhysical(int)}.
+ */
+public class MappedPixelData {
+
+    public static final String MMAP_PROP = "visualize.fits.mmap";
+    private static final long MAX_REGION = Integer.MAX_VALUE;
+
+    private final File file;
+    private final int bitpix;
+    private final int bytesPerPixel;
+    private final int naxis1;
+    private final int naxis2;
+    private final boolean reverseLines;
+    private final double bscale;
+    private final double bzero;
+    private final int linesPerRegion;
+    private final MappedByteBuffer[] regions;
+
+    private MappedPixelData(File file, long planeOffset, Header header) throws IOException {
+        this(file, planeOffset, header.getIntValue("BITPIX"), header.getIntValue("NAXIS1"), header.getIntValue("NAXIS2"),
+             header.getDoubleValue("CDELT2") < 0, header.getDoubleValue("BSCALE", 1.0), header.getDoubleValue("BZERO", 0.0));
+    }
+
+    private MappedPixelData(File file, long planeOffset, int bitpix, int naxis1, int naxis2,
+                            boolean reverseLines, double bscale, double bzero) throws IOException {
+        this.file = file;
+        this.bitpix = bitpix;
+        bytesPerPixel = Math.abs(bitpix) / 8;
+        this.naxis1 = naxis1;
+        this.naxis2 = naxis2;
+        this.reverseLines = reverseLines;
+        this.bscale = bscale;
+        this.bzero = bzero;
+
+        long lineSize = (long) naxis1 * bytesPerPixel;
+        linesPerRegion = (int) Math.min(naxis2, MAX_REGION / lineSize);
+        regions = new MappedByteBuffer[(naxis2 + linesPerRegion - 1) / linesPerRegion];
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r"); FileChannel channel = raf.getChannel()) {
+            for (int i = 0; i < regions.length; i++) {
+                long firstLine = (long) i * linesPerRegion;
+                long lines = Math.min(linesPerRegion, naxis2 - firstLine);
+                regions[i] = channel.map(FileChannel.MapMode.READ_ONLY,
+                                         planeOffset + firstLine * lineSize, lines * lineSize);
+            }
+        }
+    }
+
+    /**
+     * Map one plane of an image HDU.
+     * @param file the FITS file the HDU was read from
+     * @param hdu an uncompressed image HDU, see {@link #canMap(BasicHDU)}
+     * @param plane the plane of a cube, 0 if the HDU is not a cube
+     * @return the mapped pixels
+     * @throws FitsException if the file cannot be mapped
+     */
+    public static MappedPixelData map(File file, BasicHDU<?> hdu, int plane) throws FitsException {
+        Header header = hdu.getHeader();
+        long planeSize = (long) header.getIntValue("NAXIS1") * header.getIntValue("NAXIS2") *
+                         (Math.abs(header.getIntValue("BITPIX")) / 8);
+        try {
+            return new MappedPixelData(file, hdu.getData().getFileOffset() + plane * planeSize, header);
+        } catch (IOException e) {
+            throw new FitsException("Could not map " + file.getName() + ": " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Write an array of pixels to a file, then map the file.  Used to move pixels that were read into memory,
+     * i.e. from a compressed image, off of the heap.
+     * @param float1d the raw pixel values
+     * @param naxis1 the width of the image
+     * @param naxis2 the height of the image
+     * @param bscale BSCALE of the image
+     * @param bzero BZERO of the image
+     * @param file the file to write, it is overwritten
+     * @return the mapped pixels
+     * @throws IOException if the file cannot be written or mapped
+     */
+    public static MappedPixelData spill(float[] float1d, int naxis1, int naxis2,
+                                        double bscale, double bzero, File file) throws IOException {
+        long lineSize = naxis1 * 4L;
+        ByteBuffer buf = ByteBuffer.allocate((int) Math.min(MAX_REGION, lineSize * Math.max(1, (1 << 20) / lineSize)));
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw"); FileChannel channel = raf.getChannel()) {
+            raf.setLength(0);
+            for (int i = 0; i < float1d.length; ) {
+                buf.clear();
+                int len = Math.min(buf.capacity() / 4, float1d.length - i);
+                buf.asFloatBuffer().put(float1d, i, len);
+                buf.limit(len * 4);
+                while (buf.hasRemaining()) channel.write(buf);
+                i += len;
+            }
+        }
+        return new MappedPixelData(file, 0, -32, naxis1, naxis2, false, bscale, bzero);
+    }
+
+    /**
+     * @param hdu the HDU
+     * @return true if the pixels of this HDU can be read directly from the file.  Only uncompressed images
+     * that are stored in the file are mapped.  BITPIX 8 images are small and are always read into memory.
+     */
+    public static boolean canMap(BasicHDU<?> hdu) {
+        if (!AppProperties.getBooleanProperty(MMAP_PROP, true)) return false;
+        if (!(hdu instanceof ImageHDU) || !(hdu.getData() instanceof ImageData)) return false;
+        Header header = hdu.getHeader();
+        int bitpix = header.getIntValue("BITPIX", 0);
+        int naxis = header.getIntValue("NAXIS", 0);
+        return (bitpix == 16 || bitpix == 32 || bitpix == -32 || bitpix == -64) &&
+                naxis >= 2 && naxis <= 4 &&
+                header.getIntValue("NAXIS4", 1) == 1 &&
+                hdu.getData().getFileOffset() > 0;
+    }
+
+    public File getFile() { return file; }
+
+    public int size() { return naxis1 * naxis2; }
+
+    /**
+     * @param index the pixel index, y*naxis1+x
+     * @return the raw value of the pixel, as it is stored in the file
+     */
+    public float getRaw(int index) {
+        int line = index / naxis1;
+        int x = index - line * naxis1;
+        if (reverseLines) line = naxis2 - line - 1;
+        ByteBuffer region = regions[line / linesPerRegion];
+        int pos = (int) (((long) (line % linesPerRegion) * naxis1 + x) * bytesPerPixel);
+        switch (bitpix) {
+            case 16:  return region.getShort(pos);
+            case 32:  return region.getInt(pos);
+            case -32: return region.getFloat(pos);
+            case -64: return (float) region.getDouble(pos);
+            default:  return Float.NaN;
+        }
+    }
+
+    /**
+     * @param index the pixel index, y*naxis1+x
+     * @return the physical value of the pixel, BZERO + BSCALE * raw value
+     */
+    public double getPhysical(int index) {
+        return bzero + bscale * getRaw(index);
+    }
+
+    /**
+     * Read a run of pixels, in the order of {@link #toFloatArray()}, without reading the rest of the image.
+     * @param from the index of the first pixel, y*naxis1+x
+     * @param dest the array to fill, starting at 0
+     * @param len the number of pixels to read, it may go over many lines
+     */
+    public void read(int from, float[] dest, int len) {
+        for (int pos = 0; pos < len; ) {
+            int line = (from + pos) / naxis1;
+            int x = from + pos - line * naxis1;
+            int cnt = Math.min(naxis1 - x, len - pos);
+            readLine(line, x, cnt, dest, pos);
+            pos += cnt;
+        }
+    }
+
+    /**
+     * Read a rectangle of pixels, without reading the rest of the image.
+     * @param x the first pixel of each line
+     * @param y the first line
+     * @param width the number of pixels of each line
+     * @param height the number of lines
+     * @param dest the array to fill line by line, starting at 0.  Its lines are in the same order as the image.
+     */
+    public void read(int x, int y, int width, int height, float[] dest) {
+        for (int i = 0; i < height; i++) readLine(y + i, x, width, dest, i * width);
+    }
+
+    /**
+     * Read all of the pixels into a new array.  The array is the same as the one returned by
+     * {@link FitsReadUtil#getImageHDUDataInFloatArray}.
+     * @return the raw values of every pixel
+     */
+    public float[] toFloatArray() {
+        float[] float1d = new float[naxis1 * naxis2];
+        for (int line = 0; line < naxis2; line++) readLine(line, 0, naxis1, float1d, line * naxis1);
+        return float1d;
+    }
+
+    private void readLine(int line, int x, int cnt, float[] dest, int destPos) {
+        int fileLine = reverseLines ? naxis2 - line - 1 : line;
+        ByteBuffer buf = regions[fileLine / linesPerRegion].duplicate();
+        buf.position((int) (((long) (fileLine % linesPerRegion) * naxis1 + x) * bytesPerPixel));
+        int idx = destPos;
+        switch (bitpix) {
+            case 16:
+                for (int i = 0; i < cnt; i++) dest[idx++] = buf.getShort();
+                break;
+            case 32:
+                for (int i = 0; i < cnt; i++) dest[idx++] = buf.getInt();
+                break;
+            case -32:
+                buf.asFloatBuffer().get(dest, idx, cnt);
+                break;
+            case -64:
+                for (int i = 0; i < cnt; i++) dest[idx++] = (float) buf.getDouble();
+                break;
+        }
+    }
+}
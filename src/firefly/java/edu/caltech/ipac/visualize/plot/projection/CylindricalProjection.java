@@ -13,8 +13,6 @@ public class CylindricalProjection{
     static double dtr = Projection.dtr;
     static double rtd = Projection.rtd;
     private static double  WCSTRIG_TOL = 1e-10;
-    private static double celref[] = new double[4];
-    private static double euler[] = new double[5];
 
     static public ProjectionPt RevProject (double lon, double lat,
 	ProjectionParams hdr, boolean useProjException) throws ProjectionException
@@ -46,15 +44,17 @@ public class CylindricalProjection{
 
 	/* Initialize projection parameters. */
 	/* Set reference angles for the native grid. */
+	double celref[] = new double[4];   /* per call, so projecting is thread safe */
+	double euler[] = new double[5];
 	celref[0] =   glong;
 	celref[1] =   glat;
 	celref[2] =   999.0;
 	celref[3] =   999.0;
 
-    boolean celsetSuccess= celset(useProjException);
+    boolean celsetSuccess= celset(celref, euler, useProjException);
     if (!celsetSuccess && !useProjException)  return null;
 
-	result = sphfwd(lon, lat);
+	result = sphfwd(lon, lat, euler);
 	xx = result[0];
 	//yy = result[1];
 	
@@ -150,17 +150,19 @@ public class CylindricalProjection{
 	}
 	/* Initialize projection parameters. */
 	/* Set reference angles for the native grid. */
+	double celref[] = new double[4];   /* per call, so projecting is thread safe */
+	double euler[] = new double[5];
 	celref[0] =   glong;
 	celref[1] =   glat;
 	celref[2] =   999.0;
 	celref[3] =   999.0;
 
-    boolean celsetSuccess= celset(useProjException);
+    boolean celsetSuccess= celset(celref, euler, useProjException);
     if (!celsetSuccess && !useProjException)  return null;
 
 	yy = Math.asin(yy * dtr) * rtd;
 
-	result = sphrev(xx, yy);
+	result = sphrev(xx, yy, euler);
 	lon = result[0];
 	lat = result[1];
 
@@ -180,7 +182,7 @@ public class CylindricalProjection{
     }
 
 
-   private static boolean celset(boolean useProjException)  throws ProjectionException
+   private static boolean celset(double celref[], double euler[], boolean useProjException)  throws ProjectionException
 {
    double tol = 1.0e-10;
    double clat0, cphip, cthe0, slat0, sphip, sthe0;
@@ -300,7 +302,7 @@ public class CylindricalProjection{
 
 
 
-private static double[]  sphfwd (double lng, double lat)
+private static double[]  sphfwd (double lng, double lat, double euler[])
 {
     double tol = 1.0e-5;
     double phi, theta;
@@ -360,7 +362,7 @@ private static double[]  sphfwd (double lng, double lat)
 }
 
 
-private static double[]  sphrev (double phi, double theta)
+private static double[]  sphrev (double phi, double theta, double euler[])
 {
     double tol = 1.0e-5;
     double lng, lat;
@@ -287,7 +287,147 @@ public class GnomonicProjection{
 	return (_pt);
     }
 
-}
 
+    /**
+     * RevProject for the points from up to, but not including, to.  The arrays go in as ra and dec and come
+     * out as x and y.  A point more than 90 degrees from the projection center comes out as NaN.
+     */
+    static void RevProject(double[] ra, double[] dec, int from, int to, ProjectionParams hdr)
+    {
+	double rpp1 = -hdr.cdelt1 * dtr;
+	double rpp2 = -hdr.cdelt2 * dtr;
+	double lon0 = hdr.crval1 * dtr;
+	double lat0 = hdr.crval2 * dtr;
+	double sin_lat0 = Math.sin(lat0);
+	double cos_lat0 = Math.cos(lat0);
+	double rtwist = hdr.crota2 * dtr;
+	double cos_twist = Math.cos(rtwist);
+	double sin_twist = Math.sin(rtwist);
+	boolean using_cd = hdr.using_cd;
+
+	for (int k = from; k < to; k++)
+	{
+	    double lon = ra[k] * dtr;
+	    double lat = dec[k] * dtr;
+	    double sin_lat = Math.sin(lat);
+	    double cos_lat = Math.cos(lat);
+	    double aa = cos_lat * Math.cos(lon - lon0);
+	    double ff = 1./ (sin_lat0 * sin_lat + aa * cos_lat0);
+	    if (ff < 0)
+	    {
+		ra[k] = Double.NaN;
+		dec[k] = Double.NaN;
+		continue;
+	    }
+	    double fline = -ff * (cos_lat0 * sin_lat - aa * sin_lat0);
+	    double fsamp = -ff * cos_lat * Math.sin(lon - lon0);
+	    double temp;
 
+	    if (using_cd)
+	    {
+		temp = -(hdr.dc1_1 * fsamp + hdr.dc1_2 * fline) * rtd;
+		fline = -(hdr.dc2_1 * fsamp + hdr.dc2_2 * fline) * rtd;
+		fsamp = temp;
+	    }
+	    else
+	    {
+		temp = fsamp * cos_twist + fline * sin_twist;
+		fline = -fsamp * sin_twist + fline * cos_twist;
+		fsamp = temp / rpp1;
+		fline = fline / rpp2;
+	    }
+
+	    if (hdr.map_distortion)
+	    {
+		double fsamp_correction = distortion(hdr.ap, hdr.ap_order, fsamp, fline);
+		double fline_correction = distortion(hdr.bp, hdr.bp_order, fsamp, fline);
+		fsamp += fsamp_correction;
+		fline += fline_correction;
+	    }
+	    ra[k] = fsamp + hdr.crpix1 - 1;
+	    dec[k] = fline + hdr.crpix2 - 1;
+	}
+    }
+
+    /**
+     * FwdProject for the points from up to, but not including, to.  The arrays go in as x and y and come
+     * out as lon and lat.
+     */
+    static void FwdProject(double[] x, double[] y, int from, int to, ProjectionParams hdr)
+    {
+	double rpp1 = hdr.cdelt1 * dtr;
+	double rpp2 = hdr.cdelt2 * dtr;
+	double rtwist = hdr.crota2 * dtr;
+	double cos_twist = Math.cos(rtwist);
+	double sin_twist = Math.sin(rtwist);
+	double glatr = hdr.crval2 * dtr;
+	double glongr = hdr.crval1 * dtr;
+	double sin_glatr = Math.sin(glatr);
+	double cos_glatr = Math.cos(glatr);
+	boolean using_cd = hdr.using_cd;
+
+	for (int k = from; k < to; k++)
+	{
+	    double fsamp = x[k] - hdr.crpix1 + 1;
+	    double fline = y[k] - hdr.crpix2 + 1;
+	    double xx, yy, temp;
 
+	    if (hdr.map_distortion)
+	    {
+		double fsamp_correction = distortion(hdr.a, hdr.a_order, fsamp, fline);
+		double fline_correction = distortion(hdr.b, hdr.b_order, fsamp, fline);
+		fsamp += fsamp_correction;
+		fline += fline_correction;
+	    }
+
+	    if (using_cd)
+	    {
+		xx = -(hdr.cd1_1 * fsamp + hdr.cd1_2 * fline) * dtr;
+		yy = -(hdr.cd2_1 * fsamp + hdr.cd2_2 * fline) * dtr;
+	    }
+	    else
+	    {
+		xx = -fsamp * rpp1;
+		yy = -fline * rpp2;
+		temp = xx * cos_twist - yy * sin_twist;
+		yy = xx * sin_twist + yy * cos_twist;
+		xx = temp;
+	    }
+
+	    double delta = Math.atan(Math.sqrt(xx * xx + yy * yy));
+	    if ((xx == 0.0) && (yy == 0.0))
+		yy = 1.0;  /* avoid domain error in atan2 */
+	    double beta = Math.atan2(-xx, yy);
+	    double sin_delta = Math.sin(delta);
+	    double cos_delta = Math.cos(delta);
+	    double cos_beta = Math.cos(beta);
+	    double lat = Math.asin(-sin_delta * cos_beta * cos_glatr + cos_delta * sin_glatr);
+	    double xxx = sin_glatr * sin_delta * cos_beta + cos_glatr * cos_delta;
+	    double yyy = sin_delta * Math.sin(beta);
+
+	    x[k] = (glongr + Math.atan2(yyy, xxx)) * rtd;
+	    y[k] = lat * rtd;
+	}
+    }
+
+    /**
+     * The SIP distortion correction, the same sum as in RevProject and FwdProject
+     */
+    private static double distortion(double[][] coeff, double order, double fsamp, double fline)
+    {
+	double correction = 0.0;
+	int len= (int)Math.min(order+1, ImageHeader.MAX_SIP_LENGTH);
+	for (int i = 0; i < len; i++)
+	{
+	    for (int j = 0; j < len; j++)
+	    {
+		if (i + j <= order)
+		{
+		    correction += coeff[i][j] * Math.pow(fsamp, i) * Math.pow(fline, j);
+		}
+	    }
+	}
+	return correction;
+    }
+
+}
@@ -137,7 +137,68 @@ public class LinearProjection{
 	return (_pt);
     }
 
-}
 
+    /**
+     * RevProject for the points from up to, but not including, to.  The arrays go in as lon and lat and come
+     * out as x and y.
+     */
+    static void RevProject(double[] lon, double[] lat, int from, int to, ProjectionParams hdr)
+    {
+	double rtwist = - hdr.crota2 * dtr;
+	double cos_twist = Math.cos(rtwist);
+	double sin_twist = Math.sin(rtwist);
+
+	for (int k = from; k < to; k++)
+	{
+	    double fsamp, fline, temp;
+	    if (hdr.using_cd)
+	    {
+		fsamp = lon[k] - hdr.crval1;
+		fline = lat[k] - hdr.crval2;
+		temp = (hdr.dc1_1 * fsamp + hdr.dc1_2 * fline);
+		fline = (hdr.dc2_1 * fsamp + hdr.dc2_2 * fline);
+		fsamp = temp;
+	    }
+	    else
+	    {
+		fsamp = (lon[k] - hdr.crval1) / hdr.cdelt1;
+		fline = (lat[k] - hdr.crval2) / hdr.cdelt2;
+		temp = fsamp * cos_twist + fline * sin_twist;
+		fline = -fsamp * sin_twist + fline * cos_twist;
+		fsamp = temp;
+	    }
+	    lon[k] = fsamp + hdr.crpix1 - 1;
+	    lat[k] = fline + hdr.crpix2 - 1;
+	}
+    }
+
+    /**
+     * FwdProject for the points from up to, but not including, to.  The arrays go in as x and y and come
+     * out as lon and lat.
+     */
+    static void FwdProject(double[] x, double[] y, int from, int to, ProjectionParams hdr)
+    {
+	double rtwist = - hdr.crota2 * dtr;
+	double cos_twist = Math.cos(rtwist);
+	double sin_twist = Math.sin(rtwist);
 
+	for (int k = from; k < to; k++)
+	{
+	    double fsamp = x[k] - hdr.crpix1 + 1;
+	    double fline = y[k] - hdr.crpix2 + 1;
+	    if (hdr.using_cd)
+	    {
+		x[k] = (hdr.cd1_1 * fsamp + hdr.cd1_2 * fline) + hdr.crval1;
+		y[k] = (hdr.cd2_1 * fsamp + hdr.cd2_2 * fline) + hdr.crval2;
+	    }
+	    else
+	    {
+		double temp = fsamp * cos_twist - fline * sin_twist;
+		fline = fsamp * sin_twist + fline * cos_twist;
+		x[k] = hdr.crval1 + temp * hdr.cdelt1;
+		y[k] = hdr.crval2 + fline * hdr.cdelt2;
+	    }
+	}
+    }
 
+}
@@ -12,6 +12,7 @@ import edu.caltech.ipac.visualize.plot.Pt;
 import edu.caltech.ipac.visualize.plot.WorldPt;
 
 import java.io.Serializable;
+import java.util.stream.IntStream;
 
 
 public class Projection implements Serializable {
@@ -34,6 +35,8 @@ public class Projection implements Serializable {
     static public final int TPV          = 1011;
     static public final int UNSPECIFIED  = 1998;
     static public final int UNRECOGNIZED = 1999;
+    static final int PARALLEL_MIN_POINTS = 64 * 1024;
+    private static final int BLOCK_POINTS = 16 * 1024;
 
     private double      _scale1;
     private double      _scale2;
@@ -221,6 +224,69 @@ public class Projection implements Serializable {
     }
 
 
+    /**
+     * Convert many world points to image points at once, in place.  lon and lat go in and come out as
+     * "ProjectionPt" x and y.  A point that is not on the image comes out as NaN.
+     * Large arrays are converted in parallel when the projection has an array version, i.e. gnomonic and linear.
+     * @param lon the longitudes in, the x values out
+     * @param lat the latitudes in, the y values out
+     */
+    public void getImageCoords(double[] lon, double[] lat) {
+        if (lon.length != lat.length) throw new IllegalArgumentException("lon and lat must be the same length");
+        switch (_params.maptype) {
+            case GNOMONIC:
+                forEachBlock(lon.length, (from, to) -> GnomonicProjection.RevProject(lon, lat, from, to, _params));
+                break;
+            case LINEAR:
+                forEachBlock(lon.length, (from, to) -> LinearProjection.RevProject(lon, lat, from, to, _params));
+                break;
+            default:
+                for (int i = 0; i < lon.length; i++) {
+                    ProjectionPt pt = getImageCoordsSilent(lon[i], lat[i]);
+                    lon[i] = pt != null ? pt.getX() : Double.NaN;
+                    lat[i] = pt != null ? pt.getY() : Double.NaN;
+                }
+        }
+    }
+
+    /**
+     * Convert many image points to world points at once, in place.  "ProjectionPt" x and y go in and come out
+     * as lon and lat in the coordinate system of this projection.  A point that has no world position comes out as NaN.
+     * Large arrays are converted in parallel when the projection has an array version, i.e. gnomonic and linear.
+     * @param x the x values in, the longitudes out
+     * @param y the y values in, the latitudes out
+     */
+    public void getWorldCoords(double[] x, double[] y) {
+        if (x.length != y.length) throw new IllegalArgumentException("x and y must be the same length");
+        switch (_params.maptype) {
+            case GNOMONIC:
+                forEachBlock(x.length, (from, to) -> GnomonicProjection.FwdProject(x, y, from, to, _params));
+                break;
+            case LINEAR:
+                forEachBlock(x.length, (from, to) -> LinearProjection.FwdProject(x, y, from, to, _params));
+                break;
+            default:
+                for (int i = 0; i < x.length; i++) {
+                    WorldPt pt = getWorldCoordsSilent(x[i], y[i]);
+                    x[i] = pt != null ? pt.getX() : Double.NaN;
+                    y[i] = pt != null ? pt.getY() : Double.NaN;
+                }
+        }
+    }
+
+    private interface Block { void convert(int from, int to); }
+
+    private static void forEachBlock(int length, Block block) {
+        if (length < PARALLEL_MIN_POINTS) {
+            block.convert(0, length);
+        }
+        else {
+            int blocks = (length + BLOCK_POINTS - 1) / BLOCK_POINTS;
+            IntStream.range(0, blocks).parallel().forEach(b ->
+                    block.convert(b * BLOCK_POINTS, Math.min(length, (b + 1) * BLOCK_POINTS)));
+        }
+    }
+
 //    public WorldPt getWorldCoords( ProjectionPt imagePt)
 //	throws ProjectionException
 //    {
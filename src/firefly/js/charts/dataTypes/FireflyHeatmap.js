@@ -14,6 +14,7 @@ import {cloneRequest} from '../../tables/TableRequestUtil.js';
 import {COL_TYPE, getColumns} from '../../tables/TableUtil.js';
 import {getTraceTSEntries as genericTSGetter} from './FireflyGenericData.js';
 import {DECIMATE_TAG} from '../../tables/Decimate.js';
+import {BINARY_FORMAT} from '../../tables/BinaryTable.js';
 
 const DEFBINS = 100;
 /**
@@ -90,8 +91,10 @@ function fetchData(chartId, traceNum, tablesource) {
     });
 
     // min rows for decimation is 0
+    // the decimated table comes back in the binary format, read by column
     const req = makeTableFunctionRequest(sreq, 'DecimateTable', 'heatmap',
-        {decimate: serializeDecimateInfo(xColName, yColName, maxbins, xyratio, xmin, xmax, ymin, ymax, 0), pageSize: MAX_ROW});
+        {decimate: serializeDecimateInfo(xColName, yColName, maxbins, xyratio, xmin, xmax, ymin, ymax, 0), pageSize: MAX_ROW,
+         responseFormat: BINARY_FORMAT});
 
     doFetchTable(req).then((tableModel) => {
         if (tableModel.error) {
@@ -99,7 +102,7 @@ function fetchData(chartId, traceNum, tablesource) {
             return;
         }
 
-        if (tableModel.tableData && tableModel.tableData.data) {
+        if (tableModel.tableData && (tableModel.tableData.columnData || tableModel.tableData.data)) {
 
             const changes = getChanges({tableModel, tablesource, chartId, traceNum});
             changes[`fireflyData.${traceNum}.isLoading`] = false;
@@ -156,9 +159,14 @@ function getChanges({tableModel, tablesource, chartId, traceNum}) {
     const text = []; // tooltips
     const toRowIdx = new Map(); // maps decimate key (bin identifier in the form 'x:y') to rowIdx
 
-    tableModel.tableData.data.forEach((r) => {
-        // colNames = ['x', 'y', 'rowIdx', 'weight', 'decimate_key'];
-        const [xval, yval, rowIdx, weight, decimateKey] = r;
+    // colNames = ['x', 'y', 'rowIdx', 'weight', 'decimate_key'];
+    const {columnData, data} = tableModel.tableData;
+    const [xvals, yvals, rowIdxs, weights, decimateKeys] = columnData || [0, 1, 2, 3, 4].map((c) => data.map((r) => r[c]));
+    xvals.forEach((xval, i) => {
+        const yval = yvals[i];
+        const rowIdx = rowIdxs[i];
+        const weight = weights[i];
+        const decimateKey = decimateKeys[i];
         const centerPt = getCenter(xval, yval);
         x.push(centerPt.x);
         y.push(centerPt.y);
@@ -77,8 +77,8 @@ function makeWsConn(baseUrl, resolve, reject) {
 
     const urlInfo = parseUrl(document.location);
     const wsch = urlInfo.searchObject?.[WSCH] || window.firefly?.wsch;
-    const wschParam = wsch ? `?${CH_ID}=${wsch}` : '';
-    const wsUrl = `${baseUrl}sticky/firefly/events${wschParam}`;
+    const wschParam = wsch ? `${CH_ID}=${wsch}&` : '';
+    const wsUrl = `${baseUrl}sticky/firefly/events?${wschParam}batch=true`;     // batch: server may send an array of events in one message
 
     const requireWs = getAppOptions()?.RequireWebSocketUptime ?? !!wsch;        // if flag is not set, defaults to true when wsch is given.
 
@@ -139,7 +139,12 @@ function makeWsConn(baseUrl, resolve, reject) {
     const isConnected = () => wsConn.readyState === 1;      // 1 == OPEN
 
     const onMessage = (event) => {
-        const eventData = event.data && JSON.parse(event.data);
+        const data = event.data && JSON.parse(event.data);
+        const events = Array.isArray(data) ? data : [data];
+        events.forEach((eventData) => onEventData(eventData));
+    };
+
+    const onEventData = (eventData) => {
         if (eventData) {
             logger.tag('onMessage').debug(eventData);
             if (eventData.name === 'EVT_CONN_EST') {
@@ -154,6 +154,7 @@ export const ServerParams = {
         GET_IMAGE_MASTER_DATA: 'getImageMasterData',
         GET_FLOAT_DATA: 'getFloatData',
         GET_BYTE_DATA: 'getStretchedByteData',
+        GET_BYTE_DATA_PROGRESSIVE: 'getProgressiveStretchedByteData',
 
         VIS_PUSH_ALIVE_CHECK: 'pushAliveCheck',
         VIS_PUSH_ALIVE_COUNT: 'pushAliveCount',
@@ -17,10 +17,11 @@ import Enum from 'enum';
 import {getTblById, getResultSetID, getResultSetRequest} from '../tables/TableUtil.js';
 import {MAX_ROW, DataTagMeta, getTblId, setResultSetID, setResultSetRequest, setSelectInfo} from '../tables/TableRequestUtil.js';
 import {SelectInfo} from '../tables/SelectInfo.js';
+import {BINARY_CONTENT_TYPE, BINARY_FORMAT, decodeBinaryTable} from '../tables/BinaryTable.js';
 import {getBackgroundJobs} from '../core/background/BackgroundUtil.js';
 import {getFireflySessionId} from '../Firefly.js';
 import * as TblUtil from '../tables/TableUtil';
-import {download} from '../util/fetch';
+import {download, fetchUrl} from '../util/fetch';
 import {getCmdSrvURL} from '../util/WebUtil';
 
 export const DownloadProgress= new Enum(['STARTING', 'WORKING', 'DONE', 'UNKNOWN', 'FAIL']);
@@ -56,18 +57,20 @@ export function fetchTable(tableRequest, hlRowIdx) {
         [ServerParams.REQUEST]: JSON.stringify(tableRequest),
     };
 
-    return doJsonRequest(ServerParams.TABLE_SEARCH, params)
+    const doRequest = tableRequest.responseFormat === BINARY_FORMAT ? doBinaryTableRequest : doJsonRequest;
+    return doRequest(ServerParams.TABLE_SEARCH, params)
     .then( (tableModel) => {
         const startIdx = get(tableModel, 'request.startIdx', 0);
         if (startIdx > 0) {
+            // shift data arrays indices to match partial fetch
+            const shift = (ary) => Array.prototype.reduce.call(ary, (nAry, v, idx) => {
+                nAry[idx + startIdx] = v;
+                return nAry;
+            }, []);
             const tblData = get(tableModel, 'tableData.data');
-            if (tblData) {
-                // shift data arrays indices to match partial fetch
-                tableModel.tableData.data = tblData.reduce((nAry, v, idx) => {
-                    nAry[idx + startIdx] = v;
-                    return nAry;
-                }, []);
-            }
+            if (tblData) tableModel.tableData.data = shift(tblData);
+            const columnData = get(tableModel, 'tableData.columnData');     // a table in the binary format
+            if (columnData) tableModel.tableData.columnData = columnData.map(shift);
         }
         if (tableModel.selectInfo) {
             // convert selectInfo to JS object
@@ -86,6 +89,29 @@ export function fetchTable(tableRequest, hlRowIdx) {
     });
 }
 
+/**
+ * Same as doJsonRequest, but the result is a table in the binary format.  If the server returns JSON instead,
+ * i.e. an error, it is handled the same way as doJsonRequest.
+ * @param {string} cmd
+ * @param {Object} params
+ * @returns {Promise.<TableModel>}
+ */
+function doBinaryTableRequest(cmd, params) {
+    return fetchUrl(getCmdSrvURL(), {method: 'POST', params: {...params, [ServerParams.COMMAND]: cmd}}, false)
+        .then((response) => {
+            if (!response.ok) {
+                throw new Error(`Error from Server for command ${cmd}: code: ${response.status}, text: ${response.statusText}`);
+            }
+            if (!response.headers.get('content-type')?.startsWith(BINARY_CONTENT_TYPE)) {
+                return response.json().then((result) => {
+                    if (has(result, '0.error')) throw new Error(result[0].error);
+                    return result;
+                });
+            }
+            return response.arrayBuffer().then(decodeBinaryTable);
+        });
+}
+
 /**
  * a utility function used to query data from the given tableRequest without altering the table.
  * @param {TableRequest} tableRequest is a table request params object
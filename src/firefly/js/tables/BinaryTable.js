@@ -0,0 +1,117 @@
+/*
+ * License information at https://github.com/Caltech-IPAC/firefly/blob/master/License.txt
+ */
+
+/**
+ * Reader of the binary table format written by BinaryTableWriter.java.
+ * Add responseFormat: 'binary' to a table request to get its data in this format.
+ * Numeric columns are read as typed arrays over the response buffer, without parsing.
+ * The data is kept by column, in tableData.columnData, and rows are not built; use getColumnValues to read it.
+ */
+
+export const BINARY_FORMAT = 'binary';
+export const BINARY_CONTENT_TYPE = 'application/octet-stream';
+
+const MAGIC = 'FFTB';
+const FLOAT64 = 1, FLOAT32 = 2, INT32 = 3, INT64 = 4, BOOLEAN = 5, STRING = 6;
+
+/**
+ * @param {ArrayBuffer} buffer  the response
+ * @returns {TableModel}  the table model with tableData.columnData filled in: one array of values per column,
+ *          in the order of tableData.columns.  A column without nulls is a typed array when its type allows it.
+ */
+export function decodeBinaryTable(buffer) {
+    const view = new DataView(buffer);
+    const decoder = new TextDecoder('utf-8');
+    let pos = 0;
+
+    const align = () => pos = Math.ceil(pos / 8) * 8;
+    const readInt = () => {
+        const v = view.getInt32(pos, true);
+        pos += 4;
+        return v;
+    };
+    const readBytes = (len) => {
+        const bytes = new Uint8Array(buffer, pos, len);
+        pos += len;
+        return bytes;
+    };
+    const readSized = () => {
+        const len = readInt();
+        readInt();
+        const text = decoder.decode(readBytes(len));
+        align();
+        return text;
+    };
+
+    if (decoder.decode(readBytes(4)) !== MAGIC) throw new Error('Not a binary table');
+    readInt();                      // version
+    const tableModel = JSON.parse(readSized());
+    const rows = readInt();
+    const ncols = readInt();
+
+    const columns = [];
+    for (let c = 0; c < ncols; c++) {
+        const type = readInt();
+        readInt();
+        const valid = readBytes(Math.ceil(rows / 8));
+        const isValid = (r) => (valid[r >> 3] & (1 << (r & 7))) !== 0;
+        align();
+
+        let values;
+        switch (type) {
+            case FLOAT64:
+                values = new Float64Array(buffer, pos, rows);
+                pos += rows * 8;
+                break;
+            case FLOAT32:
+                values = new Float32Array(buffer, pos, rows);
+                pos += rows * 4;
+                break;
+            case INT32:
+                values = new Int32Array(buffer, pos, rows);
+                pos += rows * 4;
+                break;
+            case INT64:
+                values = Array.from(new BigInt64Array(buffer, pos, rows), (v) => Number(v));
+                pos += rows * 8;
+                break;
+            case BOOLEAN:
+                values = Array.from(readBytes(rows), (v) => v === 1);
+                break;
+            case STRING: {
+                const offsets = new Int32Array(buffer, pos, rows + 1);
+                pos += (rows + 1) * 4;
+                align();
+                const bytes = readBytes(offsets[rows]);
+                values = new Array(rows);
+                for (let r = 0; r < rows; r++) {
+                    values[r] = decoder.decode(bytes.subarray(offsets[r], offsets[r + 1]));
+                }
+                break;
+            }
+            default:
+                values = JSON.parse(readSized());
+        }
+        align();
+        columns.push(allValid(valid, rows) ? values : Array.from(values, (v, r) => isValid(r) ? v : null));
+    }
+
+    if (rows > 0) {
+        tableModel.tableData = {...tableModel.tableData, columnData: columns};
+    }
+    return tableModel;
+}
+
+/**
+ * @param {Uint8Array} valid  the validity bitmap of a column
+ * @param {number} rows  the number of rows
+ * @returns {boolean} true if the column has no nulls
+ */
+function allValid(valid, rows) {
+    const full = rows >> 3;
+    for (let i = 0; i < full; i++) {
+        if (valid[i] !== 0xFF) return false;
+    }
+    return rows % 8 === 0 || valid[full] === (1 << (rows % 8)) - 1;
+}
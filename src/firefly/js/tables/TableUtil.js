@@ -458,6 +458,8 @@ export function getCellValue(tableModel, rowIdx, colName) {
 export function getColumnValues(tableModel, colName) {
     const colIdx = getColumnIdx(tableModel, colName);
     if (colIdx >= 0 && colIdx < get(tableModel, 'tableData.columns.length', 0)) {
+        const columnData = get(tableModel, 'tableData.columnData');     // a table in the binary format
+        if (columnData) return Array.from(columnData[colIdx]);
         return get(tableModel, 'tableData.data', []).map( (r) => r[colIdx]);
     } else {
         return [];
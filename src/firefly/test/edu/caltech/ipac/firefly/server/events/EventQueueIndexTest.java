@@ -0,0 +1,84 @@
+/*
+ * License information at https://github.com/Caltech-IPAC/firefly/blob/master/License.txt
+ */
+package edu.caltech.ipac.firefly.server.events;
+
+import edu.caltech.ipac.firefly.data.ServerEvent;
+import edu.caltech.ipac.firefly.util.event.Name;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+public class EventQueueIndexTest {
+
+    /**
+     * The queues found through the index, then matched, must be the same as matching every queue.
+     */
+    @Test
+    public void sameAsMatchingAll() {
+        EventQueueIndex index = new EventQueueIndex();
+        List<ServerEventQueue> queues = new ArrayList<>();
+        for (int i = 0; i < 60; i++) {
+            queues.add(new ServerEventQueue("conn" + i, "chan" + (i % 7), "user" + (i % 5), null));
+        }
+        queues.add(new ServerEventQueue(ServerEvent.SERVER_CONN_ID, "chan0", "server", null));
+        queues.forEach(index::add);
+
+        List<ServerEvent> events = new ArrayList<>();
+        for (ServerEvent.Scope scope : ServerEvent.Scope.values()) {
+            for (int i = 0; i < 8; i++) {
+                ServerEvent.EventTarget target = new ServerEvent.EventTarget(scope, "conn" + i * 9, "chan" + i, "user" + i);
+                events.add(new ServerEvent(Name.ACTION, target, ServerEvent.DataType.JSON, "{}", "conn" + i));
+                events.add(new ServerEvent(Name.ACTION, target, ServerEvent.DataType.JSON, "{}", ServerEvent.SERVER_CONN_ID));
+            }
+        }
+
+        for (ServerEvent ev : events) {
+            Set<ServerEventQueue> expected = new HashSet<>();
+            for (ServerEventQueue q : queues) if (q.matches(ev)) expected.add(q);
+            Set<ServerEventQueue> actual = new HashSet<>();
+            for (ServerEventQueue q : index.getCandidates(ev)) if (q.matches(ev)) actual.add(q);
+            Assert.assertEquals(ev.getTarget().getScope() + " from " + ev.getFrom(), expected, actual);
+        }
+
+        Assert.assertEquals(61, index.size());
+        Assert.assertTrue(index.remove(queues.get(3)));
+        Assert.assertFalse("already removed", index.remove(queues.get(3)));
+        Assert.assertEquals(60, index.size());
+        Assert.assertEquals(8, index.getByChannel("chan3").size());
+        Assert.assertEquals(11, index.getByUserKey("user3").size());
+        Assert.assertTrue(index.getByUserKey("nobody").isEmpty());
+    }
+
+    /**
+     * The queues found by channel or user key must be the ones a scan of all of the queues finds.
+     */
+    @Test
+    public void replicatedLookup() {
+        ReplicatedQueueList repList = new ReplicatedQueueList();
+        List<ServerEventQueue> queues = new ArrayList<>();
+        for (int i = 0; i < 40; i++) {
+            ServerEventQueue q = new ServerEventQueue("rconn" + i, "rchan" + (i % 6), "ruser" + (i % 4), null);
+            queues.add(q);
+            repList.addQueue(q);
+        }
+        repList.removeQueue(queues.remove(7));
+
+        for (int i = 0; i < 6; i++) {
+            String channel = "rchan" + i;
+            String userKey = "ruser" + (i % 5);
+            Set<String> expected = new HashSet<>();
+            for (ServerEventQueue q : queues) {
+                if (q.getChannel().equals(channel) || q.getUserKey().equals(userKey)) expected.add(q.toString());
+            }
+            Set<String> actual = new HashSet<>();
+            for (ServerEventQueue q : repList.getQueues(channel, userKey)) actual.add(q.toString());
+            Assert.assertEquals(channel + " or " + userKey, expected, actual);
+        }
+        Assert.assertEquals(queues.size(), repList.getCombinedNodeList().size());
+    }
+}
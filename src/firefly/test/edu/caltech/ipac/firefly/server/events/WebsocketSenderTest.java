@@ -0,0 +1,82 @@
+/*
+ * License information at https://github.com/Caltech-IPAC/firefly/blob/master/License.txt
+ */
+package edu.caltech.ipac.firefly.server.events;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+public class WebsocketSenderTest {
+
+    /**
+     * send() must not wait for a blocked client, and what was queued meanwhile goes out as one array, in order.
+     */
+    @Test
+    public void batchWhileBlocked() throws Exception {
+        CountDownLatch writing = new CountDownLatch(1);
+        CountDownLatch unblock = new CountDownLatch(1);
+        CountDownLatch done = new CountDownLatch(2);
+        List<String> written = new CopyOnWriteArrayList<>();
+        WebsocketSender sender = new WebsocketSender(text -> {
+            writing.countDown();
+            unblock.await();
+            written.add(text);
+            done.countDown();
+        }, true, e -> Assert.fail(e.getMessage()));
+
+        sender.send("{\"n\":0}");
+        Assert.assertTrue(writing.await(5, TimeUnit.SECONDS));
+        long start = System.currentTimeMillis();
+        for (int i = 1; i < 5; i++) sender.send("{\"n\":" + i + "}");
+        Assert.assertTrue("send does not block", System.currentTimeMillis() - start < 1000);
+        Assert.assertEquals(4, sender.getQueueDepth());
+
+        unblock.countDown();
+        Assert.assertTrue(done.await(5, TimeUnit.SECONDS));
+        Assert.assertEquals("{\"n\":0}", written.get(0));
+        Assert.assertEquals("[{\"n\":1},{\"n\":2},{\"n\":3},{\"n\":4}]", written.get(1));
+        sender.close();
+    }
+
+    /**
+     * A failed write closes the sender, and later sends fail.
+     */
+    @Test
+    public void closeOnFailure() throws Exception {
+        CountDownLatch failed = new CountDownLatch(1);
+        WebsocketSender sender = new WebsocketSender(text -> { throw new IllegalStateException("gone"); },
+                                                     false, e -> failed.countDown());
+        sender.send("a");
+        Assert.assertTrue(failed.await(5, TimeUnit.SECONDS));
+        try {
+            sender.send("b");
+            Assert.fail("closed");
+        } catch (java.io.IOException expected) {}
+    }
+
+    /**
+     * A sender is only counted once its connection is open, and no longer once it is closed.
+     */
+    @Test
+    public void registerWhenOpen() {
+        int before = connections();
+        WebsocketSender sender = new WebsocketSender(text -> {}, false, e -> {});
+        Assert.assertEquals(before, connections());
+        sender.register();
+        Assert.assertEquals(before + 1, connections());
+        sender.close();
+        Assert.assertEquals(before, connections());
+        sender.register();
+        Assert.assertEquals("closed sender is not registered", before, connections());
+    }
+
+    private static int connections() {
+        String stats = WebsocketSender.getStats();
+        return Integer.parseInt(stats.substring("connections:".length(), stats.indexOf(' ')));
+    }
+}
@@ -0,0 +1,62 @@
+/*
+ * License information at https://github.com/Caltech-IPAC/firefly/blob/master/License.txt
+ */
+package edu.caltech.ipac.firefly.server.query;
+
+import edu.caltech.ipac.table.DataGroup;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.File;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class AsyncJobPollerTest {
+
+    @Test
+    public void backoff() {
+        Assert.assertEquals(500, AsyncJobPoller.nextDelay(1));
+        Assert.assertEquals(1000, AsyncJobPoller.nextDelay(10));
+        Assert.assertEquals(2000, AsyncJobPoller.nextDelay(20));
+        Assert.assertEquals(3000, AsyncJobPoller.nextDelay(21));
+        Assert.assertEquals(10000, AsyncJobPoller.nextDelay(1000));
+    }
+
+    @Test
+    public void completesOnPhase() throws Exception {
+        TestJob done = new TestJob(3, AsyncJob.Phase.COMPLETED);
+        Assert.assertSame(done, AsyncJobPoller.watch(done).get(10, TimeUnit.SECONDS));
+        Assert.assertEquals(3, done.polls.get());
+
+        TestJob failed = new TestJob(1, AsyncJob.Phase.ERROR);
+        try {
+            AsyncJobPoller.watch(failed).get(10, TimeUnit.SECONDS);
+            Assert.fail("job failed");
+        } catch (ExecutionException e) {
+            Assert.assertTrue(e.getCause() instanceof DataAccessException);
+            Assert.assertEquals("failed", e.getCause().getMessage());
+        }
+    }
+
+    /**
+     * Reports EXECUTING until it has been polled the given number of times.
+     */
+    private static class TestJob implements AsyncJob {
+        private final int doneAfter;
+        private final Phase endPhase;
+        private final AtomicInteger polls = new AtomicInteger();
+
+        TestJob(int doneAfter, Phase endPhase) {
+            this.doneAfter = doneAfter;
+            this.endPhase = endPhase;
+        }
+
+        public Phase getPhase() { return polls.incrementAndGet() < doneAfter ? Phase.EXECUTING : endPhase; }
+        public String getErrorMsg() { return "failed"; }
+        public DataGroup getDataGroup() { return null; }
+        public File getResultFile() { return null; }
+        public boolean cancel() { return true; }
+        public long getTimeout() { return 0; }
+    }
+}
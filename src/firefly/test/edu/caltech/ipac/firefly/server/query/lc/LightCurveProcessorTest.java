@@ -68,7 +68,7 @@ import java.util.List;
 public class LightCurveProcessorTest extends LightCurveTestCommon  {
 
 
-    private LightCurveProcessor lcProcessor = new LightCurveProcessor();
+    private LightCurveProcessor lcProcessor = new LightCurveProcessor(new IrsaLightCurveHandler());
     private String resultFileName = "periodogramResult_212027909.voTbl";
     private File resultFile= FileLoader.resolveFile(LightCurveProcessorTest.class, resultFileName);
     private String withFilterResultFileName = "periodogramResult_212027909_filteredBJDLargeThan3270.voTbl";
@@ -0,0 +1,103 @@
+/*
+ * License information at https://github.com/Caltech-IPAC/firefly/blob/master/License.txt
+ */
+package edu.caltech.ipac.firefly.server.query.lc;
+
+import edu.caltech.ipac.TestCategory;
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+
+import java.util.Random;
+
+import static edu.caltech.ipac.firefly.server.query.lc.PeriodogramCalculator.StepMethod.FIXED_FREQUENCY;
+import static edu.caltech.ipac.firefly.server.query.lc.PeriodogramCalculator.StepMethod.FIXED_PERIOD;
+
+public class PeriodogramCalculatorTest {
+
+    @Test
+    public void lombScargleFindsPeriod() {
+        double[][] lc = makeCurve(800, 700, 3.217, false);
+        double[] periods = PeriodogramCalculator.makePeriods(lc[0], 0.5, 50, FIXED_FREQUENCY, Double.NaN, 500000);
+        double[] power = PeriodogramCalculator.lombScargle(lc[0], lc[1], periods, true);
+        int[] peaks = PeriodogramCalculator.findPeaks(power, 5);
+        Assert.assertEquals(3.217, periods[peaks[0]], 0.005);
+        Assert.assertTrue(PeriodogramCalculator.sde(power[peaks[0]], power) > 10);
+
+        // the rotated sines and cosines give the same power as computing each one
+        double[] direct = PeriodogramCalculator.lombScargle(lc[0], lc[1], periods, false);
+        for (int i = 0; i < power.length; i++) {
+            Assert.assertEquals(direct[i], power[i], 1e-6 * Math.max(1, direct[i]));
+        }
+    }
+
+    @Test
+    public void blsFindsTransit() {
+        double[][] lc = makeCurve(2000, 300, 2.75, true);
+        double[] periods = PeriodogramCalculator.makePeriods(lc[0], 1, 10, FIXED_PERIOD, 0.0005, 500000);
+        double[] power = PeriodogramCalculator.bls(lc[0], lc[1], periods);
+        int[] peaks = PeriodogramCalculator.findPeaks(power, 5);
+        Assert.assertEquals(2.75, periods[peaks[0]], 0.01);
+    }
+
+    @Test
+    public void periodGrid() {
+        double[] t = {0, 100};
+        double[] periods = PeriodogramCalculator.makePeriods(t, 1, 10, FIXED_FREQUENCY, 0.01, 1000);
+        Assert.assertEquals(91, periods.length);
+        Assert.assertEquals(1, periods[0], 1e-9);
+        Assert.assertEquals(10, periods[periods.length - 1], 1e-9);
+
+        // the step is made larger to stay under the maximum
+        periods = PeriodogramCalculator.makePeriods(t, 1, 10, FIXED_PERIOD, 0.0001, 1000);
+        Assert.assertEquals(1000, periods.length);
+        Assert.assertEquals(10, periods[periods.length - 1], 1e-9);
+    }
+
+    /**
+     * A light curve the size of ZTF, with the default period grid.  The rotated sines and cosines must give
+     * the same power as computing each one, and both periodograms must find the period.
+     */
+    @Category({TestCategory.Perf.class})
+    @Test
+    public void perfTest() {
+        double[][] lc = makeCurve(1500, 1200, 0.75, false);
+        double[][] transit = makeCurve(1500, 1200, 0.75, true);
+        double[] periods = PeriodogramCalculator.makePeriods(lc[0], Double.NaN, Double.NaN, FIXED_FREQUENCY, Double.NaN, 100000);
+        PeriodogramCalculator.lombScargle(lc[0], lc[1], periods, true);      // warm up
+
+        long start = System.currentTimeMillis();
+        double[] power = PeriodogramCalculator.lombScargle(lc[0], lc[1], periods, true);
+        long ls = System.currentTimeMillis() - start;
+        start = System.currentTimeMillis();
+        double[] direct = PeriodogramCalculator.lombScargle(lc[0], lc[1], periods, false);
+        long directTime = System.currentTimeMillis() - start;
+        start = System.currentTimeMillis();
+        double[] blsPower = PeriodogramCalculator.bls(transit[0], transit[1], periods);
+        long bls = System.currentTimeMillis() - start;
+
+        for (int i = 0; i < power.length; i++) {
+            Assert.assertEquals(direct[i], power[i], 1e-6 * Math.max(1, direct[i]));
+        }
+        Assert.assertEquals(0.75, periods[PeriodogramCalculator.findPeaks(power, 1)[0]], 0.001);
+        Assert.assertEquals(0.75, periods[PeriodogramCalculator.findPeaks(blsPower, 1)[0]], 0.001);
+        System.out.printf("%,d points, %,d periods:  LS:%.2fsecs  LS without rotation:%.2fsecs  BLS:%.2fsecs %n",
+                          lc[0].length, periods.length, ls / 1000.0, directTime / 1000.0, bls / 1000.0);
+    }
+
+    /**
+     * Random times over the baseline.  Either a sinusoid, or a flat curve with a 2% deep box transit of 5% of the period.
+     */
+    private static double[][] makeCurve(int n, double baseline, double period, boolean transit) {
+        Random rand = new Random(42);
+        double[] t = new double[n];
+        double[] y = new double[n];
+        for (int i = 0; i < n; i++) {
+            t[i] = 58000 + rand.nextDouble() * baseline;
+            double phase = (t[i] / period) % 1;
+            y[i] = (transit ? (phase < 0.05 ? 0.98 : 1) : 1 + 0.1 * Math.sin(2 * Math.PI * phase))
+                    + 0.003 * rand.nextGaussian();
+        }
+        return new double[][] {t, y};
+    }
+}
@@ -0,0 +1,39 @@
+/*
+ * License information at https://github.com/Caltech-IPAC/firefly/blob/master/License.txt
+ */
+package edu.caltech.ipac.firefly.server.servlets;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.List;
+
+public class AnyFileDownloadTest {
+
+    @Test
+    public void parseRanges() {
+        List<AnyFileDownload.ByteRange> ranges = AnyFileDownload.ByteRange.parse("bytes=0-99, 200-, -50", 1000);
+        Assert.assertEquals(3, ranges.size());
+        assertRange(ranges.get(0), 0, 99);
+        assertRange(ranges.get(1), 200, 999);
+        assertRange(ranges.get(2), 950, 999);
+        Assert.assertEquals("bytes 950-999/1000", ranges.get(2).toContentRange(1000));
+
+        assertRange(AnyFileDownload.ByteRange.parse("bytes=900-2000", 1000).get(0), 900, 999);
+        assertRange(AnyFileDownload.ByteRange.parse("bytes=-5000", 1000).get(0), 0, 999);
+
+        Assert.assertTrue("unsatisfiable", AnyFileDownload.ByteRange.parse("bytes=1000-", 1000).isEmpty());
+        Assert.assertEquals("unsatisfiable ones are left out", 1,
+                            AnyFileDownload.ByteRange.parse("bytes=5000-6000,0-0", 1000).size());
+
+        Assert.assertNull("not bytes", AnyFileDownload.ByteRange.parse("items=0-5", 1000));
+        Assert.assertNull("end before start", AnyFileDownload.ByteRange.parse("bytes=50-10", 1000));
+        Assert.assertNull("not a number", AnyFileDownload.ByteRange.parse("bytes=a-10", 1000));
+        Assert.assertNull("no dash", AnyFileDownload.ByteRange.parse("bytes=10", 1000));
+    }
+
+    private static void assertRange(AnyFileDownload.ByteRange r, long start, long end) {
+        Assert.assertEquals("start", start, r.start);
+        Assert.assertEquals("end", end, r.end);
+    }
+}
@@ -0,0 +1,81 @@
+/*
+ * License information at https://github.com/Caltech-IPAC/firefly/blob/master/License.txt
+ */
+package edu.caltech.ipac.firefly.server.util;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+public class JobSchedulerTest {
+
+    /**
+     * Jobs wait for a free thread; the next one started is from the owner with the fewest running jobs,
+     * large jobs are capped, and a canceled job that is waiting never runs.
+     */
+    @Test
+    public void capsFairnessAndCancel() throws Exception {
+        JobScheduler scheduler = new JobScheduler("test", 2, 1);
+        CountDownLatch releaseLarge = new CountDownLatch(1);
+        CountDownLatch releaseSmall = new CountDownLatch(1);
+        List<String> started = new CopyOnWriteArrayList<>();
+
+        JobScheduler.Job large = scheduler.submit("a1", "userA", true, () -> await(releaseLarge));
+        JobScheduler.Job small = scheduler.submit("a2", "userA", false, () -> await(releaseSmall));
+        scheduler.submit("a3", "userA", true, () -> started.add("a3"));
+        scheduler.submit("a4", "userA", false, () -> started.add("a4"));
+        JobScheduler.Job canceled = scheduler.submit("a5", "userA", false, () -> started.add("a5"));
+        scheduler.submit("b1", "userB", false, () -> started.add("b1"));
+        Assert.assertEquals(2, scheduler.getRunning());
+        Assert.assertEquals(4, scheduler.getWaiting());
+
+        canceled.cancelTask();
+        Assert.assertTrue("canceled while waiting", canceled.isDone());
+
+        releaseSmall.countDown();
+        Assert.assertTrue(small.await(5000));
+        for (int i = 0; i < 250 && started.size() < 2; i++) Thread.sleep(20);
+        Assert.assertEquals("the other user first, the large job waits", "[b1, a4]", started.toString());
+
+        releaseLarge.countDown();
+        Assert.assertTrue(large.await(5000));
+        for (int i = 0; i < 250 && scheduler.getTotalRun() < 5; i++) Thread.sleep(20);
+        Assert.assertEquals("[b1, a4, a3]", started.toString());
+        Assert.assertEquals(5, scheduler.getTotalRun());
+        Assert.assertEquals(0, scheduler.getWaiting());
+        Assert.assertEquals(0, scheduler.getRunning());
+        Assert.assertTrue(large.getQueueWaitMills() >= 0 && large.getRunMills() > 0);
+    }
+
+    /**
+     * A running job is only flagged when canceled; its thread is not interrupted.
+     */
+    @Test
+    public void cancelRunningIsCooperative() throws Exception {
+        JobScheduler scheduler = new JobScheduler("test", 1, 1);
+        CountDownLatch started = new CountDownLatch(1);
+        List<Boolean> seen = new CopyOnWriteArrayList<>();
+
+        JobScheduler.Job job = scheduler.submit("c1", "userA", false, () -> {
+            started.countDown();
+            while (!JobScheduler.isCurrentCanceled()) Thread.yield();
+            seen.add(Thread.currentThread().isInterrupted());
+        });
+        Assert.assertTrue(started.await(5, TimeUnit.SECONDS));
+        Assert.assertFalse(JobScheduler.isCurrentCanceled());
+        Assert.assertTrue(scheduler.cancel("c1"));
+        Assert.assertTrue(job.await(5000));
+        Assert.assertEquals("[false]", seen.toString());
+        Assert.assertTrue(job.isCanceled());
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await();
+        } catch (InterruptedException ignored) {}
+    }
+}
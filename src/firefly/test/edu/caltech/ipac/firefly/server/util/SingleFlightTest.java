@@ -0,0 +1,100 @@
+/*
+ * License information at https://github.com/Caltech-IPAC/firefly/blob/master/License.txt
+ */
+package edu.caltech.ipac.firefly.server.util;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class SingleFlightTest {
+
+    @Test
+    public void coalesceConcurrentCalls() throws Exception {
+        SingleFlight<String, Integer> flights = new SingleFlight<>();
+        AtomicInteger runs = new AtomicInteger();
+        CountDownLatch release = new CountDownLatch(1);
+        int callers = 8;
+
+        ExecutorService exec = Executors.newFixedThreadPool(callers);
+        try {
+            List<Future<Integer>> results = new ArrayList<>();
+            for (int i = 0; i < callers; i++) {
+                results.add(exec.submit(() -> flights.run("key", () -> {
+                    runs.incrementAndGet();
+                    release.await();
+                    return 42;
+                })));
+            }
+            // let every caller reach the flight before the task completes
+            while (runs.get() == 0) Thread.sleep(10);
+            Thread.sleep(200);
+            release.countDown();
+
+            for (Future<Integer> f : results) {
+                Assert.assertEquals("same result", 42, (int) f.get(5, TimeUnit.SECONDS));
+            }
+        } finally {
+            exec.shutdownNow();
+        }
+        Assert.assertEquals("task ran once", 1, runs.get());
+        Assert.assertEquals("waiting callers", callers - 1, flights.getWaitCount());
+        Assert.assertFalse("key is released", flights.isRunning("key"));
+
+        // a new call after completion runs the task again
+        Assert.assertEquals(7, (int) flights.run("key", () -> 7));
+    }
+
+    @Test
+    public void failureIsShared() throws Exception {
+        SingleFlight<String, Integer> flights = new SingleFlight<>();
+        AtomicInteger runs = new AtomicInteger();
+        IllegalStateException failure = new IllegalStateException("failed");
+        CountDownLatch leaderIn = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        int callers = 4;
+
+        List<Throwable> caught = new CopyOnWriteArrayList<>();
+        List<Thread> threads = new ArrayList<>();
+        for (int i = 0; i < callers; i++) {
+            threads.add(new Thread(() -> {
+                try {
+                    flights.run("bad", () -> {
+                        runs.incrementAndGet();
+                        leaderIn.countDown();
+                        release.await();
+                        throw failure;
+                    });
+                } catch (Throwable e) {
+                    caught.add(e);
+                }
+            }));
+        }
+        // start the leader, then the others once it is inside of the task
+        threads.get(0).start();
+        Assert.assertTrue(leaderIn.await(5, TimeUnit.SECONDS));
+        for (Thread t : threads.subList(1, callers)) t.start();
+        // wait until the others are blocked on the leader's result
+        for (Thread t : threads.subList(1, callers)) {
+            long end = System.currentTimeMillis() + 5000;
+            while (t.getState() != Thread.State.WAITING && System.currentTimeMillis() < end) Thread.yield();
+            Assert.assertEquals(Thread.State.WAITING, t.getState());
+        }
+        release.countDown();
+        for (Thread t : threads) t.join(5000);
+
+        Assert.assertEquals("task ran once", 1, runs.get());
+        Assert.assertEquals(callers, caught.size());
+        for (Throwable e : caught) Assert.assertSame("same exception", failure, e);
+        Assert.assertFalse("key is released after failure", flights.isRunning("bad"));
+    }
+}
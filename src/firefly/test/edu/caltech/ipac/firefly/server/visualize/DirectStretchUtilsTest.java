@@ -0,0 +1,157 @@
+/*
+ * License information at https://github.com/Caltech-IPAC/firefly/blob/master/License.txt
+ */
+package edu.caltech.ipac.firefly.server.visualize;
+
+import edu.caltech.ipac.firefly.visualize.Band;
+import edu.caltech.ipac.firefly.visualize.PlotState;
+import edu.caltech.ipac.firefly.visualize.WebPlotRequest;
+import edu.caltech.ipac.visualize.plot.ActiveFitsReadGroup;
+import edu.caltech.ipac.visualize.plot.RangeValues;
+import edu.caltech.ipac.visualize.plot.plotdata.FitsRead;
+import edu.caltech.ipac.visualize.plot.plotdata.FitsReadFactory;
+import nom.tam.fits.Fits;
+import nom.tam.fits.FitsFactory;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.awt.Rectangle;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.File;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+public class DirectStretchUtilsTest {
+
+    private static final int NAXIS1 = 37;
+    private static final int NAXIS2 = 23;
+    private static final int TILE = 10;
+
+    /**
+     * The progressive stream is an overview, then every tile once, then the end frame.  Each tile must be
+     * where getStretchData puts it, with the same bytes.
+     */
+    @Test
+    public void progressiveFrames() throws Exception {
+        PlotState state = new PlotState();
+        state.setWebPlotRequest(new WebPlotRequest(), Band.NO_BAND, false);
+        state.setRangeValues(new RangeValues(), Band.NO_BAND);
+        ActiveFitsReadGroup frGroup = new ActiveFitsReadGroup();
+        frGroup.setFitsRead(Band.NO_BAND, makeFitsRead());
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DirectStretchUtils.writeProgressiveStretch(state, frGroup, TILE, new Rectangle(12, 3, 5, 5), bytes);
+        byte[] expected = DirectStretchUtils.getStretchData(state, frGroup, TILE);
+
+        DirectStretchUtils.TileLayout layout = new DirectStretchUtils.TileLayout(NAXIS1, NAXIS2, TILE);
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes.toByteArray()));
+
+        Assert.assertEquals(DirectStretchUtils.FRAME_OVERVIEW, in.readByte());
+        Assert.assertEquals(1, in.readInt());           // factor; the image is smaller than the overview
+        Assert.assertEquals(NAXIS1, in.readInt());
+        Assert.assertEquals(NAXIS2, in.readInt());
+        Assert.assertEquals(1, in.readInt());           // bands
+        in.readFully(new byte[NAXIS1 * NAXIS2]);
+
+        Set<Integer> seen = new HashSet<>();
+        for (int i = 0; i < layout.tileCnt; i++) {
+            Assert.assertEquals(DirectStretchUtils.FRAME_TILE, in.readByte());
+            Rectangle r = new Rectangle(in.readInt(), in.readInt(), in.readInt(), in.readInt());
+            int idx = (r.x / TILE) * layout.yPanels + r.y / TILE;
+            Assert.assertTrue("tile sent twice: " + r, seen.add(idx));
+            Assert.assertEquals(layout.getTileRect(idx), r);
+
+            byte[] tile = new byte[r.width * r.height];
+            in.readFully(tile);
+            int offset = layout.getTileOffset(idx);
+            Assert.assertArrayEquals("tile " + r, Arrays.copyOfRange(expected, offset, offset + tile.length), tile);
+        }
+        Assert.assertEquals(DirectStretchUtils.FRAME_END, in.readByte());
+        Assert.assertEquals(-1, in.read());
+        DirectStretchUtils.releaseStretchData(expected);
+    }
+
+    /**
+     * A memory mapped image is stretched one tile at a time from the mapped pixels, to the same bytes.
+     */
+    @Test
+    public void mappedSameAsInMemory() throws Exception {
+        PlotState state = new PlotState();
+        state.setWebPlotRequest(new WebPlotRequest(), Band.NO_BAND, false);
+        state.setRangeValues(new RangeValues(), Band.NO_BAND);
+        ActiveFitsReadGroup frGroup = new ActiveFitsReadGroup();
+        frGroup.setFitsRead(Band.NO_BAND, makeFitsRead());
+        byte[] expected = DirectStretchUtils.getStretchData(state, frGroup, TILE).clone();
+        ByteArrayOutputStream expectedStream = new ByteArrayOutputStream();
+        DirectStretchUtils.writeProgressiveStretch(state, frGroup, TILE, null, expectedStream);
+
+        FitsRead mapped = makeFitsRead();
+        File f = File.createTempFile("stretch-", ".dat");
+        f.deleteOnExit();
+        Assert.assertTrue(mapped.spillTo(f));
+        frGroup.setFitsRead(Band.NO_BAND, mapped);
+        Assert.assertArrayEquals(expected, DirectStretchUtils.getStretchData(state, frGroup, TILE));
+        ByteArrayOutputStream actualStream = new ByteArrayOutputStream();
+        DirectStretchUtils.writeProgressiveStretch(state, frGroup, TILE, null, actualStream);
+        Assert.assertArrayEquals(expectedStream.toByteArray(), actualStream.toByteArray());
+    }
+
+    /**
+     * Tiles are ordered by their distance to the viewport; the ones it covers come first.
+     */
+    @Test
+    public void nearestTilesFirst() {
+        DirectStretchUtils.TileLayout layout = new DirectStretchUtils.TileLayout(NAXIS1, NAXIS2, TILE);
+        Assert.assertEquals(12, layout.tileCnt);
+        Assert.assertEquals(new Rectangle(30, 20, 7, 3), layout.getTileRect(layout.tileCnt - 1));
+        Assert.assertEquals(30 * NAXIS2 + 20 * 7, layout.getTileOffset(layout.tileCnt - 1));
+
+        Rectangle view = new Rectangle(22, 12, 5, 5);       // inside the tile at 20,10
+        List<Integer> order = layout.getTilesByDistance(view);
+        Assert.assertEquals(layout.tileCnt, new HashSet<>(order).size());
+        Assert.assertEquals(new Rectangle(20, 10, 10, 10), layout.getTileRect(order.get(0)));
+        double last = -1;
+        for (int idx : order) {
+            Rectangle r = layout.getTileRect(idx);
+            double dx = Math.max(0, Math.max(view.x - (r.x + r.width), r.x - (view.x + view.width)));
+            double dy = Math.max(0, Math.max(view.y - (r.y + r.height), r.y - (view.y + view.height)));
+            double gap = Math.hypot(dx, dy);
+            Assert.assertTrue("tile " + r + " is out of order", gap >= last);
+            last = gap;
+        }
+
+        // a viewport across 4 tiles
+        order = layout.getTilesByDistance(new Rectangle(8, 8, 4, 4));
+        Set<Rectangle> first4 = new HashSet<>();
+        for (int idx : order.subList(0, 4)) first4.add(layout.getTileRect(idx));
+        Assert.assertEquals(new HashSet<>(Arrays.asList(new Rectangle(0, 0, 10, 10), new Rectangle(0, 10, 10, 10),
+                                                        new Rectangle(10, 0, 10, 10), new Rectangle(10, 10, 10, 10))),
+                            first4);
+    }
+
+    @Test
+    public void parseViewport() {
+        Assert.assertNull(DirectStretchUtils.parseViewport(null));
+        Assert.assertEquals(new Rectangle(1, 2, 30, 40), DirectStretchUtils.parseViewport("1, 2,30 ,40"));
+        try {
+            DirectStretchUtils.parseViewport("1,2,3");
+            Assert.fail("3 values should not be accepted");
+        } catch (IllegalArgumentException expected) {}
+    }
+
+    private static FitsRead makeFitsRead() throws Exception {
+        float[][] data = new float[NAXIS2][NAXIS1];
+        for (int y = 0; y < NAXIS2; y++) {
+            for (int x = 0; x < NAXIS1; x++) {
+                data[y][x] = (x * 7 + y) % 11 == 0 ? Float.NaN : (float) (Math.sin(x * .37) * 100 + y * 3);
+            }
+        }
+        Fits fits = new Fits();
+        fits.addHDU(FitsFactory.hduFactory(data));
+        return FitsReadFactory.createFitsReadArray(fits)[0];
+    }
+}
@@ -0,0 +1,51 @@
+/*
+ * License information at https://github.com/Caltech-IPAC/firefly/blob/master/License.txt
+ */
+package edu.caltech.ipac.firefly.server.visualize.hips;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.List;
+
+public class HiPSPrefetcherTest {
+
+    @Test
+    public void relatedTiles() {
+        // order 3, a pixel inside of base pixel 0: 8 neighbors, a parent, and 4 children
+        List<long[]> tiles = HiPSPrefetcher.getRelatedTiles(3, 20, 0, 9);
+        Assert.assertEquals(13, tiles.size());
+        for (int i = 0; i < 8; i++) {
+            Assert.assertEquals(3, tiles.get(i)[0]);
+            Assert.assertNotEquals(20, tiles.get(i)[1]);
+        }
+        Assert.assertArrayEquals(new long[] {2, 5}, tiles.get(8));
+        Assert.assertArrayEquals(new long[] {4, 80}, tiles.get(9));
+        Assert.assertArrayEquals(new long[] {4, 83}, tiles.get(12));
+
+        // at the survey's orders, no parent or children
+        Assert.assertEquals(8, HiPSPrefetcher.getRelatedTiles(3, 20, 3, 3).size());
+
+        // a corner pixel has 7 neighbors
+        Assert.assertEquals(7, HiPSPrefetcher.getRelatedTiles(3, 256, 3, 3).size());
+    }
+
+    @Test
+    public void tileUrl() {
+        Assert.assertEquals("http://hips.org/DSS/Norder9/Dir40000/Npix41234.jpg",
+                            HiPSPrefetcher.makeTileUrl("http://hips.org/DSS", 9, 41234, "jpg"));
+    }
+
+    @Test
+    public void tokenBucket() throws Exception {
+        HiPSPrefetcher.TokenBucket empty = new HiPSPrefetcher.TokenBucket(1000, 5, 0);
+        Assert.assertFalse("starts empty", empty.take());
+
+        HiPSPrefetcher.TokenBucket full = new HiPSPrefetcher.TokenBucket(0.001, 5);
+        for (int i = 0; i < 5; i++) Assert.assertTrue(full.take());
+        Assert.assertFalse("burst is limited", full.take());
+
+        Thread.sleep(20);
+        Assert.assertTrue("refilled", empty.take());
+    }
+}
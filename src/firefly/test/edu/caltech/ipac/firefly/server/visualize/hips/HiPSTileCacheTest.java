@@ -0,0 +1,93 @@
+/*
+ * License information at https://github.com/Caltech-IPAC/firefly/blob/master/License.txt
+ */
+package edu.caltech.ipac.firefly.server.visualize.hips;
+
+import edu.caltech.ipac.firefly.data.FileInfo;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+
+public class HiPSTileCacheTest {
+
+    private static final byte[] JPEG = {(byte) 0xFF, (byte) 0xD8, (byte) 0xFF, (byte) 0xE0, 0, 0x10, 'J', 'F', 'I', 'F'};
+
+    @Test
+    public void validation() throws IOException {
+        File dir = Files.createTempDirectory("hips-valid").toFile();
+        File good = write(new File(dir, "Npix1.jpg"), JPEG);
+        File bad = write(new File(dir, "Npix2.jpg"), "<html>error</html>".getBytes());
+        Assert.assertTrue(HiPSTileCache.isValid(good, good.getName(), JPEG.length));
+        Assert.assertFalse("truncated", HiPSTileCache.isValid(good, good.getName(), JPEG.length + 1));
+        Assert.assertFalse("not a jpeg", HiPSTileCache.isValid(bad, bad.getName(), -1));
+        Assert.assertFalse("not a png", HiPSTileCache.isValid(good, "Npix1.png", -1));
+    }
+
+    /**
+     * A cached tile is returned without fetching it again, and the least recently used tiles are
+     * deleted when the cache is over its size.
+     */
+    @Test
+    public void hitsAndEviction() throws Exception {
+        File src = Files.createTempDirectory("hips-src").toFile();
+        File dir = Files.createTempDirectory("hips-cache").toFile();
+        HiPSTileCache cache = new HiPSTileCache(dir, JPEG.length * 3, 60000, 60000);
+
+        File[] targets = new File[4];
+        for (int i = 0; i < targets.length; i++) {
+            File tile = write(new File(src, "Npix" + i + ".jpg"), JPEG);
+            targets[i] = new File(dir, tile.getName());
+            FileInfo fi = cache.get(tile.toURI().toURL(), targets[i]);
+            Assert.assertEquals(200, fi.getResponseCode());
+            if (i == 0) {
+                Assert.assertEquals(304, cache.get(tile.toURI().toURL(), targets[0]).getResponseCode());
+                Assert.assertEquals(1, cache.getHits());
+            }
+        }
+        Assert.assertEquals(4, cache.getDownloads());
+        Assert.assertTrue(cache.getSize() <= JPEG.length * 3);
+        Assert.assertFalse("least recently used is evicted", targets[0].exists());
+        Assert.assertTrue(targets[3].exists());
+
+        // files already in the directory are picked up by a new cache
+        HiPSTileCache reopened = new HiPSTileCache(dir, JPEG.length * 3, 60000, 60000);
+        Assert.assertEquals(0, reopened.getCount());
+        reopened.loadExisting();
+        Assert.assertEquals(cache.getCount(), reopened.getCount());
+        Assert.assertEquals(cache.getSize(), reopened.getSize());
+    }
+
+    /**
+     * A pinned tile is not evicted; it is evicted later, once it is unpinned and the least recently used.
+     */
+    @Test
+    public void pinnedNotEvicted() throws Exception {
+        File src = Files.createTempDirectory("hips-src").toFile();
+        File dir = Files.createTempDirectory("hips-cache").toFile();
+        HiPSTileCache cache = new HiPSTileCache(dir, JPEG.length * 2, 60000, 60000);
+
+        File[] targets = new File[4];
+        for (int i = 0; i < targets.length; i++) {
+            File tile = write(new File(src, "Npix" + i + ".jpg"), JPEG);
+            targets[i] = new File(dir, tile.getName());
+            if (i == 0) cache.pin(targets[0]);
+            Assert.assertEquals(200, cache.get(tile.toURI().toURL(), targets[i]).getResponseCode());
+            if (i == 2) cache.unpin(targets[0]);
+        }
+        Assert.assertTrue(cache.getSize() <= JPEG.length * 2);
+        Assert.assertFalse("unpinned, then evicted", targets[0].exists());
+        Assert.assertFalse("evicted while the first one was pinned", targets[1].exists());
+        Assert.assertTrue(targets[3].exists());
+    }
+
+    private static File write(File f, byte[] bytes) throws IOException {
+        try (FileOutputStream out = new FileOutputStream(f)) {
+            out.write(bytes);
+        }
+        return f;
+    }
+}
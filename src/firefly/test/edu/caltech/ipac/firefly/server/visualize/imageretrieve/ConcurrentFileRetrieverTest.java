@@ -0,0 +1,85 @@
+/*
+ * License information at https://github.com/Caltech-IPAC/firefly/blob/master/License.txt
+ */
+package edu.caltech.ipac.firefly.server.visualize.imageretrieve;
+
+import edu.caltech.ipac.firefly.data.FileInfo;
+import edu.caltech.ipac.firefly.visualize.Band;
+import edu.caltech.ipac.firefly.visualize.WebPlotRequest;
+import edu.caltech.ipac.util.download.FailedRequestException;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class ConcurrentFileRetrieverTest {
+
+    private FileRetriever urlRetriever;
+    private final AtomicInteger running = new AtomicInteger();
+    private final AtomicInteger maxRunning = new AtomicInteger();
+
+    @Before
+    public void setUp() {
+        urlRetriever = ImageFileRetrieverFactory.getRetriever(WebPlotRequest.makeURLPlotRequest("http://a.test/x.fits"));
+        ImageFileRetrieverFactory.addRetriever("URL", request -> {
+            int cnt = running.incrementAndGet();
+            maxRunning.accumulateAndGet(cnt, Math::max);
+            try {
+                Thread.sleep(300);
+                if (request.getURL().contains("fail")) throw new FailedRequestException("not found");
+                return null;
+            } catch (InterruptedException e) {
+                throw new FailedRequestException("interrupted");
+            } finally {
+                running.decrementAndGet();
+            }
+        });
+    }
+
+    @After
+    public void tearDown() {
+        ImageFileRetrieverFactory.addRetriever("URL", urlRetriever);
+    }
+
+    @Test
+    public void bandsAtOnce() throws Exception {
+        Map<Band, WebPlotRequest> requests = new LinkedHashMap<>();
+        requests.put(Band.RED, WebPlotRequest.makeURLPlotRequest("http://a.test/red.fits"));
+        requests.put(Band.GREEN, WebPlotRequest.makeURLPlotRequest("http://b.test/green.fits"));
+        requests.put(Band.BLUE, WebPlotRequest.makeURLPlotRequest("http://c.test/fail.fits"));
+        AtomicInteger reported = new AtomicInteger();
+
+        long start = System.currentTimeMillis();
+        Map<Band, Future<FileInfo>> results = ConcurrentFileRetriever.retrieve(requests, (band, done, total) -> reported.incrementAndGet());
+        Assert.assertArrayEquals("same order", requests.keySet().toArray(), results.keySet().toArray());
+        results.get(Band.RED).get();
+        results.get(Band.GREEN).get();
+        try {
+            results.get(Band.BLUE).get();
+            Assert.fail("blue should fail");
+        } catch (ExecutionException e) {
+            Assert.assertTrue(e.getCause() instanceof FailedRequestException);
+        }
+        long elapsed = System.currentTimeMillis() - start;
+        Assert.assertTrue("as long as the slowest band: " + elapsed, elapsed < 800);
+        Assert.assertEquals(3, reported.get());
+    }
+
+    @Test
+    public void perHostLimit() throws Exception {
+        Map<Integer, WebPlotRequest> requests = new LinkedHashMap<>();
+        for (int i = 0; i < 6; i++) {
+            requests.put(i, WebPlotRequest.makeURLPlotRequest("http://same.test/" + i + ".fits"));
+        }
+        for (Future<FileInfo> f : ConcurrentFileRetriever.retrieve(requests, null).values()) f.get();
+        Assert.assertTrue("at most 3 from one host: " + maxRunning.get(), maxRunning.get() <= 3);
+        Assert.assertEquals("same.test", ConcurrentFileRetriever.getHostKey(requests.get(0)));
+        Assert.assertEquals("hosts are dropped when done", 0, ConcurrentFileRetriever.getActiveHostCount());
+    }
+}
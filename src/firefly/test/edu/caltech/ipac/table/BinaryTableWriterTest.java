@@ -0,0 +1,129 @@
+/*
+ * License information at https://github.com/Caltech-IPAC/firefly/blob/master/License.txt
+ */
+package edu.caltech.ipac.table;
+
+import edu.caltech.ipac.firefly.data.TableServerRequest;
+import org.json.simple.JSONArray;
+import org.json.simple.JSONObject;
+import org.json.simple.JSONValue;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+
+public class BinaryTableWriterTest {
+
+    @Test
+    public void columnBlocks() throws Exception {
+        DataType d = new DataType("d", Double.class);
+        DataType i = new DataType("i", Integer.class);
+        DataType s = new DataType("s", String.class);
+        DataType ary = new DataType("ary", Integer.class);
+        ary.setArraySize("2");
+        DataGroup dg = new DataGroup("test", new DataType[] {d, i, s, ary});
+        for (int r = 0; r < 10; r++) {
+            DataObject row = new DataObject(dg);
+            row.setDataElement(d, r == 3 ? null : r * 0.5);
+            row.setDataElement(i, r == 4 ? null : r * 10);
+            row.setDataElement(s, r == 5 ? null : "\u00e9" + r);
+            row.setDataElement(ary, new int[] {r, -r});
+            dg.add(row);
+        }
+        TableServerRequest req = new TableServerRequest("test");
+        req.setParam(TableServerRequest.RESPONSE_FORMAT, BinaryTableWriter.BINARY);
+        Assert.assertTrue(BinaryTableWriter.isRequested(req));
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        BinaryTableWriter.write(out, new DataGroupPart(dg, 0, dg.size()), req);
+        ByteBuffer buf = ByteBuffer.wrap(out.toByteArray()).order(ByteOrder.LITTLE_ENDIAN);
+
+        Assert.assertEquals("FFTB", new String(readBytes(buf, 4), StandardCharsets.US_ASCII));
+        Assert.assertEquals(BinaryTableWriter.VERSION, buf.getInt());
+        JSONObject model = (JSONObject) JSONValue.parse(readSized(buf));
+        Assert.assertEquals("test", model.get("title"));
+        Assert.assertNull("no rows in the header", ((JSONObject) model.get("tableData")).get("data"));
+        Assert.assertEquals(10, buf.getInt());
+        Assert.assertEquals(4, buf.getInt());
+
+        // double column
+        Assert.assertEquals(BinaryTableWriter.FLOAT64, readType(buf));
+        byte[] valid = readValid(buf, 10);
+        Assert.assertFalse("null", isValid(valid, 3));
+        Assert.assertTrue(isValid(valid, 9));
+        Assert.assertEquals(4.5, buf.getDouble(buf.position() + 9 * 8), 0);
+        skip(buf, 10 * 8);
+
+        // int column
+        Assert.assertEquals(BinaryTableWriter.INT32, readType(buf));
+        valid = readValid(buf, 10);
+        Assert.assertFalse("null", isValid(valid, 4));
+        Assert.assertEquals(70, buf.getInt(buf.position() + 7 * 4));
+        skip(buf, 10 * 4);
+
+        // string column
+        Assert.assertEquals(BinaryTableWriter.STRING, readType(buf));
+        valid = readValid(buf, 10);
+        Assert.assertFalse("null", isValid(valid, 5));
+        int[] offsets = new int[11];
+        for (int r = 0; r <= 10; r++) offsets[r] = buf.getInt();
+        align(buf);
+        byte[] strs = readBytes(buf, offsets[10]);
+        Assert.assertEquals("\u00e92", new String(strs, offsets[2], offsets[3] - offsets[2], StandardCharsets.UTF_8));
+        Assert.assertEquals("null is empty", offsets[5], offsets[6]);
+        align(buf);
+
+        // array column
+        Assert.assertEquals(BinaryTableWriter.JSON, readType(buf));
+        readValid(buf, 10);
+        JSONArray vals = (JSONArray) JSONValue.parse(readSized(buf));
+        Assert.assertEquals("[2,-2]", JSONValue.toJSONString(vals.get(2)));
+        Assert.assertFalse("all read", buf.hasRemaining());
+    }
+
+//====================================================================
+//
+//====================================================================
+
+    private static int readType(ByteBuffer buf) {
+        int type = buf.getInt();
+        buf.getInt();
+        return type;
+    }
+
+    private static byte[] readValid(ByteBuffer buf, int rows) {
+        byte[] valid = readBytes(buf, (rows + 7) / 8);
+        align(buf);
+        return valid;
+    }
+
+    private static boolean isValid(byte[] valid, int row) {
+        return (valid[row >> 3] & (1 << (row & 7))) != 0;
+    }
+
+    private static String readSized(ByteBuffer buf) {
+        int len = buf.getInt();
+        buf.getInt();
+        String s = new String(readBytes(buf, len), StandardCharsets.UTF_8);
+        align(buf);
+        return s;
+    }
+
+    private static byte[] readBytes(ByteBuffer buf, int len) {
+        byte[] bytes = new byte[len];
+        buf.get(bytes);
+        return bytes;
+    }
+
+    private static void skip(ByteBuffer buf, int len) {
+        buf.position(buf.position() + len);
+        align(buf);
+    }
+
+    private static void align(ByteBuffer buf) {
+        buf.position((buf.position() + 7) / 8 * 8);
+    }
+}
@@ -0,0 +1,226 @@
+/*
+ * License information at https://github.com/Caltech-IPAC/firefly/blob/master/License.txt
+ */
+package edu.caltech.ipac.table;
+
+import edu.caltech.ipac.TestCategory;
+import edu.caltech.ipac.table.io.IpacTableReader;
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.lang.management.BufferPoolMXBean;
+import java.lang.management.ManagementFactory;
+import java.util.function.IntFunction;
+import java.util.function.Supplier;
+
+public class DirectPrimitiveListTest {
+
+    @Test
+    public void directValues() {
+        verifyNumeric(false);
+    }
+
+    @Test
+    public void mappedValues() {
+        verifyNumeric(true);
+    }
+
+    @Test
+    public void dictionary() {
+        DirectPrimitiveList.Dictionary strs = new DirectPrimitiveList.Dictionary(false);
+        for (int i = 0; i < 100000; i++) {
+            strs.add(i % 7 == 0 ? null : "band-" + (i % 4));
+        }
+        Assert.assertEquals("size", 100000, strs.size());
+        Assert.assertTrue("still encoded", strs.isEncoded());
+        Assert.assertEquals("distinct values", 4, strs.getDictSize());
+        Assert.assertNull("null value", strs.get(0));
+        Assert.assertEquals("value", "band-1", strs.get(1));
+        Assert.assertEquals("last value", "band-3", strs.get(99999));
+
+        strs.set(1, "changed");
+        Assert.assertEquals("updated value", "changed", strs.get(1));
+    }
+
+    @Test
+    public void dictionaryGap() {
+        DirectPrimitiveList.Dictionary strs = new DirectPrimitiveList.Dictionary(true);
+        strs.set(0, "first");
+        strs.set(5, "last");
+        Assert.assertEquals("size", 6, strs.size());
+        Assert.assertEquals("first", strs.get(0));
+        for (int i = 1; i < 5; i++) Assert.assertNull("gap at " + i, strs.get(i));
+        Assert.assertEquals("last", strs.get(5));
+    }
+
+    @Test
+    public void readStorage() throws IOException {
+        File inf = File.createTempFile("storage-", ".tbl");
+        try {
+            try (FileWriter writer = new FileWriter(inf)) {
+                writer.write("|id  |name |\n|int |char |\n");
+                for (int i = 0; i < 100; i++) writer.write(String.format(" %-4d %-5s \n", i, "n" + i));
+            }
+            DataGroup mapped = IpacTableReader.read(inf, DataGroup.Storage.MAPPED);
+            Assert.assertEquals(DataGroup.Storage.MAPPED, mapped.getStorage());
+            Assert.assertEquals("rows", 100, mapped.size());
+            Assert.assertEquals(42, mapped.get(42).getDataElement("id"));
+            Assert.assertEquals("n42", mapped.get(42).getDataElement("name"));
+
+            Assert.assertEquals(DataGroup.Storage.HEAP, IpacTableReader.read(inf).getStorage());
+        } finally {
+            inf.delete();
+        }
+    }
+
+    @Test
+    public void dictionaryOverflow() {
+        DirectPrimitiveList.Dictionary strs = new DirectPrimitiveList.Dictionary(false, 10);
+        for (int i = 0; i < 50; i++) {
+            strs.add(i < 20 ? "s" + (i % 3) : "s" + i);
+        }
+        Assert.assertFalse("no longer encoded", strs.isEncoded());
+        Assert.assertEquals("size", 50, strs.size());
+        Assert.assertEquals("value before overflow", "s1", strs.get(4));
+        Assert.assertEquals("value after overflow", "s49", strs.get(49));
+    }
+
+    @Test
+    public void dataGroupStorage() {
+        DataType[] cols = new DataType[] {
+                new DataType("ra", Double.class),
+                new DataType("id", Long.class),
+                new DataType("band", String.class)
+        };
+        for (DataGroup.Storage storage : DataGroup.Storage.values()) {
+            DataGroup dg = new DataGroup("test", cols);
+            dg.setStorage(storage);
+            for (int i = 0; i < 1000; i++) {
+                DataObject row = new DataObject(dg);
+                row.setDataElement(cols[0], i * 0.5);
+                row.setDataElement(cols[1], (long) i);
+                row.setDataElement(cols[2], i % 2 == 0 ? "odd" : "even");
+                dg.add(row);
+            }
+            dg.trimToSize();
+            Assert.assertEquals(storage + " size", 1000, dg.size());
+            Assert.assertEquals(storage + " ra", 499.5, dg.getData("ra", 999));
+            Assert.assertEquals(storage + " id", 10L, dg.getData("id", 10));
+            Assert.assertEquals(storage + " band", "even", dg.getData("band", 3));
+            Assert.assertEquals(storage + " clone keeps storage", storage, dg.cloneWithoutData().getStorage());
+            dg.clearData();
+        }
+    }
+
+    /**
+     * Compare the memory footprint of the heap-based lists with the off-heap ones.  The off-heap lists must keep
+     * their values off of the heap.
+     */
+    @Category({TestCategory.Perf.class})
+    @Test
+    public void memTest() throws InterruptedException {
+        int testSize = 1000000;
+
+        long[] heapDoubles = memUsage("PrimitiveList.Doubles", testSize, PrimitiveList.Doubles::new, i -> i + Math.random());
+        long[] directDoubles = memUsage("Direct.Doubles", testSize, () -> new DirectPrimitiveList.Doubles(false), i -> i + Math.random());
+        long[] mappedDoubles = memUsage("Mapped.Doubles", testSize, () -> new DirectPrimitiveList.Doubles(true), i -> i + Math.random());
+        Assert.assertTrue("doubles on the heap", heapDoubles[0] > testSize * 7L);
+        Assert.assertTrue("direct doubles off the heap", directDoubles[1] >= testSize * 8L && directDoubles[0] < heapDoubles[0] / 4);
+        Assert.assertTrue("mapped doubles off the heap", mappedDoubles[1] >= testSize * 8L && mappedDoubles[0] < heapDoubles[0] / 4);
+
+        long[] heapObjects = memUsage("PrimitiveList.Objects", testSize, PrimitiveList.Objects::new, i -> "designation-" + (i % 100));
+        long[] directDict = memUsage("Direct.Dictionary", testSize, () -> new DirectPrimitiveList.Dictionary(false), i -> "designation-" + (i % 100));
+        long[] mappedDict = memUsage("Mapped.Dictionary", testSize, () -> new DirectPrimitiveList.Dictionary(true), i -> "designation-" + (i % 100));
+        Assert.assertTrue("direct dictionary off the heap", directDict[1] >= testSize * 4L && directDict[0] < heapObjects[0] / 4);
+        Assert.assertTrue("mapped dictionary off the heap", mappedDict[1] >= testSize * 4L && mappedDict[0] < heapObjects[0] / 4);
+    }
+
+    /**
+     * @return the heap and the off-heap memory used by the list, in bytes
+     */
+    private static long[] memUsage(String desc, int testSize, Supplier<PrimitiveList> factory, IntFunction<Object> valFunc)
+                                    throws InterruptedException {
+        long[] begin = settledMemUsed();
+        long start = System.currentTimeMillis();
+
+        PrimitiveList list = factory.get();
+        for (int i = 0; i < testSize; i++) {
+            list.add(valFunc.apply(i));
+        }
+        list.trimToSize();
+
+        long elapsed = System.currentTimeMillis() - start;
+        long[] end = settledMemUsed();
+        long heap = end[0] - begin[0];
+        long direct = end[1] - begin[1];
+        System.out.printf("%-22s(%,d):  heap:%.2fMB  off-heap:%.2fMB  elapsed:%.2fsecs %n",
+                            desc, testSize, heap/1000/1000.0, direct/1000/1000.0, elapsed/1000.0);
+        Assert.assertNotNull(list.get(testSize - 1));
+        list.clear();
+        return new long[] {heap, direct};
+    }
+
+    /**
+     * Collect the garbage until the heap and the buffers stop shrinking.  Direct and mapped buffers are only
+     * freed after their owner is collected, so without this the buffers of the previous list are taken
+     * off of the next one.
+     * @return the heap and the off-heap memory in use, in bytes
+     */
+    private static long[] settledMemUsed() throws InterruptedException {
+        Runtime rt = Runtime.getRuntime();
+        long[] last = {Long.MAX_VALUE, Long.MAX_VALUE};
+        for (int i = 0; i < 20; i++) {
+            System.gc();
+            Thread.sleep(50);
+            long[] used = {rt.totalMemory() - rt.freeMemory(), directMemUsed()};
+            if (used[0] >= last[0] && used[1] >= last[1]) break;
+            last = used;
+        }
+        return last;
+    }
+
+    private static long directMemUsed() {
+        long used = 0;
+        for (BufferPoolMXBean pool : ManagementFactory.getPlatformMXBeans(BufferPoolMXBean.class)) {
+            used += pool.getMemoryUsed();
+        }
+        return used;
+    }
+
+    private static void verifyNumeric(boolean mapped) {
+        DirectPrimitiveList.Doubles doubles = new DirectPrimitiveList.Doubles(mapped);
+        DirectPrimitiveList.Integers ints = new DirectPrimitiveList.Integers(mapped);
+        DirectPrimitiveList.Longs longs = new DirectPrimitiveList.Longs(mapped);
+        DirectPrimitiveList.Floats floats = new DirectPrimitiveList.Floats(mapped);
+        int count = DirectPrimitiveList.CHUNK_SIZE * 2 + 10;        // span more than one chunk
+        for (int i = 0; i < count; i++) {
+            doubles.add(i % 10 == 0 ? null : i * 1.5);
+            ints.add(i % 10 == 0 ? null : i);
+            longs.add(i % 10 == 0 ? null : (long) i);
+            floats.add(i % 10 == 0 ? null : (float) i);
+        }
+        doubles.trimToSize();
+        Assert.assertEquals("size", count, doubles.size());
+        Assert.assertNull("null double", doubles.get(DirectPrimitiveList.CHUNK_SIZE + 4));
+        Assert.assertEquals("double", (count - 1) * 1.5, doubles.get(count - 1));
+        Assert.assertEquals("int", 7, ints.get(7));
+        Assert.assertNull("null int", ints.get(20));
+        Assert.assertEquals("long", (long) DirectPrimitiveList.CHUNK_SIZE + 1, longs.get(DirectPrimitiveList.CHUNK_SIZE + 1));
+        Assert.assertEquals("float", 3f, floats.get(3));
+
+        // growing after trimToSize
+        doubles.add(1.0);
+        Assert.assertEquals("grow after trim", 1.0, doubles.get(count));
+        Assert.assertEquals("existing value after trim", 3.0, doubles.get(2));
+
+        doubles.clear();
+        ints.clear();
+        longs.clear();
+        floats.clear();
+        Assert.assertEquals("cleared", 0, doubles.size());
+    }
+}
@@ -132,6 +132,32 @@ public class EmbeddedDbUtilTest extends ConfigTest {
 		Assert.assertEquals(202.4680189, selVals.get(5, "RA(deg)"));
 	}
 
+	/**
+	 * streaming ingest should produce the same database as ingesting a DataGroup
+	 */
+	@Test
+	public void testStreamingIngest() throws IOException {
+		HsqlDbAdapter dbAdapter = new HsqlDbAdapter();
+		File streamDb = File.createTempFile("TestStreamDb_", ".hsql");
+		streamDb.deleteOnExit();
+		EmbeddedDbUtil.createDbFile(streamDb, dbAdapter);
+
+		EmbeddedDbUtil.DbTableSink sink = new EmbeddedDbUtil.DbTableSink(streamDb, dbAdapter, MAIN_DB_TBL, null);
+		int rows = TableUtil.readAnyFormat(testFile, 0, null, sink);
+		Assert.assertEquals(10, rows);
+
+		TableServerRequest req = new TableServerRequest("n/a (id not used)");
+		req.setSortInfo(new SortInfo(SortInfo.Direction.DESC, "sigra"));
+		DataGroupPart expected = EmbeddedDbUtil.execRequestQuery(req, dbFile, MAIN_DB_TBL);
+		DataGroupPart actual = EmbeddedDbUtil.execRequestQuery(req, streamDb, MAIN_DB_TBL);
+
+		Assert.assertEquals(expected.getRowCount(), actual.getRowCount());
+		for (int i = 0; i < expected.getData().size(); i++) {
+			Assert.assertArrayEquals(expected.getData().get(i).getData(), actual.getData().get(i).getData());
+		}
+		testMeta(actual.getData());
+	}
+
 	private void testMeta(DataGroup data) {
 		// test meta
 		Assert.assertEquals("ORIGIN value", data.getAttribute("ORIGIN"));
@@ -0,0 +1,112 @@
+/*
+ * License information at https://github.com/Caltech-IPAC/firefly/blob/master/License.txt
+ */
+package edu.caltech.ipac.table;
+
+import edu.caltech.ipac.TestCategory;
+import edu.caltech.ipac.firefly.data.TableServerRequest;
+import org.json.simple.JSONValue;
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+
+import java.io.ByteArrayOutputStream;
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+
+public class JsonTableWriterTest {
+
+    @Test
+    public void sameAsJsonTableUtil() throws Exception {
+        verify(DataGroup.Storage.HEAP);
+        verify(DataGroup.Storage.DIRECT);
+    }
+
+    @Test
+    public void emptyTable() throws Exception {
+        DataGroup dg = makeTable(DataGroup.Storage.HEAP, 0);
+        TableServerRequest req = new TableServerRequest("test");
+        String expected = JsonTableUtil.toJsonTableModel(new DataGroupPart(dg, 0, 0), req).toJSONString();
+        StringWriter actual = new StringWriter();
+        JsonTableWriter.write(actual, new DataGroupPart(dg, 0, 0), req);
+        Assert.assertEquals(JSONValue.parse(expected), JSONValue.parse(actual.toString()));
+    }
+
+    @Test
+    public void escapedStrings() throws Exception {
+        String s = "a \"quoted\" \\ / \n\t\u0001 \u00e9   end";
+        StringWriter out = new StringWriter();
+        JsonTableWriter.writeString(out, s);
+        Assert.assertEquals("same as json-simple", JSONValue.toJSONString(s), out.toString());
+    }
+
+    /**
+     * Stream a large page, compared to building it with json-simple.  Both must give the same JSON.
+     */
+    @Category({TestCategory.Perf.class})
+    @Test
+    public void perfTest() throws Exception {
+        DataGroup dg = makeTable(DataGroup.Storage.HEAP, 100000);
+        TableServerRequest req = new TableServerRequest("test");
+        DataGroupPart page = new DataGroupPart(dg, 0, dg.size());
+        JsonTableWriter.write(new ByteArrayOutputStream(), page, req);     // warm up
+
+        long start = System.currentTimeMillis();
+        String tree = JsonTableUtil.toJsonTableModel(page, req).toJSONString();
+        long treeTime = System.currentTimeMillis() - start;
+
+        start = System.currentTimeMillis();
+        ByteArrayOutputStream streamed = new ByteArrayOutputStream(tree.length());
+        JsonTableWriter.write(streamed, page, req);
+        long streamTime = System.currentTimeMillis() - start;
+
+        Assert.assertEquals(JSONValue.parse(tree), JSONValue.parse(new String(streamed.toByteArray(), StandardCharsets.UTF_8)));
+        System.out.printf("%,d rows, %,d bytes: json-simple %.2fs, streamed %.2fs%n",
+                dg.size(), streamed.size(), treeTime / 1000.0, streamTime / 1000.0);
+    }
+
+//====================================================================
+//
+//====================================================================
+
+    private static void verify(DataGroup.Storage storage) throws Exception {
+        DataGroup dg = makeTable(storage, 1000);
+        dg.getTableMeta().setAttribute("key1", "value1");
+        TableServerRequest req = new TableServerRequest("test");
+        req.setPageSize(100);
+
+        DataGroupPart page = new DataGroupPart(dg, 0, dg.size());
+        String expected = JsonTableUtil.toJsonTableModel(page, req).toJSONString();
+
+        ByteArrayOutputStream actual = new ByteArrayOutputStream();
+        JsonTableWriter.write(actual, page, req);
+        Assert.assertEquals(storage + " storage", JSONValue.parse(expected),
+                            JSONValue.parse(new String(actual.toByteArray(), StandardCharsets.UTF_8)));
+    }
+
+    private static DataGroup makeTable(DataGroup.Storage storage, int rows) {
+        DataType d = new DataType("d", Double.class);
+        DataType f = new DataType("f", Float.class);
+        DataType i = new DataType("i", Integer.class);
+        DataType l = new DataType("l", Long.class);
+        DataType s = new DataType("s", String.class);
+        DataType b = new DataType("b", Boolean.class);
+        DataType ary = new DataType("ary", Double.class);
+        ary.setArraySize("3");
+        DataGroup dg = new DataGroup("test", new DataType[] {d, f, i, l, s, b, ary});
+        dg.setStorage(storage);
+        for (int r = 0; r < rows; r++) {
+            DataObject row = new DataObject(dg);
+            boolean isNull = r % 10 == 3;
+            row.setDataElement(d, isNull ? null : r * 0.123456789e-3);
+            row.setDataElement(f, isNull ? null : r * 1.5f);
+            row.setDataElement(i, isNull ? null : r - 500);
+            row.setDataElement(l, isNull ? null : Long.MAX_VALUE - r);
+            row.setDataElement(s, isNull ? null : "row \"" + r + "\" \u00e9/" + (r % 4));
+            row.setDataElement(b, isNull ? null : r % 2 == 0);
+            row.setDataElement(ary, isNull ? null : new double[] {r, r + 0.5, Double.NaN});
+            dg.add(row);
+        }
+        return dg;
+    }
+}
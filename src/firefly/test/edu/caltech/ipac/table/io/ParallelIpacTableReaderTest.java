@@ -0,0 +1,187 @@
+/*
+ * License information at https://github.com/Caltech-IPAC/firefly/blob/master/License.txt
+ */
+package edu.caltech.ipac.table.io;
+
+import edu.caltech.ipac.TestCategory;
+import edu.caltech.ipac.table.DataGroup;
+import edu.caltech.ipac.table.DataType;
+import edu.caltech.ipac.table.IpacTableUtil;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+
+public class ParallelIpacTableReaderTest {
+
+    private File file;
+
+    @Before
+    public void setUp() throws IOException {
+        file = File.createTempFile("parallel-", ".tbl");
+    }
+
+    @After
+    public void tearDown() {
+        file.delete();
+    }
+
+    @Test
+    public void sameAsSerial() throws Exception {
+        writeTable(file, 5000, true);
+        verify(file, 4096);
+        verify(file, 4096, "s", "d");
+        verify(file, 1024 * 1024);
+    }
+
+    @Test
+    public void unknownType() throws Exception {
+        try (PrintWriter out = new PrintWriter(new FileWriter(file))) {
+            out.println("|   a   |   b   |");
+            for (int r = 0; r < 3000; r++) {
+                out.println(String.format(" %7d %7s ", r, r < 2000 ? "" : "x" + r));
+            }
+        }
+        Assert.assertNull("read serially when a type is not known from the first rows",
+                          IpacTableReader.readParallel(file, IpacTableUtil.getMetaInfo(file), 4096));
+        Assert.assertEquals(3000, IpacTableReader.read(file).size());
+    }
+
+    @Test
+    public void parseNumbers() {
+        assertDouble("123.456");
+        assertDouble("-0.000012345");
+        assertDouble("1.5e-9");
+        assertDouble("+7E+3");
+        assertDouble("42");
+        assertDouble(".5");
+        Assert.assertTrue("too many digits", Double.isNaN(parse("1.2345678901234567", 15, 22)));
+        Assert.assertTrue("not a number", Double.isNaN(parse("1.2.3", 15, 22)));
+        Assert.assertTrue("no digits", Double.isNaN(parse("-.e5", 15, 22)));
+        Assert.assertEquals(1.17f, (float) parse("1.17", 7, 10), 0);
+
+        byte[] b = "-123456789".getBytes(StandardCharsets.US_ASCII);
+        Assert.assertEquals(-123456789, ParallelIpacTableReader.parseLong(b, 0, b.length, 9));
+        Assert.assertEquals(Long.MIN_VALUE, ParallelIpacTableReader.parseLong(b, 0, b.length, 8));
+        b = "9223372036854775808".getBytes(StandardCharsets.US_ASCII);
+        Assert.assertEquals("too big", Long.MIN_VALUE, ParallelIpacTableReader.parseLong(b, 0, b.length, 19));
+    }
+
+    @Test
+    public void badRow() throws Exception {
+        writeTable(file, 10, false);
+        try (FileWriter out = new FileWriter(file, true)) {
+            out.write("bad row\n");
+        }
+        try {
+            IpacTableReader.readParallel(file, IpacTableUtil.getMetaInfo(file), 4096);
+            Assert.fail("a data row must start with a space");
+        } catch (IOException e) {
+            Assert.assertTrue(e.getMessage(), e.getMessage().startsWith("Data row must start with a space."));
+        }
+    }
+
+    /**
+     * Read a large table serially and in parallel.  Both must give the same table.
+     */
+    @Category({TestCategory.Perf.class})
+    @Test
+    public void perfTest() throws Exception {
+        writeTable(file, 300000, false);
+        IpacTableReader.readParallel(file, IpacTableUtil.getMetaInfo(file), 1024 * 1024);      // warm up
+
+        long start = System.currentTimeMillis();
+        DataGroup serial = IpacTableReader.doRead(new BufferedReader(new FileReader(file)), IpacTableUtil.getMetaInfo(file));
+        long serialTime = System.currentTimeMillis() - start;
+
+        start = System.currentTimeMillis();
+        DataGroup parallel = IpacTableReader.readParallel(file, IpacTableUtil.getMetaInfo(file), 1024 * 1024);
+        long parallelTime = System.currentTimeMillis() - start;
+
+        assertSameTable(serial, parallel);
+        System.out.printf("%,d rows, %,d bytes with %d processors: serial %.2fs, parallel %.2fs%n",
+                parallel.size(), file.length(), Runtime.getRuntime().availableProcessors(),
+                serialTime / 1000.0, parallelTime / 1000.0);
+    }
+
+//====================================================================
+//
+//====================================================================
+
+    private static void verify(File file, long chunkSize, String... onlyColumns) throws Exception {
+        DataGroup expected = IpacTableReader.doRead(new BufferedReader(new FileReader(file)), IpacTableUtil.getMetaInfo(file), onlyColumns);
+        DataGroup actual = IpacTableReader.readParallel(file, IpacTableUtil.getMetaInfo(file), chunkSize, onlyColumns);
+        assertSameTable(expected, actual);
+    }
+
+    private static void assertSameTable(DataGroup expected, DataGroup actual) {
+        Assert.assertNotNull(actual);
+        Assert.assertEquals("rows", expected.size(), actual.size());
+        DataType[] cols = expected.getDataDefinitions();
+        Assert.assertEquals("columns", cols.length, actual.getDataDefinitions().length);
+        for (DataType dt : cols) {
+            DataType adt = actual.getDataDefintion(dt.getKeyName());
+            Assert.assertEquals(dt.getKeyName() + " type", dt.getDataType(), adt.getDataType());
+            Assert.assertEquals(dt.getKeyName() + " precision", dt.getPrecision(), adt.getPrecision());
+            for (int r = 0; r < expected.size(); r++) {
+                Object ev = expected.getData(dt.getKeyName(), r);
+                Object av = actual.getData(dt.getKeyName(), r);
+                if (ev != null && ev.getClass().isArray()) {
+                    Assert.assertArrayEquals(dt.getKeyName() + " at " + r, (double[]) ev, (double[]) av, 0);
+                } else {
+                    Assert.assertEquals(dt.getKeyName() + " at " + r, ev, av);
+                }
+            }
+        }
+    }
+
+    private static void assertDouble(String s) {
+        Assert.assertEquals(s, Double.parseDouble(s), parse(s, 15, 22), 0);
+        Assert.assertEquals(s, Float.parseFloat(s), (float) parse(s, 7, 10), 0);
+    }
+
+    private static double parse(String s, int maxDigits, int maxExp) {
+        byte[] b = (" " + s + " ").getBytes(StandardCharsets.US_ASCII);
+        return ParallelIpacTableReader.parseDouble(b, 1, b.length - 1, maxDigits, maxExp);
+    }
+
+    /**
+     * A table with columns of every kind; with mixed, null and short rows when mixed is true.
+     */
+    private static void writeTable(File file, int rows, boolean mixed) throws IOException {
+        Random rand = new Random(7);
+        try (PrintWriter out = new PrintWriter(new FileWriter(file))) {
+            out.println("\\fixlen = T");
+            out.println("\\ a comment");
+            out.println("|         d          |      f     |      i     |          l          |       s      |  guess  |  untyped  |");
+            out.println("|       double       |    float   |     int    |         long        |     char     |  double |           |");
+            out.println("|                    |            |            |                     |              |         |           |");
+            out.println("|        null        |    null    |    null    |        null         |     null     |   null  |   null    |");
+            for (int r = 0; r < rows; r++) {
+                boolean isNull = mixed && r % 17 == 3;
+                String d = isNull ? "null" : r % 5 == 0 ? String.valueOf(rand.nextGaussian() * 1e30) : String.format("%.6f", rand.nextDouble() * 360);
+                String f = isNull ? "null" : String.format("%.3f", rand.nextFloat() * 100);
+                String i = isNull ? "null" : String.valueOf(rand.nextInt(2000000) - 1000000);
+                String l = isNull ? "null" : String.valueOf(rand.nextLong());
+                String s = isNull ? "null" : (mixed && r % 101 == 7 ? "\u00e9t\u00e9 " : "row ") + r;
+                String guess = r < 1500 ? "null" : String.valueOf(r * 0.25);       // its format is guessed after the first rows
+                String untyped = "x" + r;
+                String line = String.format(" %20s %12s %12s %21s %14s %9s %11s ", d, f, i, l, s, guess, untyped);
+                if (mixed && r % 23 == 5) line = line.substring(0, 47);         // short row, without l and the rest
+                out.println(line);
+                if (mixed && r % 97 == 0) out.println();
+                if (mixed && r % 501 == 0) out.println("\\ a comment between rows");
+            }
+        }
+    }
+}
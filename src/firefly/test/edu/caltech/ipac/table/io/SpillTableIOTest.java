@@ -0,0 +1,112 @@
+/*
+ * License information at https://github.com/Caltech-IPAC/firefly/blob/master/License.txt
+ */
+package edu.caltech.ipac.table.io;
+
+import edu.caltech.ipac.table.DataGroup;
+import edu.caltech.ipac.table.DataObject;
+import edu.caltech.ipac.table.DataType;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+
+public class SpillTableIOTest {
+
+    private File source;
+    private File spill;
+
+    @Before
+    public void setUp() throws IOException {
+        source = File.createTempFile("spill-", ".tbl");
+        spill = SpillTableIO.getSpillFile(source);
+    }
+
+    @After
+    public void tearDown() {
+        source.delete();
+        spill.delete();
+    }
+
+    @Test
+    public void roundTrip() throws Exception {
+        DataGroup dg = makeTable(1000);
+        IpacTableWriter.save(source, dg);
+        SpillTableIO.write(spill, dg, source);
+
+        DataGroup actual = SpillTableIO.read(spill, source);
+        Assert.assertEquals(dg.size(), actual.size());
+        Assert.assertEquals("value1", actual.getTableMeta().getAttribute("key1"));
+        for (DataType dt : dg.getDataDefinitions()) {
+            DataType adt = actual.getDataDefintion(dt.getKeyName());
+            Assert.assertEquals(dt.getKeyName() + " type", dt.getDataType(), adt.getDataType());
+            Assert.assertEquals(dt.getKeyName() + " units", dt.getUnits(), adt.getUnits());
+            for (int r = 0; r < dg.size(); r++) {
+                Object ev = dg.getData(dt.getKeyName(), r);
+                Object av = actual.getData(dt.getKeyName(), r);
+                if (ev instanceof double[]) {
+                    Assert.assertArrayEquals(dt.getKeyName() + " at " + r, (double[]) ev, (double[]) av, 0);
+                } else {
+                    Assert.assertEquals(dt.getKeyName() + " at " + r, ev, av);
+                }
+            }
+        }
+
+        DataGroup some = SpillTableIO.read(spill, source, "s", "d", "nosuch");
+        Assert.assertEquals(2, some.getDataDefinitions().length);
+        Assert.assertEquals("s", some.getDataDefinitions()[0].getKeyName());
+        Assert.assertEquals(dg.getData("d", 99), some.getData("d", 99));
+        Assert.assertEquals("value1", some.getTableMeta().getAttribute("key1"));
+    }
+
+    @Test
+    public void staleSpill() throws Exception {
+        DataGroup dg = makeTable(10);
+        IpacTableWriter.save(source, dg);
+        SpillTableIO.write(spill, dg, source);
+        Assert.assertNotNull(SpillTableIO.read(spill, source));
+
+        IpacTableWriter.save(source, makeTable(20));
+        Assert.assertNull("source has changed", SpillTableIO.read(spill, source));
+        SpillTableIO.write(spill, makeTable(20), source);
+        Assert.assertEquals("replaced", 20, SpillTableIO.read(spill, source).size());
+        String[] left = spill.getParentFile().list((dir, name) -> name.startsWith(spill.getName() + "-"));
+        Assert.assertEquals("no temporary file is left", 0, left.length);
+        spill.delete();
+        Assert.assertNull("no spill file", SpillTableIO.read(spill, source));
+    }
+
+//====================================================================
+//
+//====================================================================
+
+    private static DataGroup makeTable(int rows) {
+        DataType d = new DataType("d", Double.class);
+        d.setUnits("deg");
+        DataType f = new DataType("f", Float.class);
+        DataType i = new DataType("i", Integer.class);
+        DataType l = new DataType("l", Long.class);
+        DataType s = new DataType("s", String.class);
+        DataType b = new DataType("b", Boolean.class);
+        DataType ary = new DataType("ary", Double.class);
+        ary.setArraySize("2");
+        DataGroup dg = new DataGroup("test", new DataType[] {d, f, i, l, s, b, ary});
+        dg.getTableMeta().setAttribute("key1", "value1");
+        for (int r = 0; r < rows; r++) {
+            DataObject row = new DataObject(dg);
+            boolean isNull = r % 10 == 3;
+            row.setDataElement(d, isNull ? null : r * 0.123456789e-3);
+            row.setDataElement(f, isNull ? null : r * 1.5f);
+            row.setDataElement(i, isNull ? null : r - 500);
+            row.setDataElement(l, isNull ? null : Long.MAX_VALUE - r);
+            row.setDataElement(s, isNull ? null : "row " + r + (r % 7 == 0 ? " \u00e9" : ""));
+            row.setDataElement(b, r % 2 == 0);
+            row.setDataElement(ary, isNull ? null : new double[] {r, r + 0.5});
+            dg.add(row);
+        }
+        return dg;
+    }
+}
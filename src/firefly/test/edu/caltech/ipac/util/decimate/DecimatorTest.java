@@ -0,0 +1,67 @@
+/*
+ * License information at https://github.com/Caltech-IPAC/firefly/blob/master/License.txt
+ */
+package edu.caltech.ipac.util.decimate;
+
+import edu.caltech.ipac.table.DataGroup;
+import edu.caltech.ipac.table.DataObject;
+import edu.caltech.ipac.table.DataType;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+
+public class DecimatorTest {
+
+    /**
+     * Every cell must have the same weight, and a representative row from the same cell, as counting the
+     * rows one by one with String keys.  The table is large enough to be split into several ranges.
+     */
+    @Test
+    public void sameCellsAsStringKeys() {
+        DataType[] cols = new DataType[] {
+                new DataType("x", Double.class),
+                new DataType("y", Float.class)
+        };
+        for (DataGroup.Storage storage : DataGroup.Storage.values()) {
+            DataGroup dg = new DataGroup("test", cols);
+            dg.setStorage(storage);
+            for (int i = 0; i < 300000; i++) {
+                DataObject row = new DataObject(dg);
+                row.setDataElement(cols[0], i % 101 == 0 ? null : Math.sin(i * .001) * 50);
+                row.setDataElement(cols[1], (float) ((i * 7919) % 1000) - 300);
+                dg.add(row);
+            }
+
+            double[] limits = {-40, 40, -Double.MAX_VALUE, Double.MAX_VALUE};
+            Decimator.Range range = Decimator.getRange(dg, "x", "y", limits);
+            Assert.assertEquals(storage + " x-min", -50, range.xMin, 1e-3);
+            Assert.assertEquals(storage + " y-max", 699, range.yMax, 0);
+
+            DecimateKey key = new DecimateKey(-40, range.yMin, 20, 30, 4.01, (range.yMax - range.yMin) / 29.9);
+            Map<String, Integer> expected = new HashMap<>();
+            int count = 0;
+            for (int i = 0; i < dg.size(); i++) {
+                double x = dg.getDouble("x", i);
+                double y = dg.getDouble("y", i);
+                if (Double.isNaN(x) || Double.isNaN(y)) continue;
+                count++;
+                if (x < limits[0] || x > limits[1]) continue;
+                expected.merge(key.getKey(x, y), 1, Integer::sum);
+            }
+            Assert.assertEquals(storage + " count", count, range.count);
+            Assert.assertEquals(storage + " outside", count - expected.values().stream().mapToInt(Integer::intValue).sum(), range.outside);
+
+            Decimator.Samples samples = Decimator.decimate(dg, "x", "y", key, limits);
+            Map<String, Integer> actual = new HashMap<>();
+            samples.forEach((cell, rowIdx, weight) -> {
+                String k = Decimator.toKeyString(cell);
+                Assert.assertEquals(storage + " row " + rowIdx, key.getKey(dg.getDouble("x", rowIdx), dg.getDouble("y", rowIdx)), k);
+                actual.put(k, weight);
+            });
+            Assert.assertEquals(storage + " cells", expected.size(), samples.size());
+            Assert.assertEquals(storage + " weights", expected, actual);
+        }
+    }
+}
@@ -174,6 +174,171 @@ public class HistogramTest extends ConfigTest {
 
     }
 
+    @Test
+    /**
+     * Large arrays are counted in parallel.  The result must be identical to the serial algorithm, including the
+     * passes that rebuild the histogram when the given range is bad or the data is not spread out.
+     */
+    public void testParallelMatchesSerial() {
+        int size = 3000000;
+        float[] big = new float[size];
+        java.util.Random rand = new java.util.Random(7);
+        for (int i = 0; i < size; i++) {
+            big[i] = i % 97 == 0 ? Float.NaN : (float) (rand.nextGaussian() * 50 + 200);
+        }
+        big[12345] = 90000f;        // an outlier to squeeze the data into a few bins
+
+        double[][] ranges = { {Double.NaN, Double.NaN}, {0, 400}, {150, 250}, {-1000, 100000} };
+        for (double[] range : ranges) {
+            Histogram parallel = new Histogram(big, range[0], range[1]);
+            SerialHistogram serial = new SerialHistogram(big, range[0], range[1]);
+            String desc = "range " + range[0] + " - " + range[1];
+            Assert.assertArrayEquals(desc, serial.hist, parallel.getHistogramArray());
+            Assert.assertEquals(desc, serial.histMin, parallel.getDNfromBin(0), 0);
+            Assert.assertEquals(desc, serial.histMin + serial.histBinsize, parallel.getDNfromBin(1), 0);
+            Assert.assertEquals(desc, serial.irafMin, parallel.getDNMin(), 0);
+            Assert.assertEquals(desc, serial.irafMax, parallel.getDNMax(), 0);
+            for (double pct : new double[] {0.5, 1, 16, 50, 84, 99, 99.5}) {
+                Assert.assertEquals(desc, getExpectedPctValue(serial.hist, pct, true, serial.histBinsize, serial.histMin),
+                                    parallel.get_pct(pct, true), delta);
+            }
+            Assert.assertFalse(parallel.isSampled());
+            Assert.assertEquals(0, parallel.getPercentileErrorBound(), 0);
+        }
+    }
+
+    @Test
+    public void testSampled() {
+        int size = 2000000;
+        float[] big = new float[size];
+        java.util.Random rand = new java.util.Random(11);
+        for (int i = 0; i < size; i++) big[i] = (float) (rand.nextGaussian() * 50 + 200);
+        float[] sorted = big.clone();
+        java.util.Arrays.sort(sorted);
+
+        checkSampled(big, sorted, 50000);
+    }
+
+    /**
+     * An image whose lines repeat every 40 pixels.  Every 40th pixel would always hit the same value;
+     * random samples must still be within the bound.
+     */
+    @Test
+    public void testSampledStructured() {
+        int size = 2000000;
+        float[] big = new float[size];
+        for (int i = 0; i < size; i++) big[i] = (float) ((i % 40) * 10 + (i / 40) % 7);
+        float[] sorted = big.clone();
+        java.util.Arrays.sort(sorted);
+
+        checkSampled(big, sorted, 50000);
+    }
+
+    private static void checkSampled(float[] big, float[] sorted, int maxSamples) {
+        int size = big.length;
+        Histogram sampled = Histogram.createSampled(big, Double.NaN, Double.NaN, maxSamples);
+        Assert.assertTrue(sampled.isSampled());
+        double bound = sampled.getPercentileErrorBound();
+        Assert.assertTrue("bound is small", bound > 0 && bound < 1);
+
+        for (double pct : new double[] {1, 16, 50, 84, 99}) {
+            double dn = sampled.get_pct(pct, false);
+            double actualPct = 100.0 * lowerBound(sorted, dn) / size;
+            double binPct = 100.0 * (lowerBound(sorted, dn + sampled.getDNfromBin(1) - sampled.getDNfromBin(0)) - lowerBound(sorted, dn)) / size;
+            Assert.assertEquals("pct " + pct, pct, actualPct, bound + binPct);
+        }
+    }
+
+    private static int lowerBound(float[] sorted, double v) {
+        int lo = 0, hi = sorted.length;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (sorted[mid] < v) lo = mid + 1; else hi = mid;
+        }
+        return lo;
+    }
+
+    /**
+     * The serial implementation of the Histogram constructor, before the scan was done in parallel.
+     */
+    private static class SerialHistogram {
+        int[] hist = new int[HISTSIZ2 + 1];
+        double histMin;
+        double histBinsize;
+        double irafMin;
+        double irafMax;
+
+        SerialHistogram(float[] float1dArray, double datamin, double datamax) {
+            if (Double.isNaN(datamin) || Double.isNaN(datamax)) {
+                datamax = -Double.MAX_VALUE;
+                datamin = Double.MAX_VALUE;
+                for (float v : float1dArray) {
+                    if (!Double.isNaN(v)) {
+                        if (v < datamin) datamin = v;
+                        if (v > datamax) datamax = v;
+                    }
+                }
+            }
+            double histDatamax = -Double.MAX_VALUE;
+            double histDatamin = Double.MAX_VALUE;
+            histMin = datamin;
+            double histMax = datamax;
+            boolean doing_redo = false;
+            while (true) {
+                boolean redo_flag = false;
+                histBinsize = (histMax - histMin) / HISTSIZ2;
+                if (histBinsize == 0.0) histBinsize = 1.0;
+                java.util.Arrays.fill(hist, 0);
+                int underflowCount = 0;
+                int overflowCount = 0;
+                for (float v : float1dArray) {
+                    if (!Double.isNaN(v)) {
+                        int i = (int) ((v - histMin) / histBinsize);
+                        if (i < 0) underflowCount++;
+                        else if (i > HISTSIZ2) overflowCount++;
+                        else hist[i]++;
+                        if (v < histDatamin) histDatamin = v;
+                        if (v > histDatamax) histDatamax = v;
+                    }
+                }
+                datamin = histDatamin;
+                datamax = histDatamax;
+                if (underflowCount > float1dArray.length * .01) redo_flag = true;
+                if (overflowCount > float1dArray.length * .01) redo_flag = true;
+                if (!redo_flag && !doing_redo) {
+                    int goodpix = 0;
+                    for (int i = 0; i < HISTSIZ2; i++) goodpix += hist[i];
+                    int lowLimit = (int) (goodpix * 0.0005);
+                    int histMaxIndex = -1, histMinIndex = -1;
+                    int sum = 0;
+                    for (int i = HISTSIZ2; i >= 0; i--) {
+                        sum += hist[i];
+                        if (sum > lowLimit) { histMaxIndex = i; break; }
+                    }
+                    histMaxIndex++;
+                    sum = 0;
+                    for (int i = 0; i < HISTSIZ2; i++) {
+                        sum += hist[i];
+                        if (sum > lowLimit) { histMinIndex = i; break; }
+                    }
+                    if (histMaxIndex == -1 || histMinIndex == -1) break;
+                    if ((histMaxIndex - histMinIndex) < HISTSIZ2 / 2) {
+                        histMax = (histMaxIndex * histBinsize) + histMin;
+                        histMin = (histMinIndex * histBinsize) + histMin;
+                        redo_flag = true;
+                    }
+                } else if (!doing_redo) {
+                    histMax = datamax;
+                    histMin = datamin;
+                }
+                if (!doing_redo && redo_flag) doing_redo = true;
+                else break;
+            }
+            irafMin = datamin;
+            irafMax = datamax;
+        }
+    }
+
     /**
      * This method calculates the expected pct value
      * @param histArray
@@ -0,0 +1,140 @@
+/*
+ * License information at https://github.com/Caltech-IPAC/firefly/blob/master/License.txt
+ */
+package edu.caltech.ipac.visualize.plot.plotdata;
+
+import edu.caltech.ipac.TestCategory;
+import nom.tam.fits.BasicHDU;
+import nom.tam.fits.Fits;
+import nom.tam.fits.Header;
+import nom.tam.fits.ImageHDU;
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+
+import java.util.function.Consumer;
+
+/**
+ * Checks that computing the output image of Geom in bands of lines, in parallel, and the affine fast path
+ * give the same image as one band.
+ */
+public class GeomBandTest {
+
+    @Test
+    public void parallelSameAsSerial() throws Exception {
+        Consumer<Geom> shifted = geom -> {
+            geom.override_crval1 = 150.5;
+            geom.n_override_crval1 = true;
+            geom.override_crota2 = 25;
+            geom.n_override_crota2 = true;
+        };
+        for (boolean bilinear : new boolean[] {false, true}) {
+            float[] serial = reproject(makeImage(400, 333), shifted.andThen(g -> {
+                g.interp_flag = bilinear;
+                g.min_parallel_pixels = Integer.MAX_VALUE;
+            }));
+            float[] parallel = reproject(makeImage(400, 333), shifted.andThen(g -> {
+                g.interp_flag = bilinear;
+                g.min_parallel_pixels = 0;
+            }));
+            Assert.assertArrayEquals("bilinear " + bilinear, serial, parallel, 0);
+        }
+    }
+
+    @Test
+    public void parallelSameAsSerialCar() throws Exception {
+        Consumer<Geom> shifted = geom -> {
+            geom.override_crval1 = 150.5;
+            geom.n_override_crval1 = true;
+            geom.override_crota2 = 25;
+            geom.n_override_crota2 = true;
+        };
+        float[] serial = reproject(makeImage(400, 333, "CAR"), shifted.andThen(g -> g.min_parallel_pixels = Integer.MAX_VALUE));
+        float[] parallel = reproject(makeImage(400, 333, "CAR"), shifted.andThen(g -> g.min_parallel_pixels = 0));
+        Assert.assertFalse("center is mapped", Float.isNaN(serial[serial.length / 2]));
+        Assert.assertArrayEquals(serial, parallel, 0);
+    }
+
+    @Test
+    public void affineSameAsTiePoints() throws Exception {
+        Consumer<Geom> rotated = geom -> {
+            geom.override_crota2 = 40;
+            geom.n_override_crota2 = true;
+            geom.interp_flag = true;
+        };
+        float[] ties = reproject(makeImage(300, 200), rotated.andThen(g -> g.affine_tolerance = -1));
+        float[] affine = reproject(makeImage(300, 200), rotated);
+        Assert.assertArrayEquals(ties, affine, 1e-3f);
+    }
+
+    @Category({TestCategory.Perf.class})
+    @Test
+    public void perfTest() throws Exception {
+        Consumer<Geom> northUp = geom -> {
+            geom.override_crval1 = 150.2;
+            geom.n_override_crval1 = true;
+            geom.override_crota2 = 33;
+            geom.n_override_crota2 = true;
+        };
+        reproject(makeImage(500, 500), northUp);          // warm up
+
+        long start = System.currentTimeMillis();
+        float[] serial = reproject(makeImage(2000, 2000), northUp.andThen(g -> g.min_parallel_pixels = Integer.MAX_VALUE));
+        long serialTime = System.currentTimeMillis() - start;
+
+        start = System.currentTimeMillis();
+        float[] parallel = reproject(makeImage(2000, 2000), northUp);
+        long parallelTime = System.currentTimeMillis() - start;
+
+        Assert.assertArrayEquals(serial, parallel, 0);
+        System.out.printf("2000x2000 with %d processors: serial %.2fs, parallel %.2fs%n",
+                Runtime.getRuntime().availableProcessors(), serialTime / 1000.0, parallelTime / 1000.0);
+    }
+
+//====================================================================
+//
+//====================================================================
+
+    private static float[] reproject(Fits inFits, Consumer<Geom> setup) throws Exception {
+        Geom geom = new Geom();
+        setup.accept(geom);
+        Fits outFits = geom.do_geom(inFits, null);
+        float[][] data = (float[][]) ((ImageHDU) outFits.getHDU(0)).getKernel();
+        float[] flat = new float[data.length * data[0].length];
+        for (int y = 0; y < data.length; y++) {
+            System.arraycopy(data[y], 0, flat, y * data[y].length, data[y].length);
+        }
+        return flat;
+    }
+
+    private static Fits makeImage(int naxis1, int naxis2) throws Exception {
+        return makeImage(naxis1, naxis2, "TAN");
+    }
+
+    /**
+     * An image of about a degree in the given projection, with a smooth pattern that shows any misplaced pixel.
+     */
+    private static Fits makeImage(int naxis1, int naxis2, String proj) throws Exception {
+        float[][] data = new float[naxis2][naxis1];
+        for (int y = 0; y < naxis2; y++) {
+            for (int x = 0; x < naxis1; x++) {
+                data[y][x] = (float) (Math.sin(x * 0.05) * Math.cos(y * 0.03) * 1000 + x + y * 0.5);
+            }
+        }
+        BasicHDU hdu = Fits.makeHDU(data);
+        Header header = hdu.getHeader();
+        header.addValue("CTYPE1", "RA---" + proj, null);
+        header.addValue("CTYPE2", "DEC--" + proj, null);
+        header.addValue("CRPIX1", naxis1 / 2.0, null);
+        header.addValue("CRPIX2", naxis2 / 2.0, null);
+        header.addValue("CRVAL1", 150.0, null);
+        header.addValue("CRVAL2", 2.0, null);
+        header.addValue("CDELT1", -1.0 / naxis1, null);
+        header.addValue("CDELT2", 1.0 / naxis1, null);
+        header.addValue("CROTA2", 10.0, null);
+        header.addValue("EQUINOX", 2000.0, null);
+        Fits fits = new Fits();
+        fits.addHDU(hdu);
+        return fits;
+    }
+}
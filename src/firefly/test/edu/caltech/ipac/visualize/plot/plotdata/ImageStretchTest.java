@@ -0,0 +1,168 @@
+/*
+ * License information at https://github.com/Caltech-IPAC/firefly/blob/master/License.txt
+ */
+package edu.caltech.ipac.visualize.plot.plotdata;
+
+import edu.caltech.ipac.firefly.server.visualize.DirectStretchUtils;
+import edu.caltech.ipac.firefly.visualize.Band;
+import edu.caltech.ipac.firefly.visualize.PlotState;
+import edu.caltech.ipac.firefly.visualize.WebPlotRequest;
+import edu.caltech.ipac.visualize.plot.ActiveFitsReadGroup;
+import edu.caltech.ipac.visualize.plot.Histogram;
+import edu.caltech.ipac.visualize.plot.ImageHeader;
+import edu.caltech.ipac.visualize.plot.RangeValues;
+import nom.tam.fits.Fits;
+import nom.tam.fits.FitsFactory;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class ImageStretchTest {
+
+    private static final int NAXIS1 = 37;
+    private static final int NAXIS2 = 23;
+    private static final int TILE = 10;
+
+    /**
+     * Stretching tiles directly into one buffer, reading the lines flipped, must give the same bytes as
+     * flipping the data first, then stretching each tile on its own.
+     */
+    @Test
+    public void flippedTilesMatch() {
+        float[] float1d = new float[NAXIS1 * NAXIS2];
+        for (int i = 0; i < float1d.length; i++) {
+            float1d[i] = i % 11 == 0 ? Float.NaN : (float) (Math.sin(i * .37) * 100 + i * .5);
+        }
+        ImageHeader imHead = new ImageHeader();
+        imHead.naxis1 = NAXIS1;
+        imHead.naxis2 = NAXIS2;
+        imHead.bscale = 1;
+        imHead.blank_value = Double.NaN;
+        Histogram hist = new Histogram(float1d, -200, 600);
+
+        int[] algorithms = {RangeValues.STRETCH_LINEAR, RangeValues.STRETCH_LOG, RangeValues.STRETCH_EQUAL, RangeValues.STRETCH_ASINH};
+        for (int algorithm : algorithms) {
+            RangeValues rv = new RangeValues(RangeValues.PERCENTAGE, 1, RangeValues.PERCENTAGE, 99, 10, 2,
+                                             algorithm, 25, 600, 120, (short) 0, Double.NaN, 1);
+            byte[] expected = stretchFlippedCopy(rv, float1d, imHead, hist);
+
+            byte[] actual = new byte[float1d.length];
+            double[] range = ImageStretch.getRange(rv, float1d, imHead, hist);
+            for (int x = 0; x < NAXIS1; x += TILE) {
+                for (int y = 0; y < NAXIS2; y += TILE) {
+                    int width = Math.min(TILE, NAXIS1 - x);
+                    int height = Math.min(TILE, NAXIS2 - y);
+                    int offset = x * NAXIS2 + y * width;
+                    ImageStretch.stretchTile8Bit(rv, float1d, actual, offset, true, imHead, hist, range,
+                                                 x, x + width - 1, y, y + height - 1);
+                }
+            }
+            Assert.assertArrayEquals("algorithm " + algorithm, expected, actual);
+        }
+    }
+
+    /**
+     * A hue preserving 3 color asinh stretch, done tile by tile in parallel, must give the same bytes as a serial
+     * stretch of the whole image.  The tiles share one RangeValues; the asinh stretch and Q value must be
+     * computed once, not by whichever tile runs first.
+     */
+    @Test
+    public void threeColorHuePreservingTilesMatch() throws Exception {
+        Band[] bands = {Band.RED, Band.GREEN, Band.BLUE};
+        FitsRead[] frAry = new FitsRead[3];
+        ActiveFitsReadGroup frGroup = new ActiveFitsReadGroup();
+        PlotState state = new PlotState();
+        state.setThreeColor(true);
+        RangeValues rv = makeHuePreservingRv();
+        for (int c = 0; c < 3; c++) {
+            float[][] data = new float[NAXIS2][NAXIS1];
+            for (int y = 0; y < NAXIS2; y++) {
+                for (int x = 0; x < NAXIS1; x++) {
+                    data[y][x] = (float) (Math.cos((x + 3 * c) * .41) * 50 + Math.sin(y * .23) * 30 + (c + 1) * (x + y));
+                    // outliers, so zscale differs from the data range
+                    if ((x * 7 + y) % 97 == 0) data[y][x] *= 40;
+                    else if ((x * 5 + y) % 89 == 0) data[y][x] = -1000;
+                }
+            }
+            Fits fits = new Fits();
+            fits.addHDU(FitsFactory.hduFactory(data));
+            frAry[c] = FitsReadFactory.createFitsReadArray(fits)[0];
+            frGroup.setFitsRead(bands[c], frAry[c]);
+            state.setWebPlotRequest(new WebPlotRequest(), bands[c], false);
+            state.setRangeValues(rv, bands[c]);
+        }
+
+        // serial: the whole image at once, from the flipped data, using fresh range values
+        RangeValues serialRv = makeHuePreservingRv();
+        RangeValues[] serialRvAry = {serialRv, serialRv, serialRv};
+        RGBIntensity rgbIntensity = new RGBIntensity();
+        for (int c = 0; c < 3; c++) rgbIntensity.addRangeValues(frAry, c, serialRv);
+        float[][] flippedAry = new float[3][];
+        byte[][] serialAry = new byte[3][];
+        ImageHeader[] imHeadAry = new ImageHeader[3];
+        Histogram[] histAry = new Histogram[3];
+        for (int c = 0; c < 3; c++) {
+            flippedAry[c] = DirectStretchUtils.flipFloatArray(frAry[c].getRawFloatAry(), NAXIS1, NAXIS2);
+            serialAry[c] = new byte[NAXIS1 * NAXIS2];
+            imHeadAry[c] = new ImageHeader(frAry[c].getHeader());
+            histAry[c] = frAry[c].getHistogram();
+        }
+        ImageStretch.stretchPixels3Color(serialRvAry, flippedAry, serialAry, imHeadAry, histAry, rgbIntensity,
+                                         0, NAXIS1 - 1, 0, NAXIS2 - 1);
+
+        byte[] parallel = DirectStretchUtils.getStretchData(state, frGroup, TILE);
+        try {
+            int pos = 0;
+            for (int x = 0; x < NAXIS1; x += TILE) {
+                for (int y = 0; y < NAXIS2; y += TILE) {
+                    int width = Math.min(TILE, NAXIS1 - x);
+                    int height = Math.min(TILE, NAXIS2 - y);
+                    for (int c = 0; c < 3; c++) {
+                        for (int j = y; j < y + height; j++) {
+                            for (int i = x; i < x + width; i++) {
+                                Assert.assertEquals("band " + c + " at " + i + "," + j,
+                                                    serialAry[c][j * NAXIS1 + i], parallel[pos++]);
+                            }
+                        }
+                    }
+                }
+            }
+            Assert.assertEquals(parallel.length, pos);
+        } finally {
+            DirectStretchUtils.releaseStretchData(parallel);
+        }
+    }
+
+    /**
+     * The overview of the progressive stretch is made from block averages, ignoring NaN.
+     */
+    @Test
+    public void blockAverage() {
+        float[] data = {1, 2, 3,
+                        3, Float.NaN, 5,
+                        Float.NaN, Float.NaN, 7};
+        float[] avg = DirectStretchUtils.blockAverage(data, 3, 3, 2);
+        Assert.assertArrayEquals(new float[] {2, 4, Float.NaN, 7}, avg, 1e-6f);
+    }
+
+    private static RangeValues makeHuePreservingRv() {
+        return new RangeValues(RangeValues.PERCENTAGE, 1, RangeValues.PERCENTAGE, 99, Double.NaN, 2,
+                               RangeValues.STRETCH_ASINH, 25, 600, 120, (short) 1, Double.NaN, 10);
+    }
+
+    private static byte[] stretchFlippedCopy(RangeValues rv, float[] float1d, ImageHeader imHead, Histogram hist) {
+        float[] flipped = DirectStretchUtils.flipFloatArray(float1d, NAXIS1, NAXIS2);
+        byte[] out = new byte[float1d.length];
+        int pos = 0;
+        for (int x = 0; x < NAXIS1; x += TILE) {
+            for (int y = 0; y < NAXIS2; y += TILE) {
+                int width = Math.min(TILE, NAXIS1 - x);
+                int height = Math.min(TILE, NAXIS2 - y);
+                byte[] tile = new byte[width * height];
+                ImageStretch.stretchPixels8Bit(rv, flipped, tile, imHead, hist, x, x + width - 1, y, y + height - 1);
+                System.arraycopy(tile, 0, out, pos, tile.length);
+                pos += tile.length;
+            }
+        }
+        return out;
+    }
+}
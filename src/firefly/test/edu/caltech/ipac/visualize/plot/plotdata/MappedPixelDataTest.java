@@ -0,0 +1,120 @@
+/*
+ * License information at https://github.com/Caltech-IPAC/firefly/blob/master/License.txt
+ */
+package edu.caltech.ipac.visualize.plot.plotdata;
+
+import edu.caltech.ipac.visualize.plot.ImagePt;
+import nom.tam.fits.BasicHDU;
+import nom.tam.fits.Fits;
+import nom.tam.fits.FitsFactory;
+import nom.tam.fits.ImageHDU;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.File;
+
+public class MappedPixelDataTest {
+
+    private static final int NAXIS1 = 17;
+    private static final int NAXIS2 = 11;
+
+    /**
+     * A mapped FitsRead must give the same pixels, flux, and histogram as one read into memory.
+     */
+    @Test
+    public void mappedMatchesRead() throws Exception {
+        short[][] shorts = new short[NAXIS2][NAXIS1];
+        float[][] floats = new float[NAXIS2][NAXIS1];
+        double[][][] cube = new double[3][NAXIS2][NAXIS1];
+        for (int y = 0; y < NAXIS2; y++) {
+            for (int x = 0; x < NAXIS1; x++) {
+                shorts[y][x] = (short) (x * 300 - y * 700);
+                floats[y][x] = (x + y) % 7 == 0 ? Float.NaN : (float) Math.sin(x * y * .1) * 50;
+                for (int p = 0; p < cube.length; p++) cube[p][y][x] = p * 1000 + x * .25 - y;
+            }
+        }
+
+        File f = File.createTempFile("mapped-", ".fits");
+        f.deleteOnExit();
+        Fits fits = new Fits();
+        ImageHDU hdu = (ImageHDU) FitsFactory.hduFactory(shorts);
+        hdu.addValue("BSCALE", 2.5, null);
+        hdu.addValue("BZERO", 100.0, null);
+        fits.addHDU(hdu);
+        hdu = (ImageHDU) FitsFactory.hduFactory(floats);
+        hdu.addValue("CDELT2", -.001, null);
+        fits.addHDU(hdu);
+        fits.addHDU(FitsFactory.hduFactory(cube));
+        fits.write(f);
+
+        FitsRead[] expected = FitsReadFactory.createFitsReadArray(new Fits(f).read(), false);
+        BasicHDU[] HDUs = new Fits(f).read();
+        FitsRead[] actual = FitsReadFactory.createFitsReadArray(HDUs, f, true);
+
+        Assert.assertEquals(5, expected.length);
+        Assert.assertEquals(expected.length, actual.length);
+        for (int i = 0; i < actual.length; i++) {
+            Assert.assertTrue("mapped " + i, actual[i].isMapped());
+            Assert.assertEquals(expected[i].getPlaneNumber(), actual[i].getPlaneNumber());
+            Assert.assertArrayEquals("pixels " + i, expected[i].getRawFloatAry(), actual[i].getRawFloatAry(), 0);
+            Assert.assertArrayEquals("physical " + i, expected[i].getDataFloat(), actual[i].getDataFloat(), 0);
+            Assert.assertArrayEquals("histogram " + i, expected[i].getHistogram().getHistogramArray(), actual[i].getHistogram().getHistogramArray());
+            float[] expectedRect = new float[6 * 4];
+            float[] actualRect = new float[6 * 4];
+            expected[i].getRawPixels(5, 3, 6, 4, expectedRect);
+            actual[i].getRawPixels(5, 3, 6, 4, actualRect);
+            Assert.assertArrayEquals("rectangle " + i, expectedRect, actualRect, 0);
+            for (int y = 0; y < NAXIS2; y += 3) {
+                for (int x = 0; x < NAXIS1; x += 4) {
+                    ImagePt pt = new ImagePt(x + .5, y + .5);
+                    Assert.assertEquals(expected[i].getFlux(pt), actual[i].getFlux(pt), 0);
+                }
+            }
+        }
+        Assert.assertEquals(100 + 2.5 * (3 * 300 - 2 * 700), actual[0].getFlux(new ImagePt(3.5, 2.5)), 0);
+    }
+
+    /**
+     * Pixels read into memory can be spilled to a file and mapped from it.
+     */
+    @Test
+    public void spill() throws Exception {
+        int[][] ints = new int[NAXIS2][NAXIS1];
+        for (int y = 0; y < NAXIS2; y++) {
+            for (int x = 0; x < NAXIS1; x++) ints[y][x] = x * 100000 - y;
+        }
+        ImageHDU hdu = (ImageHDU) FitsFactory.hduFactory(ints);
+        hdu.addValue("BSCALE", .5, null);
+        hdu.addValue("CDELT2", -.001, null);
+        Fits fits = new Fits();
+        fits.addHDU(hdu);
+        FitsRead fr = FitsReadFactory.createFitsReadArray(fits, true)[0];
+        float[] expected = fr.getRawFloatAry().clone();
+        double flux = fr.getFlux(new ImagePt(5.5, 7.5));
+
+        File f = File.createTempFile("spill-", ".dat");
+        f.deleteOnExit();
+        Assert.assertFalse(fr.isMapped());
+        Assert.assertTrue(fr.spillTo(f));
+        Assert.assertTrue(fr.isMapped());
+        Assert.assertEquals(expected.length * 4L, f.length());
+        Assert.assertFalse("already mapped", fr.spillTo(f));
+        Assert.assertArrayEquals(expected, fr.getRawFloatAry(), 0);
+        Assert.assertEquals(flux, fr.getFlux(new ImagePt(5.5, 7.5)), 0);
+    }
+
+    /**
+     * Without a file to map, or when the HDU is kept, the pixels are read into memory.
+     */
+    @Test
+    public void notMapped() throws Exception {
+        File f = File.createTempFile("mapped-", ".fits");
+        f.deleteOnExit();
+        Fits fits = new Fits();
+        fits.addHDU(FitsFactory.hduFactory(new float[NAXIS2][NAXIS1]));
+        fits.write(f);
+
+        Assert.assertFalse(FitsReadFactory.createFitsReadArray(new Fits(f).read(), f, false)[0].isMapped());
+        Assert.assertFalse(FitsReadFactory.createFitsReadArray(new Fits(f).read(), null, true)[0].isMapped());
+    }
+}
@@ -0,0 +1,149 @@
+/*
+ * License information at https://github.com/Caltech-IPAC/firefly/blob/master/License.txt
+ */
+package edu.caltech.ipac.visualize.plot.projection;
+
+import edu.caltech.ipac.TestCategory;
+import edu.caltech.ipac.visualize.plot.CoordinateSys;
+import edu.caltech.ipac.visualize.plot.ProjectionPt;
+import edu.caltech.ipac.visualize.plot.WorldPt;
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+
+import java.util.Random;
+
+/**
+ * Checks the array versions of getImageCoords and getWorldCoords against the one point versions.
+ */
+public class ProjectionBatchTest {
+
+    @Test
+    public void gnomonic() {
+        ProjectionParams params = makeParams(Projection.GNOMONIC);
+        verify(params, 1000);
+
+        params.crota2 = 0;
+        params.using_cd = true;
+        params.cd1_1 = -2.7e-4;
+        params.cd1_2 = 1.1e-5;
+        params.cd2_1 = 1.3e-5;
+        params.cd2_2 = 2.8e-4;
+        double det = params.cd1_1 * params.cd2_2 - params.cd1_2 * params.cd2_1;
+        params.dc1_1 = params.cd2_2 / det;
+        params.dc1_2 = -params.cd1_2 / det;
+        params.dc2_1 = -params.cd2_1 / det;
+        params.dc2_2 = params.cd1_1 / det;
+        verify(params, 1000);
+
+        params.map_distortion = true;
+        params.a_order = params.b_order = params.ap_order = params.bp_order = 2;
+        params.a[2][0] = 1e-6;
+        params.b[0][2] = -2e-6;
+        params.ap[2][0] = -1e-6;
+        params.bp[0][2] = 2e-6;
+        verify(params, 1000);
+    }
+
+    @Test
+    public void others() {
+        verify(makeParams(Projection.LINEAR), 1000);
+        verify(makeParams(Projection.CAR), 1000);
+        verify(makeParams(Projection.ARC), 1000);
+    }
+
+    @Test
+    public void parallel() {
+        verify(makeParams(Projection.GNOMONIC), Projection.PARALLEL_MIN_POINTS * 3 + 17);
+        verify(makeParams(Projection.ORTHOGRAPHIC), Projection.PARALLEL_MIN_POINTS + 1);
+    }
+
+    @Test
+    public void offImage() {
+        Projection proj = new Projection(makeParams(Projection.GNOMONIC), CoordinateSys.EQ_J2000);
+        double[] lon = {150.0, 330.0};
+        double[] lat = {2.0, -2.0};
+        proj.getImageCoords(lon, lat);
+        Assert.assertFalse(Double.isNaN(lon[0]));
+        Assert.assertTrue("the other side of the sky", Double.isNaN(lon[1]) && Double.isNaN(lat[1]));
+    }
+
+    @Category({TestCategory.Perf.class})
+    @Test
+    public void perfTest() {
+        Projection proj = new Projection(makeParams(Projection.GNOMONIC), CoordinateSys.EQ_J2000);
+        int n = 500000;
+        double[] x = new double[n];
+        double[] y = new double[n];
+        double[] scalarX = new double[n];
+        fillPixels(x, y, new Random(7));
+        proj.getWorldCoords(x.clone(), y.clone());      // warm up
+
+        long start = System.nanoTime();
+        for (int i = 0; i < n; i++) {
+            WorldPt wp = proj.getWorldCoordsSilent(x[i], y[i]);
+            scalarX[i] = proj.getImageCoordsSilent(wp.getX(), wp.getY()).getX();
+        }
+        long scalarTime = System.nanoTime() - start;
+
+        start = System.nanoTime();
+        proj.getWorldCoords(x, y);
+        proj.getImageCoords(x, y);
+        long batchTime = System.nanoTime() - start;
+
+        Assert.assertArrayEquals(scalarX, x, 1e-7);
+        System.out.printf("%,d points there and back: scalar %.3fs, batch %.3fs (%.1fx)%n",
+                n, scalarTime / 1e9, batchTime / 1e9, (double) scalarTime / batchTime);
+    }
+
+//====================================================================
+//
+//====================================================================
+
+    private static void verify(ProjectionParams params, int n) {
+        Projection proj = new Projection(params, CoordinateSys.EQ_J2000);
+        double[] x = new double[n];
+        double[] y = new double[n];
+        fillPixels(x, y, new Random(3));
+        double[] px = x.clone();
+        double[] py = y.clone();
+
+        proj.getWorldCoords(x, y);
+        for (int i = 0; i < n; i++) {
+            WorldPt wp = proj.getWorldCoordsSilent(px[i], py[i]);
+            Assert.assertEquals("lon at " + i, wp.getX(), x[i], 1e-9);
+            Assert.assertEquals("lat at " + i, wp.getY(), y[i], 1e-9);
+        }
+        double[] lon = x.clone();
+        double[] lat = y.clone();
+
+        proj.getImageCoords(x, y);
+        for (int i = 0; i < n; i++) {
+            ProjectionPt ip = proj.getImageCoordsSilent(lon[i], lat[i]);
+            Assert.assertEquals("x at " + i, ip.getX(), x[i], 1e-7);
+            Assert.assertEquals("y at " + i, ip.getY(), y[i], 1e-7);
+            if (!params.map_distortion) Assert.assertEquals("round trip", px[i], x[i], 1e-6);
+        }
+    }
+
+    private static void fillPixels(double[] x, double[] y, Random rand) {
+        for (int i = 0; i < x.length; i++) {
+            x[i] = rand.nextDouble() * 4000;
+            y[i] = rand.nextDouble() * 4000;
+        }
+    }
+
+    private static ProjectionParams makeParams(int maptype) {
+        ProjectionParams params = new ProjectionParams();
+        params.maptype = maptype;
+        params.naxis1 = params.naxis2 = 4000;
+        params.crpix1 = 2000.5;
+        params.crpix2 = 1999.5;
+        params.crval1 = 150.0;
+        params.crval2 = 2.0;
+        params.cdelt1 = -2.75e-4;
+        params.cdelt2 = 2.75e-4;
+        params.crota2 = 12.5;
+        return params;
+    }
+}